@@ -35,15 +35,21 @@ conditionalAnd
     : e=relation (ops+='&&' e1+=relation)*
     ;
 
+// the binary operator levels are flat loops rather than left-recursive rules, so the generated parser
+// does not evaluate precedence predicates or predict an alternative for every operator.
+// operators within a level are left associative.
+// this replaced the left-recursive calc rule and the binary relation rule, which changed the shape of the
+// parse tree contexts; see "Parse Trees" in the README.
 relation
-    : calc
-    | relation op=('<'|'<='|'>='|'>'|'=='|'!='|'in') relation
+    : e=additive (ops+=('<'|'<='|'>='|'>'|'=='|'!='|'in') e1+=additive)*
     ;
 
-calc
-    : unary
-    | calc op=('*'|'/'|'%') calc
-    | calc op=('+'|'-') calc
+additive
+    : e=multiplicative (ops+=('+'|'-') e1+=multiplicative)*
+    ;
+
+multiplicative
+    : e=unary (ops+=('*'|'/'|'%') e1+=unary)*
     ;
 
 unary
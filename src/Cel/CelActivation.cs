@@ -0,0 +1,126 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Cel.Internal;
+
+namespace Cel;
+
+/// <summary>
+/// The variable values for one evaluation of a program compiled with <see cref="CelEnvironment.Compile(string, CelVariableLayout)"/>, stored by slot.
+/// A variable that has not been set is missing from the evaluation, in the same way as a variable that is missing from a dictionary of variables.
+/// An activation can be reused for many evaluations, but not by several threads at once.
+/// </summary>
+public sealed class CelActivation
+{
+    private static readonly object Unset = new();
+
+    private readonly object?[] _values;
+
+    public CelActivation(CelVariableLayout layout)
+    {
+        Layout = layout ?? throw new ArgumentNullException(nameof(layout));
+        _values = new object?[layout.Count];
+        TryGetVariable = TryGetVariableByName;
+
+        Clear();
+    }
+
+    public CelVariableLayout Layout { get; }
+
+    public object? this[int slot]
+    {
+        get
+        {
+            ValidateSlot(slot);
+            return TryGetValue(slot, out var value) ? value : null;
+        }
+        set
+        {
+            ValidateSlot(slot);
+            _values[slot] = value;
+        }
+    }
+
+    public object? this[string variableName]
+    {
+        get => this[GetDeclaredSlot(variableName)];
+        set => this[GetDeclaredSlot(variableName)] = value;
+    }
+
+    public bool IsSet(int slot)
+    {
+        ValidateSlot(slot);
+        return !ReferenceEquals(_values[slot], Unset);
+    }
+
+    /// <summary>
+    /// Unsets every variable so that the activation can be filled for the next evaluation.
+    /// </summary>
+    public void Clear()
+    {
+        for (var i = 0; i < _values.Length; i++)
+        {
+            _values[i] = Unset;
+        }
+    }
+
+    /// <summary>
+    /// The lookup passed to the compiled expression.  <see cref="CelVariableReference"/> recognizes it and reads variables by slot,
+    /// so lookup by name is only used for names that are not known when the expression is compiled.
+    /// </summary>
+    internal TryGetVariableDelegate TryGetVariable { get; }
+
+    internal bool TryGetValue(int slot, out object? value)
+    {
+        value = _values[slot];
+        if (!ReferenceEquals(value, Unset))
+        {
+            return true;
+        }
+
+        value = null;
+        return false;
+    }
+
+    private bool TryGetVariableByName(string variableName, out object? value)
+    {
+        var slot = Layout.GetSlot(variableName);
+        if (slot >= 0)
+        {
+            return TryGetValue(slot, out value);
+        }
+
+        value = null;
+        return false;
+    }
+
+    private int GetDeclaredSlot(string variableName)
+    {
+        var slot = Layout.GetSlot(variableName);
+        if (slot < 0)
+        {
+            throw new ArgumentException($"Variable '{variableName}' is not declared in the layout.", nameof(variableName));
+        }
+
+        return slot;
+    }
+
+    private void ValidateSlot(int slot)
+    {
+        if (slot < 0 || slot >= _values.Length)
+        {
+            throw new ArgumentOutOfRangeException(nameof(slot));
+        }
+    }
+}
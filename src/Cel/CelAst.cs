@@ -0,0 +1,157 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Cel.Internal;
+
+namespace Cel;
+
+/// <summary>
+/// An immutable abstract syntax tree stored in flat primitive arrays.
+/// Nodes are identified by int ids and their children are stored as contiguous ranges of a single child array.
+/// Identifiers and literal text are interned in a per-tree symbol table, so the tree keeps no references to the ANTLR parse tree or its tokens.
+/// </summary>
+public sealed class CelAst
+{
+    #region Declarations
+
+    internal const byte OptionalFlag = 1;
+    internal const byte LeadingDotFlag = 2;
+    internal const byte OptionalElementFlag = 4;
+
+    private readonly byte[] _kinds;
+    private readonly byte[] _flags;
+    private readonly int[] _symbols;
+    private readonly int[] _childOffsets;
+    private readonly int[] _children;
+    private readonly int[] _startOffsets;
+    private readonly int[] _stopOffsets;
+    private readonly string[] _symbolTable;
+
+    #endregion
+
+    #region Constructor
+
+    internal CelAst(int root, byte[] kinds, byte[] flags, int[] symbols, int[] childOffsets, int[] children, int[] startOffsets, int[] stopOffsets, string[] symbolTable)
+    {
+        Root = root;
+        _kinds = kinds;
+        _flags = flags;
+        _symbols = symbols;
+        _childOffsets = childOffsets;
+        _children = children;
+        _startOffsets = startOffsets;
+        _stopOffsets = stopOffsets;
+        _symbolTable = symbolTable;
+    }
+
+    /// <summary>
+    /// Lowers a parse tree into a flat syntax tree.  The parse tree is not referenced afterwards.
+    /// </summary>
+    public static CelAst FromParseTree(CelParser.StartContext context)
+    {
+        if (context == null)
+        {
+            throw new ArgumentNullException(nameof(context));
+        }
+
+        return new CelAstLowering().Lower(context);
+    }
+
+    #endregion
+
+    #region Nodes
+
+    public int Root { get; }
+
+    public int NodeCount => _kinds.Length;
+
+    public IReadOnlyList<string> SymbolTable => _symbolTable;
+
+    public CelAstNodeKind GetKind(int node)
+    {
+        return (CelAstNodeKind)_kinds[node];
+    }
+
+    /// <summary>
+    /// True for optional map entries, message fields, selections and indexes (the '?' syntax).
+    /// </summary>
+    public bool IsOptional(int node)
+    {
+        return (_flags[node] & OptionalFlag) != 0;
+    }
+
+    /// <summary>
+    /// True for the elements of a list that are marked optional (the '?' syntax).  The element is the node itself, so an optional selection
+    /// or index used as an optional element is both <see cref="IsOptional"/> and <see cref="IsOptionalElement"/>.
+    /// </summary>
+    public bool IsOptionalElement(int node)
+    {
+        return (_flags[node] & OptionalElementFlag) != 0;
+    }
+
+    /// <summary>
+    /// True for identifiers, global calls and message creations that are resolved from the root scope (the leading '.' syntax).
+    /// </summary>
+    public bool HasLeadingDot(int node)
+    {
+        return (_flags[node] & LeadingDotFlag) != 0;
+    }
+
+    /// <summary>
+    /// The index of the node's symbol in <see cref="SymbolTable"/>, or -1 if the node has no symbol.
+    /// </summary>
+    public int GetSymbolId(int node)
+    {
+        return _symbols[node];
+    }
+
+    public string? GetSymbol(int node)
+    {
+        var symbolId = _symbols[node];
+        return symbolId < 0 ? null : _symbolTable[symbolId];
+    }
+
+    public int GetChildCount(int node)
+    {
+        return _childOffsets[node + 1] - _childOffsets[node];
+    }
+
+    public int GetChild(int node, int index)
+    {
+        if (index < 0 || index >= GetChildCount(node))
+        {
+            throw new ArgumentOutOfRangeException(nameof(index));
+        }
+
+        return _children[_childOffsets[node] + index];
+    }
+
+    /// <summary>
+    /// The zero based character offset of the first character of the node in the expression.
+    /// </summary>
+    public int GetStartOffset(int node)
+    {
+        return _startOffsets[node];
+    }
+
+    /// <summary>
+    /// The zero based character offset of the last character of the node in the expression.
+    /// </summary>
+    public int GetStopOffset(int node)
+    {
+        return _stopOffsets[node];
+    }
+
+    #endregion
+}
@@ -0,0 +1,90 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+public enum CelAstNodeKind : byte
+{
+    /// <summary>e ? e1 : e2, with the three operands as children.</summary>
+    Conditional,
+
+    /// <summary>e || e1 || ..., with every operand as a child.</summary>
+    LogicalOr,
+
+    /// <summary>e &amp;&amp; e1 &amp;&amp; ..., with every operand as a child.</summary>
+    LogicalAnd,
+
+    /// <summary>A binary relation or arithmetic operator.  The symbol is the operator text.</summary>
+    Binary,
+
+    /// <summary>!e, with the operand as the child.</summary>
+    LogicalNot,
+
+    /// <summary>-e, with the operand as the child.</summary>
+    Negate,
+
+    /// <summary>An identifier.  The symbol is the identifier name.</summary>
+    Ident,
+
+    /// <summary>e.f, with the operand as the child.  The symbol is the field name.</summary>
+    Select,
+
+    /// <summary>f(args), with the arguments as children.  The symbol is the function name.</summary>
+    GlobalCall,
+
+    /// <summary>e.f(args), with the target and then the arguments as children.  The symbol is the function name.</summary>
+    MemberCall,
+
+    /// <summary>e[i], with the operand and the index as children.</summary>
+    Index,
+
+    /// <summary>[e, ...], with the elements as children.</summary>
+    CreateList,
+
+    /// <summary>{k: v, ...}, with a <see cref="MapEntry"/> child per entry.</summary>
+    CreateMap,
+
+    /// <summary>k: v inside a map, with the key and the value as children.</summary>
+    MapEntry,
+
+    /// <summary>T{f: v, ...}, with a <see cref="FieldEntry"/> child per field.  The symbol is the qualified message name.</summary>
+    CreateMessage,
+
+    /// <summary>f: v inside a message, with the value as the child.  The symbol is the field name.</summary>
+    FieldEntry,
+
+    /// <summary>A signed integer literal.  The symbol is the literal text, including the sign.</summary>
+    Int,
+
+    /// <summary>An unsigned integer literal.  The symbol is the literal text.</summary>
+    Uint,
+
+    /// <summary>A double literal.  The symbol is the literal text, including the sign.</summary>
+    Double,
+
+    /// <summary>A string literal.  The symbol is the quoted literal text.</summary>
+    String,
+
+    /// <summary>A bytes literal.  The symbol is the quoted literal text.</summary>
+    Bytes,
+
+    /// <summary>The literal true.</summary>
+    True,
+
+    /// <summary>The literal false.</summary>
+    False,
+
+    /// <summary>The literal null.</summary>
+    Null
+}
@@ -0,0 +1,32 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+/// <summary>
+/// How a compiled expression is evaluated.
+/// </summary>
+public enum CelBackend
+{
+    /// <summary>
+    /// Evaluates the expression by invoking a tree of delegates, one for each node.  Compiling is fast, which suits expressions that are evaluated a few times.
+    /// </summary>
+    Interpreter,
+
+    /// <summary>
+    /// Compiles the expression to IL through an expression tree.  The logical operators, the conditional, comparisons and arithmetic are emitted inline,
+    /// so compiling is slower but evaluation is faster, which suits hot expressions that are evaluated many times.
+    /// </summary>
+    ExpressionTree
+}
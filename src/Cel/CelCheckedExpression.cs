@@ -0,0 +1,85 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime.Tree;
+using static Cel.Internal.CelParser;
+
+namespace Cel;
+
+/// <summary>
+/// A parse tree annotated by the type checker, modelled on the CEL checked expression format: every node of the tree has a type,
+/// and every operator and function call whose overload could be resolved from the types of its operands has an overload id.
+/// Nodes whose type is only known when the expression is evaluated have the type <see cref="CelCheckedType.Dyn"/>.
+/// </summary>
+public sealed class CelCheckedExpression
+{
+    #region Declarations
+
+    private readonly Dictionary<IParseTree, CelCheckedType> _types;
+    private readonly Dictionary<IParseTree, string?[]> _overloadIds;
+
+    #endregion
+
+    #region Constructor
+
+    internal CelCheckedExpression(StartContext context, Dictionary<IParseTree, CelCheckedType> types, Dictionary<IParseTree, string?[]> overloadIds, IReadOnlyList<string> errors)
+    {
+        Context = context;
+        _types = types;
+        _overloadIds = overloadIds;
+        Errors = errors;
+    }
+
+    #endregion
+
+    #region Public
+
+    public StartContext Context { get; }
+
+    public CelCheckedType ResultType => GetNodeType(Context);
+
+    /// <summary>
+    /// The type errors found in the expression.  The checker reports every error it finds rather than stopping at the first one.
+    /// </summary>
+    public IReadOnlyList<string> Errors { get; }
+
+    public bool HasErrors => Errors.Count > 0;
+
+    public CelCheckedType GetNodeType(IParseTree node)
+    {
+        if (node == null)
+        {
+            throw new ArgumentNullException(nameof(node));
+        }
+
+        return _types.TryGetValue(node, out var type) ? type : CelCheckedType.Dyn;
+    }
+
+    /// <summary>
+    /// Returns the overload id of each operator of the node, in the order the operators appear, for example <c>add_int64</c>.
+    /// Nodes such as <c>a + b - c</c> apply several operators; calls have a single overload id.
+    /// The id is null for operators that are resolved when the expression is evaluated because an operand is <c>dyn</c>.
+    /// </summary>
+    public IReadOnlyList<string?> GetOverloadIds(IParseTree node)
+    {
+        if (node == null)
+        {
+            throw new ArgumentNullException(nameof(node));
+        }
+
+        return _overloadIds.TryGetValue(node, out var overloadIds) ? overloadIds : Array.Empty<string?>();
+    }
+
+    #endregion
+}
@@ -0,0 +1,161 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Google.Protobuf.Reflection;
+
+namespace Cel;
+
+/// <summary>
+/// The static type of a variable or of an expression node, following the types of the CEL checked expression format.
+/// List and map types carry their element types and message types carry their descriptor.  Types are immutable and compared by value.
+/// </summary>
+public sealed class CelCheckedType : IEquatable<CelCheckedType>
+{
+    #region Constructor
+
+    private CelCheckedType(CelTypeKind kind, CelCheckedType? elementType = null, CelCheckedType? keyType = null, CelCheckedType? valueType = null, MessageDescriptor? messageDescriptor = null)
+    {
+        Kind = kind;
+        ElementType = elementType;
+        KeyType = keyType;
+        ValueType = valueType;
+        MessageDescriptor = messageDescriptor;
+    }
+
+    public static CelCheckedType Dyn { get; } = new(CelTypeKind.Dyn);
+    public static CelCheckedType Null { get; } = new(CelTypeKind.Null);
+    public static CelCheckedType Bool { get; } = new(CelTypeKind.Bool);
+    public static CelCheckedType Int { get; } = new(CelTypeKind.Int);
+    public static CelCheckedType Uint { get; } = new(CelTypeKind.Uint);
+    public static CelCheckedType Double { get; } = new(CelTypeKind.Double);
+    public static CelCheckedType String { get; } = new(CelTypeKind.String);
+    public static CelCheckedType Bytes { get; } = new(CelTypeKind.Bytes);
+    public static CelCheckedType Timestamp { get; } = new(CelTypeKind.Timestamp);
+    public static CelCheckedType Duration { get; } = new(CelTypeKind.Duration);
+    public static CelCheckedType Type { get; } = new(CelTypeKind.Type);
+
+    public static CelCheckedType ListOf(CelCheckedType elementType)
+    {
+        if (elementType == null)
+        {
+            throw new ArgumentNullException(nameof(elementType));
+        }
+
+        return new CelCheckedType(CelTypeKind.List, elementType: elementType);
+    }
+
+    public static CelCheckedType MapOf(CelCheckedType keyType, CelCheckedType valueType)
+    {
+        if (keyType == null)
+        {
+            throw new ArgumentNullException(nameof(keyType));
+        }
+
+        if (valueType == null)
+        {
+            throw new ArgumentNullException(nameof(valueType));
+        }
+
+        return new CelCheckedType(CelTypeKind.Map, keyType: keyType, valueType: valueType);
+    }
+
+    public static CelCheckedType MessageOf(MessageDescriptor messageDescriptor)
+    {
+        if (messageDescriptor == null)
+        {
+            throw new ArgumentNullException(nameof(messageDescriptor));
+        }
+
+        return new CelCheckedType(CelTypeKind.Message, messageDescriptor: messageDescriptor);
+    }
+
+    #endregion
+
+    #region Public
+
+    public CelTypeKind Kind { get; }
+
+    public CelCheckedType? ElementType { get; }
+
+    public CelCheckedType? KeyType { get; }
+
+    public CelCheckedType? ValueType { get; }
+
+    public MessageDescriptor? MessageDescriptor { get; }
+
+    public bool IsDyn => Kind == CelTypeKind.Dyn;
+
+    public bool Equals(CelCheckedType? other)
+    {
+        if (ReferenceEquals(this, other))
+        {
+            return true;
+        }
+
+        if (other == null || Kind != other.Kind)
+        {
+            return false;
+        }
+
+        return Kind switch
+        {
+            CelTypeKind.List => ElementType!.Equals(other.ElementType),
+            CelTypeKind.Map => KeyType!.Equals(other.KeyType) && ValueType!.Equals(other.ValueType),
+            CelTypeKind.Message => MessageDescriptor!.FullName == other.MessageDescriptor!.FullName,
+            _ => true
+        };
+    }
+
+    public override bool Equals(object? obj)
+    {
+        return Equals(obj as CelCheckedType);
+    }
+
+    public override int GetHashCode()
+    {
+        return Kind switch
+        {
+            CelTypeKind.List => ((int)Kind * 31) ^ ElementType!.GetHashCode(),
+            CelTypeKind.Map => ((int)Kind * 31) ^ KeyType!.GetHashCode() ^ (ValueType!.GetHashCode() * 17),
+            CelTypeKind.Message => MessageDescriptor!.FullName.GetHashCode(),
+            _ => (int)Kind
+        };
+    }
+
+    /// <summary>
+    /// Returns the CEL name of the type, for example <c>list(int)</c> or <c>map(string, dyn)</c>.
+    /// </summary>
+    public override string ToString()
+    {
+        return Kind switch
+        {
+            CelTypeKind.Dyn => "dyn",
+            CelTypeKind.Null => "null_type",
+            CelTypeKind.Bool => "bool",
+            CelTypeKind.Int => "int",
+            CelTypeKind.Uint => "uint",
+            CelTypeKind.Double => "double",
+            CelTypeKind.String => "string",
+            CelTypeKind.Bytes => "bytes",
+            CelTypeKind.Timestamp => "google.protobuf.Timestamp",
+            CelTypeKind.Duration => "google.protobuf.Duration",
+            CelTypeKind.List => $"list({ElementType})",
+            CelTypeKind.Map => $"map({KeyType}, {ValueType})",
+            CelTypeKind.Message => MessageDescriptor!.FullName,
+            _ => "type"
+        };
+    }
+
+    #endregion
+}
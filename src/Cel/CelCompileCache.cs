@@ -0,0 +1,113 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Runtime.CompilerServices;
+using Cel.Internal;
+
+namespace Cel;
+
+/// <summary>
+/// Caches compiled expressions by expression text, environment, backend and the environment settings that change the result,
+/// so that compiling the same expression again skips lexing, parsing and compilation.
+/// The cache is bounded by <see cref="MaximumSize"/> and evicts with a frequency-aware (W-TinyLFU) policy that keeps popular expressions
+/// cached through bursts of one-off expressions.  When several threads compile the same expression at the same time it is compiled once.
+/// A cache can be shared between environments or scoped to a single environment.  Entries do not reference the environment that compiled them,
+/// so a shared cache does not keep environments alive; their entries are evicted as other expressions are compiled, or by <see cref="Clear"/>.
+/// </summary>
+public sealed class CelCompileCache
+{
+    public const int DefaultMaximumSize = 10000;
+
+    private readonly TinyLfuCache<CacheKey, CelExpressionDelegate> _cache;
+
+    public CelCompileCache() : this(DefaultMaximumSize) { }
+
+    public CelCompileCache(int maximumSize)
+    {
+        if (maximumSize <= 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(maximumSize));
+        }
+
+        _cache = new TinyLfuCache<CacheKey, CelExpressionDelegate>(maximumSize);
+    }
+
+    public int MaximumSize => _cache.MaximumSize;
+
+    /// <summary>
+    /// The number of compiled expressions currently held by the cache.
+    /// </summary>
+    public int Count => _cache.Count;
+
+    /// <summary>
+    /// Returns a snapshot of the cache counters.  The counters are cumulative and are not reset by <see cref="Clear"/>.
+    /// </summary>
+    public CelCompileCacheStatistics GetStatistics()
+    {
+        return new CelCompileCacheStatistics(_cache.HitCount,
+                                             _cache.MissCount,
+                                             _cache.EvictionCount,
+                                             _cache.LoadSuccessCount,
+                                             _cache.LoadFailureCount,
+                                             _cache.TotalLoadTime);
+    }
+
+    public void Clear()
+    {
+        _cache.Clear();
+    }
+
+    internal CelExpressionDelegate GetOrAdd(object scope, CelCompileSettings settings, string expression, CelBackend backend, Func<string, CelExpressionDelegate> compile)
+    {
+        return _cache.GetOrAdd(new CacheKey(scope, settings, expression, backend), key => compile(key.Expression));
+    }
+
+    /// <summary>
+    /// Scopes are compared by reference because the functions and types an environment registers change what an expression compiles to.
+    /// Each environment uses its own scope object rather than itself so that the cache does not keep it alive.
+    /// </summary>
+    private readonly struct CacheKey : IEquatable<CacheKey>
+    {
+        public CacheKey(object scope, CelCompileSettings settings, string expression, CelBackend backend)
+        {
+            Scope = scope;
+            Settings = settings;
+            Expression = expression;
+            Backend = backend;
+        }
+
+        public object Scope { get; }
+        public CelCompileSettings Settings { get; }
+        public string Expression { get; }
+        public CelBackend Backend { get; }
+
+        public bool Equals(CacheKey other)
+        {
+            return ReferenceEquals(Scope, other.Scope) && Settings.Equals(other.Settings) && string.Equals(Expression, other.Expression, StringComparison.Ordinal) && Backend == other.Backend;
+        }
+
+        public override bool Equals(object? obj)
+        {
+            return obj is CacheKey other && Equals(other);
+        }
+
+        public override int GetHashCode()
+        {
+            unchecked
+            {
+                return ((RuntimeHelpers.GetHashCode(Scope) * 397 ^ Settings.GetHashCode()) * 397 ^ StringComparer.Ordinal.GetHashCode(Expression)) * 397 ^ (int)Backend;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+/// <summary>
+/// A point-in-time snapshot of the counters of a <see cref="CelCompileCache"/>.
+/// </summary>
+public sealed class CelCompileCacheStatistics
+{
+    internal CelCompileCacheStatistics(long hitCount, long missCount, long evictionCount, long loadSuccessCount, long loadFailureCount, TimeSpan totalLoadTime)
+    {
+        HitCount = hitCount;
+        MissCount = missCount;
+        EvictionCount = evictionCount;
+        LoadSuccessCount = loadSuccessCount;
+        LoadFailureCount = loadFailureCount;
+        TotalLoadTime = totalLoadTime;
+    }
+
+    public long HitCount { get; }
+
+    public long MissCount { get; }
+
+    public long RequestCount => HitCount + MissCount;
+
+    public double HitRate => RequestCount == 0 ? 1.0 : (double)HitCount / RequestCount;
+
+    /// <summary>
+    /// The number of compiled expressions removed by the eviction policy.
+    /// </summary>
+    public long EvictionCount { get; }
+
+    /// <summary>
+    /// The number of expressions that were compiled.  Concurrent misses for the same expression that share a single compilation count once.
+    /// </summary>
+    public long LoadSuccessCount { get; }
+
+    /// <summary>
+    /// The number of compilations that threw, for example because the expression is invalid.  Failures are not cached.
+    /// </summary>
+    public long LoadFailureCount { get; }
+
+    /// <summary>
+    /// The total time spent parsing and compiling expressions on cache misses.
+    /// </summary>
+    public TimeSpan TotalLoadTime { get; }
+
+    public TimeSpan AverageLoadTime
+    {
+        get
+        {
+            var loadCount = LoadSuccessCount + LoadFailureCount;
+            return loadCount == 0 ? TimeSpan.Zero : TimeSpan.FromTicks(TotalLoadTime.Ticks / loadCount);
+        }
+    }
+
+    public override string ToString()
+    {
+        return $"Hits: {HitCount}, Misses: {MissCount}, Hit Rate: {HitRate:P1}, Evictions: {EvictionCount}, Loads: {LoadSuccessCount}, Load Failures: {LoadFailureCount}, Average Load Time: {AverageLoadTime}";
+    }
+}
@@ -0,0 +1,96 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+/// <summary>
+/// The prediction statistics of one grammar decision, accumulated over every profiled parse.
+/// Lookahead is the number of tokens the parser had to look at to choose an alternative.
+/// </summary>
+public sealed class CelDecisionProfile
+{
+    internal CelDecisionProfile(int decision,
+                                string ruleName,
+                                long invocations,
+                                TimeSpan timeInPrediction,
+                                long sllLookaheadTotal,
+                                long sllMaxLookahead,
+                                long llFallbacks,
+                                long llLookaheadTotal,
+                                long llMaxLookahead,
+                                long ambiguities,
+                                long contextSensitivities,
+                                long errors,
+                                long predicateEvaluations)
+    {
+        Decision = decision;
+        RuleName = ruleName;
+        Invocations = invocations;
+        TimeInPrediction = timeInPrediction;
+        SllLookaheadTotal = sllLookaheadTotal;
+        SllMaxLookahead = sllMaxLookahead;
+        LlFallbacks = llFallbacks;
+        LlLookaheadTotal = llLookaheadTotal;
+        LlMaxLookahead = llMaxLookahead;
+        Ambiguities = ambiguities;
+        ContextSensitivities = contextSensitivities;
+        Errors = errors;
+        PredicateEvaluations = predicateEvaluations;
+    }
+
+    /// <summary>
+    /// The decision number in the generated parser's ATN.
+    /// </summary>
+    public int Decision { get; }
+
+    /// <summary>
+    /// The grammar rule that contains the decision.
+    /// </summary>
+    public string RuleName { get; }
+
+    public long Invocations { get; }
+
+    public TimeSpan TimeInPrediction { get; }
+
+    public long SllLookaheadTotal { get; }
+
+    public long SllMaxLookahead { get; }
+
+    public double SllAverageLookahead => Invocations == 0 ? 0 : (double)SllLookaheadTotal / Invocations;
+
+    /// <summary>
+    /// The number of predictions where SLL found a conflict and full LL prediction had to be used.
+    /// </summary>
+    public long LlFallbacks { get; }
+
+    public long LlLookaheadTotal { get; }
+
+    public long LlMaxLookahead { get; }
+
+    public double LlAverageLookahead => LlFallbacks == 0 ? 0 : (double)LlLookaheadTotal / LlFallbacks;
+
+    public long Ambiguities { get; }
+
+    /// <summary>
+    /// The number of predictions where SLL and full LL prediction chose different alternatives.
+    /// </summary>
+    public long ContextSensitivities { get; }
+
+    /// <summary>
+    /// The number of predictions that failed because of a syntax error.
+    /// </summary>
+    public long Errors { get; }
+
+    public long PredicateEvaluations { get; }
+}
@@ -0,0 +1,74 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using static Cel.Internal.CelParser;
+
+namespace Cel;
+
+/// <summary>
+/// An expression and its parse tree, kept together so that the expression can be re-parsed incrementally after an edit
+/// with <see cref="CelEnvironment.Reparse"/>.
+/// </summary>
+public sealed class CelEditableExpression
+{
+    private int _consumed;
+
+    internal CelEditableExpression(string text, StartContext tree, List<IToken> tokens, bool canReparseIncrementally)
+    {
+        Text = text;
+        Tree = tree;
+        Tokens = tokens;
+        CanReparseIncrementally = canReparseIncrementally;
+    }
+
+    public string Text { get; }
+
+    /// <summary>
+    /// The parse tree.  An incremental re-parse updates this tree in place, so the same instance may be returned for the edited expression.
+    /// Once that has happened the tree belongs to the edited expression and no longer matches <see cref="Text"/>.
+    /// </summary>
+    public StartContext Tree { get; }
+
+    /// <summary>
+    /// Every token of the expression, including hidden tokens, indexed by <see cref="IToken.TokenIndex"/>.
+    /// </summary>
+    internal List<IToken> Tokens { get; }
+
+    /// <summary>
+    /// False when the tokens cannot be moved to a new input stream, in which case every edit is fully re-parsed.
+    /// </summary>
+    internal bool CanReparseIncrementally { get; }
+
+    /// <summary>
+    /// True once an incremental re-parse has taken over <see cref="Tree"/> and <see cref="Tokens"/>.
+    /// </summary>
+    internal bool IsConsumed => Volatile.Read(ref _consumed) != 0;
+
+    /// <summary>
+    /// Claims the tree and tokens for an incremental re-parse.  Returns false if another re-parse already claimed them.
+    /// </summary>
+    internal bool TryConsume()
+    {
+        return Interlocked.CompareExchange(ref _consumed, 1, 0) == 0;
+    }
+
+    /// <summary>
+    /// Gives the tree and tokens back after an incremental re-parse that failed and restored them.
+    /// </summary>
+    internal void Release()
+    {
+        Volatile.Write(ref _consumed, 0);
+    }
+}
@@ -12,7 +12,7 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-using Antlr4.Runtime;
+using System.Text;
 using Cel.Internal;
 using Google.Protobuf.Reflection;
 using Google.Protobuf.WellKnownTypes;
@@ -23,14 +23,23 @@ namespace Cel;
 
 public delegate object? CelProgramDelegate(IDictionary<string, object?> variables);
 
+public delegate object? CelActivationProgramDelegate(CelActivation activation);
+
 public class CelEnvironment : ICelEnvironment
 {
+    public const int DefaultMaximumNestingDepth = 250;
+
     private CelVisitor CelVisitor { get; }
+    private CelExpressionTreeCompiler CelExpressionTreeCompiler { get; }
+    private CelExpressionParser CelExpressionParser { get; } = new();
+    private CelIncrementalParser CelIncrementalParser { get; }
 
     public CelEnvironment(IEnumerable<FileDescriptor>? fileDescriptors, string? messageNamespace)
     {
         var allFileDescriptors = GetWellKnownFileDescriptors().Union(fileDescriptors ?? Array.Empty<FileDescriptor>()).ToArray();
         CelVisitor = new CelVisitor(allFileDescriptors, messageNamespace ?? "");
+        CelExpressionTreeCompiler = new CelExpressionTreeCompiler(CelVisitor);
+        CelIncrementalParser = new CelIncrementalParser(CelExpressionParser);
     }
 
     public void RegisterFunction(string functionName, Type[] argTypes, CelFunctionDelegate functionDelegate)
@@ -60,81 +69,290 @@ public class CelEnvironment : ICelEnvironment
             throw new ArgumentNullException(nameof(expression));
         }
         
-        var inputStream = new AntlrInputStream(expression);
+        return CelExpressionParser.Parse(expression);
+    }
 
-        //setup the lexer
-        var celLexer = new CelLexer(inputStream);
-        
-        //set up the error lexer listener.
-        var lexerErrorListener = new AntlrLexerErrorListener();
-        celLexer.RemoveErrorListeners();
-        celLexer.AddErrorListener(lexerErrorListener);
-       
-        //check if we have parsing errors
-        if (lexerErrorListener.ErrorList.Count > 0)
+    /// <summary>
+    /// Parses a UTF-8 encoded expression, for example the content of a protobuf bytes field, without decoding it into a string first.
+    /// The tokens copy their text as they are lexed, so the parse tree can still be used once the memory has been released.
+    /// </summary>
+    public StartContext Parse(ReadOnlyMemory<byte> utf8Expression)
+    {
+        if (IsWhiteSpace(utf8Expression.Span))
         {
-            var errorMessages = string.Join(Environment.NewLine, lexerErrorListener.ErrorList);
-            throw new CelExpressionParserException(errorMessages);
+            throw new ArgumentNullException(nameof(utf8Expression));
         }
-        
 
-        var commonTokenStream = new CommonTokenStream(celLexer);
+        return CelExpressionParser.Parse(utf8Expression);
+    }
+
+    /// <summary>
+    /// Parses a batch of expressions in parallel and returns a result for each expression in the same order.
+    /// Invalid expressions do not abort the batch; their errors are returned in <see cref="CelParseResult.Exception"/>.
+    /// </summary>
+    public CelParseResult[] ParseBatch(IEnumerable<string> expressions, int maxDegreeOfParallelism = -1, CancellationToken cancellationToken = default)
+    {
+        if (expressions == null)
+        {
+            throw new ArgumentNullException(nameof(expressions));
+        }
+
+        var expressionList = expressions as IList<string> ?? expressions.ToList();
+        return CelExpressionParser.ParseBatch(expressionList, maxDegreeOfParallelism, cancellationToken);
+    }
+
+    /// <summary>
+    /// Parses the expressions found at each byte range of a UTF-8 source, such as the content of a <see cref="CelRuleFile"/>, in parallel.
+    /// The expressions are lexed in place without being copied into strings.  Results are returned in the same order as the ranges.
+    /// </summary>
+    public CelParseResult[] ParseBatch(ReadOnlyMemory<byte> utf8Source, IEnumerable<(int Offset, int Length)> ranges, int maxDegreeOfParallelism = -1, CancellationToken cancellationToken = default)
+    {
+        if (ranges == null)
+        {
+            throw new ArgumentNullException(nameof(ranges));
+        }
+
+        var rangeList = ranges as IList<(int Offset, int Length)> ?? ranges.ToList();
+
+        foreach (var range in rangeList)
+        {
+            if (range.Offset < 0 || range.Length < 0 || range.Offset > utf8Source.Length - range.Length)
+            {
+                throw new ArgumentOutOfRangeException(nameof(ranges), $"Range ({range.Offset}, {range.Length}) is outside of the source.");
+            }
+        }
+
+        return CelExpressionParser.ParseBatch(utf8Source, rangeList, maxDegreeOfParallelism, cancellationToken);
+    }
+
+    /// <summary>
+    /// Reads the rules of a rule pack lazily, parsing each rule as it is enumerated.  The pack is lexed once and only the tokens of the current rule
+    /// are held in memory, so large packs can be read without loading them.  Invalid rules do not stop the enumeration; their errors are returned
+    /// in <see cref="CelRule.Exception"/>.
+    /// <para>
+    /// Each rule starts at the beginning of a line with an id, which may be qualified with dots, followed by a colon and the expression,
+    /// for example <c>orders.max_total: order.total &lt;= 1000</c>.  An expression may span several lines until the next rule id.
+    /// </para>
+    /// </summary>
+    public IEnumerable<CelRule> ReadRules(TextReader reader, int maximumTokenCount = CelRule.DefaultMaximumTokenCount)
+    {
+        if (reader == null)
+        {
+            throw new ArgumentNullException(nameof(reader));
+        }
 
+        if (maximumTokenCount <= 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(maximumTokenCount));
+        }
 
-        //setup the parser
-        var celParser = new CelParser(commonTokenStream);
+        return new CelRuleReader(CelExpressionParser, reader, maximumTokenCount).Read();
+    }
 
-        //set up the error parser listener.
-        var parserErrorListener = new AntlrParserErrorListener();
-        celParser.RemoveErrorListeners();
-        celParser.AddErrorListener(parserErrorListener);
+    /// <summary>
+    /// Reads the rules of a UTF-8 rule pack file lazily.  The file is opened when the enumeration starts and closed when it ends.
+    /// See <see cref="ReadRules(TextReader, int)"/> for the format.
+    /// </summary>
+    public IEnumerable<CelRule> ReadRules(string path, int maximumTokenCount = CelRule.DefaultMaximumTokenCount)
+    {
+        if (string.IsNullOrWhiteSpace(path))
+        {
+            throw new ArgumentNullException(nameof(path));
+        }
 
-        //parse the expression
-        var startContext = celParser.start();
+        if (maximumTokenCount <= 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(maximumTokenCount));
+        }
 
-        //check if we have parsing errors
-        if (parserErrorListener.ErrorList.Count > 0)
+        return ReadRuleFile(path, maximumTokenCount);
+    }
+
+    private IEnumerable<CelRule> ReadRuleFile(string path, int maximumTokenCount)
+    {
+        using (var streamReader = new StreamReader(path, Encoding.UTF8))
         {
-            var errorMessages = string.Join(Environment.NewLine, parserErrorListener.ErrorList);
-            throw new CelExpressionParserException(errorMessages);
+            foreach (var rule in new CelRuleReader(CelExpressionParser, streamReader, maximumTokenCount).Read())
+            {
+                yield return rule;
+            }
         }
+    }
 
-        return startContext;
+    /// <summary>
+    /// Parses an expression that is being edited, for example in a rule editor.  Pass the result and each edit to <see cref="Reparse"/>.
+    /// </summary>
+    public CelEditableExpression ParseEditable(string expression)
+    {
+        if (string.IsNullOrWhiteSpace(expression))
+        {
+            throw new ArgumentNullException(nameof(expression));
+        }
+
+        return CelIncrementalParser.Parse(expression);
+    }
+
+    /// <summary>
+    /// Applies an edit to a previously parsed expression.  Only the tokens touched by the edit are lexed again, and only the smallest
+    /// subtree that contains them is parsed again; the rest of the previous tree is reused and updated in place.
+    /// After a successful re-parse the tree of the previous <see cref="CelEditableExpression"/> belongs to the edited expression;
+    /// re-parsing the previous expression again is still correct, but it falls back to a full parse of its text.
+    /// If the edited expression is invalid a <see cref="CelExpressionParserException"/> is thrown and the previous expression is left unchanged.
+    /// </summary>
+    public CelEditableExpression Reparse(CelEditableExpression previous, CelTextEdit edit)
+    {
+        if (previous == null)
+        {
+            throw new ArgumentNullException(nameof(previous));
+        }
+
+        if (edit == null)
+        {
+            throw new ArgumentNullException(nameof(edit));
+        }
+
+        if (edit.Offset + edit.RemovedLength > previous.Text.Length)
+        {
+            throw new ArgumentOutOfRangeException(nameof(edit), "The edit is outside of the expression.");
+        }
+
+        return CelIncrementalParser.Reparse(previous, edit);
+    }
+
+    /// <summary>
+    /// Type checks the expression against the declared types of its variables.  The result has the type of every node and the overload
+    /// every operator and function call resolves to.  Type errors are returned in <see cref="CelCheckedExpression.Errors"/> rather than thrown.
+    /// Programs must be given variables of their declared types; int, uint and double variables are read as long, ulong and double values.
+    /// </summary>
+    public CelCheckedExpression Check(string expression, IDictionary<string, CelCheckedType> variableTypes)
+    {
+        if (string.IsNullOrWhiteSpace(expression))
+        {
+            throw new ArgumentNullException(nameof(expression));
+        }
+
+        return Check(Parse(expression), variableTypes);
+    }
+
+    public CelCheckedExpression Check(StartContext context, IDictionary<string, CelCheckedType> variableTypes)
+    {
+        if (context == null)
+        {
+            throw new ArgumentNullException(nameof(context));
+        }
+
+        if (variableTypes == null)
+        {
+            throw new ArgumentNullException(nameof(variableTypes));
+        }
+
+        return CelVisitor.Check(context, variableTypes);
     }
 
     public CelProgramDelegate Compile(string expression)
+    {
+        return Compile(expression, CelBackend.Interpreter);
+    }
+
+    /// <summary>
+    /// Compiles the expression with the given backend.  Each backend produces the same results, so the backend can be chosen for each program.
+    /// </summary>
+    public CelProgramDelegate Compile(string expression, CelBackend backend)
     {
         if (string.IsNullOrWhiteSpace(expression))
         {
             throw new ArgumentNullException(nameof(expression));
         }
 
-        var context = Parse(expression);
-        return Compile(context);
+        var expressionDelegate = GetExpressionDelegate(expression, backend);
+        return dict => expressionDelegate.Invoke(dict.TryGetValue);
     }
 
     public CelProgramDelegate Compile(StartContext context)
     {
-        var expression = CelVisitor.Visit(context);
+        return Compile(context, CelBackend.Interpreter);
+    }
+
+    public CelProgramDelegate Compile(StartContext context, CelBackend backend)
+    {
+        var expression = CompileExpression(context, backend);
 
         return dict => expression.Invoke(dict.TryGetValue);
     }
 
+    public CelActivationProgramDelegate Compile(string expression, CelVariableLayout layout)
+    {
+        return Compile(expression, layout, CelBackend.Interpreter);
+    }
+
+    /// <summary>
+    /// Compiles the expression for activations of the given layout.  Variables are resolved to their slots once, so evaluating the program
+    /// reads them by slot instead of looking them up by name.
+    /// </summary>
+    public CelActivationProgramDelegate Compile(string expression, CelVariableLayout layout, CelBackend backend)
+    {
+        if (string.IsNullOrWhiteSpace(expression))
+        {
+            throw new ArgumentNullException(nameof(expression));
+        }
+
+        if (layout == null)
+        {
+            throw new ArgumentNullException(nameof(layout));
+        }
+
+        return CreateActivationProgram(GetExpressionDelegate(expression, backend), layout);
+    }
+
+    /// <summary>
+    /// Compiles a checked expression with the expression tree backend.  Ints, uints, doubles and bools whose types are known
+    /// are computed without boxing them, so arithmetic and comparisons over declared variables do not allocate.
+    /// Checked programs are not cached, and must be given variables of the types they were checked with.
+    /// </summary>
+    public CelProgramDelegate Compile(CelCheckedExpression checkedExpression)
+    {
+        var expressionDelegate = CompileCheckedExpression(checkedExpression);
+
+        return dict => expressionDelegate.Invoke(dict.TryGetValue);
+    }
+
+    public CelActivationProgramDelegate Compile(CelCheckedExpression checkedExpression, CelVariableLayout layout)
+    {
+        if (layout == null)
+        {
+            throw new ArgumentNullException(nameof(layout));
+        }
+
+        return CreateActivationProgram(CompileCheckedExpression(checkedExpression), layout);
+    }
+
     public object? Program(string expression, IDictionary<string, object?> variables)
+    {
+        return Program(expression, variables, CelBackend.Interpreter);
+    }
+
+    public object? Program(string expression, IDictionary<string, object?> variables, CelBackend backend)
     {
         if (string.IsNullOrWhiteSpace(expression))
         {
             throw new ArgumentNullException(nameof(expression));
         }
 
-        var context = Parse(expression);
-        return Program(context, variables);
+        return Program(GetExpressionDelegate(expression, backend), variables);
     }
 
     public object? Program(StartContext context, IDictionary<string, object?> variables)
     {
-        var resultExpression = CelVisitor.Visit(context);
+        return Program(context, variables, CelBackend.Interpreter);
+    }
 
+    public object? Program(StartContext context, IDictionary<string, object?> variables, CelBackend backend)
+    {
+        return Program(CompileExpression(context, backend), variables);
+    }
+
+    private static object? Program(CelExpressionDelegate resultExpression, IDictionary<string, object?> variables)
+    {
         var tryGetVariables = new TryGetVariableDelegate((string variableName, out object? value) => TryGetVariable(variables, variableName, out value));
 
         var result = resultExpression.Invoke(tryGetVariables);
@@ -147,6 +365,99 @@ public class CelEnvironment : ICelEnvironment
         return result;
     }
 
+    private CelExpressionDelegate GetExpressionDelegate(string expression, CelBackend backend)
+    {
+        ValidateBackend(backend);
+
+        var compileCache = CompileCache;
+        if (compileCache == null)
+        {
+            return CompileExpression(Parse(expression), backend);
+        }
+
+        //the visitor holds everything the environment registers, so it scopes the entries without the cache referencing the environment.
+        var settings = new CelCompileSettings(MaximumTokenCount, MaximumNestingDepth, ParseTimeout, FoldConstants);
+        return compileCache.GetOrAdd(CelVisitor, settings, expression, backend, e => CompileExpression(Parse(e), backend));
+    }
+
+    private CelExpressionDelegate CompileCheckedExpression(CelCheckedExpression checkedExpression)
+    {
+        if (checkedExpression == null)
+        {
+            throw new ArgumentNullException(nameof(checkedExpression));
+        }
+
+        if (checkedExpression.HasErrors)
+        {
+            throw new ArgumentException($"The expression has type errors: {string.Join(Environment.NewLine, checkedExpression.Errors)}", nameof(checkedExpression));
+        }
+
+        //the compiler keeps the types of the expression, so each checked expression gets its own.
+        return new CelExpressionTreeCompiler(CelVisitor, checkedExpression).Compile(checkedExpression.Context);
+    }
+
+    private static CelActivationProgramDelegate CreateActivationProgram(CelExpressionDelegate expressionDelegate, CelVariableLayout layout)
+    {
+        return activation =>
+        {
+            if (activation == null)
+            {
+                throw new ArgumentNullException(nameof(activation));
+            }
+
+            if (activation.Layout != layout)
+            {
+                throw new ArgumentException("The activation does not have the layout the program was compiled for.", nameof(activation));
+            }
+
+            return expressionDelegate.Invoke(activation.TryGetVariable);
+        };
+    }
+
+    private CelExpressionDelegate CompileExpression(StartContext context, CelBackend backend)
+    {
+        ValidateBackend(backend);
+
+        if (backend == CelBackend.ExpressionTree)
+        {
+            return CelExpressionTreeCompiler.Compile(context);
+        }
+
+        return CelVisitor.Visit(context);
+    }
+
+    private static void ValidateBackend(CelBackend backend)
+    {
+        if (backend != CelBackend.Interpreter && backend != CelBackend.ExpressionTree)
+        {
+            throw new ArgumentOutOfRangeException(nameof(backend));
+        }
+    }
+
+    /// <summary>
+    /// Returns true for empty and white space only UTF-8 text, the same as <see cref="string.IsNullOrWhiteSpace"/> does for strings.
+    /// </summary>
+    private static bool IsWhiteSpace(ReadOnlySpan<byte> utf8Text)
+    {
+        for (var i = 0; i < utf8Text.Length; i++)
+        {
+            var b = utf8Text[i];
+
+            //multi-byte characters may be unicode white space, so the rest of the text is decoded to check.
+            if (b >= 0x80)
+            {
+                return string.IsNullOrWhiteSpace(Encoding.UTF8.GetString(utf8Text.Slice(i).ToArray()));
+            }
+
+            if (!char.IsWhiteSpace((char)b))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     private static bool TryGetVariable(IDictionary<string, object?> variables, string variableName, out object? value)
     {
         value = null;
@@ -166,12 +477,109 @@ public class CelEnvironment : ICelEnvironment
         return false;
     }
 
+    /// <summary>
+    /// When true, expressions are parsed with SLL prediction first and only re-parsed with full LL prediction if SLL fails.
+    /// Both modes produce the same parse tree for every valid expression.
+    /// </summary>
+    public bool UseTwoStageParsing
+    {
+        get => CelExpressionParser.UseTwoStageParsing;
+        set => CelExpressionParser.UseTwoStageParsing = value;
+    }
+
+    /// <summary>
+    /// When true, expressions are parsed with a hand-written precedence climbing parser that builds the same parse tree as the generated parser
+    /// without ATN prediction.  Expressions with syntax errors are re-parsed with the generated parser to report the errors.
+    /// </summary>
+    public bool UsePrecedenceClimbingParser
+    {
+        get => CelExpressionParser.UsePrecedenceClimbingParser;
+        set => CelExpressionParser.UsePrecedenceClimbingParser = value;
+    }
+
+    /// <summary>
+    /// When true, identifier and keyword tokens are interned in a process-wide string pool, and the text of every fixed token is shared,
+    /// so reading token text does not allocate.  The pool holds at most 100,000 names and never evicts them; later names are not interned.
+    /// </summary>
+    public bool InternIdentifiers
+    {
+        get => CelExpressionParser.InternIdentifiers;
+        set => CelExpressionParser.InternIdentifiers = value;
+    }
+
+    /// <summary>
+    /// The DFA prediction cache used when parsing expressions.  Defaults to <see cref="CelParserCache.Shared"/>.
+    /// Assign a new <see cref="CelParserCache"/> to keep this environment's parser state separate from other environments.
+    /// </summary>
+    public CelParserCache ParserCache
+    {
+        get => CelExpressionParser.ParserCache;
+        set => CelExpressionParser.ParserCache = value ?? throw new ArgumentNullException(nameof(value));
+    }
+
+    /// <summary>
+    /// When set, every expression parsed by this environment with the generated parser records per-decision prediction statistics in the profiler.
+    /// Defaults to null, which parses without any profiling overhead.  A profiler can be shared between environments.
+    /// </summary>
+    public CelParserProfiler? ParserProfiler
+    {
+        get => CelExpressionParser.ParserProfiler;
+        set => CelExpressionParser.ParserProfiler = value;
+    }
+
+    /// <summary>
+    /// The deepest nesting of parentheses, arguments, list, map and message elements, indexes and conditional branches an expression may have.
+    /// Deeper expressions fail with a <see cref="CelParserLimitExceededException"/> before they can exhaust the stack.
+    /// </summary>
+    public int MaximumNestingDepth
+    {
+        get => CelExpressionParser.MaximumNestingDepth;
+        set => CelExpressionParser.MaximumNestingDepth = value > 0 ? value : throw new ArgumentOutOfRangeException(nameof(value));
+    }
+
+    /// <summary>
+    /// The most tokens, not counting whitespace and comments, an expression may have.  Defaults to no limit.
+    /// </summary>
+    public int MaximumTokenCount
+    {
+        get => CelExpressionParser.MaximumTokenCount;
+        set => CelExpressionParser.MaximumTokenCount = value > 0 ? value : throw new ArgumentOutOfRangeException(nameof(value));
+    }
+
+    /// <summary>
+    /// How long parsing a single expression may take.  The deadline is checked as rules are entered and tokens are consumed,
+    /// so a parse stops shortly after it is reached.  Defaults to <see cref="Timeout.InfiniteTimeSpan"/>.
+    /// </summary>
+    public TimeSpan ParseTimeout
+    {
+        get => CelExpressionParser.ParseTimeout;
+        set => CelExpressionParser.ParseTimeout = value > TimeSpan.Zero || value == Timeout.InfiniteTimeSpan ? value : throw new ArgumentOutOfRangeException(nameof(value));
+    }
+
+    /// <summary>
+    /// The cache of compiled expressions used by <see cref="Compile(string)"/> and <see cref="Program(string, IDictionary{string, object})"/>.
+    /// Defaults to null, which parses and compiles the expression on every call.  Entries are keyed by this environment and by the parse limits
+    /// and <see cref="FoldConstants"/>, so environments never share compiled expressions and changing a setting never returns a stale one.
+    /// </summary>
+    public CelCompileCache? CompileCache { get; set; }
+
     public bool StrictTypeComparison
     {
         get => CelVisitor.StrictTypeComparison;
         set => CelVisitor.StrictTypeComparison = value;
     }
 
+    /// <summary>
+    /// When true, subexpressions that do not read variables and only call pure standard functions, such as <c>duration('1h') + duration('30m')</c>,
+    /// are evaluated once when the expression is compiled.  A subexpression that fails is compiled to throw its error each time it is evaluated.
+    /// Defaults to true.
+    /// </summary>
+    public bool FoldConstants
+    {
+        get => CelVisitor.FoldConstants;
+        set => CelVisitor.FoldConstants = value;
+    }
+
     private static FileDescriptor[] GetWellKnownFileDescriptors()
     {
         return new[]
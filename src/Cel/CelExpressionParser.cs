@@ -0,0 +1,385 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Collections.Concurrent;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Atn;
+using Antlr4.Runtime.Misc;
+using Cel.Internal;
+using static Cel.Internal.CelParser;
+
+namespace Cel;
+
+internal class CelExpressionParser
+{
+    private static readonly CommonTokenFactory CopyingTextTokenFactory = new(true);
+
+    public bool UseTwoStageParsing { get; set; } = true;
+    public bool UsePrecedenceClimbingParser { get; set; }
+    public bool InternIdentifiers { get; set; } = true;
+    public CelParserCache ParserCache { get; set; } = CelParserCache.Shared;
+    public CelParserProfiler? ParserProfiler { get; set; }
+    public int MaximumNestingDepth { get; set; } = CelEnvironment.DefaultMaximumNestingDepth;
+    public int MaximumTokenCount { get; set; } = int.MaxValue;
+    public TimeSpan ParseTimeout { get; set; } = Timeout.InfiniteTimeSpan;
+
+    public StartContext Parse(string expression)
+    {
+        return Parse(new AntlrInputStream(expression));
+    }
+
+    public StartContext Parse(ICharStream inputStream)
+    {
+        //setup the lexer
+        var celLexer = ParserCache.CreateLexer(inputStream);
+        var commonTokenStream = new CommonTokenStream(celLexer);
+
+        return Parse(celLexer, commonTokenStream, () => ParserCache.CreateParser(commonTokenStream), false);
+    }
+
+    /// <summary>
+    /// Parses a UTF-8 expression in place.  Every token copies its text as it is lexed, so the parse tree does not reference the memory.
+    /// </summary>
+    public StartContext Parse(ReadOnlyMemory<byte> utf8Expression)
+    {
+        var celLexer = ParserCache.CreateLexer(new Utf8CharStream(utf8Expression));
+        var commonTokenStream = new CommonTokenStream(celLexer);
+
+        return Parse(celLexer, commonTokenStream, () => ParserCache.CreateParser(commonTokenStream), true);
+    }
+
+    /// <summary>
+    /// Parses the expression and returns every token it contains, including hidden tokens.
+    /// </summary>
+    public StartContext Parse(string expression, out List<IToken> tokens)
+    {
+        var celLexer = ParserCache.CreateLexer(new AntlrInputStream(expression));
+        var commonTokenStream = new CommonTokenStream(celLexer);
+
+        var startContext = Parse(celLexer, commonTokenStream, () => ParserCache.CreateParser(commonTokenStream), false);
+
+        commonTokenStream.Fill();
+        tokens = commonTokenStream.GetTokens().ToList();
+
+        return startContext;
+    }
+
+    /// <summary>
+    /// Parses an expression whose tokens have already been lexed, for example by a lexer created with <see cref="CreateLexer"/>.
+    /// </summary>
+    public StartContext Parse(CommonTokenStream commonTokenStream, Func<CelParser> createParser)
+    {
+        return ParseTokens(commonTokenStream, createParser, null);
+    }
+
+    /// <summary>
+    /// Creates a lexer with the same token factory as the lexers used by <see cref="Parse(string)"/>.
+    /// When <paramref name="copyText"/> is true every token copies its text as it is lexed, which is required for unbuffered input streams
+    /// that discard characters once they have been read.
+    /// </summary>
+    public CelLexer CreateLexer(ICharStream inputStream, bool copyText = false)
+    {
+        var celLexer = ParserCache.CreateLexer(inputStream);
+        celLexer.TokenFactory = GetTokenFactory(copyText);
+
+        return celLexer;
+    }
+
+    /// <summary>
+    /// Parses the expressions in parallel.  Each worker thread reuses a single lexer and parser for all of the expressions it parses,
+    /// and errors are reported in the result for each expression rather than aborting the batch.
+    /// </summary>
+    public CelParseResult[] ParseBatch(IList<string> expressions, int maxDegreeOfParallelism, CancellationToken cancellationToken)
+    {
+        return ParseBatch(expressions.Count, (reusableParser, i) => reusableParser.TryParse(expressions[i]), maxDegreeOfParallelism, cancellationToken);
+    }
+
+    /// <summary>
+    /// Parses the UTF-8 encoded expressions found at each of the byte ranges of the source in parallel.  The source is lexed in place,
+    /// and every token copies its text as it is lexed, so the parse trees can still be used once the source has been released.
+    /// </summary>
+    public CelParseResult[] ParseBatch(ReadOnlyMemory<byte> utf8Source, IList<(int Offset, int Length)> ranges, int maxDegreeOfParallelism, CancellationToken cancellationToken)
+    {
+        return ParseBatch(ranges.Count, (reusableParser, i) => reusableParser.TryParse(utf8Source.Slice(ranges[i].Offset, ranges[i].Length)), maxDegreeOfParallelism, cancellationToken);
+    }
+
+    /// <summary>
+    /// Starts the limits of a new parse.  The parse timeout is measured from this call.
+    /// </summary>
+    public CelParseBudget CreateParseBudget()
+    {
+        return new CelParseBudget(MaximumNestingDepth, MaximumTokenCount, ParseTimeout);
+    }
+
+    /// <summary>
+    /// Starts the limits of a parse of part of an expression, nested <paramref name="nestingDepth"/> levels deep in an expression
+    /// that has <paramref name="tokenCount"/> other tokens.
+    /// </summary>
+    public CelParseBudget CreateParseBudget(int nestingDepth, int tokenCount)
+    {
+        return new CelParseBudget(MaximumNestingDepth, MaximumTokenCount, ParseTimeout, nestingDepth, tokenCount);
+    }
+
+    private CelParseResult[] ParseBatch(int count, Func<ReusableParser, int, CelParseResult> parse, int maxDegreeOfParallelism, CancellationToken cancellationToken)
+    {
+        //the range partitioner does not accept an empty range.
+        if (count == 0)
+        {
+            return Array.Empty<CelParseResult>();
+        }
+
+        var results = new CelParseResult[count];
+
+        var parallelOptions = new ParallelOptions
+        {
+            MaxDegreeOfParallelism = maxDegreeOfParallelism,
+            CancellationToken = cancellationToken
+        };
+
+        Parallel.ForEach(Partitioner.Create(0, count),
+                         parallelOptions,
+                         () => new ReusableParser(this),
+                         (range, _, reusableParser) =>
+                         {
+                             for (var i = range.Item1; i < range.Item2; i++)
+                             {
+                                 //the cache may have been cleared since the lexer and parser were created.  Start again so that we fill the new cache.
+                                 if (reusableParser.IsStale)
+                                 {
+                                     reusableParser = new ReusableParser(this);
+                                 }
+
+                                 results[i] = parse(reusableParser, i);
+                             }
+
+                             return reusableParser;
+                         },
+                         _ => { });
+
+        return results;
+    }
+
+    private StartContext Parse(CelLexer celLexer, CommonTokenStream commonTokenStream, Func<CelParser> createParser, bool copyText)
+    {
+        //the token factory has to be set before the first token is lexed.
+        celLexer.TokenFactory = GetTokenFactory(copyText);
+
+        //set up the error lexer listener.
+        var lexerErrorListener = new AntlrLexerErrorListener();
+        celLexer.RemoveErrorListeners();
+        celLexer.AddErrorListener(lexerErrorListener);
+
+        //check if we have parsing errors
+        if (lexerErrorListener.ErrorList.Count > 0)
+        {
+            var errorMessages = string.Join(Environment.NewLine, lexerErrorListener.ErrorList);
+            throw new CelExpressionParserException(errorMessages);
+        }
+
+        return ParseTokens(commonTokenStream, createParser, lexerErrorListener);
+    }
+
+    private StartContext ParseTokens(CommonTokenStream commonTokenStream, Func<CelParser> createParser, AntlrLexerErrorListener? lexerErrorListener)
+    {
+        //invalid expressions add DFA states too, so the cache is trimmed however the parse ends.
+        try
+        {
+            return ParseTokens(commonTokenStream, createParser, lexerErrorListener, CreateParseBudget());
+        }
+        finally
+        {
+            ParserCache.EnforceMaximumStateCount();
+        }
+    }
+
+    private StartContext ParseTokens(CommonTokenStream commonTokenStream, Func<CelParser> createParser, AntlrLexerErrorListener? lexerErrorListener, CelParseBudget parseBudget)
+    {
+        if (UsePrecedenceClimbingParser)
+        {
+            commonTokenStream.Fill();
+
+            //invalid expressions fall through to the generated parser so that they report the same errors.
+            if (lexerErrorListener == null || lexerErrorListener.ErrorList.Count == 0)
+            {
+                var precedenceClimbingContext = CelPrecedenceClimbingParser.TryParse(commonTokenStream.GetTokens(), parseBudget);
+                if (precedenceClimbingContext != null)
+                {
+                    return precedenceClimbingContext;
+                }
+            }
+        }
+
+        //setup the parser.  Reused parsers and the fall through from the precedence climbing parser start counting again.
+        var celParser = createParser();
+        parseBudget.Restart();
+        celParser.ParseBudget = parseBudget;
+
+        //profiling swaps in a simulator that records every prediction, so the plain simulator is only replaced when a profiler is set.
+        var parserProfiler = ParserProfiler;
+        ProfilingATNSimulator? profilingSimulator = null;
+
+        if (parserProfiler != null)
+        {
+            profilingSimulator = celParser.StartProfiling();
+        }
+        else
+        {
+            celParser.StopProfiling();
+        }
+
+        //set up the error parser listener.
+        var parserErrorListener = new AntlrParserErrorListener();
+        celParser.RemoveErrorListeners();
+
+        //parse the expression
+        StartContext startContext;
+
+        try
+        {
+            startContext = ParseStart(celParser, parserErrorListener);
+        }
+        finally
+        {
+            if (parserProfiler != null && profilingSimulator != null)
+            {
+                parserProfiler.Record(profilingSimulator);
+            }
+        }
+
+        //check if we have parsing errors
+        if (parserErrorListener.ErrorList.Count > 0)
+        {
+            var errorMessages = string.Join(Environment.NewLine, parserErrorListener.ErrorList);
+            throw new CelExpressionParserException(errorMessages);
+        }
+
+        return startContext;
+    }
+
+    private ITokenFactory GetTokenFactory(bool copyText)
+    {
+        if (InternIdentifiers)
+        {
+            return copyText ? CelTokenFactory.SharedCopyingText : CelTokenFactory.Shared;
+        }
+
+        return copyText ? CopyingTextTokenFactory : CommonTokenFactory.Default;
+    }
+
+    private StartContext ParseStart(CelParser celParser, AntlrParserErrorListener parserErrorListener)
+    {
+        if (UseTwoStageParsing)
+        {
+            //try the faster SLL prediction mode first.  The bail error strategy aborts on the first syntax error
+            //so that we don't report errors that full LL prediction would not have produced.
+            celParser.Interpreter.PredictionMode = PredictionMode.SLL;
+            celParser.ErrorHandler = new BailErrorStrategy();
+
+            try
+            {
+                return celParser.start();
+            }
+            catch (ParseCanceledException)
+            {
+                //SLL could not parse the expression.  It is either invalid or needs full context, so rewind the token stream and fall through to LL.
+                celParser.Reset();
+            }
+
+        }
+
+        //reused parsers may still have the bail error strategy from a previous expression.
+        celParser.ErrorHandler = new DefaultErrorStrategy();
+        celParser.Interpreter.PredictionMode = PredictionMode.LL;
+        celParser.AddErrorListener(parserErrorListener);
+
+        return celParser.start();
+    }
+
+    /// <summary>
+    /// A lexer and parser pair that is re-pointed at each new expression instead of being constructed again.
+    /// Instances are not thread safe and are used by one batch worker at a time.
+    /// </summary>
+    private sealed class ReusableParser
+    {
+        private readonly CelExpressionParser _celExpressionParser;
+        private readonly CelParserCache _parserCache;
+        private readonly long _clearCount;
+        private readonly CelLexer _celLexer;
+        private readonly CommonTokenStream _commonTokenStream;
+        private CelParser? _celParser;
+
+        public ReusableParser(CelExpressionParser celExpressionParser)
+        {
+            _celExpressionParser = celExpressionParser;
+            _parserCache = celExpressionParser.ParserCache;
+            _clearCount = _parserCache.ClearCount;
+            _celLexer = _parserCache.CreateLexer(new AntlrInputStream(""));
+            _commonTokenStream = new CommonTokenStream(_celLexer);
+        }
+
+        public bool IsStale => _parserCache != _celExpressionParser.ParserCache || _clearCount != _parserCache.ClearCount;
+
+        public CelParseResult TryParse(string expression)
+        {
+            if (string.IsNullOrWhiteSpace(expression))
+            {
+                return new CelParseResult(expression, null, new CelExpressionParserException("Expression is empty."));
+            }
+
+            try
+            {
+                return new CelParseResult(expression, Parse(new AntlrInputStream(expression), false), null);
+            }
+            catch (CelExpressionParserException x)
+            {
+                return new CelParseResult(expression, null, x);
+            }
+        }
+
+        public CelParseResult TryParse(ReadOnlyMemory<byte> utf8Expression)
+        {
+            try
+            {
+                return new CelParseResult(utf8Expression, Parse(new Utf8CharStream(utf8Expression), true), null);
+            }
+            catch (CelExpressionParserException x)
+            {
+                return new CelParseResult(utf8Expression, null, x);
+            }
+        }
+
+        private StartContext Parse(ICharStream inputStream, bool copyText)
+        {
+            //both calls discard the state left over from the previous expression.
+            _celLexer.SetInputStream(inputStream);
+            _commonTokenStream.SetTokenSource(_celLexer);
+
+            return _celExpressionParser.Parse(_celLexer, _commonTokenStream, GetParser, copyText);
+        }
+
+        private CelParser GetParser()
+        {
+            if (_celParser == null)
+            {
+                _celParser = _parserCache.CreateParser(_commonTokenStream);
+            }
+            else
+            {
+                _celParser.TokenStream = _commonTokenStream;
+            }
+
+            return _celParser;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Cel.Internal;
+using static Cel.Internal.CelParser;
+
+namespace Cel;
+
+/// <summary>
+/// The outcome of parsing one expression in a batch.  Exactly one of <see cref="StartContext"/> and <see cref="Exception"/> is set.
+/// </summary>
+public sealed class CelParseResult
+{
+    private readonly ReadOnlyMemory<byte> _utf8Expression;
+    private string? _expression;
+
+    public CelParseResult(string expression, StartContext? startContext, CelExpressionParserException? exception)
+    {
+        _expression = expression;
+        StartContext = startContext;
+        Exception = exception;
+    }
+
+    internal CelParseResult(ReadOnlyMemory<byte> utf8Expression, StartContext? startContext, CelExpressionParserException? exception)
+    {
+        _utf8Expression = utf8Expression;
+        StartContext = startContext;
+        Exception = exception;
+    }
+
+    /// <summary>
+    /// The expression text.  Expressions parsed from UTF-8 memory are only decoded when this is first read, so the memory must still be
+    /// available then.  Reading it after a <see cref="CelRuleFile"/> has been disposed throws <see cref="ObjectDisposedException"/>.
+    /// The parse tree does not read the memory, since its tokens copy their text.
+    /// </summary>
+    public string Expression => _expression ??= Utf8CharStream.GetString(_utf8Expression.Span);
+
+    public StartContext? StartContext { get; }
+
+    public CelExpressionParserException? Exception { get; }
+
+    public bool IsSuccess => Exception == null;
+}
@@ -0,0 +1,340 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.IO.Compression;
+using System.Runtime.CompilerServices;
+using System.Text;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Atn;
+using Antlr4.Runtime.Dfa;
+using Cel.Internal;
+
+namespace Cel;
+
+/// <summary>
+/// Holds the DFA prediction cache that the lexer and parser fill while parsing expressions.
+/// The cache is bounded: once it grows past <see cref="MaximumStateCount"/> DFA states it is discarded and starts again empty.
+/// A cache can be shared between environments or scoped to a single environment.
+/// </summary>
+public sealed class CelParserCache
+{
+    public const int DefaultMaximumStateCount = 20000;
+
+    private const int SnapshotMagicNumber = 0x4345_4C44;
+    private const int SnapshotVersion = 1;
+
+    //a small expression that runs the lexer and most of the parser rules, so that preloading also JIT compiles the parse path.
+    private const string PreloadExpression = "a.b(c, [1, 2u], {'d': -1.0}) in e && !f ? g[0] : h";
+
+    /// <summary>
+    /// The cache used by environments that are not given their own.
+    /// </summary>
+    public static CelParserCache Shared { get; } = new();
+
+    private static readonly Lazy<Task> GrammarPreload = new(() => Task.Run(PreloadGrammarCore));
+
+    //the DFA arrays are created from the deserialized ATNs on first use, so creating an environment does not load the grammar.
+    private volatile DfaSet? _dfaSet;
+    private long _clearCount;
+
+    public CelParserCache() : this(DefaultMaximumStateCount) { }
+
+    public CelParserCache(int maximumStateCount)
+    {
+        if (maximumStateCount <= 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(maximumStateCount));
+        }
+
+        MaximumStateCount = maximumStateCount;
+    }
+
+    public int MaximumStateCount { get; }
+
+    /// <summary>
+    /// The number of DFA states currently held by the lexer and parser caches.
+    /// </summary>
+    public int StateCount => _dfaSet?.GetStateCount() ?? 0;
+
+    /// <summary>
+    /// The number of DFA edges currently held by the lexer and parser caches.
+    /// </summary>
+    public int EdgeCount => _dfaSet?.GetEdgeCount() ?? 0;
+
+    /// <summary>
+    /// The number of times the cache has been discarded, either explicitly or because it reached the maximum state count.
+    /// </summary>
+    public long ClearCount => Interlocked.Read(ref _clearCount);
+
+    public void Clear()
+    {
+        //parsers that are already running keep using the old set, so we drop it rather than clearing it in place.
+        _dfaSet = null;
+        Interlocked.Increment(ref _clearCount);
+    }
+
+    /// <summary>
+    /// Starts loading the grammar on a thread pool thread: the serialized lexer and parser ATNs are deserialized, the DFA arrays of
+    /// <see cref="Shared"/> are created and the parse path is JIT compiled by parsing a small expression.
+    /// Call it as early as possible during startup; the first parse waits for the load only if it has not finished yet.
+    /// Every call returns the same task.
+    /// </summary>
+    public static Task PreloadGrammar()
+    {
+        return GrammarPreload.Value;
+    }
+
+    /// <summary>
+    /// Fills the cache by parsing each of the expressions.  Expressions that fail to parse are ignored.
+    /// </summary>
+    public void Warm(IEnumerable<string> expressions)
+    {
+        if (expressions == null)
+        {
+            throw new ArgumentNullException(nameof(expressions));
+        }
+
+        var celExpressionParser = new CelExpressionParser { ParserCache = this };
+
+        foreach (var expression in expressions)
+        {
+            TryParse(celExpressionParser, expression);
+        }
+    }
+
+    /// <summary>
+    /// Writes a warm-up snapshot for a representative expression corpus.
+    /// Only the expressions that add new DFA states or edges are kept, so the snapshot is usually much smaller than the corpus
+    /// but reproduces the same warmed cache when it is loaded with <see cref="LoadSnapshot"/>.
+    /// </summary>
+    public static void SaveSnapshot(IEnumerable<string> expressions, Stream stream)
+    {
+        if (expressions == null)
+        {
+            throw new ArgumentNullException(nameof(expressions));
+        }
+
+        if (stream == null)
+        {
+            throw new ArgumentNullException(nameof(stream));
+        }
+
+        var parserCache = new CelParserCache(int.MaxValue);
+        var celExpressionParser = new CelExpressionParser { ParserCache = parserCache };
+        var snapshotExpressions = new List<string>();
+        var stateCount = 0;
+        var edgeCount = 0;
+
+        foreach (var expression in expressions.Distinct(StringComparer.Ordinal))
+        {
+            if (!TryParse(celExpressionParser, expression))
+            {
+                continue;
+            }
+
+            var newStateCount = parserCache.StateCount;
+            var newEdgeCount = parserCache.EdgeCount;
+
+            if (newStateCount != stateCount || newEdgeCount != edgeCount)
+            {
+                snapshotExpressions.Add(expression);
+                stateCount = newStateCount;
+                edgeCount = newEdgeCount;
+            }
+        }
+
+        using (var gzipStream = new GZipStream(stream, CompressionLevel.Optimal, true))
+        using (var writer = new BinaryWriter(gzipStream, Encoding.UTF8))
+        {
+            writer.Write(SnapshotMagicNumber);
+            writer.Write(SnapshotVersion);
+            writer.Write(snapshotExpressions.Count);
+
+            foreach (var expression in snapshotExpressions)
+            {
+                writer.Write(expression);
+            }
+        }
+    }
+
+    /// <summary>
+    /// Warms the cache from a snapshot written by <see cref="SaveSnapshot"/>.
+    /// </summary>
+    public void LoadSnapshot(Stream stream)
+    {
+        if (stream == null)
+        {
+            throw new ArgumentNullException(nameof(stream));
+        }
+
+        var expressions = new List<string>();
+
+        using (var gzipStream = new GZipStream(stream, CompressionMode.Decompress, true))
+        using (var reader = new BinaryReader(gzipStream, Encoding.UTF8))
+        {
+            if (reader.ReadInt32() != SnapshotMagicNumber)
+            {
+                throw new InvalidDataException("Stream is not a CEL parser cache snapshot.");
+            }
+
+            var version = reader.ReadInt32();
+            if (version != SnapshotVersion)
+            {
+                throw new InvalidDataException($"CEL parser cache snapshot version '{version}' is not supported.");
+            }
+
+            var count = reader.ReadInt32();
+            for (var i = 0; i < count; i++)
+            {
+                expressions.Add(reader.ReadString());
+            }
+        }
+
+        Warm(expressions);
+    }
+
+    private DfaSet GetDfaSet()
+    {
+        var dfaSet = _dfaSet;
+        if (dfaSet != null)
+        {
+            return dfaSet;
+        }
+
+        //racing threads may both create a set, but only the first one is kept.
+        var newDfaSet = new DfaSet();
+        return Interlocked.CompareExchange(ref _dfaSet, newDfaSet, null) ?? newDfaSet;
+    }
+
+    private static void PreloadGrammarCore()
+    {
+        //the generated static constructors deserialize the ATNs.
+        RuntimeHelpers.RunClassConstructor(typeof(CelLexer).TypeHandle);
+        RuntimeHelpers.RunClassConstructor(typeof(CelParser).TypeHandle);
+
+        TryParse(new CelExpressionParser(), PreloadExpression);
+    }
+
+    private static bool TryParse(CelExpressionParser celExpressionParser, string expression)
+    {
+        if (string.IsNullOrWhiteSpace(expression))
+        {
+            return false;
+        }
+
+        try
+        {
+            celExpressionParser.Parse(expression);
+            return true;
+        }
+        catch (CelExpressionParserException)
+        {
+            return false;
+        }
+    }
+
+    internal CelLexer CreateLexer(ICharStream input)
+    {
+        var dfaSet = GetDfaSet();
+        return new CelLexer(input, dfaSet.LexerDecisionToDfa, dfaSet.LexerContextCache);
+    }
+
+    internal CelParser CreateParser(ITokenStream input)
+    {
+        var dfaSet = GetDfaSet();
+        return new CelParser(input, dfaSet.ParserDecisionToDfa, dfaSet.ParserContextCache);
+    }
+
+    internal void EnforceMaximumStateCount()
+    {
+        if (StateCount > MaximumStateCount)
+        {
+            Clear();
+        }
+    }
+
+    private sealed class DfaSet
+    {
+        public DFA[] LexerDecisionToDfa { get; } = CreateDecisionToDfa(CelLexer._ATN);
+        public PredictionContextCache LexerContextCache { get; } = new();
+        public DFA[] ParserDecisionToDfa { get; } = CreateDecisionToDfa(CelParser._ATN);
+        public PredictionContextCache ParserContextCache { get; } = new();
+
+        public int GetStateCount()
+        {
+            return GetStateCount(LexerDecisionToDfa) + GetStateCount(ParserDecisionToDfa);
+        }
+
+        public int GetEdgeCount()
+        {
+            return GetEdgeCount(LexerDecisionToDfa) + GetEdgeCount(ParserDecisionToDfa);
+        }
+
+        private static DFA[] CreateDecisionToDfa(ATN atn)
+        {
+            var decisionToDfa = new DFA[atn.NumberOfDecisions];
+
+            for (var i = 0; i < decisionToDfa.Length; i++)
+            {
+                decisionToDfa[i] = new DFA(atn.GetDecisionState(i), i);
+            }
+
+            return decisionToDfa;
+        }
+
+        private static int GetStateCount(DFA[] decisionToDfa)
+        {
+            var count = 0;
+
+            for (var i = 0; i < decisionToDfa.Length; i++)
+            {
+                count += decisionToDfa[i].states.Count;
+            }
+
+            return count;
+        }
+
+        private static int GetEdgeCount(DFA[] decisionToDfa)
+        {
+            var count = 0;
+
+            for (var i = 0; i < decisionToDfa.Length; i++)
+            {
+                var states = decisionToDfa[i].states;
+
+                //the simulators add states under this lock.
+                lock (states)
+                {
+                    foreach (var state in states.Keys)
+                    {
+                        if (state.edges == null)
+                        {
+                            continue;
+                        }
+
+                        for (var j = 0; j < state.edges.Length; j++)
+                        {
+                            if (state.edges[j] != null)
+                            {
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            return count;
+        }
+    }
+}
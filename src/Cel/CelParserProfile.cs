@@ -0,0 +1,106 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Globalization;
+
+namespace Cel;
+
+/// <summary>
+/// A point-in-time snapshot of a <see cref="CelParserProfiler"/>.
+/// </summary>
+public sealed class CelParserProfile
+{
+    internal CelParserProfile(long parseCount, IReadOnlyList<CelDecisionProfile> decisions)
+    {
+        ParseCount = parseCount;
+        Decisions = decisions;
+    }
+
+    public long ParseCount { get; }
+
+    /// <summary>
+    /// The decisions that were invoked at least once, ordered by time spent in prediction, most expensive first.
+    /// </summary>
+    public IReadOnlyList<CelDecisionProfile> Decisions { get; }
+
+    public TimeSpan TotalTimeInPrediction => TimeSpan.FromTicks(Decisions.Sum(d => d.TimeInPrediction.Ticks));
+
+    public long TotalInvocations => Decisions.Sum(d => d.Invocations);
+
+    public long TotalLlFallbacks => Decisions.Sum(d => d.LlFallbacks);
+
+    /// <summary>
+    /// Returns the statistics of a decision, or null if it was never invoked.
+    /// </summary>
+    public CelDecisionProfile? GetDecision(int decision)
+    {
+        return Decisions.FirstOrDefault(d => d.Decision == decision);
+    }
+
+    /// <summary>
+    /// Returns the statistics of every decision in a grammar rule, for example "member".
+    /// </summary>
+    public IEnumerable<CelDecisionProfile> GetDecisions(string ruleName)
+    {
+        return Decisions.Where(d => d.RuleName == ruleName);
+    }
+
+    /// <summary>
+    /// Writes the snapshot as a table with one row per decision.
+    /// </summary>
+    public void WriteTo(TextWriter writer)
+    {
+        if (writer == null)
+        {
+            throw new ArgumentNullException(nameof(writer));
+        }
+
+        writer.WriteLine(string.Format(CultureInfo.InvariantCulture,
+                                       "CEL parser profile: {0} parses, {1} predictions, {2} LL fallbacks, {3:F3} ms in prediction",
+                                       ParseCount,
+                                       TotalInvocations,
+                                       TotalLlFallbacks,
+                                       TotalTimeInPrediction.TotalMilliseconds));
+
+        writer.WriteLine("{0,8} {1,-22} {2,12} {3,12} {4,10} {5,10} {6,12} {7,10} {8,10} {9,10} {10,10} {11,10}",
+                         "Decision", "Rule", "Invocations", "Time (ms)", "SLL k avg", "SLL k max", "LL fallback", "LL k avg", "LL k max", "Ambig.", "Errors", "Ctx sens.");
+
+        foreach (var decision in Decisions)
+        {
+            writer.WriteLine(string.Format(CultureInfo.InvariantCulture,
+                                           "{0,8} {1,-22} {2,12} {3,12:F3} {4,10:F2} {5,10} {6,12} {7,10:F2} {8,10} {9,10} {10,10} {11,10}",
+                                           decision.Decision,
+                                           decision.RuleName,
+                                           decision.Invocations,
+                                           decision.TimeInPrediction.TotalMilliseconds,
+                                           decision.SllAverageLookahead,
+                                           decision.SllMaxLookahead,
+                                           decision.LlFallbacks,
+                                           decision.LlAverageLookahead,
+                                           decision.LlMaxLookahead,
+                                           decision.Ambiguities,
+                                           decision.Errors,
+                                           decision.ContextSensitivities));
+        }
+    }
+
+    public override string ToString()
+    {
+        using (var writer = new StringWriter(CultureInfo.InvariantCulture))
+        {
+            WriteTo(writer);
+            return writer.ToString();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime.Atn;
+using Cel.Internal;
+
+namespace Cel;
+
+/// <summary>
+/// Collects ANTLR's per-decision prediction statistics for every expression parsed by the environments it is assigned to.
+/// Profiling is opt-in: environments without a profiler parse with the plain prediction simulator and have no profiling overhead.
+/// Expressions parsed by the precedence climbing parser do not use ATN prediction and are not profiled.
+/// </summary>
+public sealed class CelParserProfiler
+{
+    private readonly object _lock = new();
+    private readonly DecisionTotals[] _decisionTotals;
+    private long _parseCount;
+
+    public CelParserProfiler()
+    {
+        _decisionTotals = new DecisionTotals[CelParser._ATN.NumberOfDecisions];
+
+        for (var i = 0; i < _decisionTotals.Length; i++)
+        {
+            _decisionTotals[i] = new DecisionTotals();
+        }
+    }
+
+    /// <summary>
+    /// The number of expressions that have been profiled.
+    /// </summary>
+    public long ParseCount
+    {
+        get
+        {
+            lock (_lock)
+            {
+                return _parseCount;
+            }
+        }
+    }
+
+    /// <summary>
+    /// Returns the statistics collected so far for every decision that has been invoked, most expensive first.
+    /// </summary>
+    public CelParserProfile GetSnapshot()
+    {
+        lock (_lock)
+        {
+            var decisions = new List<CelDecisionProfile>();
+
+            for (var decision = 0; decision < _decisionTotals.Length; decision++)
+            {
+                var totals = _decisionTotals[decision];
+                if (totals.Invocations == 0)
+                {
+                    continue;
+                }
+
+                decisions.Add(new CelDecisionProfile(decision,
+                                                     GetRuleName(decision),
+                                                     totals.Invocations,
+                                                     TimeSpan.FromTicks(totals.TimeInPrediction),
+                                                     totals.SllLookaheadTotal,
+                                                     totals.SllMaxLookahead,
+                                                     totals.LlFallbacks,
+                                                     totals.LlLookaheadTotal,
+                                                     totals.LlMaxLookahead,
+                                                     totals.Ambiguities,
+                                                     totals.ContextSensitivities,
+                                                     totals.Errors,
+                                                     totals.PredicateEvaluations));
+            }
+
+            decisions.Sort((x, y) => y.TimeInPrediction.CompareTo(x.TimeInPrediction));
+
+            return new CelParserProfile(_parseCount, decisions);
+        }
+    }
+
+    public void Reset()
+    {
+        lock (_lock)
+        {
+            _parseCount = 0;
+
+            for (var i = 0; i < _decisionTotals.Length; i++)
+            {
+                _decisionTotals[i] = new DecisionTotals();
+            }
+        }
+    }
+
+    /// <summary>
+    /// Passes a snapshot to the callback every interval until the returned object is disposed, for example to export it as metrics.
+    /// </summary>
+    public IDisposable StartPeriodicDump(Action<CelParserProfile> callback, TimeSpan interval)
+    {
+        if (callback == null)
+        {
+            throw new ArgumentNullException(nameof(callback));
+        }
+
+        if (interval <= TimeSpan.Zero)
+        {
+            throw new ArgumentOutOfRangeException(nameof(interval));
+        }
+
+        return new Timer(_ => callback(GetSnapshot()), null, interval, interval);
+    }
+
+    /// <summary>
+    /// Writes a snapshot table to the writer every interval until the returned object is disposed.
+    /// </summary>
+    public IDisposable StartPeriodicDump(TextWriter writer, TimeSpan interval)
+    {
+        if (writer == null)
+        {
+            throw new ArgumentNullException(nameof(writer));
+        }
+
+        return StartPeriodicDump(profile =>
+        {
+            //the timer callback runs on the thread pool, so serialize writes and ignore a writer that has been closed.
+            lock (writer)
+            {
+                try
+                {
+                    profile.WriteTo(writer);
+                    writer.Flush();
+                }
+                catch (ObjectDisposedException) { }
+            }
+        }, interval);
+    }
+
+    internal void Record(ProfilingATNSimulator profilingSimulator)
+    {
+        var decisionInfos = profilingSimulator.getDecisionInfo();
+
+        lock (_lock)
+        {
+            _parseCount++;
+
+            for (var decision = 0; decision < decisionInfos.Length && decision < _decisionTotals.Length; decision++)
+            {
+                var decisionInfo = decisionInfos[decision];
+                if (decisionInfo == null || decisionInfo.invocations == 0)
+                {
+                    continue;
+                }
+
+                var totals = _decisionTotals[decision];
+                totals.Invocations += decisionInfo.invocations;
+                totals.TimeInPrediction += decisionInfo.timeInPrediction;
+                totals.SllLookaheadTotal += decisionInfo.SLL_TotalLook;
+                totals.SllMaxLookahead = Math.Max(totals.SllMaxLookahead, decisionInfo.SLL_MaxLook);
+                totals.LlFallbacks += decisionInfo.LL_Fallback;
+                totals.LlLookaheadTotal += decisionInfo.LL_TotalLook;
+                totals.LlMaxLookahead = Math.Max(totals.LlMaxLookahead, decisionInfo.LL_MaxLook);
+                totals.Ambiguities += decisionInfo.ambiguities.Count;
+                totals.ContextSensitivities += decisionInfo.contextSensitivities.Count;
+                totals.Errors += decisionInfo.errors.Count;
+                totals.PredicateEvaluations += decisionInfo.predicateEvals.Count;
+            }
+        }
+    }
+
+    private static string GetRuleName(int decision)
+    {
+        var ruleIndex = CelParser._ATN.GetDecisionState(decision).ruleIndex;
+        return ruleIndex >= 0 && ruleIndex < CelParser.ruleNames.Length ? CelParser.ruleNames[ruleIndex] : "";
+    }
+
+    private sealed class DecisionTotals
+    {
+        public long Invocations;
+        public long TimeInPrediction;
+        public long SllLookaheadTotal;
+        public long SllMaxLookahead;
+        public long LlFallbacks;
+        public long LlLookaheadTotal;
+        public long LlMaxLookahead;
+        public long Ambiguities;
+        public long ContextSensitivities;
+        public long Errors;
+        public long PredicateEvaluations;
+    }
+}
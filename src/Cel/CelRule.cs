@@ -0,0 +1,56 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using static Cel.Internal.CelParser;
+
+namespace Cel;
+
+/// <summary>
+/// One rule read from a rule pack by <c>CelEnvironment.ReadRules</c>.  Exactly one of <see cref="StartContext"/> and <see cref="Exception"/> is set.
+/// Error messages report line and column numbers within the rule pack rather than within the expression.
+/// </summary>
+public sealed class CelRule
+{
+    /// <summary>
+    /// The number of tokens, including whitespace and comments, that a single rule may contain before it is rejected.
+    /// </summary>
+    public const int DefaultMaximumTokenCount = 65536;
+
+    internal CelRule(string id, int line, string expression, StartContext? startContext, CelExpressionParserException? exception)
+    {
+        Id = id;
+        Line = line;
+        Expression = expression;
+        StartContext = startContext;
+        Exception = exception;
+    }
+
+    /// <summary>
+    /// The id of the rule, or an empty string for an expression that appears before the first rule id.
+    /// </summary>
+    public string Id { get; }
+
+    /// <summary>
+    /// The line of the rule pack on which the rule starts.
+    /// </summary>
+    public int Line { get; }
+
+    public string Expression { get; }
+
+    public StartContext? StartContext { get; }
+
+    public CelExpressionParserException? Exception { get; }
+
+    public bool IsSuccess => Exception == null;
+}
@@ -0,0 +1,99 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.IO.MemoryMappedFiles;
+using Cel.Internal;
+
+namespace Cel;
+
+/// <summary>
+/// A UTF-8 rule file mapped into memory so that its expressions can be parsed in place with
+/// <c>CelEnvironment.ParseBatch</c> using byte ranges.
+/// Parsing copies the text of every token out of the mapped file, so parse trees can still be used after the file is disposed.
+/// <see cref="Content"/> and any memory taken from it must not be used once the file is disposed.
+/// </summary>
+public sealed class CelRuleFile : IDisposable
+{
+    private readonly MemoryMappedFile? _memoryMappedFile;
+    private readonly MemoryMappedFileMemoryManager? _memoryManager;
+    private bool _disposed;
+
+    private CelRuleFile(MemoryMappedFile? memoryMappedFile, MemoryMappedFileMemoryManager? memoryManager)
+    {
+        _memoryMappedFile = memoryMappedFile;
+        _memoryManager = memoryManager;
+    }
+
+    public static CelRuleFile Open(string path)
+    {
+        if (string.IsNullOrWhiteSpace(path))
+        {
+            throw new ArgumentNullException(nameof(path));
+        }
+
+        var length = new FileInfo(path).Length;
+        if (length > int.MaxValue)
+        {
+            throw new NotSupportedException($"Rule file '{path}' is larger than 2 GB.");
+        }
+
+        //empty files cannot be mapped.
+        if (length == 0)
+        {
+            return new CelRuleFile(null, null);
+        }
+
+        var memoryMappedFile = MemoryMappedFile.CreateFromFile(path, FileMode.Open, null, 0, MemoryMappedFileAccess.Read);
+        try
+        {
+            var accessor = memoryMappedFile.CreateViewAccessor(0, length, MemoryMappedFileAccess.Read);
+            return new CelRuleFile(memoryMappedFile, new MemoryMappedFileMemoryManager(accessor, (int)length));
+        }
+        catch
+        {
+            memoryMappedFile.Dispose();
+            throw;
+        }
+    }
+
+    /// <summary>
+    /// The UTF-8 content of the file.
+    /// </summary>
+    public ReadOnlyMemory<byte> Content
+    {
+        get
+        {
+            if (_disposed)
+            {
+                throw new ObjectDisposedException(nameof(CelRuleFile));
+            }
+
+            return _memoryManager == null ? ReadOnlyMemory<byte>.Empty : _memoryManager.Memory;
+        }
+    }
+
+    public int Length => Content.Length;
+
+    public void Dispose()
+    {
+        if (_disposed)
+        {
+            return;
+        }
+
+        _disposed = true;
+        ((IDisposable?)_memoryManager)?.Dispose();
+        _memoryMappedFile?.Dispose();
+    }
+}
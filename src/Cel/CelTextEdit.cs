@@ -0,0 +1,54 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+/// <summary>
+/// A single text change: <see cref="RemovedLength"/> characters at <see cref="Offset"/> are replaced with <see cref="InsertedText"/>.
+/// </summary>
+public sealed class CelTextEdit
+{
+    public CelTextEdit(int offset, int removedLength, string insertedText)
+    {
+        if (offset < 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(offset));
+        }
+
+        if (removedLength < 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(removedLength));
+        }
+
+        Offset = offset;
+        RemovedLength = removedLength;
+        InsertedText = insertedText ?? throw new ArgumentNullException(nameof(insertedText));
+    }
+
+    public int Offset { get; }
+
+    public int RemovedLength { get; }
+
+    public string InsertedText { get; }
+
+    public static CelTextEdit Insert(int offset, string text)
+    {
+        return new CelTextEdit(offset, 0, text);
+    }
+
+    public static CelTextEdit Delete(int offset, int length)
+    {
+        return new CelTextEdit(offset, length, "");
+    }
+}
@@ -0,0 +1,56 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+public enum CelTypeKind : byte
+{
+    /// <summary>A value whose type is only known when the expression is evaluated.</summary>
+    Dyn,
+
+    /// <summary>The type of null.</summary>
+    Null,
+
+    Bool,
+
+    /// <summary>A signed 64-bit integer.</summary>
+    Int,
+
+    /// <summary>An unsigned 64-bit integer.</summary>
+    Uint,
+
+    Double,
+
+    String,
+
+    Bytes,
+
+    /// <summary>google.protobuf.Timestamp.</summary>
+    Timestamp,
+
+    /// <summary>google.protobuf.Duration.</summary>
+    Duration,
+
+    /// <summary>A list.  The element type is <see cref="CelCheckedType.ElementType"/>.</summary>
+    List,
+
+    /// <summary>A map.  The key and value types are <see cref="CelCheckedType.KeyType"/> and <see cref="CelCheckedType.ValueType"/>.</summary>
+    Map,
+
+    /// <summary>A protobuf message.  The descriptor is <see cref="CelCheckedType.MessageDescriptor"/>.</summary>
+    Message,
+
+    /// <summary>The type of a type, for example the value of <c>type(1)</c> or <c>int</c>.</summary>
+    Type
+}
@@ -0,0 +1,78 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel;
+
+/// <summary>
+/// Declares the variables that a <see cref="CelActivation"/> holds and the slot each of them is stored in.
+/// Slots are numbered in the order the variables are declared.  A layout is immutable and can be shared between threads and programs.
+/// </summary>
+public sealed class CelVariableLayout
+{
+    private readonly Dictionary<string, int> _slots = new(StringComparer.Ordinal);
+
+    public CelVariableLayout(params string[] variableNames) : this((IEnumerable<string>)variableNames) { }
+
+    public CelVariableLayout(IEnumerable<string> variableNames)
+    {
+        if (variableNames == null)
+        {
+            throw new ArgumentNullException(nameof(variableNames));
+        }
+
+        var names = variableNames.ToArray();
+
+        for (var i = 0; i < names.Length; i++)
+        {
+            if (string.IsNullOrWhiteSpace(names[i]))
+            {
+                throw new ArgumentException("Variable names cannot be empty.", nameof(variableNames));
+            }
+
+            if (_slots.ContainsKey(names[i]))
+            {
+                throw new ArgumentException($"Variable '{names[i]}' is declared more than once.", nameof(variableNames));
+            }
+
+            _slots.Add(names[i], i);
+        }
+
+        VariableNames = names;
+    }
+
+    public IReadOnlyList<string> VariableNames { get; }
+
+    public int Count => VariableNames.Count;
+
+    /// <summary>
+    /// Returns the slot of the variable, or -1 when the variable is not declared.
+    /// </summary>
+    public int GetSlot(string variableName)
+    {
+        if (variableName == null)
+        {
+            throw new ArgumentNullException(nameof(variableName));
+        }
+
+        return _slots.TryGetValue(variableName, out var slot) ? slot : -1;
+    }
+
+    /// <summary>
+    /// Returns the slots of the names that are declared, in the order the names are given.
+    /// </summary>
+    internal int[] GetSlots(string[] variableNames)
+    {
+        return variableNames.Select(GetSlot).Where(slot => slot >= 0).ToArray();
+    }
+}
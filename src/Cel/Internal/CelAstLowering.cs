@@ -0,0 +1,351 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Lowers a <see cref="CelParser"/> parse tree into a <see cref="CelAst"/>.
+/// Children are always lowered before their parent, so every node's children occupy a contiguous range of the child array.
+/// </summary>
+internal class CelAstLowering : CelBaseVisitor<int>
+{
+    #region Declarations
+
+    private readonly List<byte> _kinds = new();
+    private readonly List<byte> _flags = new();
+    private readonly List<int> _symbols = new();
+    private readonly List<int> _childOffsets = new();
+    private readonly List<int> _children = new();
+    private readonly List<int> _startOffsets = new();
+    private readonly List<int> _stopOffsets = new();
+    private readonly Dictionary<string, int> _symbolIds = new(StringComparer.Ordinal);
+    private readonly List<string> _symbolTable = new();
+
+    #endregion
+
+    #region Public
+
+    public CelAst Lower(CelParser.StartContext context)
+    {
+        var root = Visit(context);
+
+        //the last offset marks the end of the last node's children.
+        _childOffsets.Add(_children.Count);
+
+        return new CelAst(root,
+                          _kinds.ToArray(),
+                          _flags.ToArray(),
+                          _symbols.ToArray(),
+                          _childOffsets.ToArray(),
+                          _children.ToArray(),
+                          _startOffsets.ToArray(),
+                          _stopOffsets.ToArray(),
+                          _symbolTable.ToArray());
+    }
+
+    #endregion
+
+    #region Visitors
+
+    public override int VisitStart(CelParser.StartContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override int VisitExpr(CelParser.ExprContext context)
+    {
+        if (context.op == null)
+        {
+            return Visit(context.e);
+        }
+
+        return AddNode(CelAstNodeKind.Conditional, null, 0, context, Visit(context.e), Visit(context.e1), Visit(context.e2));
+    }
+
+    public override int VisitConditionalOr(CelParser.ConditionalOrContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        var children = new List<int> { Visit(context.e) };
+        children.AddRange(context._e1.Select(Visit));
+
+        return AddNode(CelAstNodeKind.LogicalOr, null, 0, context, children.ToArray());
+    }
+
+    public override int VisitConditionalAnd(CelParser.ConditionalAndContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        var children = new List<int> { Visit(context.e) };
+        children.AddRange(context._e1.Select(Visit));
+
+        return AddNode(CelAstNodeKind.LogicalAnd, null, 0, context, children.ToArray());
+    }
+
+    public override int VisitRelation(CelParser.RelationContext context)
+    {
+        return LowerBinaryChain(context.e, context._ops, context._e1);
+    }
+
+    public override int VisitAdditive(CelParser.AdditiveContext context)
+    {
+        return LowerBinaryChain(context.e, context._ops, context._e1);
+    }
+
+    public override int VisitMultiplicative(CelParser.MultiplicativeContext context)
+    {
+        return LowerBinaryChain(context.e, context._ops, context._e1);
+    }
+
+    public override int VisitMemberExpr(CelParser.MemberExprContext context)
+    {
+        return Visit(context.member());
+    }
+
+    public override int VisitLogicalNot(CelParser.LogicalNotContext context)
+    {
+        var node = Visit(context.member());
+
+        for (var i = 0; i < context._ops.Count; i++)
+        {
+            node = AddNode(CelAstNodeKind.LogicalNot, null, 0, context, node);
+        }
+
+        return node;
+    }
+
+    public override int VisitNegate(CelParser.NegateContext context)
+    {
+        var node = Visit(context.member());
+
+        for (var i = 0; i < context._ops.Count; i++)
+        {
+            node = AddNode(CelAstNodeKind.Negate, null, 0, context, node);
+        }
+
+        return node;
+    }
+
+    public override int VisitPrimaryExpr(CelParser.PrimaryExprContext context)
+    {
+        return Visit(context.primary());
+    }
+
+    public override int VisitSelect(CelParser.SelectContext context)
+    {
+        var flags = context.opt != null ? CelAst.OptionalFlag : (byte)0;
+        return AddNode(CelAstNodeKind.Select, context.id.Text, flags, context, Visit(context.member()));
+    }
+
+    public override int VisitMemberCall(CelParser.MemberCallContext context)
+    {
+        var children = new List<int> { Visit(context.member()) };
+        if (context.args != null)
+        {
+            children.AddRange(context.args._e.Select(Visit));
+        }
+
+        return AddNode(CelAstNodeKind.MemberCall, context.id.Text, 0, context, children.ToArray());
+    }
+
+    public override int VisitIndex(CelParser.IndexContext context)
+    {
+        var flags = context.opt != null ? CelAst.OptionalFlag : (byte)0;
+        return AddNode(CelAstNodeKind.Index, null, flags, context, Visit(context.member()), Visit(context.index));
+    }
+
+    public override int VisitIdentOrGlobalCall(CelParser.IdentOrGlobalCallContext context)
+    {
+        var flags = context.leadingDot != null ? CelAst.LeadingDotFlag : (byte)0;
+
+        if (context.op == null)
+        {
+            return AddNode(CelAstNodeKind.Ident, context.id.Text, flags, context);
+        }
+
+        var children = context.args?._e.Select(Visit).ToArray() ?? Array.Empty<int>();
+        return AddNode(CelAstNodeKind.GlobalCall, context.id.Text, flags, context, children);
+    }
+
+    public override int VisitNested(CelParser.NestedContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override int VisitCreateList(CelParser.CreateListContext context)
+    {
+        var children = new List<int>();
+
+        if (context.elems != null)
+        {
+            foreach (var element in context.elems._elems)
+            {
+                var node = Visit(element.e);
+                if (element.opt != null)
+                {
+                    _flags[node] |= CelAst.OptionalElementFlag;
+                }
+
+                children.Add(node);
+            }
+        }
+
+        return AddNode(CelAstNodeKind.CreateList, null, 0, context, children.ToArray());
+    }
+
+    public override int VisitCreateStruct(CelParser.CreateStructContext context)
+    {
+        var children = new List<int>();
+
+        if (context.entries != null)
+        {
+            for (var i = 0; i < context.entries._keys.Count; i++)
+            {
+                var key = context.entries._keys[i];
+                var flags = key.opt != null ? CelAst.OptionalFlag : (byte)0;
+
+                children.Add(AddNode(CelAstNodeKind.MapEntry, null, flags, key, Visit(key.e), Visit(context.entries._values[i])));
+            }
+        }
+
+        return AddNode(CelAstNodeKind.CreateMap, null, 0, context, children.ToArray());
+    }
+
+    public override int VisitCreateMessage(CelParser.CreateMessageContext context)
+    {
+        var children = new List<int>();
+
+        if (context.entries != null)
+        {
+            for (var i = 0; i < context.entries._fields.Count; i++)
+            {
+                var field = context.entries._fields[i];
+                var flags = field.opt != null ? CelAst.OptionalFlag : (byte)0;
+
+                children.Add(AddNode(CelAstNodeKind.FieldEntry, field.id.Text, flags, field, Visit(context.entries._values[i])));
+            }
+        }
+
+        var identifier = string.Join(".", context._ids.Select(c => c.Text));
+        var messageFlags = context.leadingDot != null ? CelAst.LeadingDotFlag : (byte)0;
+
+        return AddNode(CelAstNodeKind.CreateMessage, identifier, messageFlags, context, children.ToArray());
+    }
+
+    public override int VisitConstantLiteral(CelParser.ConstantLiteralContext context)
+    {
+        return Visit(context.literal());
+    }
+
+    public override int VisitInt(CelParser.IntContext context)
+    {
+        return AddNode(CelAstNodeKind.Int, (context.sign?.Text ?? "") + context.tok.Text, 0, context);
+    }
+
+    public override int VisitUint(CelParser.UintContext context)
+    {
+        return AddNode(CelAstNodeKind.Uint, context.tok.Text, 0, context);
+    }
+
+    public override int VisitDouble(CelParser.DoubleContext context)
+    {
+        return AddNode(CelAstNodeKind.Double, (context.sign?.Text ?? "") + context.tok.Text, 0, context);
+    }
+
+    public override int VisitString(CelParser.StringContext context)
+    {
+        return AddNode(CelAstNodeKind.String, context.tok.Text, 0, context);
+    }
+
+    public override int VisitBytes(CelParser.BytesContext context)
+    {
+        return AddNode(CelAstNodeKind.Bytes, context.tok.Text, 0, context);
+    }
+
+    public override int VisitBoolTrue(CelParser.BoolTrueContext context)
+    {
+        return AddNode(CelAstNodeKind.True, null, 0, context);
+    }
+
+    public override int VisitBoolFalse(CelParser.BoolFalseContext context)
+    {
+        return AddNode(CelAstNodeKind.False, null, 0, context);
+    }
+
+    public override int VisitNull(CelParser.NullContext context)
+    {
+        return AddNode(CelAstNodeKind.Null, null, 0, context);
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    /// <summary>
+    /// Lowers the flat operator loop of a precedence level into left associative binary nodes, so "a - b - c" becomes "(a - b) - c".
+    /// </summary>
+    private int LowerBinaryChain<T>(T first, IList<IToken> ops, IList<T> operands) where T : ParserRuleContext
+    {
+        var node = Visit(first);
+
+        for (var i = 0; i < ops.Count; i++)
+        {
+            node = AddNode(CelAstNodeKind.Binary, ops[i].Text, 0, first.Start, operands[i].Stop, node, Visit(operands[i]));
+        }
+
+        return node;
+    }
+
+    private int AddNode(CelAstNodeKind kind, string? symbol, byte flags, ParserRuleContext source, params int[] children)
+    {
+        return AddNode(kind, symbol, flags, source.Start, source.Stop ?? source.Start, children);
+    }
+
+    private int AddNode(CelAstNodeKind kind, string? symbol, byte flags, IToken? start, IToken? stop, params int[] children)
+    {
+        var node = _kinds.Count;
+
+        _kinds.Add((byte)kind);
+        _flags.Add(flags);
+        _symbols.Add(symbol == null ? -1 : GetSymbolId(symbol));
+        _childOffsets.Add(_children.Count);
+        _children.AddRange(children);
+        _startOffsets.Add(start?.StartIndex ?? -1);
+        _stopOffsets.Add(stop?.StopIndex ?? -1);
+
+        return node;
+    }
+
+    private int GetSymbolId(string symbol)
+    {
+        if (!_symbolIds.TryGetValue(symbol, out var symbolId))
+        {
+            symbolId = _symbolTable.Count;
+            _symbolTable.Add(symbol);
+            _symbolIds.Add(symbol, symbolId);
+        }
+
+        return symbolId;
+    }
+
+    #endregion
+}
@@ -0,0 +1,52 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Internal;
+
+/// <summary>
+/// The environment settings that change what an expression compiles to, or whether it compiles at all, and so are part of a compile cache key.
+/// </summary>
+internal readonly struct CelCompileSettings : IEquatable<CelCompileSettings>
+{
+    public CelCompileSettings(int maximumTokenCount, int maximumNestingDepth, TimeSpan parseTimeout, bool foldConstants)
+    {
+        MaximumTokenCount = maximumTokenCount;
+        MaximumNestingDepth = maximumNestingDepth;
+        ParseTimeout = parseTimeout;
+        FoldConstants = foldConstants;
+    }
+
+    public int MaximumTokenCount { get; }
+    public int MaximumNestingDepth { get; }
+    public TimeSpan ParseTimeout { get; }
+    public bool FoldConstants { get; }
+
+    public bool Equals(CelCompileSettings other)
+    {
+        return MaximumTokenCount == other.MaximumTokenCount && MaximumNestingDepth == other.MaximumNestingDepth && ParseTimeout == other.ParseTimeout && FoldConstants == other.FoldConstants;
+    }
+
+    public override bool Equals(object? obj)
+    {
+        return obj is CelCompileSettings other && Equals(other);
+    }
+
+    public override int GetHashCode()
+    {
+        unchecked
+        {
+            return ((MaximumTokenCount * 397 ^ MaximumNestingDepth) * 397 ^ ParseTimeout.GetHashCode()) * 397 ^ (FoldConstants ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using Antlr4.Runtime.Tree;
+using Google.Protobuf;
+using Google.Protobuf.Reflection;
+using Google.Protobuf.WellKnownTypes;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Folds subexpressions that do not read variables and only call pure standard functions, such as <c>duration('1h') + duration('30m')</c> or <c>[1, 2, 3].size()</c>.
+/// A folded subexpression is evaluated once, when it is compiled, and its value is returned by every evaluation.  Only the topmost constant
+/// node is folded; the nodes below it are compiled without folding, since they are only evaluated by it.
+/// A subexpression that fails is folded into an error node that evaluates it again each time, so the error is still reported by evaluation,
+/// or absorbed by the logical operators, rather than thrown by the compiler.
+/// </summary>
+internal sealed class CelConstantFolder
+{
+    #region Declarations
+
+    //the standard functions whose result only depends on their arguments.  The macros are not folded.
+    private static readonly HashSet<string> PureFunctions = new(StringComparer.Ordinal)
+    {
+        "bool", "bytes", "contains", "decimal", "double", "duration", "dyn", "endsWith", "getDate", "getDayOfMonth", "getDayOfWeek", "getDayOfYear",
+        "getFullYear", "getHours", "getMilliseconds", "getMinutes", "getMonth", "getSeconds", "int", "matches", "size", "startsWith", "string",
+        "timestamp", "type", "uint"
+    };
+
+    //the constness of every node seen by the compilation running on this thread, computed once for each node.
+    [ThreadStatic]
+    private static Dictionary<IParseTree, ConstantKind>? _constantKinds;
+
+    //true while the nodes below a folded node are compiled.
+    [ThreadStatic]
+    private static bool _folding;
+
+    private readonly CelVisitor _celVisitor;
+
+    #endregion
+
+    #region Constructor
+
+    public CelConstantFolder(CelVisitor celVisitor)
+    {
+        _celVisitor = celVisitor;
+    }
+
+    #endregion
+
+    #region Public
+
+    /// <summary>
+    /// Remembers the constness of the nodes until the returned scope is disposed, so that each node is only analyzed once however deep it is.
+    /// Scopes can be nested; only the outermost one clears what was remembered.
+    /// </summary>
+    public AnalysisScope BeginAnalysis()
+    {
+        if (_constantKinds != null)
+        {
+            return default;
+        }
+
+        _constantKinds = new Dictionary<IParseTree, ConstantKind>();
+        return new AnalysisScope(true);
+    }
+
+    /// <summary>
+    /// Returns true when the node is the topmost node of a constant subexpression that does more than return a literal,
+    /// and its value is not a list, map or message.
+    /// </summary>
+    public bool IsFoldable(IParseTree tree)
+    {
+        return !_folding && GetConstantKind(tree, _constantKinds ?? new Dictionary<IParseTree, ConstantKind>()) == ConstantKind.Constant;
+    }
+
+    /// <summary>
+    /// Compiles the node, without folding the nodes below it, then evaluates it once and returns a delegate that returns its value.
+    /// Nodes that turn out to read a variable or to return a value the caller may change are not folded.
+    /// </summary>
+    public CelExpressionDelegate Fold(IParseTree tree, Func<IParseTree, CelExpressionDelegate> compile)
+    {
+        CelExpressionDelegate expressionDelegate;
+
+        _folding = true;
+        try
+        {
+            expressionDelegate = compile(tree);
+        }
+        finally
+        {
+            _folding = false;
+        }
+
+        return Fold(expressionDelegate);
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private CelExpressionDelegate Fold(CelExpressionDelegate expressionDelegate)
+    {
+        var readsVariable = false;
+        var tryGetVariable = new TryGetVariableDelegate((string variableName, out object? value) =>
+        {
+            readsVariable = true;
+            value = null;
+            return false;
+        });
+
+        var functionsVersion = _celVisitor.FunctionsVersion;
+        var strictTypeComparison = _celVisitor.StrictTypeComparison;
+        object? result = null;
+        var failed = false;
+
+        try
+        {
+            result = expressionDelegate.Invoke(tryGetVariable);
+        }
+        catch (Exception)
+        {
+            failed = true;
+        }
+
+        if (readsVariable || (!failed && !IsImmutable(result)))
+        {
+            return expressionDelegate;
+        }
+
+        return new FoldedConstant(_celVisitor, expressionDelegate, functionsVersion, strictTypeComparison, result, failed).Evaluate;
+    }
+
+    private ConstantKind GetConstantKind(IParseTree tree, Dictionary<IParseTree, ConstantKind> constantKinds)
+    {
+        if (!constantKinds.TryGetValue(tree, out var constantKind))
+        {
+            constantKind = AnalyzeConstantKind(tree, constantKinds);
+            constantKinds[tree] = constantKind;
+        }
+
+        return constantKind;
+    }
+
+    /// <summary>
+    /// Identifiers are the only leaves that are not constant.  Function calls are only constant when they call a pure standard function
+    /// that has not been overloaded by a registered function.  Lists, maps and messages are constant but mutable, and so is any node that
+    /// may return one of its children's values.
+    /// </summary>
+    private ConstantKind AnalyzeConstantKind(IParseTree tree, Dictionary<IParseTree, ConstantKind> constantKinds)
+    {
+        switch (tree)
+        {
+            case CelParser.LiteralContext:
+                return ConstantKind.Literal;
+
+            case CelParser.IdentOrGlobalCallContext context:
+                return context.op != null && IsPureFunction(context.id.Text) ? AnalyzeCall(context, context.id.Text, constantKinds) : ConstantKind.None;
+
+            case CelParser.MemberCallContext context:
+                return IsPureFunction(context.id.Text) ? AnalyzeCall(context, context.id.Text, constantKinds) : ConstantKind.None;
+
+            case CelParser.CreateListContext or CelParser.CreateStructContext or CelParser.CreateMessageContext:
+                return AnalyzeChildren((ParserRuleContext)tree, constantKinds, out _) == ConstantKind.None ? ConstantKind.None : ConstantKind.Mutable;
+
+            case CelParser.ConditionalOrContext { _ops.Count: > 0 } or CelParser.ConditionalAndContext { _ops.Count: > 0 }
+                or CelParser.RelationContext { _ops.Count: > 0 } or CelParser.LogicalNotContext or CelParser.NegateContext:
+                return AnalyzeChildren((ParserRuleContext)tree, constantKinds, out _) == ConstantKind.None ? ConstantKind.None : ConstantKind.Constant;
+
+            case ParserRuleContext context:
+                var constantKind = AnalyzeChildren(context, constantKinds, out var childCount);
+
+                //literals are already converted once by the visitor, so a node that only passes a literal through has nothing to fold.
+                return constantKind == ConstantKind.Literal && (childCount != 1 || !IsPassThrough(context)) ? ConstantKind.Constant : constantKind;
+
+            default:
+                return ConstantKind.None;
+        }
+    }
+
+    /// <summary>
+    /// The pure functions return a new scalar, except <c>dyn</c> which returns its argument.
+    /// </summary>
+    private ConstantKind AnalyzeCall(ParserRuleContext context, string functionName, Dictionary<IParseTree, ConstantKind> constantKinds)
+    {
+        var constantKind = AnalyzeChildren(context, constantKinds, out _);
+        if (constantKind == ConstantKind.None)
+        {
+            return ConstantKind.None;
+        }
+
+        return functionName == "dyn" && constantKind == ConstantKind.Mutable ? ConstantKind.Mutable : ConstantKind.Constant;
+    }
+
+    /// <summary>
+    /// Returns the least constant kind of the children, where a literal is more constant than a constant and a constant more than a mutable constant.
+    /// </summary>
+    private ConstantKind AnalyzeChildren(ParserRuleContext context, Dictionary<IParseTree, ConstantKind> constantKinds, out int childCount)
+    {
+        var constantKind = ConstantKind.Literal;
+        childCount = 0;
+
+        for (var i = 0; i < context.ChildCount; i++)
+        {
+            if (context.GetChild(i) is not ParserRuleContext child)
+            {
+                continue;
+            }
+
+            childCount++;
+
+            var childKind = GetConstantKind(child, constantKinds);
+            if (childKind == ConstantKind.None)
+            {
+                return ConstantKind.None;
+            }
+
+            if (childKind > constantKind)
+            {
+                constantKind = childKind;
+            }
+        }
+
+        return constantKind;
+    }
+
+    private bool IsPureFunction(string functionName)
+    {
+        return PureFunctions.Contains(functionName) && !_celVisitor.IsRegisteredFunction(functionName);
+    }
+
+    private static bool IsPassThrough(ParserRuleContext context)
+    {
+        return context is CelParser.StartContext or CelParser.ExprContext or CelParser.ConditionalOrContext or CelParser.ConditionalAndContext
+                   or CelParser.RelationContext or CelParser.AdditiveContext or CelParser.MultiplicativeContext or CelParser.MemberExprContext
+                   or CelParser.PrimaryExprContext or CelParser.NestedContext or CelParser.ConstantLiteralContext;
+    }
+
+    private static bool IsImmutable(object? value)
+    {
+        return value is null or bool or string or long or ulong or int or uint or double or float or decimal or DateTimeOffset or DateTime or TimeSpan
+                   or ByteString or Duration or CelType or CelNoSuchField or EnumValueDescriptor;
+    }
+
+    #endregion
+
+    #region Analysis Scope
+
+    public readonly struct AnalysisScope : IDisposable
+    {
+        private readonly bool _outermost;
+
+        public AnalysisScope(bool outermost)
+        {
+            _outermost = outermost;
+        }
+
+        public void Dispose()
+        {
+            if (_outermost)
+            {
+                _constantKinds = null;
+                _folding = false;
+            }
+        }
+    }
+
+    #endregion
+
+    #region Constant Kind
+
+    /// <summary>
+    /// Ordered from the most to the least constant.
+    /// </summary>
+    private enum ConstantKind
+    {
+        Literal,
+        Constant,
+        Mutable,
+        None
+    }
+
+    #endregion
+
+    #region Folded Constant
+
+    private sealed class FoldedConstant
+    {
+        private readonly CelVisitor _celVisitor;
+        private readonly CelExpressionDelegate _expressionDelegate;
+        private readonly int _functionsVersion;
+        private readonly bool _strictTypeComparison;
+        private readonly object? _value;
+        private readonly bool _failed;
+
+        public FoldedConstant(CelVisitor celVisitor, CelExpressionDelegate expressionDelegate, int functionsVersion, bool strictTypeComparison, object? value, bool failed)
+        {
+            _celVisitor = celVisitor;
+            _expressionDelegate = expressionDelegate;
+            _functionsVersion = functionsVersion;
+            _strictTypeComparison = strictTypeComparison;
+            _value = value;
+            _failed = failed;
+        }
+
+        public object? Evaluate(TryGetVariableDelegate tryGetVariable)
+        {
+            //registering a function or changing strict type comparison can change the value, so the node is evaluated again from then on.
+            //a node that failed is evaluated again too, so that every evaluation throws its own exception.
+            if (_failed || _celVisitor.FunctionsVersion != _functionsVersion || _celVisitor.StrictTypeComparison != _strictTypeComparison)
+            {
+                return _expressionDelegate.Invoke(tryGetVariable);
+            }
+
+            //durations are protobuf messages, so each evaluation is given its own copy.
+            return _value is Duration duration ? duration.Clone() : _value;
+        }
+    }
+
+    #endregion
+}
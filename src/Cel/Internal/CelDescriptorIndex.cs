@@ -0,0 +1,128 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Google.Protobuf.Reflection;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Finds the enum and message descriptors of an environment by name.  The descriptors and the namespace do not change after the environment is created,
+/// so the descriptors are indexed by full name once and the namespace scopes a name is resolved in are worked out once.
+/// </summary>
+internal sealed class CelDescriptorIndex
+{
+    #region Declarations
+
+    private readonly Dictionary<string, EnumDescriptor> _enumDescriptors = new(StringComparer.Ordinal);
+    private readonly Dictionary<string, MessageDescriptor> _messageDescriptors = new(StringComparer.Ordinal);
+    private readonly string[] _namespacePrefixes;
+
+    #endregion
+
+    #region Constructor
+
+    public CelDescriptorIndex(IList<FileDescriptor> fileDescriptors, string? messageNamespace)
+    {
+        //the top level types come first, so they win over nested types with the same full name.
+        AddDescriptors(_enumDescriptors, fileDescriptors.SelectMany(c => c.EnumTypes), c => c.FullName);
+        AddDescriptors(_enumDescriptors, fileDescriptors.SelectMany(c => c.MessageTypes).SelectMany(c => c.EnumTypes), c => c.FullName);
+        AddDescriptors(_messageDescriptors, fileDescriptors.SelectMany(c => c.MessageTypes), c => c.FullName);
+        AddDescriptors(_messageDescriptors, fileDescriptors.SelectMany(c => c.MessageTypes).SelectMany(c => c.NestedTypes), c => c.FullName);
+
+        _namespacePrefixes = GetNamespacePrefixes(messageNamespace);
+    }
+
+    #endregion
+
+    #region Public
+
+    public EnumDescriptor? FindEnumDescriptor(string identifier)
+    {
+        return Find(_enumDescriptors, identifier);
+    }
+
+    public MessageDescriptor? FindMessageDescriptor(string identifier)
+    {
+        return Find(_messageDescriptors, identifier);
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private T? Find<T>(Dictionary<string, T> descriptors, string identifier) where T : class
+    {
+        if (identifier.StartsWith(".", StringComparison.Ordinal))
+        {
+            //the name started with an explicit period, so we need to scope the resolution locally.
+            return descriptors.TryGetValue(identifier.Substring(1), out var rootDescriptor) ? rootDescriptor : null;
+        }
+
+        //find the name outright because we have no namespace
+        if (_namespacePrefixes.Length == 0)
+        {
+            return descriptors.TryGetValue(identifier, out var descriptor) ? descriptor : null;
+        }
+
+        //find fully qualified A.B.a.b, then A.a.b
+        foreach (var namespacePrefix in _namespacePrefixes)
+        {
+            if (descriptors.TryGetValue(namespacePrefix + identifier, out var descriptor))
+            {
+                return descriptor;
+            }
+        }
+
+        if (identifier.StartsWith("protobuf.", StringComparison.Ordinal))
+        {
+            //this is required for some test that are creating "protobuf.Any(" and missing the "google." prefix.
+            return descriptors.TryGetValue("google." + identifier, out var descriptor) ? descriptor : null;
+        }
+
+        return null;
+    }
+
+    /// <summary>
+    /// Returns the scopes a name is resolved in when the expression has a namespace: in namespace "A.B" the name "a.b" is resolved as "A.B.a.b" and then "A.a.b".
+    /// </summary>
+    private static string[] GetNamespacePrefixes(string? messageNamespace)
+    {
+        if (string.IsNullOrWhiteSpace(messageNamespace))
+        {
+            return Array.Empty<string>();
+        }
+
+        var namespaceSplit = messageNamespace!.Split('.');
+        if (namespaceSplit.Length > 1)
+        {
+            return new[] { messageNamespace + ".", string.Join(".", namespaceSplit.Take(namespaceSplit.Length - 1)) + "." };
+        }
+
+        return new[] { messageNamespace + "." };
+    }
+
+    private static void AddDescriptors<T>(Dictionary<string, T> index, IEnumerable<T> descriptors, Func<T, string> getFullName)
+    {
+        foreach (var descriptor in descriptors)
+        {
+            var fullName = getFullName(descriptor);
+            if (!index.ContainsKey(fullName))
+            {
+                index.Add(fullName, descriptor);
+            }
+        }
+    }
+
+    #endregion
+}
@@ -0,0 +1,770 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Linq.Expressions;
+using System.Reflection;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Misc;
+using Antlr4.Runtime.Tree;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Compiles a parse tree into a single expression tree that the runtime compiles to IL, rather than into a tree of delegates.
+/// The logical operators, the conditional, comparisons and arithmetic are emitted inline so that they run as straight-line code.
+/// Every other node is compiled by the <see cref="CelVisitor"/> and invoked from the generated code, so both backends share one implementation of it.
+/// <para>
+/// When the expression has been type checked, nodes typed as int, uint, double or bool are compiled to expressions of their CLR type.
+/// Their operators call the typed helpers directly, so they neither box their operands nor allocate argument arrays,
+/// and their values are only boxed where a node without a static type reads them.
+/// </para>
+/// </summary>
+internal class CelExpressionTreeCompiler : CelBaseVisitor<Expression>
+{
+    #region Declarations
+
+    private static readonly MethodInfo AddMethod = new Func<object?, object?, object?>(ArithmeticFunctions.Add).Method;
+    private static readonly MethodInfo SubtractMethod = new Func<object?, object?, object?>(ArithmeticFunctions.Subtract).Method;
+    private static readonly MethodInfo MultiplyMethod = new Func<object?, object?, object?>(ArithmeticFunctions.Multiply).Method;
+    private static readonly MethodInfo DivideMethod = new Func<object?, object?, object?>(ArithmeticFunctions.Divide).Method;
+    private static readonly MethodInfo ModulusMethod = new Func<object?, object?, object?>(ArithmeticFunctions.Modulus).Method;
+    private static readonly MethodInfo LogicalNotMethod = new Func<object?, object?>(ArithmeticFunctions.LogicalNot).Method;
+    private static readonly MethodInfo NegateMethod = new Func<object?, object?>(ArithmeticFunctions.Negate).Method;
+    private static readonly MethodInfo NoSuchFieldErrorMethod = new Func<object, Exception>(NoSuchFieldError).Method;
+    private static readonly MethodInfo ConditionTypeErrorMethod = new Func<object?, Exception>(ConditionTypeError).Method;
+    private static readonly ConstructorInfo NoSuchOverloadConstructor = typeof(CelNoSuchOverloadException).GetConstructor(new[] { typeof(string), typeof(Exception) })!;
+    private static readonly ConstructorInfo OverflowConstructor = typeof(CelOverflowException).GetConstructor(new[] { typeof(string) })!;
+    private static readonly MethodInfo NegateIntMethod = new Func<long, long>(Int64Helpers.NegateIntValue).Method;
+
+    private static readonly Dictionary<string, MethodInfo> PrimitiveArithmeticMethods = new()
+    {
+        { "add_int64", new Func<long, long, long>(Int64Helpers.AddIntInt).Method },
+        { "subtract_int64", new Func<long, long, long>(Int64Helpers.SubtractIntInt).Method },
+        { "multiply_int64", new Func<long, long, long>(Int64Helpers.MultiplyIntInt).Method },
+        { "divide_int64", new Func<long, long, long>(Int64Helpers.DivideIntInt).Method },
+        { "modulo_int64", new Func<long, long, long>(Int64Helpers.ModulusIntInt).Method },
+        { "add_uint64", new Func<ulong, ulong, ulong>(UInt64Helpers.AddUIntUInt).Method },
+        { "subtract_uint64", new Func<ulong, ulong, ulong>(UInt64Helpers.SubtractUIntUInt).Method },
+        { "multiply_uint64", new Func<ulong, ulong, ulong>(UInt64Helpers.MultiplyUIntUInt).Method },
+        { "divide_uint64", new Func<ulong, ulong, ulong>(UInt64Helpers.DivideUIntUInt).Method },
+        { "modulo_uint64", new Func<ulong, ulong, ulong>(UInt64Helpers.ModulusUIntUInt).Method },
+        { "add_double", new Func<double, double, double>(DoubleHelpers.AddDoubleDouble).Method },
+        { "subtract_double", new Func<double, double, double>(DoubleHelpers.SubtractDoubleDouble).Method },
+        { "multiply_double", new Func<double, double, double>(DoubleHelpers.MultiplyDoubleDouble).Method },
+        { "divide_double", new Func<double, double, double>(DoubleHelpers.DivideDoubleDouble).Method }
+    };
+
+    //ints are compared with each other inline, as are uints.  Every other pair uses the helper the interpreter's comparison uses.
+    private static readonly Dictionary<(CelTypeKind, CelTypeKind), MethodInfo> PrimitiveCompareMethods = new()
+    {
+        { (CelTypeKind.Int, CelTypeKind.Uint), new Func<long, ulong, int>(Int64Helpers.CompareIntUInt).Method },
+        { (CelTypeKind.Int, CelTypeKind.Double), new Func<long, double, int>(Int64Helpers.CompareIntDouble).Method },
+        { (CelTypeKind.Uint, CelTypeKind.Int), new Func<ulong, long, int>(UInt64Helpers.CompareUIntInt).Method },
+        { (CelTypeKind.Uint, CelTypeKind.Double), new Func<ulong, double, int>(UInt64Helpers.CompareUIntDouble).Method },
+        { (CelTypeKind.Double, CelTypeKind.Int), new Func<double, long, int>(DoubleHelpers.CompareDoubleInt).Method },
+        { (CelTypeKind.Double, CelTypeKind.Uint), new Func<double, ulong, int>(DoubleHelpers.CompareDoubleUInt).Method },
+        { (CelTypeKind.Double, CelTypeKind.Double), new Func<double, double, int>(DoubleHelpers.CompareDoubleDouble).Method }
+    };
+
+    private static readonly Dictionary<Type, MethodInfo> UnboxPrimitiveMethods = new()
+    {
+        { typeof(long), new Func<object?, long>(UnboxInt).Method },
+        { typeof(ulong), new Func<object?, ulong>(UnboxUint).Method },
+        { typeof(double), new Func<object?, double>(UnboxDouble).Method },
+        { typeof(bool), new Func<object?, bool>(UnboxBool).Method }
+    };
+
+    private static readonly TryGetVariableDelegate NoVariables = (string variableName, out object? value) =>
+    {
+        value = null;
+        return false;
+    };
+
+    private static readonly Expression NullResult = Expression.Constant(null, typeof(object));
+    private static readonly Expression TrueResult = Expression.Constant(true, typeof(object));
+    private static readonly Expression FalseResult = Expression.Constant(false, typeof(object));
+
+    private CelVisitor CelVisitor { get; }
+    private CelCheckedExpression? CheckedExpression { get; }
+    private MethodInfo EvaluateRelationMethod { get; }
+    private ParameterExpression TryGetVariable { get; } = Expression.Parameter(typeof(TryGetVariableDelegate), "tryGetVariable");
+
+    #endregion
+
+    #region Constructor
+
+    public CelExpressionTreeCompiler(CelVisitor celVisitor)
+    {
+        CelVisitor = celVisitor;
+        EvaluateRelationMethod = new Func<string, object?, object?, object?>(celVisitor.EvaluateRelation).Method;
+    }
+
+    /// <summary>
+    /// Creates a compiler for a single checked expression.  The compiler keeps the expression's types, so it is not shared between expressions.
+    /// </summary>
+    public CelExpressionTreeCompiler(CelVisitor celVisitor, CelCheckedExpression checkedExpression) : this(celVisitor)
+    {
+        CheckedExpression = checkedExpression;
+    }
+
+    #endregion
+
+    #region Public
+
+    public CelExpressionDelegate Compile(CelParser.StartContext context)
+    {
+        Expression body;
+
+        using (CelVisitor.BeginConstantAnalysis())
+        {
+            body = Visit(context);
+        }
+
+        return Expression.Lambda<CelExpressionDelegate>(body, TryGetVariable).Compile();
+    }
+
+    #endregion
+
+    #region Visitors
+
+    public override Expression Visit(IParseTree tree)
+    {
+        //constant subexpressions are folded by the interpreter, so they are evaluated once rather than compiled.
+        //the interpreter's delegate is kept even when it could not be folded, so the subexpression is never compiled twice.
+        if (CelVisitor.IsFoldableConstant(tree))
+        {
+            return Expression.Invoke(Expression.Constant(CelVisitor.Visit(tree)), TryGetVariable);
+        }
+
+        var primitiveType = GetPrimitiveType(tree);
+        if (primitiveType == null)
+        {
+            return base.Visit(tree);
+        }
+
+        return BoxPrimitive(CompilePrimitive(tree, primitiveType));
+    }
+
+    /// <summary>
+    /// Nodes without an inline implementation are compiled by the interpreter and their delegate is invoked from the generated code.
+    /// </summary>
+    public override Expression VisitChildren(IRuleNode node)
+    {
+        return Expression.Invoke(Expression.Constant(CelVisitor.Visit(node)), TryGetVariable);
+    }
+
+    public override Expression VisitStart([NotNull] CelParser.StartContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override Expression VisitExpr([NotNull] CelParser.ExprContext context)
+    {
+        if (context.op?.Text != "?")
+        {
+            return Visit(context.e);
+        }
+
+        //a condition that is known to be a bool does not need to be checked.
+        if (GetPrimitiveType(context.e) == typeof(bool))
+        {
+            return Expression.Condition(CompilePrimitive(context.e, typeof(bool)), Visit(context.e1), Visit(context.e2));
+        }
+
+        var conditionResult = Expression.Variable(typeof(object), "conditionResult");
+
+        return Expression.Block(typeof(object),
+                                new[] { conditionResult },
+                                Expression.Assign(conditionResult, Visit(context.e)),
+                                Expression.Condition(Expression.TypeIs(conditionResult, typeof(bool)),
+                                                     Expression.Condition(Expression.Unbox(conditionResult, typeof(bool)), Visit(context.e1), Visit(context.e2)),
+                                                     Expression.Throw(Expression.Call(ConditionTypeErrorMethod, conditionResult), typeof(object))));
+    }
+
+    public override Expression VisitConditionalOr([NotNull] CelParser.ConditionalOrContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        return CompileLogical(context._e1.Prepend(context.e), true, "Could not compare OR values.");
+    }
+
+    public override Expression VisitConditionalAnd([NotNull] CelParser.ConditionalAndContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        return CompileLogical(context._e1.Prepend(context.e), false, "Could not compare AND values.");
+    }
+
+    public override Expression VisitRelation([NotNull] CelParser.RelationContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        var leftResult = Expression.Variable(typeof(object), "leftResult");
+        var rightResult = Expression.Variable(typeof(object), "rightResult");
+        var expressions = new List<Expression> { Expression.Assign(leftResult, Visit(context.e)) };
+
+        for (var i = 0; i < context._ops.Count; i++)
+        {
+            expressions.Add(Expression.Assign(rightResult, Visit(context._e1[i])));
+            expressions.Add(Expression.Assign(leftResult, CompileRelation(context._ops[i].Text, leftResult, rightResult)));
+        }
+
+        expressions.Add(leftResult);
+
+        return Expression.Block(typeof(object), new[] { leftResult, rightResult }, expressions);
+    }
+
+    public override Expression VisitAdditive([NotNull] CelParser.AdditiveContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        return CompileArithmetic(context, context.e, context._ops, context._e1);
+    }
+
+    public override Expression VisitMultiplicative([NotNull] CelParser.MultiplicativeContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            return Visit(context.e);
+        }
+
+        return CompileArithmetic(context, context.e, context._ops, context._e1);
+    }
+
+    public override Expression VisitMemberExpr([NotNull] CelParser.MemberExprContext context)
+    {
+        return Visit(context.member());
+    }
+
+    public override Expression VisitLogicalNot([NotNull] CelParser.LogicalNotContext context)
+    {
+        return CompileUnary(Visit(context.member()), LogicalNotMethod, context._ops.Count(op => op.Text == "!"));
+    }
+
+    public override Expression VisitNegate([NotNull] CelParser.NegateContext context)
+    {
+        return CompileUnary(Visit(context.member()), NegateMethod, context._ops.Count(op => op.Text == "-"));
+    }
+
+    public override Expression VisitPrimaryExpr([NotNull] CelParser.PrimaryExprContext context)
+    {
+        return Visit(context.primary());
+    }
+
+    public override Expression VisitNested([NotNull] CelParser.NestedContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override Expression VisitCreateList([NotNull] CelParser.CreateListContext context)
+    {
+        if (context.elems == null)
+        {
+            return Expression.Constant(Array.Empty<object?>(), typeof(object));
+        }
+
+        return Expression.Convert(Expression.NewArrayInit(typeof(object), context.elems._elems.Select(element => Visit(element.e))), typeof(object));
+    }
+
+    public override Expression VisitConstantLiteral([NotNull] CelParser.ConstantLiteralContext context)
+    {
+        return Visit(context.literal());
+    }
+
+    public override Expression VisitInt([NotNull] CelParser.IntContext context)
+    {
+        return CompileLiteral(context);
+    }
+
+    public override Expression VisitUint([NotNull] CelParser.UintContext context)
+    {
+        return CompileLiteral(context);
+    }
+
+    public override Expression VisitDouble([NotNull] CelParser.DoubleContext context)
+    {
+        return CompileLiteral(context);
+    }
+
+    public override Expression VisitString([NotNull] CelParser.StringContext context)
+    {
+        return CompileLiteral(context);
+    }
+
+    public override Expression VisitBytes([NotNull] CelParser.BytesContext context)
+    {
+        return CompileLiteral(context);
+    }
+
+    public override Expression VisitBoolTrue([NotNull] CelParser.BoolTrueContext context)
+    {
+        return TrueResult;
+    }
+
+    public override Expression VisitBoolFalse([NotNull] CelParser.BoolFalseContext context)
+    {
+        return FalseResult;
+    }
+
+    public override Expression VisitNull([NotNull] CelParser.NullContext context)
+    {
+        return NullResult;
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    /// <summary>
+    /// Emits the same evaluation as <see cref="CelVisitor"/> uses for the logical operators: every operand is evaluated until one of them decides the result,
+    /// and an error or a non-boolean operand only matters when no operand decides it.
+    /// </summary>
+    private Expression CompileLogical(IEnumerable<ParserRuleContext> operands, bool decidingValue, string errorMessage)
+    {
+        var exception = Expression.Variable(typeof(Exception), "exception");
+        var noSuchOverload = Expression.Variable(typeof(bool), "noSuchOverload");
+        var conditionValue = Expression.Variable(typeof(object), "conditionValue");
+        var caughtException = Expression.Parameter(typeof(Exception), "x");
+        var returnTarget = Expression.Label(typeof(object), "return");
+        var decidingResult = decidingValue ? TrueResult : FalseResult;
+
+        var expressions = new List<Expression>
+        {
+            Expression.Assign(exception, Expression.Constant(null, typeof(Exception))),
+            Expression.Assign(noSuchOverload, Expression.Constant(false))
+        };
+
+        foreach (var operand in operands)
+        {
+            var evaluateOperand = Expression.Block(typeof(void),
+                                                   Expression.Assign(conditionValue, Visit(operand)),
+                                                   ThrowIfNoSuchField(conditionValue),
+                                                   Expression.IfThenElse(Expression.TypeIs(conditionValue, typeof(bool)),
+                                                                         Expression.IfThen(Expression.Equal(Expression.Unbox(conditionValue, typeof(bool)), Expression.Constant(decidingValue)),
+                                                                                           Expression.Return(returnTarget, decidingResult)),
+                                                                         Expression.Assign(noSuchOverload, Expression.Constant(true))));
+
+            //strict type comparison can be changed after the expression is compiled, so it is read when the error is caught.
+            var catchError = Expression.Block(typeof(void),
+                                              Expression.IfThen(Expression.Property(Expression.Constant(CelVisitor), nameof(CelVisitor.StrictTypeComparison)), Expression.Rethrow()),
+                                              Expression.Assign(exception, caughtException));
+
+            expressions.Add(Expression.TryCatch(evaluateOperand,
+                                                Expression.Catch(typeof(CelNoSuchFieldException), Expression.Rethrow()),
+                                                Expression.Catch(caughtException, catchError)));
+        }
+
+        expressions.Add(Expression.IfThen(Expression.NotEqual(exception, Expression.Constant(null, typeof(Exception))),
+                                          Expression.Throw(Expression.New(NoSuchOverloadConstructor, Expression.Constant(errorMessage), exception))));
+
+        expressions.Add(Expression.Label(returnTarget, Expression.Condition(noSuchOverload, NullResult, decidingValue ? FalseResult : TrueResult)));
+
+        return Expression.Block(typeof(object), new[] { exception, noSuchOverload, conditionValue }, expressions);
+    }
+
+    /// <summary>
+    /// Comparing two ints is by far the most common relation, so it is emitted inline and only other operands call <see cref="CelVisitor.EvaluateRelation"/>.
+    /// </summary>
+    private Expression CompileRelation(string op, ParameterExpression leftResult, ParameterExpression rightResult)
+    {
+        Expression evaluateRelation = Expression.Call(Expression.Constant(CelVisitor), EvaluateRelationMethod, Expression.Constant(op), leftResult, rightResult);
+
+        Func<Expression, Expression, Expression>? compareInts = op switch
+        {
+            "==" => Expression.Equal,
+            "!=" => Expression.NotEqual,
+            "<" => Expression.LessThan,
+            "<=" => Expression.LessThanOrEqual,
+            ">" => Expression.GreaterThan,
+            ">=" => Expression.GreaterThanOrEqual,
+            _ => null
+        };
+
+        if (compareInts == null)
+        {
+            return evaluateRelation;
+        }
+
+        var bothInts = Expression.AndAlso(Expression.TypeIs(leftResult, typeof(long)), Expression.TypeIs(rightResult, typeof(long)));
+        var compareResult = compareInts(Expression.Unbox(leftResult, typeof(long)), Expression.Unbox(rightResult, typeof(long)));
+
+        return Expression.Condition(bothInts, Expression.Condition(compareResult, TrueResult, FalseResult), evaluateRelation);
+    }
+
+    private Expression CompileArithmetic<T>(ParserRuleContext context, T first, IList<IToken> ops, IList<T> operands) where T : ParserRuleContext
+    {
+        var leftResult = Expression.Variable(typeof(object), "leftResult");
+        var rightResult = Expression.Variable(typeof(object), "rightResult");
+        var expressions = new List<Expression> { Expression.Assign(leftResult, Visit(first)) };
+
+        //the operators of one precedence level are left associative, so "a - b - c" is "(a - b) - c".
+        for (var i = 0; i < ops.Count; i++)
+        {
+            var method = ops[i].Text switch
+            {
+                "+" => AddMethod,
+                "-" => SubtractMethod,
+                "*" => MultiplyMethod,
+                "/" => DivideMethod,
+                "%" => ModulusMethod,
+                _ => throw new CelExpressionParserException("Could not parse op value.", context)
+            };
+
+            expressions.Add(Expression.Assign(rightResult, Visit(operands[i])));
+            expressions.Add(ThrowIfNoSuchField(leftResult));
+            expressions.Add(ThrowIfNoSuchField(rightResult));
+            expressions.Add(Expression.Assign(leftResult, Expression.Call(method, leftResult, rightResult)));
+        }
+
+        expressions.Add(leftResult);
+
+        return Expression.Block(typeof(object), new[] { leftResult, rightResult }, expressions);
+    }
+
+    private static Expression CompileUnary(Expression operand, MethodInfo method, int count)
+    {
+        for (var i = 0; i < count; i++)
+        {
+            operand = Expression.Call(method, operand);
+        }
+
+        return operand;
+    }
+
+    /// <summary>
+    /// Literals do not read variables, so they are evaluated once by the interpreter and emitted as constants.
+    /// A literal that cannot be converted is left to report its error each time the expression is evaluated, as it is by the interpreter.
+    /// </summary>
+    private Expression CompileLiteral(ParserRuleContext context)
+    {
+        var literal = CelVisitor.Visit(context);
+
+        try
+        {
+            return Expression.Constant(literal.Invoke(NoVariables), typeof(object));
+        }
+        catch (Exception)
+        {
+            return Expression.Invoke(Expression.Constant(literal), TryGetVariable);
+        }
+    }
+
+    private Type? GetPrimitiveType(IParseTree tree)
+    {
+        if (CheckedExpression == null)
+        {
+            return null;
+        }
+
+        return CheckedExpression.GetNodeType(tree).Kind switch
+        {
+            CelTypeKind.Int => typeof(long),
+            CelTypeKind.Uint => typeof(ulong),
+            CelTypeKind.Double => typeof(double),
+            CelTypeKind.Bool => typeof(bool),
+            _ => null
+        };
+    }
+
+    /// <summary>
+    /// Compiles a node that the checker typed as a primitive to an expression of the primitive's CLR type.
+    /// Nodes without a typed implementation are compiled as usual and their value is unboxed.
+    /// </summary>
+    private Expression CompilePrimitive(IParseTree tree, Type type)
+    {
+        var compiled = tree switch
+        {
+            CelParser.StartContext context => CompilePrimitive(context.e, type),
+            CelParser.ExprContext { op: null } context => CompilePrimitive(context.e, type),
+            CelParser.ExprContext context => TryCompilePrimitiveConditional(context, type),
+            CelParser.ConditionalOrContext { _e1.Count: 0 } context => CompilePrimitive(context.e, type),
+            CelParser.ConditionalAndContext { _e1.Count: 0 } context => CompilePrimitive(context.e, type),
+            CelParser.RelationContext { _e1.Count: 0 } context => CompilePrimitive(context.e, type),
+            CelParser.RelationContext context => TryCompilePrimitiveRelation(context),
+            CelParser.AdditiveContext { _e1.Count: 0 } context => CompilePrimitive(context.e, type),
+            CelParser.AdditiveContext context => TryCompilePrimitiveArithmetic(context, context.e, context._e1),
+            CelParser.MultiplicativeContext { _e1.Count: 0 } context => CompilePrimitive(context.e, type),
+            CelParser.MultiplicativeContext context => TryCompilePrimitiveArithmetic(context, context.e, context._e1),
+            CelParser.MemberExprContext context => CompilePrimitive(context.member(), type),
+            CelParser.LogicalNotContext context => TryCompilePrimitiveLogicalNot(context),
+            CelParser.NegateContext context => TryCompilePrimitiveNegate(context, type),
+            CelParser.PrimaryExprContext context => CompilePrimitive(context.primary(), type),
+            CelParser.NestedContext context => CompilePrimitive(context.e, type),
+            CelParser.ConstantLiteralContext context => CompilePrimitive(context.literal(), type),
+            CelParser.LiteralContext context => TryCompilePrimitiveLiteral(context, type),
+            _ => null
+        };
+
+        return compiled ?? Expression.Call(UnboxPrimitiveMethods[type], base.Visit(tree));
+    }
+
+    private Expression? TryCompilePrimitiveConditional(CelParser.ExprContext context, Type type)
+    {
+        if (GetPrimitiveType(context.e) != typeof(bool))
+        {
+            return null;
+        }
+
+        return Expression.Condition(CompilePrimitive(context.e, typeof(bool)), CompilePrimitive(context.e1, type), CompilePrimitive(context.e2, type));
+    }
+
+    /// <summary>
+    /// Compiles the operators of a precedence level whose overloads the checker resolved to int, uint or double arithmetic.
+    /// Overflows are reported as <see cref="CelOverflowException"/>, as they are by <see cref="ArithmeticFunctions"/>.
+    /// </summary>
+    private Expression? TryCompilePrimitiveArithmetic<T>(ParserRuleContext context, T first, IList<T> operands) where T : ParserRuleContext
+    {
+        var overloadIds = CheckedExpression!.GetOverloadIds(context);
+        if (overloadIds.Count != operands.Count)
+        {
+            return null;
+        }
+
+        var methods = new MethodInfo[operands.Count];
+        for (var i = 0; i < methods.Length; i++)
+        {
+            var overloadId = overloadIds[i];
+            if (overloadId == null || !PrimitiveArithmeticMethods.TryGetValue(overloadId, out var method))
+            {
+                return null;
+            }
+
+            methods[i] = method;
+        }
+
+        var type = methods[0].ReturnType;
+        if (GetPrimitiveType(first) != type || operands.Any(operand => GetPrimitiveType(operand) != type))
+        {
+            return null;
+        }
+
+        var leftResult = Expression.Variable(type, "leftResult");
+        var rightResult = Expression.Variable(type, "rightResult");
+        var overflow = Expression.Parameter(typeof(OverflowException), "x");
+        var expressions = new List<Expression> { Expression.Assign(leftResult, CompilePrimitive(first, type)) };
+
+        for (var i = 0; i < methods.Length; i++)
+        {
+            //only the operator is guarded, so overflows thrown while evaluating the operands are not translated.
+            Expression operation = Expression.Call(methods[i], leftResult, rightResult);
+            if (type != typeof(double))
+            {
+                operation = Expression.TryCatch(operation,
+                                                Expression.Catch(overflow, Expression.Throw(Expression.New(OverflowConstructor, Expression.Property(overflow, nameof(Exception.Message))), type)));
+            }
+
+            expressions.Add(Expression.Assign(rightResult, CompilePrimitive(operands[i], type)));
+            expressions.Add(Expression.Assign(leftResult, operation));
+        }
+
+        expressions.Add(leftResult);
+
+        return Expression.Block(type, new[] { leftResult, rightResult }, expressions);
+    }
+
+    /// <summary>
+    /// Compiles a relation whose operands are all primitives.  Relations between other operands, and "in", are evaluated by <see cref="CelVisitor.EvaluateRelation"/>.
+    /// </summary>
+    private Expression? TryCompilePrimitiveRelation(CelParser.RelationContext context)
+    {
+        var leftType = GetPrimitiveType(context.e);
+        if (leftType == null)
+        {
+            return null;
+        }
+
+        var leftKind = CheckedExpression!.GetNodeType(context.e).Kind;
+        var left = CompilePrimitive(context.e, leftType);
+
+        for (var i = 0; i < context._ops.Count; i++)
+        {
+            var rightType = GetPrimitiveType(context._e1[i]);
+            if (rightType == null)
+            {
+                return null;
+            }
+
+            var rightKind = CheckedExpression.GetNodeType(context._e1[i]).Kind;
+            var comparison = TryCompilePrimitiveComparison(context._ops[i].Text, left, leftKind, CompilePrimitive(context._e1[i], rightType), rightKind);
+            if (comparison == null)
+            {
+                return null;
+            }
+
+            left = comparison;
+            leftKind = CelTypeKind.Bool;
+        }
+
+        return left;
+    }
+
+    private static Expression? TryCompilePrimitiveComparison(string op, Expression left, CelTypeKind leftKind, Expression right, CelTypeKind rightKind)
+    {
+        Func<Expression, Expression, Expression>? compare = op switch
+        {
+            "==" => Expression.Equal,
+            "!=" => Expression.NotEqual,
+            "<" => Expression.LessThan,
+            "<=" => Expression.LessThanOrEqual,
+            ">" => Expression.GreaterThan,
+            ">=" => Expression.GreaterThanOrEqual,
+            _ => null
+        };
+
+        if (compare == null)
+        {
+            return null;
+        }
+
+        if (leftKind == rightKind && (leftKind == CelTypeKind.Int || leftKind == CelTypeKind.Uint || (leftKind == CelTypeKind.Bool && op is "==" or "!=")))
+        {
+            return compare(left, right);
+        }
+
+        if (PrimitiveCompareMethods.TryGetValue((leftKind, rightKind), out var compareMethod))
+        {
+            return compare(Expression.Call(compareMethod, left, right), Expression.Constant(0));
+        }
+
+        return null;
+    }
+
+    private Expression? TryCompilePrimitiveLogicalNot(CelParser.LogicalNotContext context)
+    {
+        if (GetPrimitiveType(context.member()) != typeof(bool))
+        {
+            return null;
+        }
+
+        var operand = CompilePrimitive(context.member(), typeof(bool));
+        for (var i = 0; i < context._ops.Count; i++)
+        {
+            operand = Expression.Not(operand);
+        }
+
+        return operand;
+    }
+
+    private Expression? TryCompilePrimitiveNegate(CelParser.NegateContext context, Type type)
+    {
+        if (GetPrimitiveType(context.member()) != type || (type != typeof(long) && type != typeof(double)))
+        {
+            return null;
+        }
+
+        var operand = CompilePrimitive(context.member(), type);
+        for (var i = 0; i < context._ops.Count; i++)
+        {
+            operand = type == typeof(long) ? Expression.Call(NegateIntMethod, operand) : Expression.Negate(operand);
+        }
+
+        return operand;
+    }
+
+    /// <summary>
+    /// Literals are evaluated once by the interpreter, as they are by <see cref="CompileLiteral"/>, and emitted as typed constants.
+    /// </summary>
+    private Expression? TryCompilePrimitiveLiteral(CelParser.LiteralContext context, Type type)
+    {
+        try
+        {
+            var literal = CelVisitor.Visit(context).Invoke(NoVariables);
+            if (literal != null && literal.GetType() == type)
+            {
+                return Expression.Constant(literal, type);
+            }
+        }
+        catch (Exception)
+        {
+            //the literal reports its error when it is evaluated.
+        }
+
+        return null;
+    }
+
+    /// <summary>
+    /// Bools are boxed into the cached true and false results, so only ints, uints and doubles allocate when they are boxed.
+    /// </summary>
+    private static Expression BoxPrimitive(Expression value)
+    {
+        if (value.Type == typeof(bool))
+        {
+            return Expression.Condition(value, TrueResult, FalseResult);
+        }
+
+        return Expression.Convert(value, typeof(object));
+    }
+
+    private static long UnboxInt(object? value)
+    {
+        return value is long longValue ? longValue : throw PrimitiveTypeError(value, "int");
+    }
+
+    private static ulong UnboxUint(object? value)
+    {
+        return value is ulong ulongValue ? ulongValue : throw PrimitiveTypeError(value, "uint");
+    }
+
+    private static double UnboxDouble(object? value)
+    {
+        return value is double doubleValue ? doubleValue : throw PrimitiveTypeError(value, "double");
+    }
+
+    private static bool UnboxBool(object? value)
+    {
+        return value is bool boolValue ? boolValue : throw PrimitiveTypeError(value, "bool");
+    }
+
+    /// <summary>
+    /// A typed node evaluated to a value of another type, which only happens when a variable does not have the type it was declared with.
+    /// </summary>
+    private static Exception PrimitiveTypeError(object? value, string typeName)
+    {
+        if (value is CelNoSuchField celNoSuchField)
+        {
+            return new CelNoSuchFieldException(celNoSuchField.Message);
+        }
+
+        return new CelNoSuchOverloadException($"Expected a value of type '{typeName}' but found type '{value?.GetType().FullName ?? "null"}'.");
+    }
+
+    private static Expression ThrowIfNoSuchField(Expression value)
+    {
+        return Expression.IfThen(Expression.TypeIs(value, typeof(CelNoSuchField)), Expression.Throw(Expression.Call(NoSuchFieldErrorMethod, value)));
+    }
+
+    private static Exception NoSuchFieldError(object value)
+    {
+        return new CelNoSuchFieldException(((CelNoSuchField)value).Message);
+    }
+
+    private static Exception ConditionTypeError(object? conditionResult)
+    {
+        return new CelNoSuchOverloadException($"Expression returned type '{conditionResult?.GetType().FullName ?? "null"} but boolean was expected.");
+    }
+
+    #endregion
+}
@@ -0,0 +1,184 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Resolves the overload called at one call site of an expression.  An overload that accepts any argument is bound when the call site is first used.
+/// Otherwise the overloads resolved for the argument types seen at the call site are cached, so a call with the same argument types as an earlier call
+/// only compares the argument types before calling the function.  Registering a function discards the resolved overloads of every call site.
+/// </summary>
+internal sealed class CelFunctionCallSite
+{
+    #region Declarations
+
+    private const int MaximumCachedOverloads = 4;
+
+    private readonly CelVisitor _celVisitor;
+    private readonly string _functionName;
+    private readonly int _argumentCount;
+    private CacheState? _cacheState;
+
+    #endregion
+
+    #region Constructor
+
+    public CelFunctionCallSite(CelVisitor celVisitor, string functionName, int argumentCount)
+    {
+        _celVisitor = celVisitor;
+        _functionName = functionName;
+        _argumentCount = argumentCount;
+    }
+
+    #endregion
+
+    #region Public
+
+    /// <summary>
+    /// Returns the same overload as <see cref="CelExtensions.TryGetFunctionWithArgValues"/>, and throws the same exception when the function has no overload for the arguments.
+    /// </summary>
+    public bool TryGetFunction(object?[] argValues, out CelFunctionDelegate? celFunction)
+    {
+        var cacheState = GetCacheState();
+
+        if (!cacheState.IsRegistered)
+        {
+            celFunction = null;
+            return false;
+        }
+
+        if (cacheState.BoundFunction != null && argValues.Length == _argumentCount)
+        {
+            celFunction = cacheState.BoundFunction;
+            return true;
+        }
+
+        var cachedOverloads = cacheState.CachedOverloads;
+        for (var i = 0; i < cachedOverloads.Length; i++)
+        {
+            if (cachedOverloads[i].Matches(argValues))
+            {
+                celFunction = cachedOverloads[i].CelFunction;
+                return true;
+            }
+        }
+
+        if (!_celVisitor.TryGetFunction(_functionName, argValues, out celFunction))
+        {
+            return false;
+        }
+
+        //call sites rarely see more than a few argument types.  Once the cache is full, other argument types are resolved on every call.
+        if (cachedOverloads.Length < MaximumCachedOverloads)
+        {
+            var argTypes = argValues.Select(c => c?.GetType() ?? typeof(object)).ToArray();
+            _cacheState = cacheState.AddOverload(new CachedOverload(argTypes, celFunction!));
+        }
+
+        return true;
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private CacheState GetCacheState()
+    {
+        var functionsVersion = _celVisitor.FunctionsVersion;
+
+        var cacheState = _cacheState;
+        if (cacheState == null || cacheState.FunctionsVersion != functionsVersion)
+        {
+            cacheState = CreateCacheState(functionsVersion);
+            _cacheState = cacheState;
+        }
+
+        return cacheState;
+    }
+
+    private CacheState CreateCacheState(int functionsVersion)
+    {
+        var registrations = _celVisitor.GetFunctionRegistrations(_functionName);
+        if (registrations == null)
+        {
+            return new CacheState(functionsVersion, false, null, Array.Empty<CachedOverload>());
+        }
+
+        //overloads are tried in order, so the first overload with the right number of arguments is always called when all of its arguments are objects.
+        var firstRegistration = registrations.FirstOrDefault(c => c.ArgsTypes.Length == _argumentCount);
+        var boundFunction = firstRegistration != null && firstRegistration.ArgsTypes.All(c => c == typeof(object)) ? firstRegistration.CelFunction : null;
+
+        return new CacheState(functionsVersion, true, boundFunction, Array.Empty<CachedOverload>());
+    }
+
+    #endregion
+
+    #region Cache State
+
+    /// <summary>
+    /// The state is replaced rather than changed, so that threads sharing the call site always read a consistent state.
+    /// </summary>
+    private sealed class CacheState
+    {
+        public CacheState(int functionsVersion, bool isRegistered, CelFunctionDelegate? boundFunction, CachedOverload[] cachedOverloads)
+        {
+            FunctionsVersion = functionsVersion;
+            IsRegistered = isRegistered;
+            BoundFunction = boundFunction;
+            CachedOverloads = cachedOverloads;
+        }
+
+        public int FunctionsVersion { get; }
+        public bool IsRegistered { get; }
+        public CelFunctionDelegate? BoundFunction { get; }
+        public CachedOverload[] CachedOverloads { get; }
+
+        public CacheState AddOverload(CachedOverload cachedOverload)
+        {
+            return new CacheState(FunctionsVersion, IsRegistered, BoundFunction, CachedOverloads.Append(cachedOverload).ToArray());
+        }
+    }
+
+    private sealed class CachedOverload
+    {
+        public CachedOverload(Type[] argTypes, CelFunctionDelegate celFunction)
+        {
+            ArgTypes = argTypes;
+            CelFunction = celFunction;
+        }
+
+        public Type[] ArgTypes { get; }
+        public CelFunctionDelegate CelFunction { get; }
+
+        public bool Matches(object?[] argValues)
+        {
+            if (argValues.Length != ArgTypes.Length)
+            {
+                return false;
+            }
+
+            for (var i = 0; i < argValues.Length; i++)
+            {
+                if ((argValues[i]?.GetType() ?? typeof(object)) != ArgTypes[i])
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    #endregion
+}
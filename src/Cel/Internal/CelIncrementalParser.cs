@@ -0,0 +1,571 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Collections;
+using System.Collections.Concurrent;
+using System.Reflection;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Atn;
+using Antlr4.Runtime.Misc;
+using Antlr4.Runtime.Tree;
+using static Cel.Internal.CelParser;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Re-parses an edited expression by re-lexing only the tokens that the edit touches and re-parsing only the smallest subtree that contains them.
+/// A subtree is only re-parsed on its own when the tokens around it cannot change how it parses, so the re-parsed subtree is always
+/// an expr, an element of an '||' chain or an element of an '&amp;&amp;' chain.  Every other subtree is reused as is.
+/// Tokens after the edit are moved to the new input stream instead of being lexed again.
+/// Edits that cannot be applied incrementally fall back to parsing the whole expression.
+/// </summary>
+internal class CelIncrementalParser
+{
+    #region Declarations
+
+    private static readonly ConcurrentDictionary<Type, FieldInfo[]> ContextFields = new();
+
+    private readonly CelExpressionParser _celExpressionParser;
+
+    #endregion
+
+    #region Constructor
+
+    public CelIncrementalParser(CelExpressionParser celExpressionParser)
+    {
+        _celExpressionParser = celExpressionParser;
+    }
+
+    #endregion
+
+    #region Public
+
+    public CelEditableExpression Parse(string expression)
+    {
+        var startContext = _celExpressionParser.Parse(expression, out var tokens);
+        return new CelEditableExpression(expression, startContext, tokens, tokens.All(t => t is CelToken));
+    }
+
+    public CelEditableExpression Reparse(CelEditableExpression previous, CelTextEdit edit)
+    {
+        var text = previous.Text.Substring(0, edit.Offset) + edit.InsertedText + previous.Text.Substring(edit.Offset + edit.RemovedLength);
+
+        //the previous tree and tokens are updated in place, so a snapshot can only be re-parsed incrementally once.
+        //any later edit of the same snapshot is parsed again from its text.
+        if (previous.CanReparseIncrementally && previous.TryConsume())
+        {
+            CelEditableExpression? reparsed;
+
+            //a failed re-parse adds DFA states too, so the cache is trimmed however it ends.
+            try
+            {
+                reparsed = TryReparse(previous, edit, text);
+            }
+            finally
+            {
+                _celExpressionParser.ParserCache.EnforceMaximumStateCount();
+            }
+
+            if (reparsed != null)
+            {
+                return reparsed;
+            }
+
+            previous.Release();
+        }
+
+        return Parse(text);
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private CelEditableExpression? TryReparse(CelEditableExpression previous, CelTextEdit edit, string text)
+    {
+        var oldTokens = previous.Tokens;
+
+        //a token that ends right before the edit can be extended by it, so re-lexing starts with that token.
+        var firstDamaged = FindFirstTokenEndingAtOrAfter(oldTokens, edit.Offset - 1);
+        if (oldTokens[firstDamaged].StartIndex > edit.Offset)
+        {
+            return null;
+        }
+
+        if (!TryRelex(oldTokens, edit, text, firstDamaged, out var relexedTokens, out var firstReused, out var newSyncToken))
+        {
+            return null;
+        }
+
+        var countDelta = relexedTokens.Count - (firstReused - firstDamaged);
+        var newTokens = new List<IToken>(oldTokens.Count + countDelta);
+        for (var i = 0; i < firstDamaged; i++)
+        {
+            newTokens.Add(oldTokens[i]);
+        }
+
+        newTokens.AddRange(relexedTokens);
+        for (var i = firstReused; i < oldTokens.Count; i++)
+        {
+            newTokens.Add(oldTokens[i]);
+        }
+
+        var renumberFrom = firstDamaged;
+
+        //edits to whitespace and comments only move tokens, so there is nothing to re-parse.
+        if (ContainsDefaultChannelToken(oldTokens, firstDamaged, firstReused) || ContainsDefaultChannelToken(relexedTokens, 0, relexedTokens.Count))
+        {
+            if (!TryGetAnchorTokens(oldTokens, firstDamaged, firstReused, out var firstAnchor, out var lastAnchor))
+            {
+                return null;
+            }
+
+            var oldContext = FindReparseContext(previous.Tree, firstAnchor, lastAnchor);
+            if (oldContext == null)
+            {
+                return null;
+            }
+
+            var regionStart = Math.Min(oldContext.Start.TokenIndex, firstDamaged);
+            var regionStop = oldContext.Stop.TokenIndex >= firstReused ? oldContext.Stop.TokenIndex + countDelta : firstDamaged + relexedTokens.Count - 1;
+            if (regionStop < regionStart)
+            {
+                return null;
+            }
+
+            var newContext = TryParseRegion(oldContext, newTokens, regionStart, regionStop);
+            if (newContext == null)
+            {
+                //the region's token stream numbered the old tokens it read, so put their indexes back.
+                RenumberTokens(oldTokens, 0);
+                return null;
+            }
+
+            ReplaceContext(oldContext, newContext);
+            renumberFrom = regionStart;
+        }
+
+        if (newSyncToken != null)
+        {
+            MoveTokens(newTokens, firstDamaged + relexedTokens.Count, newSyncToken);
+        }
+
+        RenumberTokens(newTokens, renumberFrom);
+
+        return new CelEditableExpression(text, previous.Tree, newTokens, relexedTokens.All(t => t is CelToken));
+    }
+
+    /// <summary>
+    /// Lexes the new text from the first damaged token until a token starts and stops where an old token did after the edit.
+    /// From there on the old and new text are the same, so the rest of the old tokens still apply.
+    /// </summary>
+    private bool TryRelex(List<IToken> oldTokens, CelTextEdit edit, string text, int firstDamaged, out List<IToken> relexedTokens, out int firstReused, out IToken? newSyncToken)
+    {
+        relexedTokens = new List<IToken>();
+        firstReused = oldTokens.Count;
+        newSyncToken = null;
+
+        var restartToken = oldTokens[firstDamaged];
+        var inputStream = new AntlrInputStream(text);
+        var celLexer = _celExpressionParser.CreateLexer(inputStream);
+
+        var lexerErrorListener = new AntlrLexerErrorListener();
+        celLexer.RemoveErrorListeners();
+        celLexer.AddErrorListener(lexerErrorListener);
+
+        //the lexer has no modes, so it can restart at any token boundary.
+        inputStream.Seek(restartToken.StartIndex);
+        celLexer.Line = restartToken.Line;
+        celLexer.Column = restartToken.Column;
+
+        var editEnd = edit.Offset + edit.InsertedText.Length;
+        var indexDelta = edit.InsertedText.Length - edit.RemovedLength;
+
+        while (true)
+        {
+            var token = celLexer.NextToken();
+
+            //lexer errors are reported by a full parse.
+            if (lexerErrorListener.ErrorList.Count > 0)
+            {
+                return false;
+            }
+
+            if (token.StartIndex >= editEnd)
+            {
+                var oldIndex = FindTokenStartingAt(oldTokens, firstDamaged, token.StartIndex - indexDelta);
+                if (oldIndex >= 0 && oldTokens[oldIndex].Type == token.Type && oldTokens[oldIndex].StopIndex + indexDelta == token.StopIndex)
+                {
+                    firstReused = oldIndex;
+                    newSyncToken = token;
+                    return true;
+                }
+            }
+
+            relexedTokens.Add(token);
+
+            if (token.Type == TokenConstants.EOF)
+            {
+                return true;
+            }
+        }
+    }
+
+    /// <summary>
+    /// Gets the range of old default channel tokens that the re-parsed subtree has to contain.
+    /// If the edit only damaged hidden tokens, the new tokens have to fit between the default channel tokens on either side of it.
+    /// </summary>
+    private static bool TryGetAnchorTokens(List<IToken> oldTokens, int firstDamaged, int firstReused, out int firstAnchor, out int lastAnchor)
+    {
+        firstAnchor = -1;
+        lastAnchor = -1;
+
+        for (var i = firstDamaged; i < firstReused; i++)
+        {
+            if (oldTokens[i].Channel == Lexer.DefaultTokenChannel)
+            {
+                if (firstAnchor < 0)
+                {
+                    firstAnchor = i;
+                }
+
+                lastAnchor = i;
+            }
+        }
+
+        if (firstAnchor >= 0)
+        {
+            return true;
+        }
+
+        for (var i = firstDamaged - 1; i >= 0 && firstAnchor < 0; i--)
+        {
+            if (oldTokens[i].Channel == Lexer.DefaultTokenChannel)
+            {
+                firstAnchor = i;
+            }
+        }
+
+        for (var i = firstReused; i < oldTokens.Count && lastAnchor < 0; i++)
+        {
+            if (oldTokens[i].Channel == Lexer.DefaultTokenChannel)
+            {
+                lastAnchor = i;
+            }
+        }
+
+        if (firstAnchor < 0)
+        {
+            firstAnchor = lastAnchor;
+        }
+
+        if (lastAnchor < 0)
+        {
+            lastAnchor = firstAnchor;
+        }
+
+        return firstAnchor >= 0;
+    }
+
+    /// <summary>
+    /// Walks down from the root to the deepest subtree that contains the token range and can be re-parsed on its own.
+    /// </summary>
+    private static ParserRuleContext? FindReparseContext(StartContext tree, int firstTokenIndex, int lastTokenIndex)
+    {
+        ParserRuleContext? reparseContext = null;
+        IParseTree? node = tree;
+
+        while (node is ParserRuleContext context)
+        {
+            if (IsReparseContext(context))
+            {
+                reparseContext = context;
+            }
+
+            node = FindChildContaining(context, firstTokenIndex, lastTokenIndex);
+        }
+
+        return reparseContext;
+    }
+
+    private static bool IsReparseContext(ParserRuleContext context)
+    {
+        //these are always followed by a token that cannot continue them, so they parse the same way with or without the rest of the tree.
+        return context is ExprContext ||
+               (context is ConditionalAndContext && context.Parent is ConditionalOrContext) ||
+               (context is RelationContext && context.Parent is ConditionalAndContext);
+    }
+
+    private static IParseTree? FindChildContaining(ParserRuleContext context, int firstTokenIndex, int lastTokenIndex)
+    {
+        var children = context.children;
+        if (children == null)
+        {
+            return null;
+        }
+
+        //children are in token order, so we can binary search them.
+        var low = 0;
+        var high = children.Count - 1;
+
+        while (low <= high)
+        {
+            var middle = (low + high) / 2;
+            var child = children[middle];
+            GetTokenRange(child, out var start, out var stop);
+
+            if (stop < firstTokenIndex)
+            {
+                low = middle + 1;
+            }
+            else if (start > firstTokenIndex)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return stop >= lastTokenIndex ? child : null;
+            }
+        }
+
+        return null;
+    }
+
+    private static void GetTokenRange(IParseTree node, out int start, out int stop)
+    {
+        if (node is ITerminalNode terminalNode)
+        {
+            start = terminalNode.Symbol.TokenIndex;
+            stop = start;
+            return;
+        }
+
+        var context = (ParserRuleContext)node;
+        start = context.Start.TokenIndex;
+        stop = context.Stop?.TokenIndex ?? start;
+    }
+
+    private ParserRuleContext? TryParseRegion(ParserRuleContext oldContext, List<IToken> newTokens, int regionStart, int regionStop)
+    {
+        var commonTokenStream = new CommonTokenStream(new ListTokenSource(newTokens.GetRange(regionStart, regionStop - regionStart + 1)));
+        var celParser = _celExpressionParser.ParserCache.CreateParser(commonTokenStream);
+
+        //the region is nested inside the rest of the expression and shares its token count, so the limits apply to the whole expression.
+        celParser.ParseBudget = _celExpressionParser.CreateParseBudget(GetNestingDepth(oldContext), CountParsedTokens(newTokens, regionStart, regionStop));
+
+        celParser.RemoveErrorListeners();
+        celParser.ErrorHandler = new BailErrorStrategy();
+        celParser.Interpreter.PredictionMode = PredictionMode.LL;
+
+        try
+        {
+            ParserRuleContext newContext = oldContext switch
+            {
+                ExprContext => celParser.expr(),
+                ConditionalAndContext => celParser.conditionalAnd(),
+                _ => celParser.relation()
+            };
+
+            //anything left over means the edit changed the shape of the tree around the region.
+            return commonTokenStream.LA(1) == TokenConstants.EOF ? newContext : null;
+        }
+        catch (ParseCanceledException)
+        {
+            return null;
+        }
+        catch (CelParserLimitExceededException)
+        {
+            //the full parse the caller falls back to reports the limit.
+            return null;
+        }
+    }
+
+    /// <summary>
+    /// The number of <c>expr</c> rules the context is nested in, which is how the parse budget counts nesting.
+    /// </summary>
+    private static int GetNestingDepth(ParserRuleContext context)
+    {
+        var nestingDepth = 0;
+
+        for (var ancestor = context.Parent; ancestor != null; ancestor = ancestor.Parent)
+        {
+            if (ancestor is ExprContext)
+            {
+                nestingDepth++;
+            }
+        }
+
+        return nestingDepth;
+    }
+
+    /// <summary>
+    /// The number of tokens outside of the region that the parser consumes, which excludes hidden tokens and the end of file.
+    /// </summary>
+    private static int CountParsedTokens(List<IToken> tokens, int regionStart, int regionStop)
+    {
+        var tokenCount = 0;
+
+        for (var i = 0; i < tokens.Count; i++)
+        {
+            if ((i < regionStart || i > regionStop) && tokens[i].Channel == TokenConstants.DefaultChannel && tokens[i].Type != TokenConstants.EOF)
+            {
+                tokenCount++;
+            }
+        }
+
+        return tokenCount;
+    }
+
+    private static void ReplaceContext(ParserRuleContext oldContext, ParserRuleContext newContext)
+    {
+        var parent = (ParserRuleContext)oldContext.Parent;
+
+        newContext.Parent = parent;
+        newContext.invokingState = oldContext.invokingState;
+
+        //the generated contexts also hold labeled children in fields such as e, e1 and _e1.
+        var fields = ContextFields.GetOrAdd(parent.GetType(), t => t.GetFields(BindingFlags.Public | BindingFlags.Instance));
+        foreach (var field in fields)
+        {
+            var value = field.GetValue(parent);
+
+            if (value == oldContext)
+            {
+                field.SetValue(parent, newContext);
+            }
+            else if (value is IList list)
+            {
+                var index = list.IndexOf(oldContext);
+                if (index >= 0)
+                {
+                    list[index] = newContext;
+                }
+            }
+        }
+
+        //ancestors that started or stopped with the old subtree now start or stop with the new one.
+        for (var ancestor = parent; ancestor != null; ancestor = ancestor.Parent as ParserRuleContext)
+        {
+            if (ancestor.Start == oldContext.Start)
+            {
+                ancestor.Start = newContext.Start;
+            }
+
+            if (ancestor.Stop == oldContext.Stop)
+            {
+                ancestor.Stop = newContext.Stop;
+            }
+        }
+    }
+
+    /// <summary>
+    /// Moves the reused tokens after the edit to the new input stream.  The first of them is at the same place as the new sync token.
+    /// </summary>
+    private static void MoveTokens(List<IToken> tokens, int firstReused, IToken newSyncToken)
+    {
+        var oldSyncToken = tokens[firstReused];
+        var source = Tuple.Create(newSyncToken.TokenSource, newSyncToken.InputStream);
+
+        var indexDelta = newSyncToken.StartIndex - oldSyncToken.StartIndex;
+        var lineDelta = newSyncToken.Line - oldSyncToken.Line;
+        var columnDelta = newSyncToken.Column - oldSyncToken.Column;
+        var syncLine = oldSyncToken.Line;
+
+        //the text after an edit that did not change its length is at the same place in both input streams.
+        if (indexDelta == 0 && lineDelta == 0 && columnDelta == 0)
+        {
+            return;
+        }
+
+        for (var i = firstReused; i < tokens.Count; i++)
+        {
+            var token = (CelToken)tokens[i];
+
+            //only the tokens on the same line as the end of the edit change column.
+            token.Rebase(source, indexDelta, lineDelta, token.Line == syncLine ? columnDelta : 0);
+        }
+    }
+
+    private static void RenumberTokens(List<IToken> tokens, int start)
+    {
+        for (var i = start; i < tokens.Count; i++)
+        {
+            ((IWritableToken)tokens[i]).TokenIndex = i;
+        }
+    }
+
+    private static bool ContainsDefaultChannelToken(List<IToken> tokens, int start, int stop)
+    {
+        for (var i = start; i < stop; i++)
+        {
+            if (tokens[i].Channel == Lexer.DefaultTokenChannel)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int FindFirstTokenEndingAtOrAfter(List<IToken> tokens, int index)
+    {
+        var low = 0;
+        var high = tokens.Count - 1;
+
+        while (low < high)
+        {
+            var middle = (low + high) / 2;
+            if (tokens[middle].StopIndex >= index)
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private static int FindTokenStartingAt(List<IToken> tokens, int first, int startIndex)
+    {
+        var low = first;
+        var high = tokens.Count - 1;
+
+        while (low <= high)
+        {
+            var middle = (low + high) / 2;
+            var middleStartIndex = tokens[middle].StartIndex;
+
+            if (middleStartIndex == startIndex)
+            {
+                return middle;
+            }
+
+            if (middleStartIndex < startIndex)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    #endregion
+}
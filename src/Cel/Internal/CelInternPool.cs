@@ -0,0 +1,96 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Collections.Concurrent;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A concurrent string intern pool for the identifiers and keywords seen by the lexer.  Tokens for the same name share one string instance,
+/// so reading their text does not allocate and repeated names are only held once.
+/// The pool only grows; once it holds <see cref="MaximumCount"/> names, new names are no longer interned.
+/// </summary>
+internal sealed class CelInternPool
+{
+    public const int DefaultMaximumCount = 100000;
+
+    /// <summary>
+    /// The pool used by the lexer.
+    /// </summary>
+    public static CelInternPool Shared { get; } = new();
+
+    private readonly ConcurrentDictionary<string, string> _names = new(StringComparer.Ordinal);
+    private readonly object _lock = new();
+    private int _count;
+
+    public CelInternPool() : this(DefaultMaximumCount) { }
+
+    public CelInternPool(int maximumCount)
+    {
+        if (maximumCount <= 0)
+        {
+            throw new ArgumentOutOfRangeException(nameof(maximumCount));
+        }
+
+        MaximumCount = maximumCount;
+    }
+
+    public int MaximumCount { get; }
+
+    public int Count => Volatile.Read(ref _count);
+
+    /// <summary>
+    /// Returns the shared instance of the name, adding it if it has not been seen before.  Returns the name itself if the pool is full.
+    /// </summary>
+    public string Intern(string name)
+    {
+        if (name == null)
+        {
+            throw new ArgumentNullException(nameof(name));
+        }
+
+        if (_names.TryGetValue(name, out var internedName))
+        {
+            return internedName;
+        }
+
+        lock (_lock)
+        {
+            if (_names.TryGetValue(name, out internedName))
+            {
+                return internedName;
+            }
+
+            if (_count >= MaximumCount)
+            {
+                return name;
+            }
+
+            _names[name] = name;
+            Volatile.Write(ref _count, _count + 1);
+        }
+
+        return name;
+    }
+
+    public bool IsInterned(string name)
+    {
+        if (name == null)
+        {
+            throw new ArgumentNullException(nameof(name));
+        }
+
+        return _names.ContainsKey(name);
+    }
+}
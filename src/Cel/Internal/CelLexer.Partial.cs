@@ -0,0 +1,30 @@
+// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using Antlr4.Runtime.Atn;
+using Antlr4.Runtime.Dfa;
+
+namespace Cel.Internal;
+
+public partial class CelLexer
+{
+    /// <summary>
+    /// Creates a lexer that caches its DFA in the supplied arrays instead of the static generated cache.
+    /// </summary>
+    internal CelLexer(ICharStream input, DFA[] decisionToDfa, PredictionContextCache sharedContextCache) : base(input, Console.Out, Console.Error)
+    {
+        Interpreter = new LexerATNSimulator(this, _ATN, decisionToDfa, sharedContextCache);
+    }
+}
@@ -0,0 +1,116 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Text;
+using Antlr4.Runtime;
+using Cel.Helpers;
+using Google.Protobuf;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Decodes string and bytes literal tokens.  Literals without escapes or carriage returns are sliced out of the token text
+/// in a single scan, and the decoded value is memoized on <see cref="CelToken"/>s so that a literal is only decoded once.
+/// </summary>
+internal static class CelLiteralDecoder
+{
+    /// <summary>
+    /// Decodes the quoted literal text of the token.  For bytes literals the text must not include the 'b' prefix.
+    /// </summary>
+    public static object Decode(IToken token, string quotedText, bool isBytes)
+    {
+        var celToken = token as CelToken;
+
+        var value = celToken?.LiteralValue;
+        if (value != null)
+        {
+            return value;
+        }
+
+        value = Decode(quotedText, isBytes);
+
+        if (celToken != null)
+        {
+            celToken.LiteralValue = value;
+        }
+
+        return value;
+    }
+
+    public static object Decode(string quotedText, bool isBytes)
+    {
+        if (!TryGetUnescapedContent(quotedText, out var start, out var length))
+        {
+            return StringHelpers.Unescape(quotedText, isBytes);
+        }
+
+        if (isBytes)
+        {
+            //the array is never shared, so it is safe to wrap without copying.
+            return UnsafeByteOperations.UnsafeWrap(Encoding.UTF8.GetBytes(quotedText.ToCharArray(start, length)));
+        }
+
+        return quotedText.Substring(start, length);
+    }
+
+    /// <summary>
+    /// Finds the content between the quotes when the literal can be returned as is.
+    /// Anything unusual falls back to <see cref="StringHelpers.Unescape"/>, which also reports malformed literals.
+    /// </summary>
+    private static bool TryGetUnescapedContent(string quotedText, out int start, out int length)
+    {
+        start = 0;
+        length = 0;
+
+        var isRawLiteral = quotedText.Length > 0 && (quotedText[0] == 'r' || quotedText[0] == 'R');
+        var prefixLength = isRawLiteral ? 1 : 0;
+
+        //newlines have to be normalized.
+        for (var i = prefixLength; i < quotedText.Length; i++)
+        {
+            var c = quotedText[i];
+            if (c == '\r' || (c == '\\' && !isRawLiteral))
+            {
+                return false;
+            }
+        }
+
+        var quotedLength = quotedText.Length - prefixLength;
+        if (quotedLength < 2)
+        {
+            return false;
+        }
+
+        var quote = quotedText[prefixLength];
+        if ((quote != '"' && quote != '\'') || quotedText[quotedText.Length - 1] != quote)
+        {
+            return false;
+        }
+
+        var quoteLength = 1;
+        if (quotedLength >= 6 && quotedText[prefixLength + 1] == quote && quotedText[prefixLength + 2] == quote)
+        {
+            if (quotedText[quotedText.Length - 2] != quote || quotedText[quotedText.Length - 3] != quote)
+            {
+                return false;
+            }
+
+            quoteLength = 3;
+        }
+
+        start = prefixLength + quoteLength;
+        length = quotedLength - quoteLength * 2;
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Diagnostics;
+using Antlr4.Runtime;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Tracks the nesting depth, token count and deadline of a single parse and throws a <see cref="CelParserLimitExceededException"/>
+/// as soon as one of them goes past its limit.
+/// Nesting is counted in <c>expr</c> rules, because every way of nesting an expression (parentheses, arguments, list, map and message
+/// elements, indexes and conditional branches) recurses through it, while member selection and unary operators are parsed in loops.
+/// </summary>
+internal sealed class CelParseBudget
+{
+    #region Declarations
+
+    private readonly int _maximumNestingDepth;
+    private readonly int _maximumTokenCount;
+    private readonly TimeSpan _timeout;
+    private readonly long _deadline;
+    private readonly int _initialNestingDepth;
+    private readonly int _initialTokenCount;
+    private int _nestingDepth;
+    private int _tokenCount;
+
+    #endregion
+
+    #region Constructor
+
+    public CelParseBudget(int maximumNestingDepth, int maximumTokenCount, TimeSpan timeout) : this(maximumNestingDepth, maximumTokenCount, timeout, 0, 0) { }
+
+    /// <summary>
+    /// A budget for parsing part of an expression, which starts out nested and with tokens already counted for the rest of the expression.
+    /// </summary>
+    public CelParseBudget(int maximumNestingDepth, int maximumTokenCount, TimeSpan timeout, int initialNestingDepth, int initialTokenCount)
+    {
+        _maximumNestingDepth = maximumNestingDepth;
+        _maximumTokenCount = maximumTokenCount;
+        _timeout = timeout;
+        _deadline = GetDeadline(timeout);
+        _initialNestingDepth = initialNestingDepth;
+        _initialTokenCount = initialTokenCount;
+        _nestingDepth = initialNestingDepth;
+        _tokenCount = initialTokenCount;
+    }
+
+    #endregion
+
+    #region Public
+
+    /// <summary>
+    /// Starts counting nesting and tokens again, for a parser that rewinds to the first token.  The deadline is not moved.
+    /// </summary>
+    public void Restart()
+    {
+        _nestingDepth = _initialNestingDepth;
+        _tokenCount = _initialTokenCount;
+    }
+
+    public void EnterNesting(IToken token)
+    {
+        if (++_nestingDepth > _maximumNestingDepth)
+        {
+            throw new CelParserLimitExceededException(CelParserLimit.NestingDepth,
+                                                      $"Line {token.Line}:{token.Column} expression exceeds the maximum nesting depth of {_maximumNestingDepth}.");
+        }
+
+        CheckDeadline(token);
+    }
+
+    public void ExitNesting()
+    {
+        _nestingDepth--;
+    }
+
+    public void ConsumeToken(IToken token)
+    {
+        if (token.Type != TokenConstants.EOF && ++_tokenCount > _maximumTokenCount)
+        {
+            throw new CelParserLimitExceededException(CelParserLimit.TokenCount,
+                                                      $"Line {token.Line}:{token.Column} expression exceeds the maximum token count of {_maximumTokenCount}.");
+        }
+
+        CheckDeadline(token);
+    }
+
+    public void CheckDeadline(IToken token)
+    {
+        //the infinite deadline never reads the clock.
+        if (_deadline != long.MaxValue && Stopwatch.GetTimestamp() > _deadline)
+        {
+            throw new CelParserLimitExceededException(CelParserLimit.Time,
+                                                      $"Line {token.Line}:{token.Column} expression was not parsed within the parse timeout of {_timeout}.");
+        }
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private static long GetDeadline(TimeSpan timeout)
+    {
+        if (timeout == Timeout.InfiniteTimeSpan)
+        {
+            return long.MaxValue;
+        }
+
+        var now = Stopwatch.GetTimestamp();
+        var timeoutTimestamps = timeout.TotalSeconds * Stopwatch.Frequency;
+
+        return timeoutTimestamps >= long.MaxValue - now ? long.MaxValue : now + (long)timeoutTimestamps;
+    }
+
+    #endregion
+}
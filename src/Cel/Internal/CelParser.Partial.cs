@@ -0,0 +1,105 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using Antlr4.Runtime.Atn;
+using Antlr4.Runtime.Dfa;
+
+namespace Cel.Internal;
+
+public partial class CelParser
+{
+    /// <summary>
+    /// The limits enforced while parsing.  Null parses without limits.
+    /// </summary>
+    internal CelParseBudget? ParseBudget { get; set; }
+
+    /// <summary>
+    /// Creates a parser that caches its prediction DFA in the supplied arrays instead of the static generated cache.
+    /// </summary>
+    internal CelParser(ITokenStream input, DFA[] decisionToDfa, PredictionContextCache sharedContextCache) : base(input, Console.Out, Console.Error)
+    {
+        Interpreter = new ParserATNSimulator(this, _ATN, decisionToDfa, sharedContextCache);
+    }
+
+    /// <summary>
+    /// Replaces the prediction simulator with one that records statistics for every decision.  The DFA cache is kept.
+    /// </summary>
+    internal ProfilingATNSimulator StartProfiling()
+    {
+        var profilingSimulator = new ProfilingATNSimulator(this);
+        Interpreter = profilingSimulator;
+
+        return profilingSimulator;
+    }
+
+    /// <summary>
+    /// Puts back a plain prediction simulator on a reused parser that was profiled.
+    /// </summary>
+    internal void StopProfiling()
+    {
+        if (Interpreter is ProfilingATNSimulator profilingSimulator)
+        {
+            Interpreter = new ParserATNSimulator(this, _ATN, profilingSimulator.decisionToDFA, profilingSimulator.getSharedContextCache());
+        }
+    }
+
+    #region Parse Budget
+
+    public override void EnterRule(ParserRuleContext localctx, int state, int ruleIndex)
+    {
+        if (ruleIndex == RULE_expr)
+        {
+            ParseBudget?.EnterNesting(CurrentToken);
+        }
+        else
+        {
+            ParseBudget?.CheckDeadline(CurrentToken);
+        }
+
+        base.EnterRule(localctx, state, ruleIndex);
+    }
+
+    public override void ExitRule()
+    {
+        if (Context?.RuleIndex == RULE_expr)
+        {
+            ParseBudget?.ExitNesting();
+        }
+
+        base.ExitRule();
+    }
+
+    public override void EnterRecursionRule(ParserRuleContext localctx, int state, int ruleIndex, int precedence)
+    {
+        ParseBudget?.CheckDeadline(CurrentToken);
+        base.EnterRecursionRule(localctx, state, ruleIndex, precedence);
+    }
+
+    public override IToken Consume()
+    {
+        ParseBudget?.ConsumeToken(CurrentToken);
+        return base.Consume();
+    }
+
+    public override void Reset()
+    {
+        base.Reset();
+
+        //the two stage fallback rewinds to the first token and parses the expression again.
+        ParseBudget?.Restart();
+    }
+
+    #endregion
+}
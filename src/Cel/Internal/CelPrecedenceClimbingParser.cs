@@ -0,0 +1,693 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using Antlr4.Runtime.Tree;
+using static Cel.Internal.CelParser;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A hand-written recursive descent parser for Cel.g4 that builds the same <see cref="CelParser"/> context trees as the generated parser,
+/// without any ATN interpretation.  The binary operator levels are parsed with simple loops and the left-recursive member rule with a precedence climbing loop.
+/// The parser gives up on the first syntax error; callers re-parse invalid expressions with the generated parser to report the error.
+/// </summary>
+internal class CelPrecedenceClimbingParser
+{
+    #region Declarations
+
+    private const int Eof = CelParser.Eof;
+
+    private readonly IList<IToken> _tokens;
+    private readonly CelParseBudget _parseBudget;
+    private int _index;
+
+    #endregion
+
+    #region Constructor
+
+    private CelPrecedenceClimbingParser(IList<IToken> tokens, CelParseBudget parseBudget)
+    {
+        _tokens = tokens;
+        _parseBudget = parseBudget;
+    }
+
+    #endregion
+
+    #region Public
+
+    /// <summary>
+    /// Parses the default channel tokens of a fully lexed expression.  Returns null if the expression has a syntax error.
+    /// The limits of the budget are enforced the same way as in the generated parser.
+    /// </summary>
+    public static StartContext? TryParse(IList<IToken> tokens, CelParseBudget parseBudget)
+    {
+        var defaultChannelTokens = new List<IToken>(tokens.Count);
+
+        for (var i = 0; i < tokens.Count; i++)
+        {
+            if (tokens[i].Channel == Lexer.DefaultTokenChannel)
+            {
+                defaultChannelTokens.Add(tokens[i]);
+            }
+        }
+
+        if (defaultChannelTokens.Count == 0 || defaultChannelTokens[defaultChannelTokens.Count - 1].Type != Eof)
+        {
+            return null;
+        }
+
+        var parser = new CelPrecedenceClimbingParser(defaultChannelTokens, parseBudget);
+
+        try
+        {
+            return parser.ParseStart();
+        }
+        catch (CelSyntaxErrorException)
+        {
+            return null;
+        }
+    }
+
+    #endregion
+
+    #region Rules
+
+    private StartContext ParseStart()
+    {
+        var context = Enter(new StartContext(null, -1), null);
+
+        context.e = ParseExpr(context);
+        Match(context, Eof);
+
+        return Exit(context);
+    }
+
+    private ExprContext ParseExpr(ParserRuleContext parent)
+    {
+        _parseBudget.EnterNesting(LT(1));
+
+        var context = Enter(new ExprContext(parent, -1), parent);
+
+        context.e = ParseConditionalOr(context);
+
+        if (La(1) == QUESTIONMARK)
+        {
+            context.op = Match(context, QUESTIONMARK);
+            context.e1 = ParseConditionalOr(context);
+            Match(context, COLON);
+            context.e2 = ParseExpr(context);
+        }
+
+        _parseBudget.ExitNesting();
+
+        return Exit(context);
+    }
+
+    private ConditionalOrContext ParseConditionalOr(ParserRuleContext parent)
+    {
+        var context = Enter(new ConditionalOrContext(parent, -1), parent);
+
+        context.e = ParseConditionalAnd(context);
+
+        while (La(1) == LOGICAL_OR)
+        {
+            context._ops.Add(Match(context, LOGICAL_OR));
+            context._e1.Add(ParseConditionalAnd(context));
+        }
+
+        return Exit(context);
+    }
+
+    private ConditionalAndContext ParseConditionalAnd(ParserRuleContext parent)
+    {
+        var context = Enter(new ConditionalAndContext(parent, -1), parent);
+
+        context.e = ParseRelation(context);
+
+        while (La(1) == LOGICAL_AND)
+        {
+            context._ops.Add(Match(context, LOGICAL_AND));
+            context._e1.Add(ParseRelation(context));
+        }
+
+        return Exit(context);
+    }
+
+    private RelationContext ParseRelation(ParserRuleContext parent)
+    {
+        var context = Enter(new RelationContext(parent, -1), parent);
+
+        context.e = ParseAdditive(context);
+
+        while (IsRelationOperator(La(1)))
+        {
+            context._ops.Add(MatchAny(context));
+            context._e1.Add(ParseAdditive(context));
+        }
+
+        return Exit(context);
+    }
+
+    private AdditiveContext ParseAdditive(ParserRuleContext parent)
+    {
+        var context = Enter(new AdditiveContext(parent, -1), parent);
+
+        context.e = ParseMultiplicative(context);
+
+        while (La(1) == PLUS || La(1) == MINUS)
+        {
+            context._ops.Add(MatchAny(context));
+            context._e1.Add(ParseMultiplicative(context));
+        }
+
+        return Exit(context);
+    }
+
+    private MultiplicativeContext ParseMultiplicative(ParserRuleContext parent)
+    {
+        var context = Enter(new MultiplicativeContext(parent, -1), parent);
+
+        context.e = ParseUnary(context);
+
+        while (La(1) == STAR || La(1) == SLASH || La(1) == PERCENT)
+        {
+            context._ops.Add(MatchAny(context));
+            context._e1.Add(ParseUnary(context));
+        }
+
+        return Exit(context);
+    }
+
+    private UnaryContext ParseUnary(ParserRuleContext parent)
+    {
+        if (La(1) == EXCLAM)
+        {
+            var logicalNotContext = Enter(new LogicalNotContext(new UnaryContext(parent, -1)), parent);
+
+            while (La(1) == EXCLAM)
+            {
+                logicalNotContext._ops.Add(Match(logicalNotContext, EXCLAM));
+            }
+
+            ParseMember(logicalNotContext);
+            return Exit(logicalNotContext);
+        }
+
+        //a single minus in front of a number is the sign of the literal, not a negation.
+        if (La(1) == MINUS && La(2) != NUM_INT && La(2) != NUM_FLOAT)
+        {
+            var negateContext = Enter(new NegateContext(new UnaryContext(parent, -1)), parent);
+
+            while (La(1) == MINUS)
+            {
+                negateContext._ops.Add(Match(negateContext, MINUS));
+            }
+
+            ParseMember(negateContext);
+            return Exit(negateContext);
+        }
+
+        var memberExprContext = Enter(new MemberExprContext(new UnaryContext(parent, -1)), parent);
+        ParseMember(memberExprContext);
+        return Exit(memberExprContext);
+    }
+
+    private MemberContext ParseMember(ParserRuleContext parent)
+    {
+        MemberContext left = new PrimaryExprContext(new MemberContext(parent, -1)) { Start = LT(1) };
+        ParsePrimary(left);
+        left.Stop = LT(-1);
+
+        while (true)
+        {
+            MemberContext context;
+
+            if (La(1) == DOT && La(2) == IDENTIFIER && La(3) == LPAREN)
+            {
+                var memberCallContext = new MemberCallContext(new MemberContext(parent, -1)) { Start = left.Start };
+                AddRecursionChild(memberCallContext, left);
+
+                memberCallContext.op = Match(memberCallContext, DOT);
+                memberCallContext.id = Match(memberCallContext, IDENTIFIER);
+                memberCallContext.open = Match(memberCallContext, LPAREN);
+
+                if (La(1) != RPAREN)
+                {
+                    memberCallContext.args = ParseExprList(memberCallContext);
+                }
+
+                Match(memberCallContext, RPAREN);
+                context = memberCallContext;
+            }
+            else if (La(1) == DOT)
+            {
+                var selectContext = new SelectContext(new MemberContext(parent, -1)) { Start = left.Start };
+                AddRecursionChild(selectContext, left);
+
+                selectContext.op = Match(selectContext, DOT);
+
+                if (La(1) == QUESTIONMARK)
+                {
+                    selectContext.opt = Match(selectContext, QUESTIONMARK);
+                }
+
+                selectContext.id = Match(selectContext, IDENTIFIER);
+                context = selectContext;
+            }
+            else if (La(1) == LBRACKET)
+            {
+                var indexContext = new IndexContext(new MemberContext(parent, -1)) { Start = left.Start };
+                AddRecursionChild(indexContext, left);
+
+                indexContext.op = Match(indexContext, LBRACKET);
+
+                if (La(1) == QUESTIONMARK)
+                {
+                    indexContext.opt = Match(indexContext, QUESTIONMARK);
+                }
+
+                indexContext.index = ParseExpr(indexContext);
+                Match(indexContext, RPRACKET);
+                context = indexContext;
+            }
+            else
+            {
+                break;
+            }
+
+            context.Stop = LT(-1);
+            left = context;
+        }
+
+        parent.AddChild(left);
+        return left;
+    }
+
+    private PrimaryContext ParsePrimary(ParserRuleContext parent)
+    {
+        var type = La(1);
+
+        if (type == DOT || type == IDENTIFIER)
+        {
+            return IsCreateMessage() ? ParseCreateMessage(parent) : ParseIdentOrGlobalCall(parent);
+        }
+
+        if (type == LPAREN)
+        {
+            var nestedContext = Enter(new NestedContext(new PrimaryContext(parent, -1)), parent);
+
+            Match(nestedContext, LPAREN);
+            nestedContext.e = ParseExpr(nestedContext);
+            Match(nestedContext, RPAREN);
+
+            return Exit(nestedContext);
+        }
+
+        if (type == LBRACKET)
+        {
+            var createListContext = Enter(new CreateListContext(new PrimaryContext(parent, -1)), parent);
+
+            createListContext.op = Match(createListContext, LBRACKET);
+
+            if (La(1) != RPRACKET && La(1) != COMMA)
+            {
+                createListContext.elems = ParseListInit(createListContext);
+            }
+
+            if (La(1) == COMMA)
+            {
+                Match(createListContext, COMMA);
+            }
+
+            Match(createListContext, RPRACKET);
+
+            return Exit(createListContext);
+        }
+
+        if (type == LBRACE)
+        {
+            var createStructContext = Enter(new CreateStructContext(new PrimaryContext(parent, -1)), parent);
+
+            createStructContext.op = Match(createStructContext, LBRACE);
+
+            if (La(1) != RBRACE && La(1) != COMMA)
+            {
+                createStructContext.entries = ParseMapInitializerList(createStructContext);
+            }
+
+            if (La(1) == COMMA)
+            {
+                Match(createStructContext, COMMA);
+            }
+
+            Match(createStructContext, RBRACE);
+
+            return Exit(createStructContext);
+        }
+
+        var constantLiteralContext = Enter(new ConstantLiteralContext(new PrimaryContext(parent, -1)), parent);
+        ParseLiteral(constantLiteralContext);
+        return Exit(constantLiteralContext);
+    }
+
+    private IdentOrGlobalCallContext ParseIdentOrGlobalCall(ParserRuleContext parent)
+    {
+        var context = Enter(new IdentOrGlobalCallContext(new PrimaryContext(parent, -1)), parent);
+
+        if (La(1) == DOT)
+        {
+            context.leadingDot = Match(context, DOT);
+        }
+
+        context.id = Match(context, IDENTIFIER);
+
+        if (La(1) == LPAREN)
+        {
+            context.op = Match(context, LPAREN);
+
+            if (La(1) != RPAREN)
+            {
+                context.args = ParseExprList(context);
+            }
+
+            Match(context, RPAREN);
+        }
+
+        return Exit(context);
+    }
+
+    private CreateMessageContext ParseCreateMessage(ParserRuleContext parent)
+    {
+        var context = Enter(new CreateMessageContext(new PrimaryContext(parent, -1)), parent);
+
+        if (La(1) == DOT)
+        {
+            context.leadingDot = Match(context, DOT);
+        }
+
+        context._ids.Add(Match(context, IDENTIFIER));
+
+        while (La(1) == DOT)
+        {
+            context._ops.Add(Match(context, DOT));
+            context._ids.Add(Match(context, IDENTIFIER));
+        }
+
+        context.op = Match(context, LBRACE);
+
+        if (La(1) != RBRACE && La(1) != COMMA)
+        {
+            context.entries = ParseFieldInitializerList(context);
+        }
+
+        if (La(1) == COMMA)
+        {
+            Match(context, COMMA);
+        }
+
+        Match(context, RBRACE);
+
+        return Exit(context);
+    }
+
+    private ExprListContext ParseExprList(ParserRuleContext parent)
+    {
+        var context = Enter(new ExprListContext(parent, -1), parent);
+
+        context._e.Add(ParseExpr(context));
+
+        while (La(1) == COMMA)
+        {
+            Match(context, COMMA);
+            context._e.Add(ParseExpr(context));
+        }
+
+        return Exit(context);
+    }
+
+    private ListInitContext ParseListInit(ParserRuleContext parent)
+    {
+        var context = Enter(new ListInitContext(parent, -1), parent);
+
+        context._elems.Add(ParseOptExpr(context));
+
+        //a comma followed by the closing bracket is the optional trailing comma of the list.
+        while (La(1) == COMMA && La(2) != RPRACKET)
+        {
+            Match(context, COMMA);
+            context._elems.Add(ParseOptExpr(context));
+        }
+
+        return Exit(context);
+    }
+
+    private FieldInitializerListContext ParseFieldInitializerList(ParserRuleContext parent)
+    {
+        var context = Enter(new FieldInitializerListContext(parent, -1), parent);
+
+        context._fields.Add(ParseOptField(context));
+        context._cols.Add(Match(context, COLON));
+        context._values.Add(ParseExpr(context));
+
+        while (La(1) == COMMA && La(2) != RBRACE)
+        {
+            Match(context, COMMA);
+            context._fields.Add(ParseOptField(context));
+            context._cols.Add(Match(context, COLON));
+            context._values.Add(ParseExpr(context));
+        }
+
+        return Exit(context);
+    }
+
+    private OptFieldContext ParseOptField(ParserRuleContext parent)
+    {
+        var context = Enter(new OptFieldContext(parent, -1), parent);
+
+        if (La(1) == QUESTIONMARK)
+        {
+            context.opt = Match(context, QUESTIONMARK);
+        }
+
+        context.id = Match(context, IDENTIFIER);
+
+        return Exit(context);
+    }
+
+    private MapInitializerListContext ParseMapInitializerList(ParserRuleContext parent)
+    {
+        var context = Enter(new MapInitializerListContext(parent, -1), parent);
+
+        context._keys.Add(ParseOptExpr(context));
+        context._cols.Add(Match(context, COLON));
+        context._values.Add(ParseExpr(context));
+
+        while (La(1) == COMMA && La(2) != RBRACE)
+        {
+            Match(context, COMMA);
+            context._keys.Add(ParseOptExpr(context));
+            context._cols.Add(Match(context, COLON));
+            context._values.Add(ParseExpr(context));
+        }
+
+        return Exit(context);
+    }
+
+    private OptExprContext ParseOptExpr(ParserRuleContext parent)
+    {
+        var context = Enter(new OptExprContext(parent, -1), parent);
+
+        if (La(1) == QUESTIONMARK)
+        {
+            context.opt = Match(context, QUESTIONMARK);
+        }
+
+        context.e = ParseExpr(context);
+
+        return Exit(context);
+    }
+
+    private LiteralContext ParseLiteral(ParserRuleContext parent)
+    {
+        switch (La(1))
+        {
+            case MINUS when La(2) == NUM_INT:
+            case NUM_INT:
+            {
+                var context = Enter(new IntContext(new LiteralContext(parent, -1)), parent);
+
+                if (La(1) == MINUS)
+                {
+                    context.sign = Match(context, MINUS);
+                }
+
+                context.tok = Match(context, NUM_INT);
+                return Exit(context);
+            }
+            case MINUS when La(2) == NUM_FLOAT:
+            case NUM_FLOAT:
+            {
+                var context = Enter(new DoubleContext(new LiteralContext(parent, -1)), parent);
+
+                if (La(1) == MINUS)
+                {
+                    context.sign = Match(context, MINUS);
+                }
+
+                context.tok = Match(context, NUM_FLOAT);
+                return Exit(context);
+            }
+            case NUM_UINT:
+            {
+                var context = Enter(new UintContext(new LiteralContext(parent, -1)), parent);
+                context.tok = Match(context, NUM_UINT);
+                return Exit(context);
+            }
+            case STRING:
+            {
+                var context = Enter(new StringContext(new LiteralContext(parent, -1)), parent);
+                context.tok = Match(context, STRING);
+                return Exit(context);
+            }
+            case BYTES:
+            {
+                var context = Enter(new BytesContext(new LiteralContext(parent, -1)), parent);
+                context.tok = Match(context, BYTES);
+                return Exit(context);
+            }
+            case CEL_TRUE:
+            {
+                var context = Enter(new BoolTrueContext(new LiteralContext(parent, -1)), parent);
+                context.tok = Match(context, CEL_TRUE);
+                return Exit(context);
+            }
+            case CEL_FALSE:
+            {
+                var context = Enter(new BoolFalseContext(new LiteralContext(parent, -1)), parent);
+                context.tok = Match(context, CEL_FALSE);
+                return Exit(context);
+            }
+            case NUL:
+            {
+                var context = Enter(new NullContext(new LiteralContext(parent, -1)), parent);
+                context.tok = Match(context, NUL);
+                return Exit(context);
+            }
+            default:
+                throw new CelSyntaxErrorException();
+        }
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private int La(int offset)
+    {
+        var index = _index + offset - 1;
+        return index < _tokens.Count ? _tokens[index].Type : Eof;
+    }
+
+    private IToken LT(int offset)
+    {
+        if (offset < 0)
+        {
+            return _tokens[Math.Max(_index + offset, 0)];
+        }
+
+        return _tokens[Math.Min(_index + offset - 1, _tokens.Count - 1)];
+    }
+
+    private IToken Match(ParserRuleContext context, int tokenType)
+    {
+        if (La(1) != tokenType)
+        {
+            throw new CelSyntaxErrorException();
+        }
+
+        return MatchAny(context);
+    }
+
+    private IToken MatchAny(ParserRuleContext context)
+    {
+        var token = _tokens[_index];
+        _parseBudget.ConsumeToken(token);
+        context.AddChild(new TerminalNodeImpl(token));
+
+        //like the generated parser, never move past EOF.
+        if (token.Type != Eof)
+        {
+            _index++;
+        }
+
+        return token;
+    }
+
+    private T Enter<T>(T context, ParserRuleContext? parent) where T : ParserRuleContext
+    {
+        parent?.AddChild(context);
+        context.Start = LT(1);
+        return context;
+    }
+
+    private T Exit<T>(T context) where T : ParserRuleContext
+    {
+        context.Stop = LT(-1);
+        return context;
+    }
+
+    private static void AddRecursionChild(ParserRuleContext context, ParserRuleContext previous)
+    {
+        previous.Parent = context;
+        context.AddChild(previous);
+    }
+
+    private static bool IsRelationOperator(int type)
+    {
+        return type == LESS
+               || type == LESS_EQUALS
+               || type == GREATER_EQUALS
+               || type == GREATER
+               || type == EQUALS
+               || type == NOT_EQUALS
+               || type == IN;
+    }
+
+    private bool IsCreateMessage()
+    {
+        //'.'? IDENTIFIER ('.' IDENTIFIER)* '{' is a message creation; anything else is an identifier or global call.
+        var offset = La(1) == DOT ? 2 : 1;
+        if (La(offset) != IDENTIFIER)
+        {
+            return false;
+        }
+
+        offset++;
+        while (La(offset) == DOT && La(offset + 1) == IDENTIFIER)
+        {
+            offset += 2;
+        }
+
+        return La(offset) == LBRACE;
+    }
+
+    #endregion
+
+    #region Nested Types
+
+    private class CelSyntaxErrorException : Exception { }
+
+    #endregion
+}
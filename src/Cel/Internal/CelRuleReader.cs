@@ -0,0 +1,222 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Text;
+using Antlr4.Runtime;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Reads the rules of a rule pack one at a time.  The whole pack is lexed once through an unbuffered character stream,
+/// and only the tokens of the rule being read are held in memory, so packs of any size can be read.
+/// <para>
+/// A rule starts with its id at the beginning of a line, followed by a colon and the expression.  Ids are identifiers that may be qualified with dots,
+/// for example <c>orders.max_total: order.total &lt;= 1000</c>.  The expression continues until the next rule id, so it may span several lines
+/// as long as none of them starts with an identifier followed by a colon.  Comments and blank lines between rules are ignored.
+/// </para>
+/// </summary>
+internal sealed class CelRuleReader
+{
+    #region Declarations
+
+    private readonly CelExpressionParser _celExpressionParser;
+    private readonly TextReader _textReader;
+    private readonly int _maximumTokenCount;
+    private readonly List<IToken> _pendingTokens = new();
+
+    #endregion
+
+    #region Constructor
+
+    public CelRuleReader(CelExpressionParser celExpressionParser, TextReader textReader, int maximumTokenCount)
+    {
+        _celExpressionParser = celExpressionParser;
+        _textReader = textReader;
+        _maximumTokenCount = maximumTokenCount;
+    }
+
+    #endregion
+
+    #region Public
+
+    public IEnumerable<CelRule> Read()
+    {
+        //the unbuffered stream discards characters once they are lexed, so every token has to copy its text.
+        var celLexer = _celExpressionParser.CreateLexer(new UnbufferedCharStream(_textReader), true);
+        var lexerErrorListener = new AntlrLexerErrorListener();
+        celLexer.RemoveErrorListeners();
+        celLexer.AddErrorListener(lexerErrorListener);
+
+        string? id = null;
+        var line = 1;
+        var ruleTokens = new List<IToken>();
+        var isTruncated = false;
+
+        while (true)
+        {
+            var token = NextToken(celLexer);
+
+            string? nextId = null;
+            if (token.Type != TokenConstants.EOF && !TryReadRuleId(celLexer, token, out nextId))
+            {
+                //a rule that is too long is still read to its end so that the next rule starts in the right place.
+                if (ruleTokens.Count < _maximumTokenCount)
+                {
+                    ruleTokens.Add(token);
+                }
+                else
+                {
+                    isTruncated = true;
+                }
+
+                continue;
+            }
+
+            if (id != null || ruleTokens.Any(t => t.Channel == TokenConstants.DefaultChannel))
+            {
+                yield return CreateRule(id, line, ruleTokens, isTruncated, lexerErrorListener.ErrorList);
+            }
+
+            if (token.Type == TokenConstants.EOF)
+            {
+                yield break;
+            }
+
+            id = nextId;
+            line = token.Line;
+            ruleTokens.Clear();
+            isTruncated = false;
+            lexerErrorListener.ErrorList.Clear();
+        }
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private IToken NextToken(CelLexer celLexer)
+    {
+        if (_pendingTokens.Count == 0)
+        {
+            return celLexer.NextToken();
+        }
+
+        var token = _pendingTokens[0];
+        _pendingTokens.RemoveAt(0);
+
+        return token;
+    }
+
+    /// <summary>
+    /// Checks whether the token starts a rule id.  The id and its colon must be on the same line, and the tokens read past the first token
+    /// are put back if they turn out not to be a rule id.
+    /// </summary>
+    private bool TryReadRuleId(CelLexer celLexer, IToken firstToken, out string? id)
+    {
+        id = null;
+
+        if (firstToken.Type != CelLexer.IDENTIFIER || firstToken.Column != 0)
+        {
+            return false;
+        }
+
+        var readTokens = new List<IToken>();
+        var idBuilder = new StringBuilder(firstToken.Text);
+        var expectIdentifier = false;
+
+        while (true)
+        {
+            var token = NextToken(celLexer);
+            readTokens.Add(token);
+
+            if (token.Channel != TokenConstants.DefaultChannel && token.Line == firstToken.Line && token.Text.IndexOf('\n') < 0)
+            {
+                continue;
+            }
+
+            if (token.Line != firstToken.Line)
+            {
+                break;
+            }
+
+            if (expectIdentifier && token.Type == CelLexer.IDENTIFIER)
+            {
+                idBuilder.Append('.').Append(token.Text);
+                expectIdentifier = false;
+            }
+            else if (!expectIdentifier && token.Type == CelLexer.DOT)
+            {
+                expectIdentifier = true;
+            }
+            else
+            {
+                if (!expectIdentifier && token.Type == CelLexer.COLON)
+                {
+                    id = idBuilder.ToString();
+                    return true;
+                }
+
+                break;
+            }
+        }
+
+        _pendingTokens.InsertRange(0, readTokens);
+        return false;
+    }
+
+    private CelRule CreateRule(string? id, int line, List<IToken> ruleTokens, bool isTruncated, List<string> lexerErrors)
+    {
+        var expression = string.Concat(ruleTokens.Select(t => t.Text)).Trim();
+
+        if (id == null)
+        {
+            return CreateFailedRule("", line, expression, $"Line {line}:0 expected a rule id before the expression.");
+        }
+
+        if (isTruncated)
+        {
+            return CreateFailedRule(id, line, expression, $"Line {line}:0 rule '{id}' has more than {_maximumTokenCount} tokens.");
+        }
+
+        if (lexerErrors.Count > 0)
+        {
+            return CreateFailedRule(id, line, expression, string.Join(Environment.NewLine, lexerErrors));
+        }
+
+        var expressionTokens = ruleTokens.Where(t => t.Channel == TokenConstants.DefaultChannel).ToList();
+        if (expressionTokens.Count == 0)
+        {
+            return CreateFailedRule(id, line, expression, $"Line {line}:0 rule '{id}' has no expression.");
+        }
+
+        try
+        {
+            var commonTokenStream = new CommonTokenStream(new ListTokenSource(expressionTokens));
+            var startContext = _celExpressionParser.Parse(commonTokenStream, () => _celExpressionParser.ParserCache.CreateParser(commonTokenStream));
+
+            return new CelRule(id, line, expression, startContext, null);
+        }
+        catch (CelExpressionParserException x)
+        {
+            return new CelRule(id, line, expression, null, x);
+        }
+    }
+
+    private static CelRule CreateFailedRule(string id, int line, string expression, string message)
+    {
+        return new CelRule(id, line, expression, null, new CelExpressionParserException(message));
+    }
+
+    #endregion
+}
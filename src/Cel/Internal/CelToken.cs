@@ -0,0 +1,44 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A token that caches the decoded value of string and bytes literals, and that can be moved to the input stream of an edited expression.
+/// </summary>
+public class CelToken : CommonToken
+{
+    public CelToken(int type, string text) : base(type, text) { }
+
+    public CelToken(Tuple<ITokenSource, ICharStream> source, int type, int channel, int start, int stop) : base(source, type, channel, start, stop) { }
+
+    /// <summary>
+    /// The decoded value of a string or bytes literal, filled the first time the literal is decoded.
+    /// </summary>
+    internal object? LiteralValue { get; set; }
+
+    /// <summary>
+    /// Moves the token to the input stream of an edited expression.  Tokens after an edit keep their text and only change position.
+    /// </summary>
+    internal void Rebase(Tuple<ITokenSource, ICharStream> newSource, int indexDelta, int lineDelta, int columnDelta)
+    {
+        source = newSource;
+        StartIndex += indexDelta;
+        StopIndex += indexDelta;
+        Line += lineDelta;
+        Column += columnDelta;
+    }
+}
@@ -0,0 +1,101 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using Antlr4.Runtime.Misc;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Creates <see cref="CelToken"/>s whose text is read from the input at most once.
+/// Identifiers and keywords are interned in a <see cref="CelInternPool"/>, and the other fixed tokens such as operators reuse their literal text,
+/// so reading <see cref="IToken.Text"/> during evaluation does not allocate.
+/// </summary>
+internal sealed class CelTokenFactory : ITokenFactory
+{
+    public static CelTokenFactory Shared { get; } = new(CelInternPool.Shared);
+
+    /// <summary>
+    /// Like <see cref="Shared"/>, but also copies the text of the other tokens as they are created, for input streams that do not keep their characters.
+    /// </summary>
+    public static CelTokenFactory SharedCopyingText { get; } = new(CelInternPool.Shared, true);
+
+    private static readonly int[] KeywordTypes = { CelLexer.IN, CelLexer.CEL_TRUE, CelLexer.CEL_FALSE, CelLexer.NUL };
+
+    private readonly CelInternPool _internPool;
+    private readonly string?[] _literalTexts;
+    private readonly bool _copyText;
+
+    public CelTokenFactory(CelInternPool internPool, bool copyText = false)
+    {
+        _internPool = internPool;
+        _copyText = copyText;
+
+        var maxTokenType = CelLexer.DefaultVocabulary.MaxTokenType;
+        _literalTexts = new string?[maxTokenType + 1];
+
+        for (var type = 0; type <= maxTokenType; type++)
+        {
+            //literal names are quoted, for example '=='.
+            var literalName = CelLexer.DefaultVocabulary.GetLiteralName(type);
+            if (literalName != null && literalName.Length > 2 && literalName.IndexOf('\\') < 0)
+            {
+                _literalTexts[type] = literalName.Substring(1, literalName.Length - 2);
+            }
+        }
+
+        foreach (var type in KeywordTypes)
+        {
+            var keyword = _literalTexts[type];
+            if (keyword != null)
+            {
+                _literalTexts[type] = symbolTable.Intern(keyword);
+            }
+        }
+    }
+
+    public IToken Create(Tuple<ITokenSource, ICharStream> source, int type, string text, int channel, int start, int stop, int line, int charPositionInLine)
+    {
+        var token = new CelToken(source, type, channel, start, stop)
+        {
+            Line = line,
+            Column = charPositionInLine
+        };
+
+        if (text != null)
+        {
+            token.Text = text;
+        }
+        else if (type == CelLexer.IDENTIFIER && source.Item2 != null)
+        {
+            //the identifier has already been read, so it is kept even when the table is full.
+            token.Text = _internPool.Intern(source.Item2.GetText(Interval.Of(start, stop)));
+        }
+        else if (type > 0 && type < _literalTexts.Length && _literalTexts[type] != null)
+        {
+            token.Text = _literalTexts[type];
+        }
+        else if (_copyText && source.Item2 != null)
+        {
+            token.Text = source.Item2.GetText(Interval.Of(start, stop));
+        }
+
+        return token;
+    }
+
+    public IToken Create(int type, string text)
+    {
+        return new CelToken(type, text);
+    }
+}
@@ -0,0 +1,1015 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using Antlr4.Runtime.Tree;
+using Google.Protobuf.Reflection;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Infers the type of every node of a parse tree from the declared types of the variables, and resolves the overload of every operator
+/// and function whose operand types are known.  Overload ids follow the names of the CEL standard definitions, for example <c>add_int64</c>.
+/// Errors are collected rather than thrown, so every node is annotated even when the expression has type errors.
+/// <para>
+/// A node only has a type other than dyn when every value it can evaluate to has the runtime representation of that type,
+/// so evaluators can rely on the types.  Values that this runtime reads with another representation, such as int32 and float fields
+/// or enum values, which are evaluated as their descriptors, are typed as dyn.
+/// </para>
+/// </summary>
+internal class CelTypeChecker : CelBaseVisitor<CelCheckedType>
+{
+    #region Declarations
+
+    private static readonly Dictionary<string, CelCheckedType> ConversionTypes = new()
+    {
+        { "int", CelCheckedType.Int },
+        { "uint", CelCheckedType.Uint },
+        { "double", CelCheckedType.Double },
+        { "string", CelCheckedType.String },
+        { "bytes", CelCheckedType.Bytes },
+        { "bool", CelCheckedType.Bool },
+        { "timestamp", CelCheckedType.Timestamp },
+        { "duration", CelCheckedType.Duration }
+    };
+
+    private static readonly Dictionary<string, CelTypeKind[]> ConversionArgumentKinds = new()
+    {
+        { "int", new[] { CelTypeKind.Int, CelTypeKind.Uint, CelTypeKind.Double, CelTypeKind.String, CelTypeKind.Timestamp } },
+        { "uint", new[] { CelTypeKind.Int, CelTypeKind.Uint, CelTypeKind.Double, CelTypeKind.String } },
+        { "double", new[] { CelTypeKind.Int, CelTypeKind.Uint, CelTypeKind.Double, CelTypeKind.String } },
+        { "string", new[] { CelTypeKind.Int, CelTypeKind.Uint, CelTypeKind.Double, CelTypeKind.Bool, CelTypeKind.String, CelTypeKind.Bytes, CelTypeKind.Timestamp, CelTypeKind.Duration } },
+        { "bytes", new[] { CelTypeKind.String, CelTypeKind.Bytes } },
+        { "bool", new[] { CelTypeKind.Bool, CelTypeKind.String } },
+        { "timestamp", new[] { CelTypeKind.Int, CelTypeKind.String, CelTypeKind.Timestamp } },
+        { "duration", new[] { CelTypeKind.String, CelTypeKind.Duration } }
+    };
+
+    private static readonly Dictionary<string, string> StringFunctionOverloadIds = new()
+    {
+        { "contains", "contains_string" },
+        { "startsWith", "starts_with_string" },
+        { "endsWith", "ends_with_string" },
+        { "matches", "matches_string" }
+    };
+
+    private static readonly Dictionary<string, string> TimeAccessorOverloadSuffixes = new()
+    {
+        { "getFullYear", "year" },
+        { "getMonth", "month" },
+        { "getDate", "day_of_month_1_based" },
+        { "getDayOfMonth", "day_of_month" },
+        { "getDayOfWeek", "day_of_week" },
+        { "getDayOfYear", "day_of_year" },
+        { "getHours", "hours" },
+        { "getMinutes", "minutes" },
+        { "getSeconds", "seconds" },
+        { "getMilliseconds", "milliseconds" }
+    };
+
+    private static readonly HashSet<string> DurationAccessors = new() { "getHours", "getMinutes", "getSeconds", "getMilliseconds" };
+
+    private static readonly HashSet<string> Macros = new() { "all", "exists", "exists_one", "map", "filter" };
+
+    private readonly CelDescriptorIndex _descriptorIndex;
+    private readonly string? _messageNamespace;
+    private readonly IDictionary<string, CelCheckedType> _variableTypes;
+    private readonly Func<string, bool> _isFunctionRegistered;
+
+    private readonly Dictionary<IParseTree, CelCheckedType> _types = new();
+    private readonly Dictionary<IParseTree, string?[]> _overloadIds = new();
+    private readonly List<string> _errors = new();
+
+    //the iteration variables of the macros that enclose the node being checked, innermost last.
+    private readonly List<KeyValuePair<string, CelCheckedType>> _iterationVariables = new();
+
+    #endregion
+
+    #region Constructor
+
+    public CelTypeChecker(CelDescriptorIndex descriptorIndex, string? messageNamespace, IDictionary<string, CelCheckedType> variableTypes, Func<string, bool> isFunctionRegistered)
+    {
+        _descriptorIndex = descriptorIndex;
+        _messageNamespace = messageNamespace;
+        _variableTypes = variableTypes;
+        _isFunctionRegistered = isFunctionRegistered;
+    }
+
+    #endregion
+
+    #region Public
+
+    public CelCheckedExpression Check(CelParser.StartContext context)
+    {
+        Visit(context);
+
+        return new CelCheckedExpression(context, _types, _overloadIds, _errors.ToArray());
+    }
+
+    #endregion
+
+    #region Visitors
+
+    public override CelCheckedType Visit(IParseTree tree)
+    {
+        var type = base.Visit(tree) ?? CelCheckedType.Dyn;
+        _types[tree] = type;
+
+        return type;
+    }
+
+    public override CelCheckedType VisitChildren(IRuleNode node)
+    {
+        //nodes without a rule of their own are not typed, but their children still are.
+        for (var i = 0; i < node.ChildCount; i++)
+        {
+            if (node.GetChild(i) is IRuleNode)
+            {
+                Visit(node.GetChild(i));
+            }
+        }
+
+        return CelCheckedType.Dyn;
+    }
+
+    public override CelCheckedType VisitStart(CelParser.StartContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override CelCheckedType VisitExpr(CelParser.ExprContext context)
+    {
+        var condition = Visit(context.e);
+        if (context.op == null)
+        {
+            return condition;
+        }
+
+        CheckBool(condition, "_?_:_", context.e.Start);
+
+        var type = GetCommonType(Visit(context.e1), Visit(context.e2));
+        SetOverloadIds(context, "conditional");
+
+        return type;
+    }
+
+    public override CelCheckedType VisitConditionalOr(CelParser.ConditionalOrContext context)
+    {
+        return CheckLogical(context, context.e, context._e1, "_||_", "logical_or");
+    }
+
+    public override CelCheckedType VisitConditionalAnd(CelParser.ConditionalAndContext context)
+    {
+        return CheckLogical(context, context.e, context._e1, "_&&_", "logical_and");
+    }
+
+    public override CelCheckedType VisitRelation(CelParser.RelationContext context)
+    {
+        return CheckBinaryChain(context, context.e, context._ops, context._e1, ResolveRelation);
+    }
+
+    public override CelCheckedType VisitAdditive(CelParser.AdditiveContext context)
+    {
+        return CheckBinaryChain(context, context.e, context._ops, context._e1, ResolveArithmetic);
+    }
+
+    public override CelCheckedType VisitMultiplicative(CelParser.MultiplicativeContext context)
+    {
+        return CheckBinaryChain(context, context.e, context._ops, context._e1, ResolveArithmetic);
+    }
+
+    public override CelCheckedType VisitMemberExpr(CelParser.MemberExprContext context)
+    {
+        return Visit(context.member());
+    }
+
+    public override CelCheckedType VisitLogicalNot(CelParser.LogicalNotContext context)
+    {
+        CheckBool(Visit(context.member()), "!_", context.Start);
+        SetOverloadIds(context, Enumerable.Repeat("logical_not", context._ops.Count).ToArray<string?>());
+
+        return CelCheckedType.Bool;
+    }
+
+    public override CelCheckedType VisitNegate(CelParser.NegateContext context)
+    {
+        var type = Visit(context.member());
+        var overloadIds = new string?[context._ops.Count];
+
+        for (var i = 0; i < overloadIds.Length; i++)
+        {
+            if (type.Kind == CelTypeKind.Int || type.Kind == CelTypeKind.Double)
+            {
+                overloadIds[i] = "negate_" + GetOverloadTypeName(type);
+            }
+            else if (!type.IsDyn)
+            {
+                AddNoMatchingOverloadError(context._ops[i], "-_", type);
+                type = CelCheckedType.Dyn;
+            }
+        }
+
+        SetOverloadIds(context, overloadIds);
+
+        return type;
+    }
+
+    public override CelCheckedType VisitPrimaryExpr(CelParser.PrimaryExprContext context)
+    {
+        return Visit(context.primary());
+    }
+
+    public override CelCheckedType VisitSelect(CelParser.SelectContext context)
+    {
+        var memberText = context.member().GetText();
+        var identifier = context.id.Text;
+
+        //a qualified name is resolved before the member is checked, so its leading names are not reported as undeclared.
+        if (TryGetVariableType(context.GetText(), false, out var variableType))
+        {
+            return variableType;
+        }
+
+        if (_descriptorIndex.FindEnumDescriptor(memberText) is { } enumDescriptor)
+        {
+            if (enumDescriptor.FindValueByName(identifier) == null)
+            {
+                AddError(context.id, $"undefined field '{identifier}' of enum '{enumDescriptor.FullName}'");
+            }
+
+            return CelCheckedType.Dyn;
+        }
+
+        if (_descriptorIndex.FindMessageDescriptor(context.GetText()) != null || _descriptorIndex.FindEnumDescriptor(context.GetText()) != null)
+        {
+            return CelCheckedType.Type;
+        }
+
+        var memberType = Visit(context.member());
+
+        //selections inside has() read null for fields that are not set.
+        if (context.opt != null || CelVisitor.GetIdentOrGlobalCallContextParentInTree(context.Parent)?.id?.Text == "has")
+        {
+            return CelCheckedType.Dyn;
+        }
+
+        switch (memberType.Kind)
+        {
+            case CelTypeKind.Dyn:
+                return CelCheckedType.Dyn;
+
+            case CelTypeKind.Map:
+                if (memberType.KeyType!.Kind != CelTypeKind.String && !memberType.KeyType!.IsDyn)
+                {
+                    AddError(context.id, $"type '{memberType}' does not support field selection");
+                    return CelCheckedType.Dyn;
+                }
+
+                return memberType.ValueType!;
+
+            case CelTypeKind.Message:
+                var fieldDescriptor = memberType.MessageDescriptor!.FindFieldByName(identifier);
+                if (fieldDescriptor == null)
+                {
+                    AddError(context.id, $"undefined field '{identifier}' of message '{memberType.MessageDescriptor!.FullName}'");
+                    return CelCheckedType.Dyn;
+                }
+
+                return GetFieldType(fieldDescriptor);
+
+            default:
+                AddError(context.id, $"type '{memberType}' does not support field selection");
+                return CelCheckedType.Dyn;
+        }
+    }
+
+    public override CelCheckedType VisitMemberCall(CelParser.MemberCallContext context)
+    {
+        var identifier = context.id.Text;
+        var args = context.args?._e;
+
+        if (args != null && args.Count == 2 && Macros.Contains(identifier))
+        {
+            return CheckMacro(context, identifier, args);
+        }
+
+        //qualified enum constructors such as TestAllTypes.NestedEnum(1) evaluate to the enum value descriptor.
+        if (args != null && _descriptorIndex.FindEnumDescriptor(context.member().GetText() + "." + identifier) != null)
+        {
+            VisitArguments(args);
+            return CelCheckedType.Dyn;
+        }
+
+        var targetType = Visit(context.member());
+        var argTypes = VisitArguments(args);
+
+        if (TryResolveMemberFunction(identifier, targetType, argTypes, out var type, out var overloadId))
+        {
+            SetOverloadIds(context, overloadId);
+            return type;
+        }
+
+        return CheckRegisteredFunction(context, identifier);
+    }
+
+    public override CelCheckedType VisitIndex(CelParser.IndexContext context)
+    {
+        var memberType = Visit(context.member());
+        var indexType = Visit(context.index);
+
+        if (context.opt != null || memberType.IsDyn)
+        {
+            return CelCheckedType.Dyn;
+        }
+
+        if (memberType.Kind == CelTypeKind.List && (indexType.Kind == CelTypeKind.Int || indexType.Kind == CelTypeKind.Uint || indexType.IsDyn))
+        {
+            SetOverloadIds(context, "index_list");
+            return memberType.ElementType!;
+        }
+
+        if (memberType.Kind == CelTypeKind.Map)
+        {
+            SetOverloadIds(context, "index_map");
+            return memberType.ValueType!;
+        }
+
+        AddNoMatchingOverloadError(context.op, "_[_]", memberType, indexType);
+        return CelCheckedType.Dyn;
+    }
+
+    public override CelCheckedType VisitIdentOrGlobalCall(CelParser.IdentOrGlobalCallContext context)
+    {
+        var identifier = context.id.Text;
+
+        if (context.op == null)
+        {
+            var variableName = (context.leadingDot?.Text ?? "") + identifier;
+            if (TryGetVariableType(variableName, true, out var variableType))
+            {
+                return variableType;
+            }
+
+            if (CelVisitor.IsAbstractType(variableName) || _descriptorIndex.FindMessageDescriptor(variableName) != null || _descriptorIndex.FindEnumDescriptor(variableName) != null)
+            {
+                return CelCheckedType.Type;
+            }
+
+            AddError(context.id, $"undeclared reference to '{variableName}' (in container '{_messageNamespace}')");
+            return CelCheckedType.Dyn;
+        }
+
+        var argTypes = VisitArguments(context.args?._e);
+
+        if (identifier == "has" && argTypes.Length == 1)
+        {
+            return CelCheckedType.Bool;
+        }
+
+        if (argTypes.Length == 1 && _descriptorIndex.FindEnumDescriptor(identifier) != null)
+        {
+            return CelCheckedType.Dyn;
+        }
+
+        if (TryResolveGlobalFunction(context, identifier, argTypes, out var type, out var overloadId))
+        {
+            SetOverloadIds(context, overloadId);
+            return type;
+        }
+
+        return CheckRegisteredFunction(context, identifier);
+    }
+
+    public override CelCheckedType VisitNested(CelParser.NestedContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override CelCheckedType VisitCreateList(CelParser.CreateListContext context)
+    {
+        CelCheckedType? elementType = null;
+
+        if (context.elems != null)
+        {
+            foreach (var element in context.elems._elems)
+            {
+                var type = Visit(element);
+
+                //optional elements are only added when they have a value, which has the type of the value and not of the optional.
+                elementType = element.opt != null ? CelCheckedType.Dyn : elementType == null ? type : GetCommonType(elementType, type);
+            }
+        }
+
+        return CelCheckedType.ListOf(elementType ?? CelCheckedType.Dyn);
+    }
+
+    public override CelCheckedType VisitCreateStruct(CelParser.CreateStructContext context)
+    {
+        CelCheckedType? keyType = null;
+        CelCheckedType? valueType = null;
+
+        if (context.entries != null)
+        {
+            for (var i = 0; i < context.entries._keys.Count; i++)
+            {
+                var key = Visit(context.entries._keys[i]);
+                var value = Visit(context.entries._values[i]);
+
+                //optional entries are only added when the value has a value of its own.
+                if (context.entries._keys[i].opt != null)
+                {
+                    value = CelCheckedType.Dyn;
+                }
+
+                keyType = keyType == null ? key : GetCommonType(keyType, key);
+                valueType = valueType == null ? value : GetCommonType(valueType, value);
+            }
+        }
+
+        return CelCheckedType.MapOf(keyType ?? CelCheckedType.Dyn, valueType ?? CelCheckedType.Dyn);
+    }
+
+    public override CelCheckedType VisitCreateMessage(CelParser.CreateMessageContext context)
+    {
+        var identifier = (context.leadingDot?.Text ?? "") + string.Join(".", context._ids.Select(c => c.Text));
+
+        if (context.entries != null)
+        {
+            foreach (var value in context.entries._values)
+            {
+                Visit(value);
+            }
+        }
+
+        var messageDescriptor = _descriptorIndex.FindMessageDescriptor(identifier);
+        if (messageDescriptor == null)
+        {
+            AddError(context.Start, $"undeclared reference to message '{identifier}' (in container '{_messageNamespace}')");
+            return CelCheckedType.Dyn;
+        }
+
+        //well known messages are unwrapped when they are created.
+        return messageDescriptor.FullName switch
+        {
+            "google.protobuf.Int64Value" => CelCheckedType.Int,
+            "google.protobuf.UInt64Value" => CelCheckedType.Uint,
+            "google.protobuf.DoubleValue" => CelCheckedType.Double,
+            "google.protobuf.BoolValue" => CelCheckedType.Bool,
+            "google.protobuf.StringValue" => CelCheckedType.String,
+            "google.protobuf.BytesValue" => CelCheckedType.Bytes,
+            "google.protobuf.Struct" => CelCheckedType.MapOf(CelCheckedType.String, CelCheckedType.Dyn),
+            "google.protobuf.ListValue" => CelCheckedType.ListOf(CelCheckedType.Dyn),
+            _ => GetMessageType(messageDescriptor)
+        };
+    }
+
+    public override CelCheckedType VisitOptExpr(CelParser.OptExprContext context)
+    {
+        return Visit(context.e);
+    }
+
+    public override CelCheckedType VisitConstantLiteral(CelParser.ConstantLiteralContext context)
+    {
+        return Visit(context.literal());
+    }
+
+    public override CelCheckedType VisitInt(CelParser.IntContext context)
+    {
+        return CelCheckedType.Int;
+    }
+
+    public override CelCheckedType VisitUint(CelParser.UintContext context)
+    {
+        return CelCheckedType.Uint;
+    }
+
+    public override CelCheckedType VisitDouble(CelParser.DoubleContext context)
+    {
+        return CelCheckedType.Double;
+    }
+
+    public override CelCheckedType VisitString(CelParser.StringContext context)
+    {
+        return CelCheckedType.String;
+    }
+
+    public override CelCheckedType VisitBytes(CelParser.BytesContext context)
+    {
+        return CelCheckedType.Bytes;
+    }
+
+    public override CelCheckedType VisitBoolTrue(CelParser.BoolTrueContext context)
+    {
+        return CelCheckedType.Bool;
+    }
+
+    public override CelCheckedType VisitBoolFalse(CelParser.BoolFalseContext context)
+    {
+        return CelCheckedType.Bool;
+    }
+
+    public override CelCheckedType VisitNull(CelParser.NullContext context)
+    {
+        return CelCheckedType.Null;
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private CelCheckedType CheckLogical<T>(ParserRuleContext context, T first, IList<T> operands, string function, string overloadId) where T : ParserRuleContext
+    {
+        var type = Visit(first);
+        if (operands == null || operands.Count == 0)
+        {
+            return type;
+        }
+
+        CheckBool(type, function, first.Start);
+
+        //operands that are not bools make the result null rather than an error, so the result is only a bool when every operand is.
+        var allBool = type.Kind == CelTypeKind.Bool;
+
+        foreach (var operand in operands)
+        {
+            var operandType = Visit(operand);
+            CheckBool(operandType, function, operand.Start);
+
+            allBool &= operandType.Kind == CelTypeKind.Bool;
+        }
+
+        SetOverloadIds(context, Enumerable.Repeat(overloadId, operands.Count).ToArray<string?>());
+
+        return allBool ? CelCheckedType.Bool : CelCheckedType.Dyn;
+    }
+
+    /// <summary>
+    /// Checks the flat operator loop of a precedence level from left to right, so the left operand of each operator is the result of the previous one.
+    /// </summary>
+    private CelCheckedType CheckBinaryChain<T>(ParserRuleContext context, T first, IList<IToken> ops, IList<T> operands, Func<IToken, CelCheckedType, CelCheckedType, (CelCheckedType Type, string? OverloadId)> resolve) where T : ParserRuleContext
+    {
+        var type = Visit(first);
+        if (ops == null || ops.Count == 0)
+        {
+            return type;
+        }
+
+        var overloadIds = new string?[ops.Count];
+
+        for (var i = 0; i < ops.Count; i++)
+        {
+            (type, overloadIds[i]) = resolve(ops[i], type, Visit(operands[i]));
+        }
+
+        SetOverloadIds(context, overloadIds);
+
+        return type;
+    }
+
+    private (CelCheckedType Type, string? OverloadId) ResolveRelation(IToken op, CelCheckedType left, CelCheckedType right)
+    {
+        switch (op.Text)
+        {
+            case "==":
+                return (CelCheckedType.Bool, "equals");
+
+            case "!=":
+                return (CelCheckedType.Bool, "not_equals");
+
+            case "in":
+                if (right.Kind == CelTypeKind.List || right.Kind == CelTypeKind.Map)
+                {
+                    return (CelCheckedType.Bool, "in_" + GetOverloadTypeName(right));
+                }
+
+                if (!right.IsDyn)
+                {
+                    AddNoMatchingOverloadError(op, "@in", left, right);
+                }
+
+                return (CelCheckedType.Bool, null);
+        }
+
+        var name = op.Text switch
+        {
+            "<" => "less",
+            "<=" => "less_equals",
+            ">" => "greater",
+            _ => "greater_equals"
+        };
+
+        if (left.IsDyn || right.IsDyn)
+        {
+            return (CelCheckedType.Bool, null);
+        }
+
+        if (left.Kind == right.Kind && IsComparable(left.Kind))
+        {
+            return (CelCheckedType.Bool, $"{name}_{GetOverloadTypeName(left)}");
+        }
+
+        if (IsNumeric(left.Kind) && IsNumeric(right.Kind))
+        {
+            return (CelCheckedType.Bool, $"{name}_{GetOverloadTypeName(left)}_{GetOverloadTypeName(right)}");
+        }
+
+        AddNoMatchingOverloadError(op, $"_{op.Text}_", left, right);
+        return (CelCheckedType.Bool, null);
+    }
+
+    private (CelCheckedType Type, string? OverloadId) ResolveArithmetic(IToken op, CelCheckedType left, CelCheckedType right)
+    {
+        var name = op.Text switch
+        {
+            "+" => "add",
+            "-" => "subtract",
+            "*" => "multiply",
+            "/" => "divide",
+            _ => "modulo"
+        };
+
+        if (left.IsDyn || right.IsDyn)
+        {
+            return (CelCheckedType.Dyn, null);
+        }
+
+        if (left.Kind == right.Kind)
+        {
+            if (left.Kind == CelTypeKind.Int || left.Kind == CelTypeKind.Uint || (left.Kind == CelTypeKind.Double && name != "modulo"))
+            {
+                return (left, $"{name}_{GetOverloadTypeName(left)}");
+            }
+
+            if ((left.Kind == CelTypeKind.String || left.Kind == CelTypeKind.Bytes) && name == "add")
+            {
+                return (left, $"{name}_{GetOverloadTypeName(left)}");
+            }
+
+            if (left.Kind == CelTypeKind.List && name == "add")
+            {
+                return (CelCheckedType.ListOf(GetCommonType(left.ElementType!, right.ElementType!)), "add_list");
+            }
+
+            if (left.Kind == CelTypeKind.Duration && name is "add" or "subtract")
+            {
+                return (CelCheckedType.Duration, $"{name}_duration_duration");
+            }
+
+            if (left.Kind == CelTypeKind.Timestamp && name == "subtract")
+            {
+                return (CelCheckedType.Duration, "subtract_timestamp_timestamp");
+            }
+        }
+
+        if (left.Kind == CelTypeKind.Timestamp && right.Kind == CelTypeKind.Duration && name is "add" or "subtract")
+        {
+            return (CelCheckedType.Timestamp, $"{name}_timestamp_duration");
+        }
+
+        if (left.Kind == CelTypeKind.Duration && right.Kind == CelTypeKind.Timestamp && name == "add")
+        {
+            return (CelCheckedType.Timestamp, "add_duration_timestamp");
+        }
+
+        AddNoMatchingOverloadError(op, $"_{op.Text}_", left, right);
+        return (CelCheckedType.Dyn, null);
+    }
+
+    private CelCheckedType CheckMacro(CelParser.MemberCallContext context, string identifier, IList<CelParser.ExprContext> args)
+    {
+        var rangeType = Visit(context.member());
+
+        //lists iterate over their elements and maps over their keys.
+        CelCheckedType elementType;
+        switch (rangeType.Kind)
+        {
+            case CelTypeKind.List:
+                elementType = rangeType.ElementType!;
+                break;
+
+            case CelTypeKind.Map:
+                elementType = rangeType.KeyType!;
+                break;
+
+            case CelTypeKind.Dyn:
+                elementType = CelCheckedType.Dyn;
+                break;
+
+            default:
+                AddError(context.id, $"expression of type '{rangeType}' cannot be the range of a comprehension");
+                elementType = CelCheckedType.Dyn;
+                break;
+        }
+
+        //the first argument names the iteration variable; it is not an expression of its own.
+        _types[args[0]] = elementType;
+
+        _iterationVariables.Add(new KeyValuePair<string, CelCheckedType>(args[0].GetText(), elementType));
+        var predicateType = Visit(args[1]);
+        _iterationVariables.RemoveAt(_iterationVariables.Count - 1);
+
+        if (identifier != "map")
+        {
+            CheckBool(predicateType, identifier, args[1].Start);
+        }
+
+        //macros over a null range evaluate to null.
+        if (rangeType.IsDyn)
+        {
+            return CelCheckedType.Dyn;
+        }
+
+        return identifier switch
+        {
+            "map" => CelCheckedType.ListOf(predicateType),
+            "filter" => CelCheckedType.ListOf(elementType),
+            _ => CelCheckedType.Bool
+        };
+    }
+
+    private bool TryResolveGlobalFunction(ParserRuleContext context, string identifier, CelCheckedType[] argTypes, out CelCheckedType type, out string? overloadId)
+    {
+        type = CelCheckedType.Dyn;
+        overloadId = null;
+
+        if (argTypes.Length != 1)
+        {
+            return false;
+        }
+
+        var argType = argTypes[0];
+
+        if (ConversionTypes.TryGetValue(identifier, out var conversionType))
+        {
+            if (argType.IsDyn)
+            {
+                type = conversionType;
+                return true;
+            }
+
+            if (ConversionArgumentKinds[identifier].Contains(argType.Kind))
+            {
+                type = conversionType;
+                overloadId = $"{GetOverloadTypeName(argType)}_to_{GetOverloadTypeName(conversionType)}";
+                return true;
+            }
+
+            AddNoMatchingOverloadError(context.Start, identifier, argType);
+            return true;
+        }
+
+        switch (identifier)
+        {
+            case "type":
+                type = CelCheckedType.Type;
+                overloadId = "type";
+                return true;
+
+            case "dyn":
+                overloadId = "to_dyn";
+                return true;
+
+            case "size":
+                return TryResolveSize(argType, "size_", "", out type, out overloadId);
+        }
+
+        return false;
+    }
+
+    private bool TryResolveMemberFunction(string identifier, CelCheckedType targetType, CelCheckedType[] argTypes, out CelCheckedType type, out string? overloadId)
+    {
+        type = CelCheckedType.Dyn;
+        overloadId = null;
+
+        if (identifier == "size" && argTypes.Length == 0)
+        {
+            return TryResolveSize(targetType, "", "_size", out type, out overloadId);
+        }
+
+        if (StringFunctionOverloadIds.TryGetValue(identifier, out var stringOverloadId) && argTypes.Length == 1)
+        {
+            if (targetType.IsDyn || argTypes[0].IsDyn)
+            {
+                type = CelCheckedType.Bool;
+                return true;
+            }
+
+            if (targetType.Kind == CelTypeKind.String && argTypes[0].Kind == CelTypeKind.String)
+            {
+                type = CelCheckedType.Bool;
+                overloadId = stringOverloadId;
+                return true;
+            }
+
+            return false;
+        }
+
+        if (TimeAccessorOverloadSuffixes.TryGetValue(identifier, out var suffix) && argTypes.Length <= 1)
+        {
+            if (targetType.Kind == CelTypeKind.Timestamp || (targetType.Kind == CelTypeKind.Duration && argTypes.Length == 0 && DurationAccessors.Contains(identifier)))
+            {
+                type = CelCheckedType.Int;
+                overloadId = $"{GetOverloadTypeName(targetType)}_to_{suffix}" + (argTypes.Length == 1 ? "_with_tz" : "");
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static bool TryResolveSize(CelCheckedType argType, string prefix, string suffix, out CelCheckedType type, out string? overloadId)
+    {
+        //sizes are evaluated as 32-bit ints rather than longs, so the overload is resolved but the result is not typed as int.
+        type = CelCheckedType.Dyn;
+        overloadId = null;
+
+        switch (argType.Kind)
+        {
+            case CelTypeKind.Dyn:
+                return true;
+
+            case CelTypeKind.String:
+            case CelTypeKind.Bytes:
+            case CelTypeKind.List:
+            case CelTypeKind.Map:
+                overloadId = prefix + GetOverloadTypeName(argType) + suffix;
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /// <summary>
+    /// Functions registered with the environment are only known by their CLR argument types, so calls to them are resolved when they are evaluated.
+    /// </summary>
+    private CelCheckedType CheckRegisteredFunction(ParserRuleContext context, string identifier)
+    {
+        if (!_isFunctionRegistered(identifier))
+        {
+            AddError(context.Start, $"undeclared reference to function '{identifier}'");
+        }
+
+        SetOverloadIds(context, (string?)null);
+
+        return CelCheckedType.Dyn;
+    }
+
+    private CelCheckedType[] VisitArguments(IList<CelParser.ExprContext>? args)
+    {
+        return args?.Select(Visit).ToArray() ?? Array.Empty<CelCheckedType>();
+    }
+
+    private bool TryGetVariableType(string variableName, bool useNamespace, out CelCheckedType variableType)
+    {
+        for (var i = _iterationVariables.Count - 1; i >= 0; i--)
+        {
+            if (_iterationVariables[i].Key == variableName)
+            {
+                variableType = _iterationVariables[i].Value;
+                return true;
+            }
+        }
+
+        var candidateNames = useNamespace ? CelVariableReference.GetCandidateNames(_messageNamespace, variableName) : new[] { variableName };
+
+        foreach (var candidateName in candidateNames)
+        {
+            if (_variableTypes.TryGetValue(candidateName, out var declaredType))
+            {
+                variableType = declaredType;
+                return true;
+            }
+        }
+
+        variableType = CelCheckedType.Dyn;
+        return false;
+    }
+
+    private static CelCheckedType GetFieldType(FieldDescriptor fieldDescriptor)
+    {
+        if (fieldDescriptor.IsMap)
+        {
+            return CelCheckedType.MapOf(GetFieldElementType(fieldDescriptor.MessageType.FindFieldByNumber(1)), GetFieldElementType(fieldDescriptor.MessageType.FindFieldByNumber(2)));
+        }
+
+        if (fieldDescriptor.IsRepeated)
+        {
+            return CelCheckedType.ListOf(GetFieldElementType(fieldDescriptor));
+        }
+
+        return GetFieldElementType(fieldDescriptor);
+    }
+
+    private static CelCheckedType GetFieldElementType(FieldDescriptor fieldDescriptor)
+    {
+        switch (fieldDescriptor.FieldType)
+        {
+            case FieldType.Int64:
+            case FieldType.SInt64:
+            case FieldType.SFixed64:
+                return CelCheckedType.Int;
+
+            case FieldType.UInt64:
+            case FieldType.Fixed64:
+                return CelCheckedType.Uint;
+
+            case FieldType.Double:
+                return CelCheckedType.Double;
+
+            case FieldType.Bool:
+                return CelCheckedType.Bool;
+
+            case FieldType.String:
+                return CelCheckedType.String;
+
+            case FieldType.Bytes:
+                return CelCheckedType.Bytes;
+
+            case FieldType.Message:
+                //wrapper fields read as null when they are not set.
+                return fieldDescriptor.MessageType.FullName.StartsWith("google.protobuf.", StringComparison.Ordinal)
+                           ? CelCheckedType.Dyn
+                           : CelCheckedType.MessageOf(fieldDescriptor.MessageType);
+
+            default:
+                //32-bit and float fields read as int, uint and float, and enum fields read as their value descriptors.
+                return CelCheckedType.Dyn;
+        }
+    }
+
+    private static CelCheckedType GetMessageType(MessageDescriptor messageDescriptor)
+    {
+        //the remaining well known messages are unwrapped into values of several types.
+        return messageDescriptor.FullName.StartsWith("google.protobuf.", StringComparison.Ordinal) ? CelCheckedType.Dyn : CelCheckedType.MessageOf(messageDescriptor);
+    }
+
+    private static CelCheckedType GetCommonType(CelCheckedType type, CelCheckedType otherType)
+    {
+        return type.Equals(otherType) ? type : CelCheckedType.Dyn;
+    }
+
+    private static bool IsNumeric(CelTypeKind kind)
+    {
+        return kind == CelTypeKind.Int || kind == CelTypeKind.Uint || kind == CelTypeKind.Double;
+    }
+
+    private static bool IsComparable(CelTypeKind kind)
+    {
+        return IsNumeric(kind) || kind == CelTypeKind.Bool || kind == CelTypeKind.String || kind == CelTypeKind.Bytes || kind == CelTypeKind.Timestamp || kind == CelTypeKind.Duration;
+    }
+
+    private static string GetOverloadTypeName(CelCheckedType type)
+    {
+        return type.Kind switch
+        {
+            CelTypeKind.Int => "int64",
+            CelTypeKind.Uint => "uint64",
+            CelTypeKind.Double => "double",
+            CelTypeKind.Bool => "bool",
+            CelTypeKind.String => "string",
+            CelTypeKind.Bytes => "bytes",
+            CelTypeKind.Timestamp => "timestamp",
+            CelTypeKind.Duration => "duration",
+            CelTypeKind.List => "list",
+            CelTypeKind.Map => "map",
+            _ => type.ToString()
+        };
+    }
+
+    private void CheckBool(CelCheckedType type, string function, IToken token)
+    {
+        if (type.Kind != CelTypeKind.Bool && !type.IsDyn)
+        {
+            AddNoMatchingOverloadError(token, function, type);
+        }
+    }
+
+    private void SetOverloadIds(IParseTree node, params string?[] overloadIds)
+    {
+        _overloadIds[node] = overloadIds;
+    }
+
+    private void AddNoMatchingOverloadError(IToken token, string function, params CelCheckedType[] argTypes)
+    {
+        AddError(token, $"found no matching overload for '{function}' applied to '({string.Join(", ", argTypes.Select(t => t.ToString()))})'");
+    }
+
+    private void AddError(IToken token, string message)
+    {
+        _errors.Add($"{token.Line}:{token.Column + 1}: {message}");
+    }
+
+    #endregion
+}
@@ -0,0 +1,169 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A variable name that is resolved when the expression is compiled.  The qualified names the variable can be found under are worked out once,
+/// and the slots they occupy in a <see cref="CelActivation"/> are looked up once for each layout, so reading the variable from an activation
+/// is an array load with no string work.
+/// </summary>
+internal sealed class CelVariableReference
+{
+    private readonly string[] _candidateNames;
+    private SlotCache? _slotCache;
+
+    private CelVariableReference(string[] candidateNames)
+    {
+        _candidateNames = candidateNames;
+    }
+
+    /// <summary>
+    /// A reference to an identifier, which is looked up in the message namespace before it is looked up as written.
+    /// </summary>
+    public static CelVariableReference Create(string? messageNamespace, string variableName)
+    {
+        return new CelVariableReference(GetCandidateNames(messageNamespace, variableName));
+    }
+
+    /// <summary>
+    /// A reference to a name that is only looked up as written, such as the dotted name of a field selection.
+    /// </summary>
+    public static CelVariableReference CreateUnqualified(string variableName)
+    {
+        return new CelVariableReference(new[] { variableName });
+    }
+
+    /// <summary>
+    /// Returns the names a variable is looked up under, most qualified first.  In namespace "A.B" the variable "a" is looked up as "A.B.a", then "A.a"
+    /// and then "a".  A leading period scopes the resolution to the name as written.
+    /// </summary>
+    public static string[] GetCandidateNames(string? messageNamespace, string variableName)
+    {
+        if (variableName.StartsWith(".", StringComparison.Ordinal))
+        {
+            return new[] { variableName.Substring(1) };
+        }
+
+        var namespacePrefixes = GetNamespacePrefixes(messageNamespace);
+        var candidateNames = new string[namespacePrefixes.Length + 1];
+
+        for (var i = 0; i < namespacePrefixes.Length; i++)
+        {
+            candidateNames[i] = namespacePrefixes[i] + variableName;
+        }
+
+        candidateNames[namespacePrefixes.Length] = variableName;
+
+        return candidateNames;
+    }
+
+    /// <summary>
+    /// Returns the prefixes a variable is qualified with, most qualified first.  In namespace "A.B" they are "A.B." and "A.".
+    /// </summary>
+    public static string[] GetNamespacePrefixes(string? messageNamespace)
+    {
+        if (string.IsNullOrWhiteSpace(messageNamespace))
+        {
+            return Array.Empty<string>();
+        }
+
+        var lastPeriod = messageNamespace!.LastIndexOf('.');
+        if (lastPeriod < 0)
+        {
+            return new[] { messageNamespace + "." };
+        }
+
+        return new[] { messageNamespace + ".", messageNamespace.Substring(0, lastPeriod + 1) };
+    }
+
+    /// <summary>
+    /// Looks up a name that is only known when the expression is evaluated, under the same names as <see cref="GetCandidateNames"/>.
+    /// The qualified names are only built while the variable has not been found, and a name without a namespace is looked up as is.
+    /// </summary>
+    public static bool TryGetValue(TryGetVariableDelegate tryGetVariable, string[] namespacePrefixes, string variableName, out object? value)
+    {
+        if (variableName.StartsWith(".", StringComparison.Ordinal))
+        {
+            return tryGetVariable.Invoke(variableName.Substring(1), out value);
+        }
+
+        for (var i = 0; i < namespacePrefixes.Length; i++)
+        {
+            if (tryGetVariable.Invoke(namespacePrefixes[i] + variableName, out value))
+            {
+                return true;
+            }
+        }
+
+        return tryGetVariable.Invoke(variableName, out value);
+    }
+
+    public bool TryGetValue(TryGetVariableDelegate tryGetVariable, out object? value)
+    {
+        //programs pass an activation's own lookup straight through.  Macros wrap the lookup to add their iteration variable,
+        //so a variable that a macro could shadow is never read by slot.
+        if (tryGetVariable.Target is CelActivation activation)
+        {
+            var slots = GetSlots(activation.Layout);
+
+            for (var i = 0; i < slots.Length; i++)
+            {
+                if (activation.TryGetValue(slots[i], out value))
+                {
+                    return true;
+                }
+            }
+
+            value = null;
+            return false;
+        }
+
+        for (var i = 0; i < _candidateNames.Length; i++)
+        {
+            if (tryGetVariable.Invoke(_candidateNames[i], out value))
+            {
+                return true;
+            }
+        }
+
+        value = null;
+        return false;
+    }
+
+    private int[] GetSlots(CelVariableLayout layout)
+    {
+        //a compiled expression is usually evaluated with a single layout, so only the last one is kept.
+        var slotCache = _slotCache;
+        if (slotCache == null || slotCache.Layout != layout)
+        {
+            slotCache = new SlotCache(layout, layout.GetSlots(_candidateNames));
+            _slotCache = slotCache;
+        }
+
+        return slotCache.Slots;
+    }
+
+    private sealed class SlotCache
+    {
+        public SlotCache(CelVariableLayout layout, int[] slots)
+        {
+            Layout = layout;
+            Slots = slots;
+        }
+
+        public CelVariableLayout Layout { get; }
+        public int[] Slots { get; }
+    }
+}
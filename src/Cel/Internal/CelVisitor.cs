@@ -16,6 +16,7 @@ using System.Collections;
 using System.Collections.Concurrent;
 using System.Diagnostics;
 using System.Reflection;
+using Antlr4.Runtime;
 using Antlr4.Runtime.Misc;
 using Antlr4.Runtime.Tree;
 using Cel.Helpers;
@@ -36,19 +37,29 @@ public delegate bool TryGetVariableDelegate(string variableName, out object? val
 
 public delegate object? CelExpressionDelegate(TryGetVariableDelegate tryGetVariableDelegate);
 
+/// <summary>
+/// Compiles a parse tree into a tree of expression delegates.  Every node is visited once, when the expression is compiled:
+/// the delegates capture their compiled children and the text, literals and descriptors they need, so evaluating them never visits the parse tree.
+/// </summary>
 internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 {
     #region Declarations
 
     private static Dictionary<string, CelType?> CelAbstractTypes { get; } = new();
 
-    private IList<FileDescriptor> FileDescriptors { get; }
+    private CelDescriptorIndex DescriptorIndex { get; }
     private Dictionary<string, CelMacroDelegate> InternalMacros { get; } = new();
     private ConcurrentDictionary<string, List<FunctionRegistration>> Functions { get; } = new();
+    private ConcurrentDictionary<string, bool> RegisteredFunctionNames { get; } = new();
+    private CelConstantFolder ConstantFolder { get; }
 
     private TypeRegistry TypeRegistry { get; }
     private string? MessageNamespace { get; }
+    private string[] NamespacePrefixes { get; }
     public bool StrictTypeComparison { get; set; }
+    public bool FoldConstants { get; set; } = true;
+
+    private int _functionsVersion;
 
     #endregion
 
@@ -61,12 +72,15 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public CelVisitor(IList<FileDescriptor> fileDescriptors, string? messageNamespace)
     {
-        FileDescriptors = fileDescriptors;
         MessageNamespace = messageNamespace;
+        NamespacePrefixes = CelVariableReference.GetNamespacePrefixes(messageNamespace);
+        DescriptorIndex = new CelDescriptorIndex(fileDescriptors, messageNamespace);
         TypeRegistry = TypeRegistry.FromFiles(fileDescriptors);
 
         CelFunctions.InitializeFunctions(Functions);
         CelMacros.InitializeMacros(InternalMacros);
+
+        ConstantFolder = new CelConstantFolder(this);
     }
 
     #endregion
@@ -91,6 +105,58 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
         }
 
         Functions.RegisterFunction(functionName, argTypes, functionDelegate);
+        RegisteredFunctionNames[functionName] = true;
+
+        //call sites that have already resolved an overload resolve it again.
+        Interlocked.Increment(ref _functionsVersion);
+    }
+
+    /// <summary>
+    /// Changes every time a function is registered.
+    /// </summary>
+    public int FunctionsVersion => Volatile.Read(ref _functionsVersion);
+
+    public List<FunctionRegistration>? GetFunctionRegistrations(string functionName)
+    {
+        return Functions.TryGetValue(functionName, out var registrations) ? registrations : null;
+    }
+
+    /// <summary>
+    /// Returns true when the function has an overload registered with <see cref="RegisterFunction"/> rather than only standard overloads.
+    /// </summary>
+    internal bool IsRegisteredFunction(string functionName)
+    {
+        return RegisteredFunctionNames.ContainsKey(functionName);
+    }
+
+    /// <summary>
+    /// Returns true when constant folding is enabled and the node is the topmost node of a constant subexpression, which is folded when it is visited.
+    /// </summary>
+    internal bool IsFoldableConstant(IParseTree tree)
+    {
+        return FoldConstants && ConstantFolder.IsFoldable(tree);
+    }
+
+    /// <summary>
+    /// Remembers which nodes are constant until the scope is disposed, so that compiling a tree analyzes each node once.
+    /// </summary>
+    internal CelConstantFolder.AnalysisScope BeginConstantAnalysis()
+    {
+        return ConstantFolder.BeginAnalysis();
+    }
+
+    internal static bool IsAbstractType(string identifier)
+    {
+        return CelAbstractTypes.ContainsKey(identifier);
+    }
+
+    /// <summary>
+    /// Type checks the parse tree against the declared types of the variables.  Enums and messages are resolved with this visitor's descriptors.
+    /// </summary>
+    public CelCheckedExpression Check(CelParser.StartContext context, IDictionary<string, CelCheckedType> variableTypes)
+    {
+        var celTypeChecker = new CelTypeChecker(DescriptorIndex, MessageNamespace, variableTypes, functionName => Functions.ContainsKey(functionName));
+        return celTypeChecker.Check(context);
     }
 
     private static void InitializeCelAbstractTypes()
@@ -118,7 +184,12 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
     {
         WriteDebugLine($"Visiting node: {tree.GetType().Name}   {tree.GetText()}");
 
-        var result = base.Visit(tree);
+        CelExpressionDelegate result;
+
+        using (BeginConstantAnalysis())
+        {
+            result = IsFoldableConstant(tree) ? ConstantFolder.Fold(tree, base.Visit) : base.Visit(tree);
+        }
 
         WriteDebugLine($"Visited node: {tree.GetType().Name}   {tree.GetText()}");
 
@@ -165,7 +236,7 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
         try
         {
-            unescapedString = StringHelpers.Unescape(value.Substring(1), true);
+            unescapedString = CelLiteralDecoder.Decode(context.tok, value.Substring(1), true);
         }
         catch (CelExpressionParserException x)
         {
@@ -181,61 +252,71 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
         return tryGetVariable => unescapedString;
     }
 
-    public override CelExpressionDelegate VisitCalc([NotNull] CelParser.CalcContext context)
+    public override CelExpressionDelegate VisitAdditive([NotNull] CelParser.AdditiveContext context)
     {
-        return tryGetVariable =>
+        if (context._e1 == null || context._e1.Count == 0)
         {
-            if (context.op == null)
-            {
-                return base.VisitCalc(context).Invoke(tryGetVariable);
-            }
+            var result = base.VisitAdditive(context);
+            return result;
+        }
 
-            var left = context.calc(0);
-            var right = context.calc(1);
+        return CompileArithmetic(context, context.e, context._ops, context._e1);
+    }
 
-            var leftResult = Visit(left).Invoke(tryGetVariable);
-            var rightResult = Visit(right).Invoke(tryGetVariable);
+    public override CelExpressionDelegate VisitMultiplicative([NotNull] CelParser.MultiplicativeContext context)
+    {
+        if (context._e1 == null || context._e1.Count == 0)
+        {
+            var result = base.VisitMultiplicative(context);
+            return result;
+        }
 
-            //check that we have fields.
-            if (leftResult is CelNoSuchField celNoSuchFieldLeft)
-            {
-                throw new CelNoSuchFieldException(celNoSuchFieldLeft.Message);
-            }
+        return CompileArithmetic(context, context.e, context._ops, context._e1);
+    }
 
-            if (rightResult is CelNoSuchField celNoSuchFieldRight)
-            {
-                throw new CelNoSuchFieldException(celNoSuchFieldRight.Message);
-            }
+    private CelExpressionDelegate CompileArithmetic<T>(ParserRuleContext context, T first, IList<IToken> ops, IList<T> operands) where T : ParserRuleContext
+    {
+        var firstOperand = Visit(first);
+        var otherOperands = operands.Select(Visit).ToArray();
+        var operators = new Func<object?, object?, object?>[ops.Count];
 
-            if (context.op != null)
+        for (var i = 0; i < ops.Count; i++)
+        {
+            operators[i] = ops[i].Text switch
             {
-                if (context.op.Text == "+")
-                {
-                    return ArithmeticFunctions.Add(leftResult, rightResult);
-                }
+                "+" => ArithmeticFunctions.Add,
+                "-" => ArithmeticFunctions.Subtract,
+                "*" => ArithmeticFunctions.Multiply,
+                "/" => ArithmeticFunctions.Divide,
+                "%" => ArithmeticFunctions.Modulus,
+                _ => throw new CelExpressionParserException("Could not parse op value.", context)
+            };
+        }
 
-                if (context.op.Text == "-")
-                {
-                    return ArithmeticFunctions.Subtract(leftResult, rightResult);
-                }
+        return tryGetVariable =>
+        {
+            //the operators of one precedence level are left associative, so "a - b - c" is "(a - b) - c".
+            var leftResult = firstOperand.Invoke(tryGetVariable);
 
-                if (context.op.Text == "*")
-                {
-                    return ArithmeticFunctions.Multiply(leftResult, rightResult);
-                }
+            for (var i = 0; i < operators.Length; i++)
+            {
+                var rightResult = otherOperands[i].Invoke(tryGetVariable);
 
-                if (context.op.Text == "/")
+                //check that we have fields.
+                if (leftResult is CelNoSuchField celNoSuchFieldLeft)
                 {
-                    return ArithmeticFunctions.Divide(leftResult, rightResult);
+                    throw new CelNoSuchFieldException(celNoSuchFieldLeft.Message);
                 }
 
-                if (context.op.Text == "%")
+                if (rightResult is CelNoSuchField celNoSuchFieldRight)
                 {
-                    return ArithmeticFunctions.Modulus(leftResult, rightResult);
+                    throw new CelNoSuchFieldException(celNoSuchFieldRight.Message);
                 }
+
+                leftResult = operators[i].Invoke(leftResult, rightResult);
             }
 
-            throw new CelExpressionParserException("Could not parse op value.", context);
+            return leftResult;
         };
     }
 
@@ -247,24 +328,18 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return result;
         }
 
+        //the initial condition followed by the additional expressions.
+        var conditions = context._e1.Prepend(context.e).Select(Visit).ToArray();
+
         return tryGetVariable =>
         {
-            var conditions = new List<CelParser.ConditionalAndContext>();
-            //add the initial condition
-            conditions.Add(context.e);
-            //add the additional expressions.
-            if (context._e1 != null)
-            {
-                conditions.AddRange(context._e1);
-            }
-
             Exception? exception = null;
             var noSuchOverload = false;
-            for (var i = 0; i < conditions.Count; i++)
+            for (var i = 0; i < conditions.Length; i++)
             {
                 try
                 {
-                    var conditionValue = Visit(conditions[i]).Invoke(tryGetVariable);
+                    var conditionValue = conditions[i].Invoke(tryGetVariable);
                     if (conditionValue is CelNoSuchField celNoSuchField)
                     {
                         throw new CelNoSuchFieldException(celNoSuchField.Message);
@@ -319,6 +394,9 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return result;
         }
 
+        //the initial condition followed by the additional expressions.
+        var conditions = context._e1.Prepend(context.e).Select(Visit).ToArray();
+
         return tryGetVariable =>
         {
             //Logical Operators
@@ -339,23 +417,14 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             //the expression e1 && e2 can be rewritten e1 ? e2 : false.
             //Similarly, e1 || e2 can be rewritten e1 ? true : e2.
 
-            var conditions = new List<CelParser.RelationContext>();
-            //add the initial condition
-            conditions.Add(context.e);
-            //add the additional expressions.
-            if (context._e1 != null)
-            {
-                conditions.AddRange(context._e1);
-            }
-
             Exception? exception = null;
             var noSuchOverload = false;
 
-            for (var i = 0; i < conditions.Count; i++)
+            for (var i = 0; i < conditions.Length; i++)
             {
                 try
                 {
-                    var conditionValue = Visit(conditions[i]).Invoke(tryGetVariable);
+                    var conditionValue = conditions[i].Invoke(tryGetVariable);
 
                     //check that we have fields.
                     if (conditionValue is CelNoSuchField celNoSuchField)
@@ -418,13 +487,15 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return tryGetVariable => Array.Empty<object?>();
         }
 
+        var elements = context.elems._elems.Select(Visit).ToArray();
+
         return tryGetVariable =>
         {
-            var list = new object?[context.elems._elems.Count];
+            var list = new object?[elements.Length];
 
-            for (var i = 0; i < context.elems._elems.Count; i++)
+            for (var i = 0; i < elements.Length; i++)
             {
-                list[i] = Visit(context.elems._elems[i]).Invoke(tryGetVariable);
+                list[i] = elements[i].Invoke(tryGetVariable);
             }
 
             return list;
@@ -433,17 +504,17 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitCreateMessage([NotNull] CelParser.CreateMessageContext context)
     {
-        return tryGetVariable =>
-        {
-            var identifier = (context.leadingDot?.Text ?? "") + string.Join(".", context._ids.Select(c => c.Text));
+        var identifier = (context.leadingDot?.Text ?? "") + string.Join(".", context._ids.Select(c => c.Text));
 
-            Dictionary<string, object?>? entries = null;
+        //load the child entries
+        var entriesExpression = context.entries != null ? Visit(context.entries) : null;
 
-            //load the child entries
-            if (context.entries != null)
-            {
-                entries = Visit(context.entries).Invoke(tryGetVariable) as Dictionary<string, object?>;
-            }
+        //the descriptors do not change after the environment is created, so the message type is only resolved once.
+        var messageDescriptor = GetMessageDescriptor(identifier);
+
+        return tryGetVariable =>
+        {
+            var entries = entriesExpression?.Invoke(tryGetVariable) as Dictionary<string, object?>;
 
             //handle special type for ListValue
             if (identifier == "google.protobuf.ListValue")
@@ -487,8 +558,6 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
                 return new Dictionary<string, object?>();
             }
 
-            var messageDescriptor = GetMessageDescriptor(identifier);
-
             if (messageDescriptor == null)
             {
                 throw new CelExpressionParserException($"Cannot find constructor for identifier '{identifier}'.");
@@ -539,16 +608,13 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitDouble([NotNull] CelParser.DoubleContext context)
     {
-        return tryGetVariable =>
+        var token = context.tok.Text;
+        if (context.sign?.Text == "-")
         {
-            var token = context.tok.Text;
-            if (context.sign?.Text == "-")
-            {
-                token = "-" + token;
-            }
+            token = "-" + token;
+        }
 
-            return DoubleHelpers.ConvertDouble(token);
-        };
+        return CompileLiteral(() => DoubleHelpers.ConvertDouble(token));
     }
 
     public override CelExpressionDelegate VisitErrorNode(IErrorNode node)
@@ -560,18 +626,22 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
     {
         if (context.op?.Text == "?")
         {
+            var condition = Visit(context.e);
+            var trueExpression = Visit(context.e1);
+            var falseExpression = Visit(context.e2);
+
             return tryGetVariable =>
             {
-                var conditionResult = Visit(context.e).Invoke(tryGetVariable);
+                var conditionResult = condition.Invoke(tryGetVariable);
 
                 if (conditionResult is bool boolExpressionResult)
                 {
                     if (boolExpressionResult)
                     {
-                        return Visit(context.e1).Invoke(tryGetVariable);
+                        return trueExpression.Invoke(tryGetVariable);
                     }
 
-                    return Visit(context.e2).Invoke(tryGetVariable);
+                    return falseExpression.Invoke(tryGetVariable);
                 }
 
                 throw new CelNoSuchOverloadException($"Expression returned type '{conditionResult?.GetType().FullName ?? "null"} but boolean was expected.");
@@ -589,16 +659,18 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return base.VisitExprList(context);
         }
 
+        var elements = context._e.Select(Visit).ToArray();
+
         return tryGetVariable =>
         {
-            var list = new object?[context._e.Count];
+            var list = new object?[elements.Length];
 
-            for (var i = 0; i < context._e.Count; i++)
+            for (var i = 0; i < elements.Length; i++)
             {
-                list[i] = Visit(context._e[i]).Invoke(tryGetVariable);
+                list[i] = elements[i].Invoke(tryGetVariable);
             }
 
-            return list.ToArray();
+            return list;
         };
     }
 
@@ -614,137 +686,106 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             throw new CelExpressionParserException("Field initializer list has different number of keys and values.");
         }
 
-        return tryGetVariable =>
-        {
-            var dictionary = new Dictionary<string, object?>();
-
-            for (var i = 0; i < context._fields.Count; i++)
-            {
-                var key = Visit(context._fields[i]).Invoke(tryGetVariable);
-                string keyString;
-
-                if (key is string keyAsString)
-                {
-                    keyString = keyAsString;
-                }
-                else if (key is ulong keyUInt)
-                {
-                    keyString = StringHelpers.ConvertStringUInt(keyUInt);
-                }
-                else if (key is long keyInt)
-                {
-                    keyString = StringHelpers.ConvertStringInt(keyInt);
-                }
-                else if (key is bool keyBool)
-                {
-                    keyString = StringHelpers.ConvertStringBool(keyBool);
-                }
-                else
-                {
-                    throw new CelMapUnsupportedKeyTypeException("Cannot map item because key is not the required type.");
-                }
+        return CompileMapEntries(context._fields.Select(Visit).ToArray(), context._values.Select(Visit).ToArray());
+    }
 
-                var value = Visit(context._values[i]).Invoke(tryGetVariable);
+    public override CelExpressionDelegate VisitIdentOrGlobalCall([NotNull] CelParser.IdentOrGlobalCallContext context)
+    {
+        var leadingDot = context.leadingDot;
+        var id = context.id;
+        var identifier = id.Text;
+        var variableName = leadingDot?.Text ?? "" + id.Text;
 
-                if (dictionary.ContainsKey(keyString))
-                {
-                    throw new CelMapDuplicateKeyException($"Duplicate map key '{keyString}'.");
-                }
+        if (string.IsNullOrWhiteSpace(identifier))
+        {
+            return tryGetVariable => throw new CelExpressionParserException("Identifier not specified.");
+        }
 
-                dictionary.Add(keyString, value);
-            }
+        var exprList = context.exprList();
+        var argsExpression = exprList != null ? Visit(exprList) : null;
+        var variable = CelVariableReference.Create(MessageNamespace, variableName);
+        var callSite = new CelFunctionCallSite(this, identifier, exprList?._e.Count ?? 0);
+        var isAbstractType = CelAbstractTypes.TryGetValue(identifier, out var abstractType);
+        var enumDescriptor = GetEnumDescriptor(identifier);
 
-            return dictionary;
-        };
-    }
+        //this is to pass test SimpleTest(enums, strong_proto2, assign_standalone_int)
+        //with expression "TestAllTypes{standalone_enum: TestAllTypes.NestedEnum(1)}"
+        var isMemberCallTarget = context.Parent is CelParser.PrimaryExprContext && context.Parent?.Parent is CelParser.MemberCallContext;
 
-    public override CelExpressionDelegate VisitIdentOrGlobalCall([NotNull] CelParser.IdentOrGlobalCallContext context)
-    {
         return tryGetVariable =>
         {
-            var leadingDot = context.leadingDot;
-            var id = context.id;
-            var identifier = id.Text;
-            var variableName = leadingDot?.Text ?? "" + id.Text;
+            object? args = null;
 
-            if (!string.IsNullOrWhiteSpace(identifier))
+            if (argsExpression != null)
             {
-                object? args = null;
-                var exprList = context.exprList();
-
-                if (exprList != null)
+                //we have a function with arguments.
+                args = argsExpression.Invoke(tryGetVariable);
+                if (args is not object?[])
                 {
-                    //we have a function with arguments.
-                    args = Visit(exprList).Invoke(tryGetVariable);
-                    if (args is not object?[])
-                    {
-                        //wrap the args into an array if they aren't an array already.
-                        args = new[] { args };
-                    }
+                    //wrap the args into an array if they aren't an array already.
+                    args = new[] { args };
                 }
-
-                if (exprList == null)
+            }
+            else
+            {
+                //we have a variable;
+                if (variable.TryGetValue(tryGetVariable, out var variableValue))
                 {
-                    //we have a variable;
-                    if (TryGetVariableWithNamespace(tryGetVariable, MessageNamespace, variableName, out var variableValue))
-                    {
-                        return variableValue;
-                    }
-                    if (CelAbstractTypes.TryGetValue(id.Text, out var internalVariableValue))
-                    {
-                        return internalVariableValue;
-                    }
+                    return variableValue;
+                }
+                if (isAbstractType)
+                {
+                    return abstractType;
                 }
+            }
 
-                var enumDescriptor = GetEnumDescriptor(identifier);
-                if (enumDescriptor != null)
+            if (enumDescriptor != null)
+            {
+                if (args is object[] argsArray && argsArray.Length == 1)
                 {
-                    if (args is object[] argsArray && argsArray.Length == 1)
+                    var number = Int64Helpers.ConvertInt(argsArray[0]);
+                    var numberInt = MessageHelpers.ConvertToInt32(number);
+                    var enumValueDescriptor = enumDescriptor.FindValueByNumber(numberInt);
+                    if (enumValueDescriptor == null)
                     {
-                        var number = Int64Helpers.ConvertInt(argsArray[0]);
-                        var numberInt = MessageHelpers.ConvertToInt32(number);
-                        var enumValueDescriptor = enumDescriptor.FindValueByNumber(numberInt);
-                        if (enumValueDescriptor == null)
-                        {
-                            return number;
-                        }
-
-                        return enumValueDescriptor;
+                        return number;
                     }
-                }
 
-                var nonNullArgs = (object?[])(args ?? Array.Empty<object?>());
-                if (Functions.TryGetFunctionWithArgValues(identifier, nonNullArgs, out var internalFunction))
-                {
-                    return internalFunction!.Invoke(nonNullArgs);
+                    return enumValueDescriptor;
                 }
+            }
 
-                if (context.Parent is CelParser.PrimaryExprContext && context.Parent?.Parent is CelParser.MemberCallContext)
-                {
-                    //this is to pass test SimpleTest(enums, strong_proto2, assign_standalone_int)
-                    //with expression "TestAllTypes{standalone_enum: TestAllTypes.NestedEnum(1)}"
-                    return base.VisitIdentOrGlobalCall(context);
-                }
+            var nonNullArgs = (object?[])(args ?? Array.Empty<object?>());
+            if (callSite.TryGetFunction(nonNullArgs, out var internalFunction))
+            {
+                return internalFunction!.Invoke(nonNullArgs);
+            }
 
+            if (isMemberCallTarget)
+            {
+                //the member call resolves the qualified enum name, so the identifier has no value of its own.
+                return null;
+            }
 
-                if (exprList != null)
-                {
-                    throw new CelUnboundFunctionException($"Unbound function '{variableName}'.");
-                }
 
-                throw new CelUndeclaredReferenceException($"Undeclared reference to '{variableName}' in container '{MessageNamespace}'.");
+            if (argsExpression != null)
+            {
+                throw new CelUnboundFunctionException($"Unbound function '{variableName}'.");
             }
 
-            throw new CelExpressionParserException("Identifier not specified.");
+            throw new CelUndeclaredReferenceException($"Undeclared reference to '{variableName}' in container '{MessageNamespace}'.");
         };
     }
 
     public override CelExpressionDelegate VisitIndex([NotNull] CelParser.IndexContext context)
     {
+        var memberExpression = Visit(context.member());
+        var indexExpression = Visit(context.expr());
+
         return tryGetVariable =>
         {
-            var member = Visit(context.member()).Invoke(tryGetVariable);
-            var index = Visit(context.expr()).Invoke(tryGetVariable);
+            var member = memberExpression.Invoke(tryGetVariable);
+            var index = indexExpression.Invoke(tryGetVariable);
 
             if (member is object?[] memberArray)
             {
@@ -873,7 +914,8 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
                 throw new CelExpressionParserException("List or map cannot be null.");
             }
 
-            return base.VisitIndex(context);
+            //other values cannot be indexed.
+            return null;
         };
     }
     
@@ -934,16 +976,13 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitInt([NotNull] CelParser.IntContext context)
     {
-        return tryGetVariable =>
+        var token = context.tok.Text;
+        if (context.sign?.Text == "-")
         {
-            var token = context.tok.Text;
-            if (context.sign?.Text == "-")
-            {
-                token = "-" + token;
-            }
+            token = "-" + token;
+        }
 
-            return Int64Helpers.ConvertInt(token);
-        };
+        return CompileLiteral(() => Int64Helpers.ConvertInt(token));
     }
 
     public override CelExpressionDelegate VisitListInit([NotNull] CelParser.ListInitContext context)
@@ -959,16 +998,16 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return result;
         }
 
+        var memberExpression = Visit(context.member());
+        var notCount = context._ops.Count(op => op.Text == "!");
+
         return tryGetVariable =>
         {
-            var member = Visit(context.member()).Invoke(tryGetVariable);
+            var member = memberExpression.Invoke(tryGetVariable);
 
-            foreach (var op in context._ops)
+            for (var i = 0; i < notCount; i++)
             {
-                if (op.Text == "!")
-                {
-                    member = ArithmeticFunctions.LogicalNot(member);
-                }
+                member = ArithmeticFunctions.LogicalNot(member);
             }
 
             return member;
@@ -987,13 +1026,18 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             throw new CelExpressionParserException("Map list has different number of keys and values.");
         }
 
+        return CompileMapEntries(context._keys.Select(Visit).ToArray(), context._values.Select(Visit).ToArray());
+    }
+
+    private static CelExpressionDelegate CompileMapEntries(CelExpressionDelegate[] keys, CelExpressionDelegate[] values)
+    {
         return tryGetVariable =>
         {
             var dictionary = new Dictionary<string, object?>();
 
-            for (var i = 0; i < context._keys.Count; i++)
+            for (var i = 0; i < keys.Length; i++)
             {
-                var key = Visit(context._keys[i]).Invoke(tryGetVariable);
+                var key = keys[i].Invoke(tryGetVariable);
                 string keyString;
 
                 if (key is string keyAsString)
@@ -1017,7 +1061,7 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
                     throw new CelMapUnsupportedKeyTypeException("Cannot map item because key is not the required type.");
                 }
 
-                var value = Visit(context._values[i]).Invoke(tryGetVariable);
+                var value = values[i].Invoke(tryGetVariable);
 
                 if (dictionary.ContainsKey(keyString))
                 {
@@ -1033,137 +1077,140 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitMemberCall([NotNull] CelParser.MemberCallContext context)
     {
-        return tryGetVariable =>
+        var id = context.id;
+        var identifier = id.Text;
+
+        if (string.IsNullOrWhiteSpace(identifier))
         {
-            var id = context.id;
-            var memberValue = Visit(context.member()).Invoke(tryGetVariable);
+            return base.VisitMemberCall(context);
+        }
 
-            if (!string.IsNullOrWhiteSpace(id.Text))
-            {
-                object? args = null;
+        var memberExpression = Visit(context.member());
+        var exprList = context.exprList();
 
-                var exprList = context.exprList();
+        if (exprList != null && exprList._e.Count == 2)
+        {
+            if (InternalMacros.TryGetValue(identifier, out var macroFunction))
+            {
+                var variableName = exprList._e[0].GetText();
 
+                //compile the expression but do not evaluate it; the macro evaluates it for each item.
+                var expression = Visit(exprList._e[1]);
+                var tryGetFunction = new TryGetFunctionWithArgValuesDelegate(TryGetFunction);
 
-                if (exprList != null && exprList._e.Count == 2)
+                return tryGetVariable =>
                 {
-                    if (InternalMacros.TryGetValue(id.Text, out var macroFunction))
-                    {
-                        var variableName = exprList._e[0].GetText();
-
-                        //get the expression but do not evaluate it;
-                        var expression = Visit(exprList._e[1]);
+                    var memberValue = memberExpression.Invoke(tryGetVariable);
 
-                        //wrap the TryGetVariable function so that it always uses the namespace.
-                        var tryGetVariableWithNamespaceFunc = new TryGetVariableDelegate((string c_variableName, out object? c_value) =>
-                                                                                             TryGetVariableWithNamespace(tryGetVariable, MessageNamespace, c_variableName, out c_value)
-                                                                                        );
+                    //wrap the TryGetVariable function so that it always uses the namespace.
+                    var tryGetVariableWithNamespaceFunc = new TryGetVariableDelegate((string c_variableName, out object? c_value) =>
+                                                                                         CelVariableReference.TryGetValue(tryGetVariable, NamespacePrefixes, c_variableName, out c_value)
+                                                                                    );
 
-                        var tryGetFunction = new TryGetFunctionWithArgValuesDelegate((string name, object?[] argValues, out CelFunctionDelegate? funcDelegate) =>
-                        {
-                            if (Functions.TryGetFunctionWithArgValues(name, argValues, out funcDelegate))
-                            {
-                                return true;
-                            }
+                    return macroFunction.Invoke(memberValue, variableName, expression, tryGetVariableWithNamespaceFunc, tryGetFunction);
+                };
+            }
+        }
 
-                            funcDelegate = null;
-                            return false;
-                        });
+        var argsExpression = exprList != null ? Visit(exprList) : null;
+        var variable = CelVariableReference.Create(MessageNamespace, identifier);
+        var callSite = new CelFunctionCallSite(this, identifier, 1 + (exprList?._e.Count ?? 0));
+        var isAbstractType = CelAbstractTypes.TryGetValue(identifier, out var abstractType);
 
-                        return macroFunction.Invoke(memberValue, variableName, expression, tryGetVariableWithNamespaceFunc, tryGetFunction);
-                    }
-                }
+        //we could have an enum declaration here
+        var memberText = context.member().GetText();
+        var enumDescriptor = !string.IsNullOrWhiteSpace(memberText) && exprList != null ? GetEnumDescriptor(memberText + "." + identifier) : null;
+        var exprListText = exprList?.GetText();
 
+        return tryGetVariable =>
+        {
+            var memberValue = memberExpression.Invoke(tryGetVariable);
 
-                //build function list
-                if (exprList != null)
-                {
-                    args = Visit(exprList).Invoke(tryGetVariable);
-                }
+            //build function list
+            var args = argsExpression?.Invoke(tryGetVariable);
 
-                object?[] memberWithArgsArray;
-                if (args is null)
-                {
-                    memberWithArgsArray = new[] { memberValue };
-                }
-                else if (args is object?[] argsArray)
-                {
-                    memberWithArgsArray = new[] { memberValue }.Concat(argsArray).ToArray();
-                }
-                else
-                {
-                    memberWithArgsArray = new[] { memberValue, args };
-                }
+            object?[] memberWithArgsArray;
+            if (args is null)
+            {
+                memberWithArgsArray = new[] { memberValue };
+            }
+            else if (args is object?[] argsArray)
+            {
+                memberWithArgsArray = new[] { memberValue }.Concat(argsArray).ToArray();
+            }
+            else
+            {
+                memberWithArgsArray = new[] { memberValue, args };
+            }
 
-                //try invoking function
-                if (Functions.TryGetFunctionWithArgValues(id.Text, memberWithArgsArray, out var internalFunction))
-                {
-                    return internalFunction!.Invoke(memberWithArgsArray);
-                }
+            //try invoking function
+            if (callSite.TryGetFunction(memberWithArgsArray, out var internalFunction))
+            {
+                return internalFunction!.Invoke(memberWithArgsArray);
+            }
 
-                if (CelAbstractTypes.TryGetValue(id.Text, out var internalVariableValue))
-                {
-                    return internalVariableValue;
-                }
+            if (isAbstractType)
+            {
+                return abstractType;
+            }
 
-                if (TryGetVariableWithNamespace(tryGetVariable, MessageNamespace, id.Text, out var variableValue))
-                {
-                    return variableValue;
-                }
+            if (variable.TryGetValue(tryGetVariable, out var variableValue))
+            {
+                return variableValue;
+            }
 
 
-                if (memberValue == null && !string.IsNullOrWhiteSpace(context.member().GetText()) && exprList != null)
+            if (memberValue == null && enumDescriptor != null)
+            {
+                if (args is object?[] argsArray && argsArray.Length == 1)
                 {
-                    //we could have an enum declaration here
-                    args = Visit(exprList).Invoke(tryGetVariable);
-
-                    var qualifiedMember = context.member().GetText() + "." + id.Text;
-                    var enumDescriptor = GetEnumDescriptor(qualifiedMember);
-                    if (enumDescriptor != null)
+                    if (argsArray[0] is long argsLong)
                     {
-                        if (args is object?[] argsArray && argsArray.Length == 1)
+                        if (argsLong >= int.MinValue && argsLong <= int.MaxValue)
                         {
-                            if (argsArray[0] is long argsLong)
+                            var enumValueDescriptor = enumDescriptor.FindValueByNumber((int)argsLong);
+                            if (enumValueDescriptor == null)
                             {
-                                if (argsLong >= int.MinValue && argsLong <= int.MaxValue)
-                                {
-                                    var enumValueDescriptor = enumDescriptor.FindValueByNumber((int)argsLong);
-                                    if (enumValueDescriptor == null)
-                                    {
-                                        //this line here is to handle unknown enum types.
-                                        return argsLong;
-                                    }
-
-                                    return enumValueDescriptor;
-                                }
-
-                                throw new CelArgumentRangeException($"Could not instantiate enum '{enumDescriptor.FullName}' because the value '{argsLong}' is out of range.");
+                                //this line here is to handle unknown enum types.
+                                return argsLong;
                             }
 
-                            if (argsArray[0] is string argsString)
-                            {
-                                var enumValueDescriptor = enumDescriptor.FindValueByName(argsString);
-                                if (enumValueDescriptor == null)
-                                {
-                                    throw new CelArgumentRangeException($"Could not instantiate enum '{enumDescriptor.FullName}' because the name '{argsString}' was not found in the descriptor.");
-                                }
+                            return enumValueDescriptor;
+                        }
 
-                                return enumValueDescriptor;
-                            }
+                        throw new CelArgumentRangeException($"Could not instantiate enum '{enumDescriptor.FullName}' because the value '{argsLong}' is out of range.");
+                    }
+
+                    if (argsArray[0] is string argsString)
+                    {
+                        var enumValueDescriptor = enumDescriptor.FindValueByName(argsString);
+                        if (enumValueDescriptor == null)
+                        {
+                            throw new CelArgumentRangeException($"Could not instantiate enum '{enumDescriptor.FullName}' because the name '{argsString}' was not found in the descriptor.");
                         }
 
-                        throw new CelNoSuchOverloadException($"Could not instantiate enum '{enumDescriptor.FullName}' because the value '{exprList?.GetText()}' was not found in the descriptor.");
+                        return enumValueDescriptor;
                     }
                 }
 
-                throw new CelExpressionParserException($"Could not find evaluate member call because no function, variable or macro was found that matches identifier '{id.Text}'.");
+                throw new CelNoSuchOverloadException($"Could not instantiate enum '{enumDescriptor.FullName}' because the value '{exprListText}' was not found in the descriptor.");
             }
 
-
-            return base.VisitMemberCall(context);
+            throw new CelExpressionParserException($"Could not find evaluate member call because no function, variable or macro was found that matches identifier '{identifier}'.");
         };
     }
 
+    public bool TryGetFunction(string name, object?[] argValues, out CelFunctionDelegate? funcDelegate)
+    {
+        if (Functions.TryGetFunctionWithArgValues(name, argValues, out funcDelegate))
+        {
+            return true;
+        }
+
+        funcDelegate = null;
+        return false;
+    }
+
     public override CelExpressionDelegate VisitMemberExpr([NotNull] CelParser.MemberExprContext context)
     {
         var result = base.VisitMemberExpr(context);
@@ -1178,16 +1225,16 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return result;
         }
 
+        var memberExpression = Visit(context.member());
+        var negateCount = context._ops.Count(op => op.Text == "-");
+
         return tryGetVariable =>
         {
-            var member = Visit(context.member()).Invoke(tryGetVariable);
+            var member = memberExpression.Invoke(tryGetVariable);
 
-            foreach (var op in context._ops)
+            for (var i = 0; i < negateCount; i++)
             {
-                if (op.Text == "-")
-                {
-                    member = ArithmeticFunctions.Negate(member);
-                }
+                member = ArithmeticFunctions.Negate(member);
             }
 
             return member;
@@ -1212,7 +1259,8 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitOptField([NotNull] CelParser.OptFieldContext context)
     {
-        return tryGetVariable => context.id?.Text;
+        var fieldName = context.id?.Text;
+        return tryGetVariable => fieldName;
     }
 
     public override CelExpressionDelegate VisitPrimaryExpr([NotNull] CelParser.PrimaryExprContext context)
@@ -1223,86 +1271,96 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitRelation([NotNull] CelParser.RelationContext context)
     {
-        return tryGetVariable =>
+        if (context._e1 == null || context._e1.Count == 0)
         {
-            if (context.op == null)
-            {
-                var result = base.VisitRelation(context).Invoke(tryGetVariable);
-                return result;
-            }
-
-            var left = context.children[0];
-            var right = context.children[2];
+            var result = base.VisitRelation(context);
+            return result;
+        }
 
-            var leftResult = Visit(left).Invoke(tryGetVariable);
-            var rightResult = Visit(right).Invoke(tryGetVariable);
+        var firstOperand = Visit(context.e);
+        var otherOperands = context._e1.Select(Visit).ToArray();
+        var ops = context._ops.Select(op => op.Text).ToArray();
 
+        return tryGetVariable =>
+        {
+            var leftResult = firstOperand.Invoke(tryGetVariable);
 
-            //check that we have fields.
-            if (leftResult is CelNoSuchField celNoSuchFieldLeft)
+            for (var i = 0; i < ops.Length; i++)
             {
-                throw new CelNoSuchFieldException(celNoSuchFieldLeft.Message);
+                var rightResult = otherOperands[i].Invoke(tryGetVariable);
+                leftResult = EvaluateRelation(ops[i], leftResult, rightResult);
             }
 
-            if (rightResult is CelNoSuchField celNoSuchFieldRight)
-            {
-                throw new CelNoSuchFieldException(celNoSuchFieldRight.Message);
-            }
+            return leftResult;
+        };
+    }
 
-            if (context.op.Text == "in")
-            {
-                return CompareFunctions.Contains(leftResult, rightResult, TypeRegistry);
-            }
+    internal object? EvaluateRelation(string op, object? leftResult, object? rightResult)
+    {
+        //check that we have fields.
+        if (leftResult is CelNoSuchField celNoSuchFieldLeft)
+        {
+            throw new CelNoSuchFieldException(celNoSuchFieldLeft.Message);
+        }
 
-            var compareResult = CompareFunctions.Compare(leftResult, rightResult, TypeRegistry);
+        if (rightResult is CelNoSuchField celNoSuchFieldRight)
+        {
+            throw new CelNoSuchFieldException(celNoSuchFieldRight.Message);
+        }
 
-            if (context.op.Text == "==")
-            {
-                return compareResult == 0;
-            }
+        if (op == "in")
+        {
+            return CompareFunctions.Contains(leftResult, rightResult, TypeRegistry);
+        }
 
-            if (context.op.Text == "!=")
-            {
-                return compareResult != 0;
-            }
+        var compareResult = CompareFunctions.Compare(leftResult, rightResult, TypeRegistry);
 
-            //we can't do  < or > comparisons on lists and maps.
-            //we can only check equality
-            if (leftResult is object?[]
-                || rightResult is object[]
-                || leftResult is IList
-                || rightResult is IList
-                || leftResult is Dictionary<string, object?>
-                || rightResult is Dictionary<string, object?>
-                || leftResult == null
-                || rightResult == null
-                || compareResult == -2)
-            {
-                throw new CelNoSuchOverloadException($"No overload exists for use of operator '{context.op.Text}' with types '{leftResult?.GetType().FullName ?? "null"}' and '{rightResult?.GetType().FullName ?? "null"}'.");
-            }
+        if (op == "==")
+        {
+            return compareResult == 0;
+        }
 
-            if (context.op.Text == ">=")
-            {
-                return compareResult >= 0;
-            }
+        if (op == "!=")
+        {
+            return compareResult != 0;
+        }
 
-            if (context.op.Text == ">")
-            {
-                return compareResult > 0;
-            }
+        //we can't do  < or > comparisons on lists and maps.
+        //we can only check equality
+        if (leftResult is object?[]
+            || rightResult is object[]
+            || leftResult is IList
+            || rightResult is IList
+            || leftResult is Dictionary<string, object?>
+            || rightResult is Dictionary<string, object?>
+            || leftResult == null
+            || rightResult == null
+            || compareResult == -2)
+        {
+            throw new CelNoSuchOverloadException($"No overload exists for use of operator '{op}' with types '{leftResult?.GetType().FullName ?? "null"}' and '{rightResult?.GetType().FullName ?? "null"}'.");
+        }
 
-            if (context.op.Text == "<=")
-            {
-                return compareResult <= 0;
-            }
+        if (op == ">=")
+        {
+            return compareResult >= 0;
+        }
 
-            if (context.op.Text == "<")
-            {
-                return compareResult < 0;
-            }
+        if (op == ">")
+        {
+            return compareResult > 0;
+        }
 
-            throw new CelExpressionParserException($"Relation operation '{context.op.Text}' is not supported.", context);
-        };
+        if (op == "<=")
+        {
+            return compareResult <= 0;
+        }
+
+        if (op == "<")
+        {
+            return compareResult < 0;
+        }
+
+        throw new CelExpressionParserException($"Relation operation '{op}' is not supported.");
     }
 
     public override CelExpressionDelegate VisitSelect([NotNull] CelParser.SelectContext context)
@@ -1317,19 +1375,32 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             return base.VisitSelect(context);
         }
 
+        //try to get the value as a variable.
+        var variableName = context.GetText();
+        var variable = CelVariableReference.CreateUnqualified(variableName);
+
+        //the descriptors do not change after the environment is created, so the enum is only resolved once.
+        var enumDescriptor = GetEnumDescriptor(memberName);
+        var enumValueDescriptor = enumDescriptor?.FindValueByName(identifier);
+
+        var memberExpression = Visit(context.member());
+
+        //trying to evaluate an expression like "TestAllTypes{}.single_nested_message.bb"
+        //we need to instantiate the TestAllTypes{}.single_nested_message message.
+        var needToInstantiate = context.Parent is CelParser.SelectContext;
+
+        //if we are calling the "has" function, we need to check if the field is set or if it is default.
+        var checkForFieldPresence = GetIdentOrGlobalCallContextParentInTree(context.Parent)?.id?.Text == "has";
+
         return tryGetVariable =>
         {
-            //try to get the value as a variable.
-            var variableName = context.GetText();
-            if (tryGetVariable(variableName, out var variableValue))
+            if (variable.TryGetValue(tryGetVariable, out var variableValue))
             {
                 return variableValue;
             }
 
-            var enumDescriptor = GetEnumDescriptor(memberName);
             if (enumDescriptor != null)
             {
-                var enumValueDescriptor = enumDescriptor.FindValueByName(identifier);
                 if (enumValueDescriptor == null)
                 {
                     throw new CelNoSuchFieldException($"Cannot find enum descriptor '{memberName}.{identifier}'.");
@@ -1338,7 +1409,7 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
                 return enumValueDescriptor;
             }
 
-            var member = Visit(context.member()).Invoke(tryGetVariable);
+            var member = memberExpression.Invoke(tryGetVariable);
             if (member == null)
             {
                 return null;
@@ -1346,22 +1417,6 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
             if (member is IMessage memberIMessage)
             {
-                //trying to evaluate an expression like "TestAllTypes{}.single_nested_message.bb"
-                //we need to instantiate the TestAllTypes{}.single_nested_message message.
-                var needToInstantiate = context?.Parent is CelParser.SelectContext;
-                var checkForFieldPresence = false;
-
-
-                //if we are calling the "has" function, we need to check if the field is set or if it is default.
-                var getIdentOrGlobalCallContextParentInTree = GetIdentOrGlobalCallContextParentInTree(context?.Parent);
-                if (getIdentOrGlobalCallContextParentInTree != null)
-                {
-                    if (getIdentOrGlobalCallContextParentInTree.id?.Text == "has")
-                    {
-                        checkForFieldPresence = true;
-                    }
-                }
-
                 //get the field value.
                 var value = MessageHelpers.GetMessageValue(memberIMessage, identifier, checkForFieldPresence, needToInstantiate);
                 return value;
@@ -1398,14 +1453,14 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
 
     public override CelExpressionDelegate VisitString([NotNull] CelParser.StringContext context)
     {
-        return tryGetVariable =>
+        return CompileLiteral(() =>
         {
             var value = context.tok.Text;
             object unescapedString;
 
             try
             {
-                unescapedString = StringHelpers.Unescape(value, false);
+                unescapedString = CelLiteralDecoder.Decode(context.tok, value, false);
             }
             catch (CelExpressionParserException x)
             {
@@ -1419,106 +1474,58 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
             }
 
             return unescapedString;
-        };
+        });
     }
 
     public override CelExpressionDelegate VisitUint([NotNull] CelParser.UintContext context)
     {
-        return tryGetVariable =>
-        {
-            var token = context.tok.Text;
-            return UInt64Helpers.ConvertUInt(token);
-        };
+        var token = context.tok.Text;
+        return CompileLiteral(() => UInt64Helpers.ConvertUInt(token));
     }
 
     #endregion
 
     #region Private Function
 
-    private CelParser.IdentOrGlobalCallContext? GetIdentOrGlobalCallContextParentInTree(IParseTree? context)
+    /// <summary>
+    /// Converts a literal once, when the expression is compiled.  A literal that cannot be converted is converted again each time
+    /// the expression is evaluated, so the error is still reported by evaluation.
+    /// </summary>
+    private static CelExpressionDelegate CompileLiteral(Func<object?> convert)
     {
-        if (context?.Parent == null)
+        object? value;
+
+        try
         {
-            return null;
+            value = convert();
         }
-
-        if (context.Parent is CelParser.IdentOrGlobalCallContext identOrGlobalCallContext)
+        catch (Exception)
         {
-            return identOrGlobalCallContext;
+            return tryGetVariable => convert();
         }
 
-        return GetIdentOrGlobalCallContextParentInTree(context.Parent);
+        return tryGetVariable => value;
     }
 
-
-    private IEnumerable<EnumDescriptor> GetEnumDescriptors(MessageDescriptor messageDescriptor)
+    internal static CelParser.IdentOrGlobalCallContext? GetIdentOrGlobalCallContextParentInTree(IParseTree? context)
     {
-        foreach (var descriptor in messageDescriptor.EnumTypes)
+        if (context?.Parent == null)
         {
-            yield return descriptor;
+            return null;
         }
-    }
 
-    private IEnumerable<MessageDescriptor> GetMessageDescriptors(MessageDescriptor messageDescriptor)
-    {
-        foreach (var descriptor in messageDescriptor.NestedTypes)
+        if (context.Parent is CelParser.IdentOrGlobalCallContext identOrGlobalCallContext)
         {
-            yield return descriptor;
+            return identOrGlobalCallContext;
         }
+
+        return GetIdentOrGlobalCallContextParentInTree(context.Parent);
     }
 
 
     private EnumDescriptor? GetEnumDescriptor(string identifier)
     {
-        var messageEnumDescriptors = FileDescriptors.SelectMany(c => c.MessageTypes).SelectMany(GetEnumDescriptors);
-        var globalEnumDescriptors = FileDescriptors.SelectMany(c => c.EnumTypes);
-
-        var enumDescriptors = globalEnumDescriptors.Union(messageEnumDescriptors).ToList();
-
-        if (identifier.StartsWith(".", StringComparison.Ordinal))
-        {
-            //function started with an explicit period, so we need to scope the resolution locally.
-            return enumDescriptors.FirstOrDefault(c => c.FullName == identifier.Substring(1));
-        }
-
-        //find the name outright because we have no namespace
-        if (string.IsNullOrWhiteSpace(MessageNamespace))
-        {
-            return enumDescriptors.FirstOrDefault(c => c.FullName == identifier);
-        }
-
-        //find fully qualified A.B.a.b
-        var qualifiedNamespace = MessageNamespace + "." + identifier;
-        var descriptor = enumDescriptors.FirstOrDefault(c => c.FullName == qualifiedNamespace);
-        if (descriptor != null)
-        {
-            return descriptor;
-        }
-
-
-        //we didn't find A.B.a.b, so try A.a.b, if A.B had to terms.
-        var namespaceSplit = MessageNamespace!.Split('.');
-        if (namespaceSplit.Length > 1)
-        {
-            qualifiedNamespace = string.Join(".", namespaceSplit.Take(namespaceSplit.Length - 1)) + "." + identifier;
-            descriptor = enumDescriptors.FirstOrDefault(c => c.FullName == qualifiedNamespace);
-        }
-
-        if (descriptor != null)
-        {
-            return descriptor;
-        }
-
-
-        if (identifier.StartsWith("protobuf.", StringComparison.Ordinal))
-        {
-            //this is required for some test that are creating "protobuf.Any(" and missing the "google." prefix.
-            qualifiedNamespace = "google." + identifier;
-            descriptor = enumDescriptors.FirstOrDefault(c => c.FullName == qualifiedNamespace);
-        }
-
-        //we may or may not have a descriptor here, so we could return null.
-        return descriptor;
+        return DescriptorIndex.FindEnumDescriptor(identifier);
     }
 
     private MessageDescriptor? GetMessageDescriptor(string identifier)
@@ -1537,91 +1544,7 @@ internal class CelVisitor : CelBaseVisitor<CelExpressionDelegate>
         // Resolution works as follows. If a.b is a name to be resolved in the context of a protobuf declaration with scope A.B, then resolution is attempted,
         //      in order, as A.B.a.b, A.a.b, and finally a.b. To override this behavior, one can use .a.b; this name will only be attempted to be resolved in the root scope, i.e. as a.b.
 
-        var messageMessageDescriptors = FileDescriptors.SelectMany(c => c.MessageTypes).SelectMany(GetMessageDescriptors);
-        var globalMessageDescriptors = FileDescriptors.SelectMany(c => c.MessageTypes);
-        var messageDescriptors = globalMessageDescriptors.Union(messageMessageDescriptors).ToList();
-
-        if (identifier.StartsWith(".", StringComparison.Ordinal))
-        {
-            //function started with an explicit period, so we need to scope the resolution locally.
-            return messageDescriptors.FirstOrDefault(c => c.FullName == identifier.Substring(1));
-        }
-
-        //find the name outright because we have no namespace
-        if (string.IsNullOrWhiteSpace(MessageNamespace))
-        {
-            return messageDescriptors.FirstOrDefault(c => c.FullName == identifier);
-        }
-
-        //find fully qualified A.B.a.b
-        var qualifiedNamespace = MessageNamespace + "." + identifier;
-        var descriptor = messageDescriptors.FirstOrDefault(c => c.FullName == qualifiedNamespace);
-        if (descriptor != null)
-        {
-            return descriptor;
-        }
-
-
-        //we didn't find A.B.a.b, so try A.a.b, if A.B had to terms.
-        var namespaceSplit = MessageNamespace!.Split('.');
-        if (namespaceSplit.Length > 1)
-        {
-            qualifiedNamespace = string.Join(".", namespaceSplit.Take(namespaceSplit.Length - 1)) + "." + identifier;
-            descriptor = messageDescriptors.FirstOrDefault(c => c.FullName == qualifiedNamespace);
-        }
-
-        if (descriptor != null)
-        {
-            return descriptor;
-        }
-
-
-        if (identifier.StartsWith("protobuf.", StringComparison.Ordinal))
-        {
-            //this is required for some test that are creating "protobuf.Any(" and missing the "google." prefix.
-            qualifiedNamespace = "google." + identifier;
-            descriptor = messageDescriptors.FirstOrDefault(c => c.FullName == qualifiedNamespace);
-        }
-
-        //we may or may not have a descriptor here, so we could return null.
-        return descriptor;
-    }
-
-    private static bool TryGetVariableWithNamespace(TryGetVariableDelegate tryGetVariableFunc, string? messageNamespace, string variableName, out object? value)
-    {
-        if (variableName.StartsWith(".", StringComparison.Ordinal))
-        {
-            //function started with an explicit period, so we need to scope the resolution locally.
-            return tryGetVariableFunc.Invoke(variableName.Substring(1), out value);
-        }
-
-        //find the name outright because we have no namespace
-        if (string.IsNullOrWhiteSpace(messageNamespace))
-        {
-            return tryGetVariableFunc.Invoke(variableName, out value);
-        }
-
-        //find fully qualified A.B.a.b
-        var qualifiedVariableNameWithNamespace = messageNamespace + "." + variableName;
-        if (tryGetVariableFunc.Invoke(qualifiedVariableNameWithNamespace, out value))
-        {
-            return true;
-        }
-
-        //we didn't find A.B.a.b, so try A.a.b, if A.B had to terms.
-        var namespaceSplit = messageNamespace!.Split('.');
-        if (namespaceSplit.Length > 1)
-        {
-            qualifiedVariableNameWithNamespace = string.Join(".", namespaceSplit.Take(namespaceSplit.Length - 1)) + "." + variableName;
-        }
-
-        if (tryGetVariableFunc.Invoke(qualifiedVariableNameWithNamespace, out value))
-        {
-            return true;
-        }
-
-        //try again with no namespace qualification
-        return tryGetVariableFunc.Invoke(variableName, out value);
+        return DescriptorIndex.FindMessageDescriptor(identifier);
     }
 
     #endregion
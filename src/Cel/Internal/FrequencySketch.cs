@@ -0,0 +1,116 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A count-min sketch that estimates how often each key has been seen, using four small saturating counters per key.
+/// All counters are halved after a sample period so that old popularity fades.  Instances are not thread safe.
+/// </summary>
+internal sealed class FrequencySketch
+{
+    #region Declarations
+
+    private const int Depth = 4;
+    private const byte MaximumFrequency = 15;
+
+    private static readonly uint[] Seeds = { 0x97CB_3127u, 0xB492_B66Fu, 0x9E37_79B9u, 0xC2B2_AE35u };
+
+    private readonly byte[] _counters;
+    private readonly int _widthMask;
+    private readonly int _samplePeriod;
+    private int _additions;
+
+    #endregion
+
+    #region Constructor
+
+    public FrequencySketch(int maximumSize)
+    {
+        //small caches still get a wide sketch, otherwise a handful of collisions would make one-off keys look popular.
+        var width = 1024;
+        while (width < maximumSize && width < (1 << 24))
+        {
+            width <<= 1;
+        }
+
+        _counters = new byte[width * Depth];
+        _widthMask = width - 1;
+        _samplePeriod = Math.Max(maximumSize, 1) * 10;
+    }
+
+    #endregion
+
+    #region Public
+
+    /// <summary>
+    /// The estimated number of times the key has been seen within the current sample period, from 0 to 15.
+    /// </summary>
+    public int GetFrequency(int hashCode)
+    {
+        var frequency = (int)MaximumFrequency;
+
+        for (var row = 0; row < Depth; row++)
+        {
+            frequency = Math.Min(frequency, _counters[GetIndex(hashCode, row)]);
+        }
+
+        return frequency;
+    }
+
+    public void Increment(int hashCode)
+    {
+        var added = false;
+
+        for (var row = 0; row < Depth; row++)
+        {
+            var index = GetIndex(hashCode, row);
+            if (_counters[index] < MaximumFrequency)
+            {
+                _counters[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++_additions >= _samplePeriod)
+        {
+            Reset();
+        }
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private int GetIndex(int hashCode, int row)
+    {
+        //spread the hash differently for each row so that keys which collide in one row rarely collide in the others.
+        var hash = unchecked((uint)hashCode * Seeds[row]);
+        hash ^= hash >> 16;
+
+        return row * (_widthMask + 1) + (int)(hash & (uint)_widthMask);
+    }
+
+    private void Reset()
+    {
+        for (var i = 0; i < _counters.Length; i++)
+        {
+            _counters[i] >>= 1;
+        }
+
+        _additions /= 2;
+    }
+
+    #endregion
+}
@@ -666,6 +666,11 @@ public static class Int64Helpers
     #region Negate
 
     public static object? NegateInt(long longValue)
+    {
+        return NegateIntValue(longValue);
+    }
+
+    public static long NegateIntValue(long longValue)
     {
         if (longValue == long.MinValue)
         {
@@ -0,0 +1,86 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Buffers;
+using System.IO.MemoryMappedFiles;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// Exposes a read-only memory mapped view as <see cref="Memory{T}"/> so that it can be lexed in place.
+/// The view is unmapped when the manager is disposed, so every later read throws <see cref="ObjectDisposedException"/> rather than reading unmapped memory.
+/// </summary>
+internal sealed unsafe class MemoryMappedFileMemoryManager : MemoryManager<byte>
+{
+    private readonly MemoryMappedViewAccessor _accessor;
+    private readonly byte* _pointer;
+    private readonly int _length;
+    private bool _disposed;
+
+    public MemoryMappedFileMemoryManager(MemoryMappedViewAccessor accessor, int length)
+    {
+        _accessor = accessor;
+        _length = length;
+
+        byte* pointer = null;
+        _accessor.SafeMemoryMappedViewHandle.AcquirePointer(ref pointer);
+        _pointer = pointer + _accessor.PointerOffset;
+    }
+
+    public override Span<byte> GetSpan()
+    {
+        ThrowIfDisposed();
+
+        return new Span<byte>(_pointer, _length);
+    }
+
+    public override MemoryHandle Pin(int elementIndex = 0)
+    {
+        ThrowIfDisposed();
+
+        if (elementIndex < 0 || elementIndex > _length)
+        {
+            throw new ArgumentOutOfRangeException(nameof(elementIndex));
+        }
+
+        //mapped memory never moves, so there is nothing to pin.
+        return new MemoryHandle(_pointer + elementIndex);
+    }
+
+    public override void Unpin() { }
+
+    protected override void Dispose(bool disposing)
+    {
+        if (_disposed)
+        {
+            return;
+        }
+
+        _disposed = true;
+        _accessor.SafeMemoryMappedViewHandle.ReleasePointer();
+
+        if (disposing)
+        {
+            _accessor.Dispose();
+        }
+    }
+
+    private void ThrowIfDisposed()
+    {
+        if (_disposed)
+        {
+            throw new ObjectDisposedException(nameof(CelRuleFile));
+        }
+    }
+}
@@ -0,0 +1,286 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Collections.Concurrent;
+using System.Diagnostics;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A bounded concurrent cache with a W-TinyLFU eviction policy.
+/// New entries enter a small LRU window.  Entries leaving the window only replace an entry of the main segmented LRU
+/// if the frequency sketch has seen them more often, so a burst of one-off keys cannot flush the popular ones.
+/// Concurrent misses for the same key share a single load.
+/// </summary>
+internal sealed class TinyLfuCache<TKey, TValue> where TKey : notnull
+{
+    #region Declarations
+
+    private readonly ConcurrentDictionary<TKey, Node> _data = new();
+    private readonly ConcurrentDictionary<TKey, Lazy<Node>> _loading = new();
+    private readonly object _policyLock = new();
+    private readonly LinkedList<Node> _window = new();
+    private readonly LinkedList<Node> _probation = new();
+    private readonly LinkedList<Node> _protected = new();
+    private readonly int _windowMaximumSize;
+    private readonly int _mainMaximumSize;
+    private readonly int _protectedMaximumSize;
+    private FrequencySketch _sketch;
+
+    private long _hitCount;
+    private long _missCount;
+    private long _evictionCount;
+    private long _loadSuccessCount;
+    private long _loadFailureCount;
+    private long _totalLoadTicks;
+
+    #endregion
+
+    #region Constructor
+
+    public TinyLfuCache(int maximumSize)
+    {
+        MaximumSize = maximumSize;
+
+        //the same proportions as Caffeine: a 1% window and a main space that is 80% protected.
+        _windowMaximumSize = Math.Max(1, maximumSize / 100);
+        _mainMaximumSize = maximumSize - _windowMaximumSize;
+        _protectedMaximumSize = (int)(_mainMaximumSize * 0.8);
+        _sketch = new FrequencySketch(maximumSize);
+    }
+
+    #endregion
+
+    #region Public
+
+    public int MaximumSize { get; }
+
+    public int Count => _data.Count;
+
+    public long HitCount => Interlocked.Read(ref _hitCount);
+    public long MissCount => Interlocked.Read(ref _missCount);
+    public long EvictionCount => Interlocked.Read(ref _evictionCount);
+    public long LoadSuccessCount => Interlocked.Read(ref _loadSuccessCount);
+    public long LoadFailureCount => Interlocked.Read(ref _loadFailureCount);
+    public TimeSpan TotalLoadTime => TimeSpan.FromTicks(Interlocked.Read(ref _totalLoadTicks));
+
+    /// <summary>
+    /// Returns the cached value for the key, or loads it with the factory.  If several threads miss on the same key at the same time,
+    /// the factory runs once and every thread receives its value or its exception.  Exceptions are not cached.
+    /// </summary>
+    public TValue GetOrAdd(TKey key, Func<TKey, TValue> valueFactory)
+    {
+        if (_data.TryGetValue(key, out var node))
+        {
+            Interlocked.Increment(ref _hitCount);
+            RecordHit(node);
+            return node.Value;
+        }
+
+        Interlocked.Increment(ref _missCount);
+
+        var lazyNode = _loading.GetOrAdd(key, k => new Lazy<Node>(() => Load(k, valueFactory), LazyThreadSafetyMode.ExecutionAndPublication));
+
+        try
+        {
+            return lazyNode.Value.Value;
+        }
+        finally
+        {
+            //only remove our own loader, a later miss may already have started a new one.
+            ((ICollection<KeyValuePair<TKey, Lazy<Node>>>)_loading).Remove(new KeyValuePair<TKey, Lazy<Node>>(key, lazyNode));
+        }
+    }
+
+    public void Clear()
+    {
+        lock (_policyLock)
+        {
+            _data.Clear();
+            _window.Clear();
+            _probation.Clear();
+            _protected.Clear();
+            _sketch = new FrequencySketch(MaximumSize);
+        }
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private Node Load(TKey key, Func<TKey, TValue> valueFactory)
+    {
+        //another loader may have finished between our miss and the creation of this loader.
+        if (_data.TryGetValue(key, out var existingNode))
+        {
+            return existingNode;
+        }
+
+        var stopwatch = Stopwatch.StartNew();
+        TValue value;
+
+        try
+        {
+            value = valueFactory(key);
+        }
+        catch
+        {
+            Interlocked.Increment(ref _loadFailureCount);
+            Interlocked.Add(ref _totalLoadTicks, stopwatch.Elapsed.Ticks);
+            throw;
+        }
+
+        Interlocked.Increment(ref _loadSuccessCount);
+        Interlocked.Add(ref _totalLoadTicks, stopwatch.Elapsed.Ticks);
+
+        var node = new Node(key, value);
+
+        lock (_policyLock)
+        {
+            _data[key] = node;
+            _sketch.Increment(GetHashCode(key));
+
+            node.Region = Region.Window;
+            _window.AddFirst(node.ListNode);
+
+            EvictIfNeeded();
+        }
+
+        return node;
+    }
+
+    private void RecordHit(Node node)
+    {
+        //like Caffeine's read buffer, recording a hit is best effort.  Under contention the hit is dropped rather than making readers wait.
+        if (!Monitor.TryEnter(_policyLock))
+        {
+            return;
+        }
+
+        try
+        {
+            //the node may have been evicted after we read it.
+            if (node.ListNode.List == null)
+            {
+                return;
+            }
+
+            _sketch.Increment(GetHashCode(node.Key));
+
+            switch (node.Region)
+            {
+                case Region.Window:
+                    MoveToFront(_window, node);
+                    break;
+                case Region.Probation:
+                    //a second hit promotes the entry to the protected segment.
+                    _probation.Remove(node.ListNode);
+                    node.Region = Region.Protected;
+                    _protected.AddFirst(node.ListNode);
+
+                    if (_protected.Count > _protectedMaximumSize)
+                    {
+                        var demoted = _protected.Last!.Value;
+                        _protected.RemoveLast();
+                        demoted.Region = Region.Probation;
+                        _probation.AddFirst(demoted.ListNode);
+                    }
+
+                    break;
+                case Region.Protected:
+                    MoveToFront(_protected, node);
+                    break;
+            }
+        }
+        finally
+        {
+            Monitor.Exit(_policyLock);
+        }
+    }
+
+    private void EvictIfNeeded()
+    {
+        while (_window.Count > _windowMaximumSize)
+        {
+            var candidate = _window.Last!.Value;
+            _window.RemoveLast();
+            candidate.Region = Region.Probation;
+            _probation.AddFirst(candidate.ListNode);
+
+            if (_probation.Count + _protected.Count <= _mainMaximumSize)
+            {
+                continue;
+            }
+
+            //the candidate is at the front of probation, so the victim is the least recently used entry of the main space.
+            var leastRecentlyUsed = _probation.Last!.Value;
+            var victim = leastRecentlyUsed != candidate ? leastRecentlyUsed : _protected.Last?.Value;
+
+            if (victim == null || _sketch.GetFrequency(GetHashCode(candidate.Key)) <= _sketch.GetFrequency(GetHashCode(victim.Key)))
+            {
+                Evict(candidate);
+            }
+            else
+            {
+                Evict(victim);
+            }
+        }
+    }
+
+    private void Evict(Node node)
+    {
+        node.ListNode.List!.Remove(node.ListNode);
+        ((ICollection<KeyValuePair<TKey, Node>>)_data).Remove(new KeyValuePair<TKey, Node>(node.Key, node));
+        Interlocked.Increment(ref _evictionCount);
+    }
+
+    private static void MoveToFront(LinkedList<Node> list, Node node)
+    {
+        list.Remove(node.ListNode);
+        list.AddFirst(node.ListNode);
+    }
+
+    private static int GetHashCode(TKey key)
+    {
+        return EqualityComparer<TKey>.Default.GetHashCode(key);
+    }
+
+    #endregion
+
+    #region Nested Types
+
+    private enum Region
+    {
+        Window,
+        Probation,
+        Protected
+    }
+
+    private sealed class Node
+    {
+        public Node(TKey key, TValue value)
+        {
+            Key = key;
+            Value = value;
+            ListNode = new LinkedListNode<Node>(this);
+        }
+
+        public TKey Key { get; }
+        public TValue Value { get; }
+        public LinkedListNode<Node> ListNode { get; }
+        public Region Region { get; set; }
+    }
+
+    #endregion
+}
@@ -0,0 +1,268 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Text;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Misc;
+
+namespace Cel.Internal;
+
+/// <summary>
+/// A character stream that reads code points directly from UTF-8 encoded memory, without first decoding the input into a string.
+/// Code points are decoded lazily as the lexer advances.  While the input is ASCII the code point index is the byte offset,
+/// so the byte offset table is only allocated once the first multi-byte sequence is reached.
+/// Invalid UTF-8 sequences are read as U+FFFD one byte at a time.
+/// </summary>
+internal sealed class Utf8CharStream : ICharStream
+{
+    #region Declarations
+
+    private const int ReplacementCharacter = 0xFFFD;
+
+    private readonly ReadOnlyMemory<byte> _utf8;
+    private int _index;
+
+    //the byte offset of each decoded code point.  Null while every decoded code point is ASCII.
+    private int[]? _byteOffsets;
+    private int _decodedCount;
+    private int _decodedByteOffset;
+
+    #endregion
+
+    #region Constructor
+
+    public Utf8CharStream(ReadOnlyMemory<byte> utf8, string? sourceName = null)
+    {
+        _utf8 = utf8;
+        SourceName = sourceName ?? IntStreamConstants.UnknownSourceName;
+    }
+
+    #endregion
+
+    #region ICharStream
+
+    public int Index => _index;
+
+    public int Size
+    {
+        get
+        {
+            DecodeTo(int.MaxValue);
+            return _decodedCount;
+        }
+    }
+
+    public string SourceName { get; }
+
+    public void Consume()
+    {
+        if (LA(1) == IntStreamConstants.EOF)
+        {
+            throw new InvalidOperationException("cannot consume EOF");
+        }
+
+        _index++;
+    }
+
+    public int LA(int i)
+    {
+        if (i == 0)
+        {
+            return 0;
+        }
+
+        var codePointIndex = i > 0 ? _index + i - 1 : _index + i;
+        if (codePointIndex < 0)
+        {
+            return IntStreamConstants.EOF;
+        }
+
+        DecodeTo(codePointIndex + 1);
+        if (codePointIndex >= _decodedCount)
+        {
+            return IntStreamConstants.EOF;
+        }
+
+        return DecodeCodePoint(_utf8.Span, GetByteOffset(codePointIndex), out _);
+    }
+
+    public int Mark()
+    {
+        return -1;
+    }
+
+    public void Release(int marker) { }
+
+    public void Seek(int index)
+    {
+        _index = index;
+    }
+
+    public string GetText(Interval interval)
+    {
+        var start = Math.Max(interval.a, 0);
+
+        //decode one code point past the end of the interval so that we know where the interval stops.
+        DecodeTo(interval.b == int.MaxValue ? int.MaxValue : interval.b + 1);
+
+        var stop = Math.Min(interval.b, _decodedCount - 1);
+        if (stop < start)
+        {
+            return "";
+        }
+
+        var startByteOffset = GetByteOffset(start);
+        var stopByteOffset = stop + 1 < _decodedCount ? GetByteOffset(stop + 1) : _decodedByteOffset;
+
+        return GetString(_utf8.Span.Slice(startByteOffset, stopByteOffset - startByteOffset));
+    }
+
+    public override string ToString()
+    {
+        return GetString(_utf8.Span);
+    }
+
+    #endregion
+
+    #region Public Functions
+
+    /// <summary>
+    /// Decodes UTF-8 bytes into a string without copying them into an intermediate array.
+    /// </summary>
+    public static unsafe string GetString(ReadOnlySpan<byte> utf8)
+    {
+        if (utf8.IsEmpty)
+        {
+            return "";
+        }
+
+        fixed (byte* bytes = utf8)
+        {
+            return Encoding.UTF8.GetString(bytes, utf8.Length);
+        }
+    }
+
+    #endregion
+
+    #region Private Functions
+
+    private int GetByteOffset(int codePointIndex)
+    {
+        return _byteOffsets == null ? codePointIndex : _byteOffsets[codePointIndex];
+    }
+
+    private void DecodeTo(int codePointCount)
+    {
+        var utf8 = _utf8.Span;
+
+        while (_decodedCount < codePointCount && _decodedByteOffset < utf8.Length)
+        {
+            var lead = utf8[_decodedByteOffset];
+
+            //ascii keeps code point indexes and byte offsets aligned, so there is nothing to record.
+            if (lead < 0x80 && _byteOffsets == null)
+            {
+                _decodedCount++;
+                _decodedByteOffset++;
+                continue;
+            }
+
+            if (_byteOffsets == null)
+            {
+                _byteOffsets = new int[Math.Max(16, _decodedCount * 2)];
+                for (var i = 0; i < _decodedCount; i++)
+                {
+                    _byteOffsets[i] = i;
+                }
+            }
+            else if (_decodedCount == _byteOffsets.Length)
+            {
+                Array.Resize(ref _byteOffsets, _byteOffsets.Length * 2);
+            }
+
+            DecodeCodePoint(utf8, _decodedByteOffset, out var length);
+
+            _byteOffsets[_decodedCount] = _decodedByteOffset;
+            _decodedCount++;
+            _decodedByteOffset += length;
+        }
+    }
+
+    private static int DecodeCodePoint(ReadOnlySpan<byte> utf8, int byteOffset, out int length)
+    {
+        var lead = utf8[byteOffset];
+
+        if (lead < 0x80)
+        {
+            length = 1;
+            return lead;
+        }
+
+        int codePoint;
+        int minimum;
+
+        if ((lead & 0xE0) == 0xC0)
+        {
+            length = 2;
+            codePoint = lead & 0x1F;
+            minimum = 0x80;
+        }
+        else if ((lead & 0xF0) == 0xE0)
+        {
+            length = 3;
+            codePoint = lead & 0x0F;
+            minimum = 0x800;
+        }
+        else if ((lead & 0xF8) == 0xF0)
+        {
+            length = 4;
+            codePoint = lead & 0x07;
+            minimum = 0x10000;
+        }
+        else
+        {
+            length = 1;
+            return ReplacementCharacter;
+        }
+
+        if (byteOffset + length > utf8.Length)
+        {
+            length = 1;
+            return ReplacementCharacter;
+        }
+
+        for (var i = 1; i < length; i++)
+        {
+            var continuation = utf8[byteOffset + i];
+            if ((continuation & 0xC0) != 0x80)
+            {
+                length = 1;
+                return ReplacementCharacter;
+            }
+
+            codePoint = (codePoint << 6) | (continuation & 0x3F);
+        }
+
+        //reject overlong encodings, surrogates and values past the end of unicode.
+        if (codePoint < minimum || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF))
+        {
+            length = 1;
+            return ReplacementCharacter;
+        }
+
+        return codePoint;
+    }
+
+    #endregion
+}
@@ -0,0 +1,65 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Globalization;
+using BenchmarkDotNet.Columns;
+using BenchmarkDotNet.Reports;
+using BenchmarkDotNet.Running;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Reports the managed allocation rate measured by the memory diagnoser, in megabytes per second of benchmark time.
+/// </summary>
+public class AllocationRateColumn : IColumn
+{
+    public string Id => nameof(AllocationRateColumn);
+    public string ColumnName => "Alloc Rate";
+    public bool AlwaysShow => true;
+    public ColumnCategory Category => ColumnCategory.Metric;
+    public int PriorityInCategory => 10;
+    public bool IsNumeric => true;
+    public UnitType UnitType => UnitType.Dimensionless;
+    public string Legend => "Managed memory allocated per second of benchmark time (MB/s)";
+
+    public bool IsDefault(Summary summary, BenchmarkCase benchmarkCase)
+    {
+        return false;
+    }
+
+    public bool IsAvailable(Summary summary)
+    {
+        return true;
+    }
+
+    public string GetValue(Summary summary, BenchmarkCase benchmarkCase)
+    {
+        return GetValue(summary, benchmarkCase, summary.Style);
+    }
+
+    public string GetValue(Summary summary, BenchmarkCase benchmarkCase, SummaryStyle style)
+    {
+        var report = summary[benchmarkCase];
+        var meanNanoseconds = report?.ResultStatistics?.Mean;
+        long? bytesPerOperation = report?.GcStats.GetBytesAllocatedPerOperation(benchmarkCase);
+
+        if (meanNanoseconds == null || meanNanoseconds <= 0 || bytesPerOperation == null)
+        {
+            return "NA";
+        }
+
+        var megabytesPerSecond = bytesPerOperation.Value * 1e9 / meanNanoseconds.Value / (1024 * 1024);
+        return string.Format(CultureInfo.InvariantCulture, "{0:N1} MB/s", megabytesPerSecond);
+    }
+}
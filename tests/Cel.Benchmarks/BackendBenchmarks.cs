@@ -0,0 +1,142 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Attributes;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures evaluating already compiled rules with the interpreter and with the expression tree backend, with variables looked up by name
+/// in a dictionary or read by slot from a <see cref="CelActivation"/>.
+/// The rules are made of the logical operators, comparisons and arithmetic that the expression tree backend emits inline.
+/// The checked programs are compiled from type checked rules, so their int and bool operators do not box.
+/// </summary>
+[MemoryDiagnoser]
+public class BackendBenchmarks
+{
+    private static readonly string[] Rules =
+    {
+        "balance >= withdrawal || (overdraft && limit >= withdrawal - balance)",
+        "age >= 18 && age < 65 && score * 2 + bonus > 150",
+        "count % 2 == 0 ? total / count > 10 : total - count < 100",
+        "!(status == 3) && retries < 5 && (priority > 2 || -penalty < 0)"
+    };
+
+    private Dictionary<string, object> _variables;
+    private CelProgramDelegate[] _interpreterPrograms;
+    private CelProgramDelegate[] _expressionTreePrograms;
+    private CelActivation _activation;
+    private CelActivationProgramDelegate[] _interpreterActivationPrograms;
+    private CelActivationProgramDelegate[] _expressionTreeActivationPrograms;
+    private CelActivationProgramDelegate[] _checkedActivationPrograms;
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        _variables = new Dictionary<string, object>
+        {
+            { "balance", 250L },
+            { "withdrawal", 300L },
+            { "overdraft", true },
+            { "limit", 100L },
+            { "age", 42L },
+            { "score", 70L },
+            { "bonus", 15L },
+            { "count", 8L },
+            { "total", 120L },
+            { "status", 1L },
+            { "retries", 2L },
+            { "priority", 1L },
+            { "penalty", 4L }
+        };
+
+        _interpreterPrograms = Rules.Select(r => celEnvironment.Compile(r, CelBackend.Interpreter)).ToArray();
+        _expressionTreePrograms = Rules.Select(r => celEnvironment.Compile(r, CelBackend.ExpressionTree)).ToArray();
+
+        var layout = new CelVariableLayout(_variables.Keys);
+        _activation = new CelActivation(layout);
+        foreach (var variable in _variables)
+        {
+            _activation[variable.Key] = variable.Value;
+        }
+
+        _interpreterActivationPrograms = Rules.Select(r => celEnvironment.Compile(r, layout, CelBackend.Interpreter)).ToArray();
+        _expressionTreeActivationPrograms = Rules.Select(r => celEnvironment.Compile(r, layout, CelBackend.ExpressionTree)).ToArray();
+
+        var variableTypes = _variables.ToDictionary(v => v.Key, v => v.Value is bool ? CelCheckedType.Bool : CelCheckedType.Int);
+        _checkedActivationPrograms = Rules.Select(r => celEnvironment.Compile(celEnvironment.Check(r, variableTypes), layout)).ToArray();
+    }
+
+    [Benchmark(Baseline = true)]
+    public int EvaluateInterpreter()
+    {
+        return Evaluate(_interpreterPrograms);
+    }
+
+    [Benchmark]
+    public int EvaluateExpressionTree()
+    {
+        return Evaluate(_expressionTreePrograms);
+    }
+
+    [Benchmark]
+    public int EvaluateInterpreterActivation()
+    {
+        return Evaluate(_interpreterActivationPrograms);
+    }
+
+    [Benchmark]
+    public int EvaluateExpressionTreeActivation()
+    {
+        return Evaluate(_expressionTreeActivationPrograms);
+    }
+
+    [Benchmark]
+    public int EvaluateCheckedActivation()
+    {
+        return Evaluate(_checkedActivationPrograms);
+    }
+
+    private int Evaluate(CelActivationProgramDelegate[] programs)
+    {
+        var count = 0;
+
+        foreach (var program in programs)
+        {
+            if (program(_activation) is true)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private int Evaluate(CelProgramDelegate[] programs)
+    {
+        var count = 0;
+
+        foreach (var program in programs)
+        {
+            if (program(_variables) is true)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
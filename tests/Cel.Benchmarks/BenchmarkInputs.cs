@@ -0,0 +1,102 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Text;
+using Antlr4.Runtime;
+using Cel.Internal;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// The expression sets shared by the lexer and parser throughput benchmarks.  Generated inputs are deterministic so results can be compared between releases.
+/// </summary>
+public static class BenchmarkInputs
+{
+    private const int ShortExpressionMaximumLength = 32;
+    private const int LongExpressionTermCount = 5000;
+    private const int StringLiteralExpressionCount = 200;
+
+    private static readonly Lazy<string[]> LazyCorpus = new(CorpusExpressions.Load);
+    private static readonly Lazy<string[]> LazyShortExpressions = new(() => Corpus.Where(e => e.Length <= ShortExpressionMaximumLength).ToArray());
+    private static readonly Lazy<string> LazyLongExpression = new(CreateLongExpression);
+    private static readonly Lazy<string[]> LazyStringLiteralExpressions = new(CreateStringLiteralExpressions);
+
+    /// <summary>
+    /// Every expression of the conformance test corpus that parses.
+    /// </summary>
+    public static string[] Corpus => LazyCorpus.Value;
+
+    public static string[] ShortExpressions => LazyShortExpressions.Value;
+
+    /// <summary>
+    /// A single expression of several thousand terms that mixes every operator level, calls, selections and list literals.
+    /// </summary>
+    public static string LongExpression => LazyLongExpression.Value;
+
+    /// <summary>
+    /// Expressions made mostly of string and bytes literals, including escapes, raw strings and triple quoted strings.
+    /// </summary>
+    public static string[] StringLiteralExpressions => LazyStringLiteralExpressions.Value;
+
+    /// <summary>
+    /// The number of tokens, including whitespace and comments, that the lexer produces for the expressions.
+    /// </summary>
+    public static long CountTokens(IEnumerable<string> expressions)
+    {
+        long count = 0;
+
+        foreach (var expression in expressions)
+        {
+            var celLexer = new CelLexer(new AntlrInputStream(expression));
+            while (celLexer.NextToken().Type != TokenConstants.EOF)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private static string CreateLongExpression()
+    {
+        var builder = new StringBuilder("a");
+
+        for (var i = 0; i < LongExpressionTermCount; i++)
+        {
+            builder.Append((i % 6) switch
+            {
+                0 => $" + b.c[{i}]",
+                1 => $" * f({i}, 'x')",
+                2 => " - [1, 2, 3].size()",
+                3 => $" / {i + 1}.0",
+                4 => " % m.n",
+                _ => $" + {i}u"
+            });
+        }
+
+        return builder.Append(" > 0 && true").ToString();
+    }
+
+    private static string[] CreateStringLiteralExpressions()
+    {
+        var expressions = new string[StringLiteralExpressionCount];
+
+        for (var i = 0; i < expressions.Length; i++)
+        {
+            expressions[i] = $"'plain text {i}' + \"escaped \\n\\t\\u00e9 {i}\" + r'raw \\d+ {i}' + '''triple\nquoted {i}''' + string(b'bytes \\x41 {i}') == s{i}";
+        }
+
+        return expressions;
+    }
+}
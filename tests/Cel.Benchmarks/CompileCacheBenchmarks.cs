@@ -0,0 +1,68 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Attributes;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures compiling the corpus by expression text when callers do not keep the compiled delegates, with and without the compile cache.
+/// </summary>
+[MemoryDiagnoser]
+public class CompileCacheBenchmarks
+{
+    private string[] _expressions;
+    private CelEnvironment _uncachedEnvironment;
+    private CelEnvironment _cachedEnvironment;
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        _expressions = CorpusExpressions.Load();
+        _uncachedEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+        _cachedEnvironment = new CelEnvironment(null, null) { CompileCache = new CelCompileCache() };
+
+        //fill the cache so that the benchmark measures the hit path.
+        CompileCorpus(_cachedEnvironment);
+    }
+
+    [Benchmark(Baseline = true)]
+    public int CompileCorpusWithoutCache()
+    {
+        return CompileCorpus(_uncachedEnvironment);
+    }
+
+    [Benchmark]
+    public int CompileCorpusWithCache()
+    {
+        return CompileCorpus(_cachedEnvironment);
+    }
+
+    private int CompileCorpus(CelEnvironment celEnvironment)
+    {
+        var count = 0;
+
+        foreach (var expression in _expressions)
+        {
+            try
+            {
+                celEnvironment.Compile(expression);
+                count++;
+            }
+            catch (CelException) { }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,41 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Cel.Tests;
+
+namespace Cel.Benchmarks;
+
+public static class CorpusExpressions
+{
+    /// <summary>
+    /// Loads every expression in the simple conformance test data that parses successfully.
+    /// </summary>
+    public static string[] Load()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { UseTwoStageParsing = false };
+        var expressions = new List<string>();
+
+        foreach (var testCase in SimpleTestDataParser.GetTestCases())
+        {
+            try
+            {
+                celEnvironment.Parse(testCase.Test.Expr);
+                expressions.Add(testCase.Test.Expr);
+            }
+            catch (CelExpressionParserException) { }
+        }
+
+        return expressions.ToArray();
+    }
+}
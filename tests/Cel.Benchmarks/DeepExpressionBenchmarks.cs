@@ -0,0 +1,68 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Attributes;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures parsing long chains of binary operators, where the cost of each operator in the grammar dominates.
+/// </summary>
+[MemoryDiagnoser]
+public class DeepExpressionBenchmarks
+{
+    private string _arithmeticChain;
+    private string _relationChain;
+    private CelEnvironment _generatedEnvironment;
+    private CelEnvironment _precedenceClimbingEnvironment;
+
+    [Params(10, 100, 1000)]
+    public int OperatorCount { get; set; }
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        _arithmeticChain = "x" + string.Concat(Enumerable.Range(0, OperatorCount).Select(i => (i % 5) switch
+        {
+            0 => " + 1",
+            1 => " * 2",
+            2 => " - y",
+            3 => " / 3",
+            _ => " % 7"
+        }));
+
+        _relationChain = string.Join(" == ", Enumerable.Repeat("a + b", OperatorCount + 1));
+
+        _generatedEnvironment = new CelEnvironment(null, null);
+        _precedenceClimbingEnvironment = new CelEnvironment(null, null) { UsePrecedenceClimbingParser = true };
+    }
+
+    [Benchmark(Baseline = true)]
+    public int ParseArithmeticChain()
+    {
+        return _generatedEnvironment.Parse(_arithmeticChain).ChildCount;
+    }
+
+    [Benchmark]
+    public int ParseArithmeticChainPrecedenceClimbing()
+    {
+        return _precedenceClimbingEnvironment.Parse(_arithmeticChain).ChildCount;
+    }
+
+    [Benchmark]
+    public int ParseRelationChain()
+    {
+        return _generatedEnvironment.Parse(_relationChain).ChildCount;
+    }
+}
@@ -0,0 +1,27 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Implemented by benchmark classes whose methods process a known number of items, so that <see cref="ThroughputColumn"/> can report items per second.
+/// </summary>
+public interface IThroughputBenchmark
+{
+    /// <summary>
+    /// Returns the number of items processed by one call of the benchmark method and the name of the item, for example "tokens",
+    /// or null if the method does not report throughput.
+    /// </summary>
+    (long Count, string Unit)? GetItemsPerOperation(string benchmarkMethodName);
+}
@@ -0,0 +1,65 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Attributes;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures the allocations saved by interning identifier tokens.  Compiling reads the token text of every identifier and operator.
+/// </summary>
+[MemoryDiagnoser]
+public class IdentifierInterningBenchmarks
+{
+    private string[] _expressions;
+    private CelEnvironment _plainEnvironment;
+    private CelEnvironment _interningEnvironment;
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        _expressions = CorpusExpressions.Load();
+        _plainEnvironment = new CelEnvironment(null, null) { InternIdentifiers = false };
+        _interningEnvironment = new CelEnvironment(null, null) { InternIdentifiers = true };
+    }
+
+    [Benchmark(Baseline = true)]
+    public int ParseAndCompileCorpusWithoutInterning()
+    {
+        return ParseAndCompileCorpus(_plainEnvironment);
+    }
+
+    [Benchmark]
+    public int ParseAndCompileCorpusWithInterning()
+    {
+        return ParseAndCompileCorpus(_interningEnvironment);
+    }
+
+    private int ParseAndCompileCorpus(CelEnvironment celEnvironment)
+    {
+        var count = 0;
+
+        foreach (var expression in _expressions)
+        {
+            try
+            {
+                celEnvironment.Compile(celEnvironment.Parse(expression));
+                count++;
+            }
+            catch (CelException) { }
+        }
+
+        return count;
+    }
+}
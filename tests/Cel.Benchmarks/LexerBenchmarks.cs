@@ -0,0 +1,88 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using Antlr4.Runtime;
+using BenchmarkDotNet.Attributes;
+using Cel.Internal;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures the generated lexer alone, in tokens per second.  The lexer DFA is warm, because it is shared by every lexer after the first expression.
+/// </summary>
+[MemoryDiagnoser]
+public class LexerBenchmarks : IThroughputBenchmark
+{
+    private string[] _corpus;
+    private string[] _longExpression;
+    private string[] _stringLiteralExpressions;
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        _corpus = BenchmarkInputs.Corpus;
+        _longExpression = new[] { BenchmarkInputs.LongExpression };
+        _stringLiteralExpressions = BenchmarkInputs.StringLiteralExpressions;
+
+        //warm the lexer DFA.
+        Lex(_corpus);
+        Lex(_longExpression);
+        Lex(_stringLiteralExpressions);
+    }
+
+    [Benchmark(Baseline = true)]
+    public long LexCorpus()
+    {
+        return Lex(_corpus);
+    }
+
+    [Benchmark]
+    public long LexLongExpression()
+    {
+        return Lex(_longExpression);
+    }
+
+    [Benchmark]
+    public long LexStringLiterals()
+    {
+        return Lex(_stringLiteralExpressions);
+    }
+
+    public (long Count, string Unit)? GetItemsPerOperation(string benchmarkMethodName)
+    {
+        return benchmarkMethodName switch
+        {
+            nameof(LexCorpus) => (BenchmarkInputs.CountTokens(BenchmarkInputs.Corpus), "tokens"),
+            nameof(LexLongExpression) => (BenchmarkInputs.CountTokens(new[] { BenchmarkInputs.LongExpression }), "tokens"),
+            nameof(LexStringLiterals) => (BenchmarkInputs.CountTokens(BenchmarkInputs.StringLiteralExpressions), "tokens"),
+            _ => null
+        };
+    }
+
+    private static long Lex(string[] expressions)
+    {
+        long count = 0;
+
+        foreach (var expression in expressions)
+        {
+            var celLexer = new CelLexer(new AntlrInputStream(expression));
+            while (celLexer.NextToken().Type != TokenConstants.EOF)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,97 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Attributes;
+using Cel.Internal;
+
+namespace Cel.Benchmarks;
+
+[MemoryDiagnoser]
+public class ParserBenchmarks
+{
+    private string[] _expressions;
+    private CelEnvironment _llEnvironment;
+    private CelEnvironment _twoStageEnvironment;
+    private CelEnvironment _precedenceClimbingEnvironment;
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        _expressions = CorpusExpressions.Load();
+        _llEnvironment = new CelEnvironment(null, null) { UseTwoStageParsing = false };
+        _twoStageEnvironment = new CelEnvironment(null, null) { UseTwoStageParsing = true };
+        _precedenceClimbingEnvironment = new CelEnvironment(null, null) { UsePrecedenceClimbingParser = true };
+
+        //make sure all parse modes agree before we measure them.
+        foreach (var expression in _expressions)
+        {
+            var llTree = _llEnvironment.Parse(expression).ToStringTree(CelParser.ruleNames);
+            var twoStageTree = _twoStageEnvironment.Parse(expression).ToStringTree(CelParser.ruleNames);
+            var precedenceClimbingTree = _precedenceClimbingEnvironment.Parse(expression).ToStringTree(CelParser.ruleNames);
+
+            if (llTree != twoStageTree)
+            {
+                throw new InvalidOperationException($"Two stage parse tree differs from LL parse tree for expression '{expression}'.");
+            }
+
+            if (llTree != precedenceClimbingTree)
+            {
+                throw new InvalidOperationException($"Precedence climbing parse tree differs from LL parse tree for expression '{expression}'.");
+            }
+        }
+    }
+
+    [Benchmark(Baseline = true)]
+    public int ParseCorpusLL()
+    {
+        return ParseCorpus(_llEnvironment);
+    }
+
+    [Benchmark]
+    public int ParseCorpusTwoStage()
+    {
+        return ParseCorpus(_twoStageEnvironment);
+    }
+
+    [Benchmark]
+    public int ParseCorpusPrecedenceClimbing()
+    {
+        return ParseCorpus(_precedenceClimbingEnvironment);
+    }
+
+    [Benchmark]
+    public int ParseCorpusBatch()
+    {
+        var count = 0;
+
+        foreach (var result in _twoStageEnvironment.ParseBatch(_expressions))
+        {
+            count += result.StartContext.ChildCount;
+        }
+
+        return count;
+    }
+
+    private int ParseCorpus(CelEnvironment celEnvironment)
+    {
+        var count = 0;
+
+        foreach (var expression in _expressions)
+        {
+            count += celEnvironment.Parse(expression).ChildCount;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,46 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Prints ANTLR's per-decision prediction statistics for the corpus, so that expensive grammar decisions can be found.
+/// </summary>
+public static class ParserProfileReport
+{
+    public static void Run()
+    {
+        var expressions = CorpusExpressions.Load();
+
+        foreach (var useTwoStageParsing in new[] { true, false })
+        {
+            var parserProfiler = new CelParserProfiler();
+            var celEnvironment = new CelEnvironment(null, null)
+            {
+                UseTwoStageParsing = useTwoStageParsing,
+                ParserCache = new CelParserCache(),
+                ParserProfiler = parserProfiler
+            };
+
+            foreach (var expression in expressions)
+            {
+                celEnvironment.Parse(expression);
+            }
+
+            Console.WriteLine(useTwoStageParsing ? "Two stage parsing (SLL then LL):" : "LL parsing:");
+            parserProfiler.GetSnapshot().WriteTo(Console.Out);
+            Console.WriteLine();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Attributes;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures lexing and parsing together, in expressions parsed per second.
+/// Warm benchmarks reuse a filled DFA cache; cold benchmarks start every operation with an empty cache, as a new process would.
+/// </summary>
+[MemoryDiagnoser]
+public class ParserThroughputBenchmarks : IThroughputBenchmark
+{
+    private string[] _corpus;
+    private string[] _shortExpressions;
+    private string _longExpression;
+    private string[] _stringLiteralExpressions;
+    private CelEnvironment _warmEnvironment;
+    private CelEnvironment _coldEnvironment;
+
+    [GlobalSetup]
+    public void GlobalSetup()
+    {
+        _corpus = BenchmarkInputs.Corpus;
+        _shortExpressions = BenchmarkInputs.ShortExpressions;
+        _longExpression = BenchmarkInputs.LongExpression;
+        _stringLiteralExpressions = BenchmarkInputs.StringLiteralExpressions;
+
+        _warmEnvironment = new CelEnvironment(null, null) { ParserCache = new CelParserCache(int.MaxValue) };
+        _coldEnvironment = new CelEnvironment(null, null);
+
+        //fill the warm cache with every input.
+        Parse(_warmEnvironment, _corpus);
+        Parse(_warmEnvironment, new[] { _longExpression });
+        Parse(_warmEnvironment, _stringLiteralExpressions);
+    }
+
+    [Benchmark(Baseline = true)]
+    public int ParseCorpusWarm()
+    {
+        return Parse(_warmEnvironment, _corpus);
+    }
+
+    [Benchmark]
+    public int ParseCorpusCold()
+    {
+        _coldEnvironment.ParserCache = new CelParserCache(int.MaxValue);
+        return Parse(_coldEnvironment, _corpus);
+    }
+
+    [Benchmark]
+    public int ParseShortExpressionsWarm()
+    {
+        return Parse(_warmEnvironment, _shortExpressions);
+    }
+
+    [Benchmark]
+    public int ParseShortExpressionsCold()
+    {
+        _coldEnvironment.ParserCache = new CelParserCache(int.MaxValue);
+        return Parse(_coldEnvironment, _shortExpressions);
+    }
+
+    [Benchmark]
+    public int ParseLongExpressionWarm()
+    {
+        return _warmEnvironment.Parse(_longExpression).ChildCount;
+    }
+
+    [Benchmark]
+    public int ParseStringLiteralsWarm()
+    {
+        return Parse(_warmEnvironment, _stringLiteralExpressions);
+    }
+
+    public (long Count, string Unit)? GetItemsPerOperation(string benchmarkMethodName)
+    {
+        return benchmarkMethodName switch
+        {
+            nameof(ParseCorpusWarm) or nameof(ParseCorpusCold) => (BenchmarkInputs.Corpus.Length, "parses"),
+            nameof(ParseShortExpressionsWarm) or nameof(ParseShortExpressionsCold) => (BenchmarkInputs.ShortExpressions.Length, "parses"),
+            nameof(ParseLongExpressionWarm) => (1, "parses"),
+            nameof(ParseStringLiteralsWarm) => (BenchmarkInputs.StringLiteralExpressions.Length, "parses"),
+            _ => null
+        };
+    }
+
+    private static int Parse(CelEnvironment celEnvironment, string[] expressions)
+    {
+        var count = 0;
+
+        foreach (var expression in expressions)
+        {
+            count += celEnvironment.Parse(expression).ChildCount;
+        }
+
+        return count;
+    }
+}
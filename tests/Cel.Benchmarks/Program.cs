@@ -0,0 +1,57 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using BenchmarkDotNet.Configs;
+using BenchmarkDotNet.Exporters.Csv;
+using BenchmarkDotNet.Exporters.Json;
+using BenchmarkDotNet.Running;
+
+namespace Cel.Benchmarks;
+
+public static class Program
+{
+    public static void Main(string[] args)
+    {
+        if (args.Length == 1 && args[0] == "--retained-memory")
+        {
+            RetainedMemoryReport.Run();
+            return;
+        }
+
+        if (args.Length == 1 && args[0] == "--parser-profile")
+        {
+            ParserProfileReport.Run();
+            return;
+        }
+
+        if (args.Length == 1 && args[0] == "--startup")
+        {
+            StartupReport.Run();
+            return;
+        }
+
+        if (args.Length == 2 && args[0] == "--first-parse")
+        {
+            StartupReport.RunFirstParse(args[1]);
+            return;
+        }
+
+        //the JSON and CSV reports in BenchmarkDotNet.Artifacts/results are meant to be kept and diffed between releases.
+        var config = DefaultConfig.Instance
+                                  .AddColumn(new ThroughputColumn(), new AllocationRateColumn())
+                                  .AddExporter(JsonExporter.Full, CsvExporter.Default);
+
+        BenchmarkSwitcher.FromAssembly(typeof(Program).Assembly).Run(args, config);
+    }
+}
@@ -0,0 +1,68 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Compares the memory retained by holding the corpus as ANTLR parse trees against holding it as flat <see cref="CelAst"/> trees.
+/// BenchmarkDotNet's memory diagnoser only reports allocations, so retained size is measured directly from the GC heap.
+/// </summary>
+public static class RetainedMemoryReport
+{
+    private const int CorpusCopies = 20;
+
+    public static void Run()
+    {
+        var expressions = CorpusExpressions.Load();
+        var celEnvironment = new CelEnvironment(null, null);
+
+        var parseTreeBytes = MeasureRetainedBytes(() =>
+        {
+            var parseTrees = new List<object>();
+            for (var i = 0; i < CorpusCopies; i++)
+            {
+                parseTrees.AddRange(expressions.Select(celEnvironment.Parse));
+            }
+
+            return parseTrees;
+        });
+
+        var astBytes = MeasureRetainedBytes(() =>
+        {
+            var asts = new List<object>();
+            for (var i = 0; i < CorpusCopies; i++)
+            {
+                asts.AddRange(expressions.Select(e => CelAst.FromParseTree(celEnvironment.Parse(e))));
+            }
+
+            return asts;
+        });
+
+        var treeCount = expressions.Length * CorpusCopies;
+        Console.WriteLine($"Trees retained:      {treeCount}");
+        Console.WriteLine($"Parse trees:         {parseTreeBytes,12:N0} bytes ({parseTreeBytes / treeCount:N0} per tree)");
+        Console.WriteLine($"Flat ASTs:           {astBytes,12:N0} bytes ({astBytes / treeCount:N0} per tree)");
+    }
+
+    private static long MeasureRetainedBytes(Func<object> retain)
+    {
+        var before = GC.GetTotalMemory(true);
+        var retained = retain();
+        var after = GC.GetTotalMemory(true);
+
+        GC.KeepAlive(retained);
+
+        return after - before;
+    }
+}
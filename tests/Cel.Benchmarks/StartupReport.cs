@@ -0,0 +1,105 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Diagnostics;
+using System.Globalization;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Measures the time to the first parse of a new process, with and without <see cref="CelParserCache.PreloadGrammar"/>.
+/// Startup can only be measured once per process, so each sample runs this program again in a child process.
+/// </summary>
+public static class StartupReport
+{
+    private const int ProcessCount = 15;
+    private const string FirstParseExpression = "request.auth.claims['email'].endsWith('@example.com') && size(request.path) < 100";
+
+    public static void Run()
+    {
+        foreach (var mode in new[] { "lazy", "preload" })
+        {
+            var firstParseTimes = new List<double>();
+            var processTimes = new List<double>();
+
+            //the first process also pays for loading the program from disk, so it is not measured.
+            RunChild(mode);
+
+            for (var i = 0; i < ProcessCount; i++)
+            {
+                var stopwatch = Stopwatch.StartNew();
+                var output = RunChild(mode);
+                processTimes.Add(stopwatch.Elapsed.TotalMilliseconds);
+                firstParseTimes.Add(double.Parse(output, CultureInfo.InvariantCulture));
+            }
+
+            Console.WriteLine($"{mode,-8} time to first parse: {Median(firstParseTimes),8:N1} ms   process: {Median(processTimes),8:N1} ms   (median of {ProcessCount})");
+        }
+    }
+
+    /// <summary>
+    /// Runs in the child process.  Creating the environment stands in for the rest of an application's startup work,
+    /// which the grammar preload overlaps with.
+    /// </summary>
+    public static void RunFirstParse(string mode)
+    {
+        var stopwatch = Stopwatch.StartNew();
+
+        if (mode == "preload")
+        {
+            CelParserCache.PreloadGrammar();
+        }
+
+        var celEnvironment = new CelEnvironment(null, null);
+        celEnvironment.Parse(FirstParseExpression);
+
+        Console.WriteLine(stopwatch.Elapsed.TotalMilliseconds.ToString(CultureInfo.InvariantCulture));
+    }
+
+    private static string RunChild(string mode)
+    {
+        var processPath = Environment.ProcessPath ?? throw new InvalidOperationException("The benchmark process path is not known.");
+        var processStartInfo = new ProcessStartInfo(processPath)
+        {
+            RedirectStandardOutput = true,
+            UseShellExecute = false
+        };
+
+        //under "dotnet Cel.Benchmarks.dll" the process is the host, so the assembly has to be passed again.
+        if (Path.GetFileNameWithoutExtension(processPath) == "dotnet")
+        {
+            processStartInfo.ArgumentList.Add(typeof(StartupReport).Assembly.Location);
+        }
+
+        processStartInfo.ArgumentList.Add("--first-parse");
+        processStartInfo.ArgumentList.Add(mode);
+
+        using var process = Process.Start(processStartInfo)!;
+        var output = process.StandardOutput.ReadToEnd().Trim();
+        process.WaitForExit();
+
+        if (process.ExitCode != 0)
+        {
+            throw new InvalidOperationException($"The first parse process failed with exit code {process.ExitCode}.");
+        }
+
+        return output;
+    }
+
+    private static double Median(List<double> values)
+    {
+        var sorted = values.OrderBy(v => v).ToArray();
+        return sorted[sorted.Length / 2];
+    }
+}
@@ -0,0 +1,69 @@
+﻿// Copyright 2023 TELUS
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+using System.Globalization;
+using BenchmarkDotNet.Columns;
+using BenchmarkDotNet.Reports;
+using BenchmarkDotNet.Running;
+
+namespace Cel.Benchmarks;
+
+/// <summary>
+/// Reports the items processed per second, such as tokens per second or parses per second, for benchmarks that implement <see cref="IThroughputBenchmark"/>.
+/// </summary>
+public class ThroughputColumn : IColumn
+{
+    public string Id => nameof(ThroughputColumn);
+    public string ColumnName => "Throughput";
+    public bool AlwaysShow => true;
+    public ColumnCategory Category => ColumnCategory.Custom;
+    public int PriorityInCategory => 0;
+    public bool IsNumeric => true;
+    public UnitType UnitType => UnitType.Dimensionless;
+    public string Legend => "Items processed per second: tokens for lexer benchmarks and expressions for parser benchmarks";
+
+    public bool IsDefault(Summary summary, BenchmarkCase benchmarkCase)
+    {
+        return false;
+    }
+
+    public bool IsAvailable(Summary summary)
+    {
+        return true;
+    }
+
+    public string GetValue(Summary summary, BenchmarkCase benchmarkCase)
+    {
+        return GetValue(summary, benchmarkCase, summary.Style);
+    }
+
+    public string GetValue(Summary summary, BenchmarkCase benchmarkCase, SummaryStyle style)
+    {
+        if (Activator.CreateInstance(benchmarkCase.Descriptor.Type) is not IThroughputBenchmark throughputBenchmark)
+        {
+            return "-";
+        }
+
+        var itemsPerOperation = throughputBenchmark.GetItemsPerOperation(benchmarkCase.Descriptor.WorkloadMethod.Name);
+        var meanNanoseconds = summary[benchmarkCase]?.ResultStatistics?.Mean;
+
+        if (itemsPerOperation == null || meanNanoseconds == null || meanNanoseconds <= 0)
+        {
+            return "NA";
+        }
+
+        var itemsPerSecond = itemsPerOperation.Value.Count * 1e9 / meanNanoseconds.Value;
+        return string.Format(CultureInfo.InvariantCulture, "{0:N0} {1}/s", itemsPerSecond, itemsPerOperation.Value.Unit);
+    }
+}
@@ -0,0 +1,101 @@
+﻿using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelActivationTests
+{
+    [Test]
+    [TestCase("a + b * 2 == 7 && c.startsWith('x')", true)]
+    [TestCase("[1, 2, 3].exists(i, i == b) ? m.k : 0", 1L)]
+    [TestCase("[1, 2].all(a, a > 0) && a == 5", true)]
+    [TestCase("m.k in [a, b]", true)]
+    public void Activation_Programs_Should_Match_Dictionary_Programs(string expression, object expectedValue)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var layout = new CelVariableLayout("a", "b", "c", "m");
+        var activation = new CelActivation(layout)
+        {
+            ["a"] = 5L,
+            ["b"] = 1L,
+            ["c"] = "xyz",
+            ["m"] = new Dictionary<string, object> { { "k", 1L } }
+        };
+        var variables = layout.VariableNames.ToDictionary(name => name, name => activation[name]);
+
+        foreach (var backend in new[] { CelBackend.Interpreter, CelBackend.ExpressionTree })
+        {
+            var program = celEnvironment.Compile(expression, layout, backend);
+
+            Assert.That(program(activation), Is.EqualTo(expectedValue));
+            Assert.That(program(activation), Is.EqualTo(expectedValue));
+            Assert.That(celEnvironment.Compile(expression, backend)(variables), Is.EqualTo(expectedValue));
+        }
+    }
+
+    [Test]
+    public void Variables_Should_Resolve_In_The_Namespace()
+    {
+        var celEnvironment = new CelEnvironment(null, "x.y");
+        var layout = new CelVariableLayout("a", "x.a", "x.y.b", "c.d");
+        var activation = new CelActivation(layout);
+        activation["a"] = 1L;
+        activation["x.a"] = 2L;
+        activation["x.y.b"] = 3L;
+        activation["c.d"] = 4L;
+
+        var program = celEnvironment.Compile("[a, b, c.d]", layout);
+
+        Assert.That(program(activation), Is.EqualTo(new object[] { 2L, 3L, 4L }));
+
+        //unset slots are skipped, so the next name is used.
+        activation.Clear();
+        activation["a"] = 1L;
+        activation["x.y.b"] = 3L;
+        activation["c.d"] = 4L;
+
+        Assert.That(program(activation), Is.EqualTo(new object[] { 1L, 3L, 4L }));
+    }
+
+    [Test]
+    public void Macro_Variables_Should_Resolve_In_The_Namespace()
+    {
+        var celEnvironment = new CelEnvironment(null, "x.y");
+        var variables = new Dictionary<string, object> { { "a", 1L }, { "x.a", 2L }, { "x.y.b", 3L }, { "c", 4L } };
+
+        Assert.That(celEnvironment.Program("[10].map(i, i + a + b + c)", variables), Is.EqualTo(new object[] { 19L }));
+    }
+
+    [Test]
+    public void Unset_Variables_Should_Be_Undeclared()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var layout = new CelVariableLayout("a");
+        var activation = new CelActivation(layout);
+
+        var program = celEnvironment.Compile("a + 1", layout);
+
+        Assert.That(activation.IsSet(0), Is.False);
+        Assert.That(() => program(activation), Throws.TypeOf<CelUndeclaredReferenceException>());
+
+        activation[0] = 1L;
+
+        Assert.That(activation.IsSet(0), Is.True);
+        Assert.That(program(activation), Is.EqualTo(2L));
+    }
+
+    [Test]
+    public void Invalid_Layouts_And_Activations_Should_Throw()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var layout = new CelVariableLayout("a");
+        var program = celEnvironment.Compile("a", layout);
+
+        Assert.That(() => new CelVariableLayout("a", "a"), Throws.ArgumentException);
+        Assert.That(() => new CelVariableLayout("a", " "), Throws.ArgumentException);
+        Assert.That(() => program(new CelActivation(new CelVariableLayout("a"))), Throws.ArgumentException);
+        Assert.That(() => new CelActivation(layout)["b"] = 1L, Throws.ArgumentException);
+        Assert.That(() => new CelActivation(layout)[1] = 1L, Throws.TypeOf<ArgumentOutOfRangeException>());
+        Assert.That(layout.GetSlot("b"), Is.EqualTo(-1));
+    }
+}
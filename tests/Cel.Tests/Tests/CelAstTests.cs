@@ -0,0 +1,112 @@
+﻿using Cel.Internal;
+using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelAstTests
+{
+    [Test]
+    public void Ast_Should_Lower_Operators_Calls_And_Literals()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var ast = CelAst.FromParseTree(celEnvironment.Parse("a.b(1) + -2 * x"));
+
+        var root = ast.Root;
+        Assert.That(ast.GetKind(root), Is.EqualTo(CelAstNodeKind.Binary));
+        Assert.That(ast.GetSymbol(root), Is.EqualTo("+"));
+        Assert.That(ast.GetStartOffset(root), Is.EqualTo(0));
+        Assert.That(ast.GetStopOffset(root), Is.EqualTo(14));
+
+        var call = ast.GetChild(root, 0);
+        Assert.That(ast.GetKind(call), Is.EqualTo(CelAstNodeKind.MemberCall));
+        Assert.That(ast.GetSymbol(call), Is.EqualTo("b"));
+        Assert.That(ast.GetChildCount(call), Is.EqualTo(2));
+        Assert.That(ast.GetKind(ast.GetChild(call, 0)), Is.EqualTo(CelAstNodeKind.Ident));
+        Assert.That(ast.GetSymbol(ast.GetChild(call, 0)), Is.EqualTo("a"));
+        Assert.That(ast.GetKind(ast.GetChild(call, 1)), Is.EqualTo(CelAstNodeKind.Int));
+
+        var multiply = ast.GetChild(root, 1);
+        Assert.That(ast.GetSymbol(multiply), Is.EqualTo("*"));
+        Assert.That(ast.GetKind(ast.GetChild(multiply, 0)), Is.EqualTo(CelAstNodeKind.Int));
+        Assert.That(ast.GetSymbol(ast.GetChild(multiply, 0)), Is.EqualTo("-2"));
+        Assert.That(ast.GetStartOffset(ast.GetChild(multiply, 1)), Is.EqualTo(14));
+    }
+
+    [Test]
+    public void Ast_Should_Keep_Optional_And_Leading_Dot_Flags()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var ast = CelAst.FromParseTree(celEnvironment.Parse("[.a, ?b, {'k': 1, ?'o': 2}]"));
+
+        var list = ast.Root;
+        Assert.That(ast.GetKind(list), Is.EqualTo(CelAstNodeKind.CreateList));
+        Assert.That(ast.GetChildCount(list), Is.EqualTo(3));
+        Assert.That(ast.HasLeadingDot(ast.GetChild(list, 0)), Is.True);
+        Assert.That(ast.IsOptionalElement(ast.GetChild(list, 0)), Is.False);
+        Assert.That(ast.IsOptionalElement(ast.GetChild(list, 1)), Is.True);
+
+        var map = ast.GetChild(list, 2);
+        Assert.That(ast.GetKind(map), Is.EqualTo(CelAstNodeKind.CreateMap));
+        Assert.That(ast.GetKind(ast.GetChild(map, 0)), Is.EqualTo(CelAstNodeKind.MapEntry));
+        Assert.That(ast.IsOptional(ast.GetChild(map, 0)), Is.False);
+        Assert.That(ast.IsOptional(ast.GetChild(map, 1)), Is.True);
+    }
+
+    [Test]
+    public void Ast_Should_Tell_Optional_Elements_From_Optional_Selections()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var optionalSelection = CelAst.FromParseTree(celEnvironment.Parse("[a.?b]"));
+        var optionalElement = CelAst.FromParseTree(celEnvironment.Parse("[?a.b]"));
+
+        var selection = optionalSelection.GetChild(optionalSelection.Root, 0);
+        Assert.That(optionalSelection.GetKind(selection), Is.EqualTo(CelAstNodeKind.Select));
+        Assert.That(optionalSelection.IsOptional(selection), Is.True);
+        Assert.That(optionalSelection.IsOptionalElement(selection), Is.False);
+
+        var element = optionalElement.GetChild(optionalElement.Root, 0);
+        Assert.That(optionalElement.GetKind(element), Is.EqualTo(CelAstNodeKind.Select));
+        Assert.That(optionalElement.IsOptional(element), Is.False);
+        Assert.That(optionalElement.IsOptionalElement(element), Is.True);
+    }
+
+    [Test]
+    public void Ast_Should_Intern_Repeated_Identifiers()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var ast = CelAst.FromParseTree(celEnvironment.Parse("x + x + x"));
+
+        Assert.That(ast.SymbolTable.Count(s => s == "x"), Is.EqualTo(1));
+    }
+
+    [Test]
+    [TestCaseSource(typeof(SimpleTestDataParser), nameof(SimpleTestDataParser.GetTestCases), Category = "Simple Tests")]
+    public void Ast_Should_Lower_Every_Parsed_Expression(SimpleTestDataLoader testCase)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        CelParser.StartContext startContext;
+        try
+        {
+            startContext = celEnvironment.Parse(testCase.Test.Expr);
+        }
+        catch (CelExpressionParserException)
+        {
+            Assert.Pass("Expression does not parse.");
+            return;
+        }
+
+        var ast = CelAst.FromParseTree(startContext);
+
+        //nodes are numbered in post-order, so the root is always the last node and children precede their parents.
+        Assert.That(ast.Root, Is.EqualTo(ast.NodeCount - 1));
+        for (var node = 0; node < ast.NodeCount; node++)
+        {
+            for (var i = 0; i < ast.GetChildCount(node); i++)
+            {
+                Assert.That(ast.GetChild(node, i), Is.LessThan(node));
+            }
+        }
+    }
+}
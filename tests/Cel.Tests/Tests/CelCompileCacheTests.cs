@@ -0,0 +1,149 @@
+﻿using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelCompileCacheTests
+{
+    [Test]
+    public void Compile_Should_Hit_The_Cache_For_The_Same_Expression()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = new CelCompileCache() };
+        var variables = new Dictionary<string, object> { { "x", 2L } };
+
+        var first = celEnvironment.Compile("x * 3");
+        var second = celEnvironment.Compile("x * 3");
+
+        Assert.AreEqual(6L, first(variables));
+        Assert.AreEqual(6L, second(variables));
+        Assert.AreEqual(6L, celEnvironment.Program("x * 3", variables));
+
+        var statistics = celEnvironment.CompileCache.GetStatistics();
+        Assert.AreEqual(1, statistics.MissCount);
+        Assert.AreEqual(2, statistics.HitCount);
+        Assert.AreEqual(1, statistics.LoadSuccessCount);
+        Assert.AreEqual(1, celEnvironment.CompileCache.Count);
+    }
+
+    [Test]
+    public void Compile_Should_Not_Share_Compiled_Expressions_Between_Environments()
+    {
+        var compileCache = new CelCompileCache();
+        var firstEnvironment = new CelEnvironment(null, null) { CompileCache = compileCache };
+        var secondEnvironment = new CelEnvironment(null, null) { CompileCache = compileCache };
+
+        firstEnvironment.Compile("1 + 2");
+        secondEnvironment.Compile("1 + 2");
+
+        var statistics = compileCache.GetStatistics();
+        Assert.AreEqual(2, statistics.MissCount);
+        Assert.AreEqual(0, statistics.HitCount);
+        Assert.AreEqual(2, compileCache.Count);
+    }
+
+    [Test]
+    public void Compile_Should_Compile_Once_For_Concurrent_Misses()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = new CelCompileCache() };
+
+        Parallel.For(0, 64, _ => celEnvironment.Compile("[1, 2, 3].map(x, x * 2).size() == 3 && 'abc'.startsWith('a')"));
+
+        var statistics = celEnvironment.CompileCache.GetStatistics();
+        Assert.AreEqual(1, statistics.LoadSuccessCount);
+        Assert.AreEqual(64, statistics.RequestCount);
+    }
+
+    [Test]
+    public void Compile_Should_Not_Cache_Invalid_Expressions()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = new CelCompileCache() };
+
+        Assert.Throws<CelExpressionParserException>(() => celEnvironment.Compile("1 +"));
+        Assert.Throws<CelExpressionParserException>(() => celEnvironment.Compile("1 +"));
+
+        var statistics = celEnvironment.CompileCache.GetStatistics();
+        Assert.AreEqual(2, statistics.LoadFailureCount);
+        Assert.AreEqual(0, celEnvironment.CompileCache.Count);
+    }
+
+    [Test]
+    public void Compile_Should_Stay_Within_The_Maximum_Size()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = new CelCompileCache(10) };
+
+        for (var i = 0; i < 100; i++)
+        {
+            celEnvironment.Compile($"x + {i}");
+        }
+
+        Assert.LessOrEqual(celEnvironment.CompileCache.Count, 10);
+        Assert.AreEqual(90, celEnvironment.CompileCache.GetStatistics().EvictionCount);
+    }
+
+    [Test]
+    public void Compile_Should_Keep_Frequent_Expressions_Through_A_Scan()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = new CelCompileCache(10) };
+        var frequentExpressions = Enumerable.Range(0, 5).Select(i => $"y * {i}").ToArray();
+
+        for (var i = 0; i < 10; i++)
+        {
+            foreach (var expression in frequentExpressions)
+            {
+                celEnvironment.Compile(expression);
+            }
+        }
+
+        //a burst of expressions that are only compiled once.
+        for (var i = 0; i < 40; i++)
+        {
+            celEnvironment.Compile($"z + {i}");
+        }
+
+        var hitCount = celEnvironment.CompileCache.GetStatistics().HitCount;
+
+        foreach (var expression in frequentExpressions)
+        {
+            celEnvironment.Compile(expression);
+        }
+
+        Assert.AreEqual(hitCount + frequentExpressions.Length, celEnvironment.CompileCache.GetStatistics().HitCount);
+    }
+
+    [Test]
+    public void Compile_Should_Not_Return_Expressions_Compiled_With_Other_Settings()
+    {
+        var compileCache = new CelCompileCache();
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = compileCache };
+
+        celEnvironment.Compile("1 + 2 + 3");
+        celEnvironment.FoldConstants = false;
+        celEnvironment.Compile("1 + 2 + 3");
+        Assert.AreEqual(2, compileCache.GetStatistics().MissCount);
+
+        celEnvironment.MaximumTokenCount = 3;
+        Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Compile("1 + 2 + 3"));
+
+        celEnvironment.MaximumTokenCount = int.MaxValue;
+        celEnvironment.FoldConstants = true;
+        celEnvironment.Compile("1 + 2 + 3");
+        Assert.AreEqual(1, compileCache.GetStatistics().HitCount);
+    }
+
+    [Test]
+    public void Compile_Should_Not_Use_A_Cache_By_Default()
+    {
+        Assert.IsNull(new CelEnvironment(null, null).CompileCache);
+    }
+
+    [Test]
+    public void Compile_Should_Not_Use_The_Cache_When_It_Is_Disabled()
+    {
+        var compileCache = new CelCompileCache();
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = compileCache };
+        celEnvironment.CompileCache = null;
+
+        Assert.AreEqual(3L, celEnvironment.Compile("1 + 2")(new Dictionary<string, object>()));
+        Assert.AreEqual(0, compileCache.GetStatistics().RequestCount);
+    }
+}
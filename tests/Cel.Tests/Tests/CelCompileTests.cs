@@ -0,0 +1,259 @@
+﻿using System.Reflection;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Tree;
+using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelCompileTests
+{
+    [Test]
+    [TestCase("(a + [1, 2, 3][1] * -b) > 0 && !false ? {'k': 'v' + c}['k'] : 'no'", "vx")]
+    [TestCase("[1, 2, 3].exists(i, i > a - 3) || m.k == 1", true)]
+    [TestCase("size(c + 'yz') == 3 && 2u + 1u == 3u ? b'ab' == b'ab' : false", true)]
+    [TestCase("m.k in [1, 2] && 1.5 < double(a) && -2.5 < 0.0", true)]
+    public void Compiled_Expressions_Should_Not_Read_The_Parse_Tree(string expression, object expectedValue)
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+        var variables = new Dictionary<string, object>
+        {
+            { "a", 5L },
+            { "b", 1L },
+            { "c", "x" },
+            { "m", new Dictionary<string, object> { { "k", 1L } } }
+        };
+
+        var startContext = celEnvironment.Parse(expression);
+        var program = celEnvironment.Compile(startContext);
+
+        //every node loses its children, tokens and labels, so evaluation fails if it visits the tree again.
+        DetachParseTree(startContext);
+
+        Assert.That(program(variables), Is.EqualTo(expectedValue));
+        Assert.That(program(variables), Is.EqualTo(expectedValue));
+    }
+
+    [Test]
+    public void Invalid_Literals_Should_Fail_When_Evaluated()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+
+        var program = celEnvironment.Compile("1 + 9223372036854775808");
+
+        Assert.That(() => program(new Dictionary<string, object>()), Throws.Exception);
+    }
+
+    [Test]
+    [TestCase("a - b - 1 == 3 && a * 2 % 3 == 1", true)]
+    [TestCase("a < b || a >= 5 && b != 1", false)]
+    [TestCase("a == 5.0 && 5u < 6u && 'x' < c + 'y'", true)]
+    [TestCase("1 / 0 > 1 || true", true)]
+    [TestCase("false && 1 / 0 > 1", false)]
+    [TestCase("a > b ? -a : [a, b][1]", -5L)]
+    [TestCase("!!(a in [4, 5]) ? --b : null", 1L)]
+    [TestCase("m.k + 1 < 3 && 'k' in m", true)]
+    public void Expression_Tree_Backend_Should_Match_The_Interpreter(string expression, object expectedValue)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var variables = new Dictionary<string, object>
+        {
+            { "a", 5L },
+            { "b", 1L },
+            { "c", "x" },
+            { "m", new Dictionary<string, object> { { "k", 1L } } }
+        };
+
+        Assert.That(celEnvironment.Program(expression, variables, CelBackend.Interpreter), Is.EqualTo(expectedValue));
+        Assert.That(celEnvironment.Program(expression, variables, CelBackend.ExpressionTree), Is.EqualTo(expectedValue));
+    }
+
+    [Test]
+    [TestCase(CelBackend.Interpreter)]
+    [TestCase(CelBackend.ExpressionTree)]
+    public void Backends_Should_Report_The_Same_Errors(CelBackend backend)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var variables = new Dictionary<string, object>();
+
+        Assert.That(() => celEnvironment.Program("1 / 0 > 1 || false", variables, backend), Throws.TypeOf<CelNoSuchOverloadException>());
+        Assert.That(() => celEnvironment.Program("'a' ? 1 : 2", variables, backend), Throws.TypeOf<CelNoSuchOverloadException>());
+        Assert.That(() => celEnvironment.Program("1 + 9223372036854775808", variables, backend), Throws.Exception);
+
+        celEnvironment.StrictTypeComparison = true;
+        Assert.That(() => celEnvironment.Program("1 / 0 > 1 || true", variables, backend), Throws.TypeOf<CelDivideByZeroException>());
+    }
+
+    [Test]
+    public void Backends_Should_Be_Cached_Separately()
+    {
+        var compileCache = new CelCompileCache();
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = compileCache };
+
+        celEnvironment.Compile("a + b", CelBackend.Interpreter);
+        celEnvironment.Compile("a + b", CelBackend.ExpressionTree);
+        celEnvironment.Compile("a + b", CelBackend.ExpressionTree);
+
+        Assert.That(compileCache.Count, Is.EqualTo(2));
+        Assert.That(() => celEnvironment.Compile("a + b", (CelBackend)99), Throws.TypeOf<ArgumentOutOfRangeException>());
+    }
+
+    [Test]
+    public void Call_Sites_Should_Resolve_Overloads_For_Each_Argument_Type()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+        //later registrations are tried first, so the catch all overload is registered first.
+        celEnvironment.RegisterFunction("describe", new[] { typeof(object) }, args => "other");
+        celEnvironment.RegisterFunction("describe", new[] { typeof(string) }, args => "string");
+        celEnvironment.RegisterFunction("describe", new[] { typeof(long) }, args => "int");
+
+        var program = celEnvironment.Compile("describe(x)");
+        var values = new object[] { 1L, "a", 1.5, true, 2u, null, 3L, "b" };
+        var expectedResults = new[] { "int", "string", "other", "other", "other", "other", "int", "string" };
+
+        //more argument types than the call site caches, twice over so that the cached overloads are used.
+        for (var pass = 0; pass < 2; pass++)
+        {
+            for (var i = 0; i < values.Length; i++)
+            {
+                Assert.That(program(new Dictionary<string, object> { { "x", values[i] } }), Is.EqualTo(expectedResults[i]));
+            }
+        }
+    }
+
+    [Test]
+    public void Call_Sites_Should_See_Functions_Registered_After_Compiling()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+        celEnvironment.RegisterFunction("f", new[] { typeof(long) }, args => "first");
+
+        var program = celEnvironment.Compile("f(1) + 'x'.g()");
+        var variables = new Dictionary<string, object>();
+
+        Assert.That(() => program(variables), Throws.Exception);
+
+        celEnvironment.RegisterFunction("g", new[] { typeof(string) }, args => "!");
+        Assert.That(program(variables), Is.EqualTo("first!"));
+
+        //later registrations are tried first.
+        celEnvironment.RegisterFunction("f", new[] { typeof(long) }, args => "second");
+        Assert.That(program(variables), Is.EqualTo("second!"));
+
+        Assert.That(() => celEnvironment.Program("f('a')", variables), Throws.TypeOf<CelNoSuchOverloadException>());
+    }
+
+    [Test]
+    [TestCase("duration('1h') + duration('30m') > duration('90m')")]
+    [TestCase("timestamp('2024-01-01T00:00:00Z').getFullYear() + a")]
+    [TestCase("[1, 2, 3].size() == size('abc')")]
+    [TestCase("'ab' + 'cd' + c")]
+    [TestCase("false && 1 / 0 > 1")]
+    [TestCase("1 / 0 > 1 || a > 1")]
+    [TestCase("{'k': 2}.k * a")]
+    [TestCase("[1, 2, 3].exists(i, i > 2 * 1)")]
+    [TestCase("int('7') + 1 > a ? 'x'.startsWith('x') : m.k == 1")]
+    [TestCase("1 + 9223372036854775807")]
+    [TestCase("[1 + 1, a]")]
+    public void Folded_Constants_Should_Match_Unfolded_Expressions(string expression)
+    {
+        var variables = new Dictionary<string, object>
+        {
+            { "a", 5L },
+            { "c", "x" },
+            { "m", new Dictionary<string, object> { { "k", 1L } } }
+        };
+
+        foreach (var backend in new[] { CelBackend.Interpreter, CelBackend.ExpressionTree })
+        {
+            var expected = Evaluate(new CelEnvironment(null, null) { CompileCache = null, FoldConstants = false }, expression, backend, variables);
+            var result = Evaluate(new CelEnvironment(null, null) { CompileCache = null }, expression, backend, variables);
+
+            Assert.That(result, Is.EqualTo(expected));
+        }
+    }
+
+    [Test]
+    [TestCase(CelBackend.Interpreter)]
+    [TestCase(CelBackend.ExpressionTree)]
+    public void Constant_Subexpressions_Should_Be_Evaluated_Once(CelBackend backend)
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+        var variables = new Dictionary<string, object>();
+
+        var concatenation = celEnvironment.Compile("'ab' + string(1)", backend);
+        Assert.That(concatenation(variables), Is.EqualTo("ab1"));
+        Assert.That(concatenation(variables), Is.SameAs(concatenation(variables)));
+
+        //errors are folded into a node that throws a new error each time, rather than thrown by the compiler.
+        var error = celEnvironment.Compile("1 / 0", backend);
+        var firstError = Assert.Throws<CelDivideByZeroException>(() => error(variables));
+        var secondError = Assert.Throws<CelDivideByZeroException>(() => error(variables));
+        Assert.That(secondError, Is.Not.SameAs(firstError));
+        Assert.That(secondError.Message, Is.EqualTo(firstError.Message));
+
+        //durations are messages, so every evaluation gets its own copy.
+        var duration = celEnvironment.Compile("duration('1h') + duration('30m')", backend);
+        Assert.That(duration(variables), Is.EqualTo(duration(variables)));
+        Assert.That(duration(variables), Is.Not.SameAs(duration(variables)));
+    }
+
+    [Test]
+    public void Folded_Constants_Should_See_Functions_Registered_After_Compiling()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { CompileCache = null };
+        var variables = new Dictionary<string, object>();
+
+        var program = celEnvironment.Compile("size('abc')");
+        Assert.That(program(variables), Is.EqualTo(3));
+
+        //later registrations are tried first.
+        celEnvironment.RegisterFunction("size", new[] { typeof(string) }, args => 42L);
+        Assert.That(program(variables), Is.EqualTo(42L));
+        Assert.That(celEnvironment.Program("size('abc')", variables), Is.EqualTo(42L));
+    }
+
+    /// <summary>
+    /// Returns the result of the expression, or the type of the exception it threw.
+    /// </summary>
+    private static object Evaluate(CelEnvironment celEnvironment, string expression, CelBackend backend, Dictionary<string, object> variables)
+    {
+        try
+        {
+            return celEnvironment.Program(expression, variables, backend);
+        }
+        catch (Exception x)
+        {
+            return x.GetType();
+        }
+    }
+
+    private static void DetachParseTree(IParseTree parseTree)
+    {
+        var contexts = new List<ParserRuleContext>();
+        CollectContexts(parseTree, contexts);
+
+        foreach (var context in contexts)
+        {
+            foreach (var field in context.GetType().GetFields(BindingFlags.Instance | BindingFlags.Public))
+            {
+                if (!field.FieldType.IsValueType)
+                {
+                    field.SetValue(context, null);
+                }
+            }
+        }
+    }
+
+    private static void CollectContexts(IParseTree parseTree, List<ParserRuleContext> contexts)
+    {
+        if (parseTree is ParserRuleContext context)
+        {
+            contexts.Add(context);
+        }
+
+        for (var i = 0; i < parseTree.ChildCount; i++)
+        {
+            CollectContexts(parseTree.GetChild(i), contexts);
+        }
+    }
+}
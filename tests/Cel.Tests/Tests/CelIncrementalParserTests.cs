@@ -0,0 +1,203 @@
+﻿using System.Text;
+using Antlr4.Runtime;
+using Antlr4.Runtime.Tree;
+using Cel.Internal;
+using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelIncrementalParserTests
+{
+    private const string Expression = "a.b + 1 > 2 || c && d(1, 'x') || [x, y].size() == 3";
+
+    [Test]
+    [TestCase(0, 0, "z")]
+    [TestCase(1, 0, "a")]
+    [TestCase(4, 0, "* 2 ")]
+    [TestCase(15, 1, "cc")]
+    [TestCase(17, 2, "||")]
+    [TestCase(25, 3, "'yy'")]
+    [TestCase(33, 0, "\n  ")]
+    [TestCase(33, 0, "// comment\n")]
+    [TestCase(50, 1, "30")]
+    [TestCase(51, 0, " && e")]
+    [TestCase(12, 2, "&&")]
+    [TestCase(0, 15, "")]
+    [TestCase(15, 0, "(q || r) && ")]
+    public void Reparse_Should_Produce_The_Same_Tree_And_Tokens_As_A_Full_Parse(int offset, int removedLength, string insertedText)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var edit = new CelTextEdit(offset, removedLength, insertedText);
+
+        var previous = celEnvironment.ParseEditable(Expression);
+        var reparsed = celEnvironment.Reparse(previous, edit);
+
+        var expectedText = Expression.Substring(0, offset) + insertedText + Expression.Substring(offset + removedLength);
+        AssertSameAsFullParse(celEnvironment, reparsed, expectedText);
+    }
+
+    [Test]
+    public void Consecutive_Edits_Should_Produce_The_Same_Tree_And_Tokens_As_A_Full_Parse()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var editable = celEnvironment.ParseEditable(Expression);
+        var text = Expression;
+
+        //type a new term one character at a time, skipping the states that are not valid expressions.
+        var term = " || e.f(g) >= 4";
+        var typed = "";
+
+        foreach (var c in term)
+        {
+            typed += c;
+            var candidate = text + typed;
+
+            try
+            {
+                editable = celEnvironment.Reparse(editable, CelTextEdit.Insert(editable.Text.Length, typed.Substring(editable.Text.Length - text.Length)));
+            }
+            catch (CelExpressionParserException)
+            {
+                continue;
+            }
+
+            AssertSameAsFullParse(celEnvironment, editable, candidate);
+        }
+
+        Assert.That(editable.Text, Is.EqualTo(Expression + term));
+    }
+
+    [Test]
+    public void Invalid_Edit_Should_Leave_The_Previous_Expression_Usable()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var previous = celEnvironment.ParseEditable(Expression);
+
+        Assert.Throws<CelExpressionParserException>(() => celEnvironment.Reparse(previous, CelTextEdit.Insert(15, "&& ")));
+
+        var reparsed = celEnvironment.Reparse(previous, CelTextEdit.Insert(15, "!"));
+        AssertSameAsFullParse(celEnvironment, reparsed, Expression.Insert(15, "!"));
+    }
+
+    [Test]
+    public void Reparse_Should_Apply_The_Nesting_Limit_To_The_Whole_Expression()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { MaximumNestingDepth = 5 };
+        var editable = celEnvironment.ParseEditable("f(f(f(1)))");
+
+        //each edit only re-parses the innermost argument, which is shallow on its own.
+        editable = celEnvironment.Reparse(editable, new CelTextEdit(6, 1, "f(1)"));
+        AssertSameAsFullParse(celEnvironment, editable, "f(f(f(f(1))))");
+
+        var x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Reparse(editable, new CelTextEdit(8, 1, "f(1)")));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.NestingDepth));
+    }
+
+    [Test]
+    public void Reparse_Should_Apply_The_Token_Limit_To_The_Whole_Expression()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { MaximumTokenCount = 7 };
+        var editable = celEnvironment.ParseEditable("a && b && c");
+
+        var x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Reparse(editable, new CelTextEdit(10, 1, "c + d + e")));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.TokenCount));
+    }
+
+    [Test]
+    public void Reparsing_The_Same_Expression_Twice_Should_Parse_Each_Edit()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var previous = celEnvironment.ParseEditable(Expression);
+
+        var first = celEnvironment.Reparse(previous, new CelTextEdit(15, 1, "cc"));
+        var second = celEnvironment.Reparse(previous, CelTextEdit.Insert(0, "z"));
+
+        AssertSameAsFullParse(celEnvironment, first, Expression.Substring(0, 15) + "cc" + Expression.Substring(16));
+        AssertSameAsFullParse(celEnvironment, second, "z" + Expression);
+        Assert.That(second.Tree, Is.Not.SameAs(first.Tree));
+    }
+
+    [Test]
+    public void Reparse_Of_A_Long_Chain_Should_Reuse_The_Untouched_Terms()
+    {
+        var builder = new StringBuilder();
+        for (var i = 0; i < 2000; i++)
+        {
+            builder.Append(i == 0 ? "" : " || ").Append("x == ").Append(i);
+        }
+
+        var celEnvironment = new CelEnvironment(null, null);
+        var previous = celEnvironment.ParseEditable(builder.ToString());
+        var terms = previous.Tree.e.e._e1;
+        var untouchedBefore = terms[500];
+        var untouchedAfter = terms[1500];
+
+        var offset = previous.Text.IndexOf("x == 1000 ", StringComparison.Ordinal);
+        var reparsed = celEnvironment.Reparse(previous, new CelTextEdit(offset, 1, "yy"));
+
+        Assert.That(reparsed.Tree, Is.SameAs(previous.Tree));
+        Assert.That(reparsed.Tree.e.e._e1[500], Is.SameAs(untouchedBefore));
+        Assert.That(reparsed.Tree.e.e._e1[1500], Is.SameAs(untouchedAfter));
+        AssertSameAsFullParse(celEnvironment, reparsed, builder.ToString().Substring(0, offset) + "yy" + builder.ToString().Substring(offset + 1));
+    }
+
+    private static void AssertSameAsFullParse(CelEnvironment celEnvironment, CelEditableExpression editable, string expectedText)
+    {
+        Assert.That(editable.Text, Is.EqualTo(expectedText));
+
+        var fullTree = celEnvironment.Parse(expectedText);
+        Assert.That(editable.Tree.ToStringTree(CelParser.ruleNames), Is.EqualTo(fullTree.ToStringTree(CelParser.ruleNames)));
+
+        var tokens = GetTokens(editable.Tree);
+        var fullTokens = GetTokens(fullTree);
+        Assert.That(tokens.Count, Is.EqualTo(fullTokens.Count));
+
+        for (var i = 0; i < tokens.Count; i++)
+        {
+            Assert.That(tokens[i].Text, Is.EqualTo(fullTokens[i].Text));
+            Assert.That(tokens[i].StartIndex, Is.EqualTo(fullTokens[i].StartIndex));
+            Assert.That(tokens[i].StopIndex, Is.EqualTo(fullTokens[i].StopIndex));
+            Assert.That(tokens[i].Line, Is.EqualTo(fullTokens[i].Line));
+            Assert.That(tokens[i].Column, Is.EqualTo(fullTokens[i].Column));
+            Assert.That(tokens[i].TokenIndex, Is.EqualTo(fullTokens[i].TokenIndex));
+        }
+
+        //every context has to start and stop with the same tokens as the fully parsed context.
+        Assert.That(GetContextRanges(editable.Tree), Is.EqualTo(GetContextRanges(fullTree)));
+    }
+
+    private static List<IToken> GetTokens(IParseTree parseTree)
+    {
+        var tokens = new List<IToken>();
+
+        if (parseTree is ITerminalNode terminalNode)
+        {
+            tokens.Add(terminalNode.Symbol);
+        }
+
+        for (var i = 0; i < parseTree.ChildCount; i++)
+        {
+            tokens.AddRange(GetTokens(parseTree.GetChild(i)));
+        }
+
+        return tokens;
+    }
+
+    private static List<string> GetContextRanges(IParseTree parseTree)
+    {
+        var ranges = new List<string>();
+
+        if (parseTree is ParserRuleContext context)
+        {
+            ranges.Add($"{context.GetType().Name} {context.Start.TokenIndex}-{context.Stop.TokenIndex}");
+        }
+
+        for (var i = 0; i < parseTree.ChildCount; i++)
+        {
+            ranges.AddRange(GetContextRanges(parseTree.GetChild(i)));
+        }
+
+        return ranges;
+    }
+}
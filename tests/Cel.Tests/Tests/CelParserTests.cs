@@ -1,4 +1,7 @@
-﻿using NUnit.Framework;
+﻿using System.Text;
+using Antlr4.Runtime.Tree;
+using Cel.Internal;
+using NUnit.Framework;
 
 namespace Cel.Tests;
 
@@ -53,4 +56,556 @@ public class CelParserTests
         Assert.Throws<CelUndeclaredReferenceException>(() => celEnvironment.Program(expression, variables));
     }
 
+    [Test]
+    [TestCaseSource(typeof(SimpleTestDataParser), nameof(SimpleTestDataParser.GetTestCases), Category = "Simple Tests")]
+    public void Two_Stage_Parsing_Should_Produce_The_Same_Tree_As_LL_Parsing(SimpleTestDataLoader testCase)
+    {
+        var twoStageEnvironment = new CelEnvironment(null, null) { UseTwoStageParsing = true };
+        var llEnvironment = new CelEnvironment(null, null) { UseTwoStageParsing = false };
+
+        var twoStageTree = GetParseTreeText(twoStageEnvironment, testCase.Test.Expr);
+        var llTree = GetParseTreeText(llEnvironment, testCase.Test.Expr);
+
+        Assert.That(twoStageTree, Is.EqualTo(llTree));
+    }
+
+    [Test]
+    [TestCaseSource(typeof(SimpleTestDataParser), nameof(SimpleTestDataParser.GetTestCases), Category = "Simple Tests")]
+    public void Precedence_Climbing_Parser_Should_Produce_The_Same_Tree_As_Generated_Parser(SimpleTestDataLoader testCase)
+    {
+        var precedenceClimbingEnvironment = new CelEnvironment(null, null) { UsePrecedenceClimbingParser = true };
+        var generatedEnvironment = new CelEnvironment(null, null);
+
+        var precedenceClimbingTree = GetParseTreeText(precedenceClimbingEnvironment, testCase.Test.Expr);
+        var generatedTree = GetParseTreeText(generatedEnvironment, testCase.Test.Expr);
+
+        Assert.That(precedenceClimbingTree, Is.EqualTo(generatedTree));
+    }
+
+    [Test]
+    [TestCase("1 + 2 * 3 - 4 / 5 % 6")]
+    [TestCase("a < b == c != d in e")]
+    [TestCase("-1 - -2 - --3 - -x")]
+    [TestCase("!!a || !b && c ? d : e ? f : g")]
+    [TestCase("a.b.?c[0][?d].e(f, g).h()")]
+    [TestCase(".a.b{c: 1, ?d: 2,}.e")]
+    [TestCase("[1, ?2, [], [,],]")]
+    [TestCase("{'a': 1, ?b: {}, }")]
+    [TestCase("f() + .g(1) + h(-1.5, 2u, b'x', null, true, false)")]
+    [TestCase("1 +")]
+    [TestCase("a.b{")]
+    [TestCase("[1,,]")]
+    public void Precedence_Climbing_Parser_Should_Produce_The_Same_Tree_As_Generated_Parser_For_Edge_Cases(string expression)
+    {
+        var precedenceClimbingEnvironment = new CelEnvironment(null, null) { UsePrecedenceClimbingParser = true };
+        var generatedEnvironment = new CelEnvironment(null, null);
+
+        var precedenceClimbingTree = GetParseTreeText(precedenceClimbingEnvironment, expression);
+        var generatedTree = GetParseTreeText(generatedEnvironment, expression);
+
+        Assert.That(precedenceClimbingTree, Is.EqualTo(generatedTree));
+    }
+
+    [Test]
+    public void Environment_Parser_Cache_Should_Be_Filled_By_Parsing()
+    {
+        var parserCache = new CelParserCache();
+        var celEnvironment = new CelEnvironment(null, null) { ParserCache = parserCache };
+
+        celEnvironment.Parse("a.b[1] + 2 * c(3) > 4 && x in [1, 2]");
+
+        Assert.That(parserCache.StateCount, Is.GreaterThan(0));
+        Assert.That(parserCache.EdgeCount, Is.GreaterThan(0));
+        Assert.That(parserCache.ClearCount, Is.EqualTo(0));
+    }
+
+    [Test]
+    public void Environment_Parser_Cache_Should_Clear_When_Maximum_State_Count_Is_Exceeded()
+    {
+        var parserCache = new CelParserCache(1);
+        var celEnvironment = new CelEnvironment(null, null) { ParserCache = parserCache };
+
+        celEnvironment.Parse("a.b[1] + 2 * c(3) > 4 && x in [1, 2]");
+
+        Assert.That(parserCache.ClearCount, Is.EqualTo(1));
+        Assert.That(parserCache.StateCount, Is.EqualTo(0));
+    }
+
+    [Test]
+    public void Parser_Cache_Snapshot_Should_Warm_A_Cold_Cache_Like_The_Full_Corpus()
+    {
+        var expressions = SimpleTestDataParser.GetTestCases().Select(c => c.Test.Expr).ToArray();
+
+        var warmedCache = new CelParserCache(int.MaxValue);
+        warmedCache.Warm(expressions);
+
+        using var stream = new MemoryStream();
+        CelParserCache.SaveSnapshot(expressions, stream);
+        stream.Position = 0;
+
+        var snapshotCache = new CelParserCache(int.MaxValue);
+        snapshotCache.LoadSnapshot(stream);
+
+        Assert.That(snapshotCache.StateCount, Is.EqualTo(warmedCache.StateCount));
+        Assert.That(snapshotCache.EdgeCount, Is.EqualTo(warmedCache.EdgeCount));
+    }
+
+    [Test]
+    public void Batch_Parsing_Should_Produce_The_Same_Trees_And_Errors_As_Single_Parsing()
+    {
+        var expressions = SimpleTestDataParser.GetTestCases().Select(c => c.Test.Expr).ToList();
+        expressions.Add("1+");
+        expressions.Add("`");
+        expressions.Add(" ");
+
+        var celEnvironment = new CelEnvironment(null, null);
+        var results = celEnvironment.ParseBatch(expressions);
+
+        Assert.That(results.Length, Is.EqualTo(expressions.Count));
+
+        for (var i = 0; i < expressions.Count; i++)
+        {
+            Assert.That(results[i].Expression, Is.EqualTo(expressions[i]));
+
+            if (string.IsNullOrWhiteSpace(expressions[i]))
+            {
+                Assert.That(results[i].IsSuccess, Is.False);
+                continue;
+            }
+
+            var batchTree = results[i].IsSuccess ? results[i].StartContext.ToStringTree(CelParser.ruleNames) : results[i].Exception.Message;
+            Assert.That(batchTree, Is.EqualTo(GetParseTreeText(celEnvironment, expressions[i])));
+        }
+    }
+
+    [Test]
+    public void Batch_Parsing_Of_No_Expressions_Should_Return_No_Results()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        Assert.That(celEnvironment.ParseBatch(Array.Empty<string>()), Is.Empty);
+        Assert.That(celEnvironment.ParseBatch(Encoding.UTF8.GetBytes("1 + 2"), Array.Empty<(int, int)>()), Is.Empty);
+    }
+
+    [Test]
+    [TestCaseSource(typeof(SimpleTestDataParser), nameof(SimpleTestDataParser.GetTestCases), Category = "Simple Tests")]
+    public void Utf8_Parsing_Should_Produce_The_Same_Tree_As_String_Parsing(SimpleTestDataLoader testCase)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var utf8Expression = Encoding.UTF8.GetBytes(testCase.Test.Expr);
+
+        string utf8Tree;
+        try
+        {
+            utf8Tree = celEnvironment.Parse(new ReadOnlyMemory<byte>(utf8Expression)).ToStringTree(CelParser.ruleNames);
+        }
+        catch (CelExpressionParserException x)
+        {
+            utf8Tree = x.Message;
+        }
+
+        Assert.That(utf8Tree, Is.EqualTo(GetParseTreeText(celEnvironment, testCase.Test.Expr)));
+    }
+
+    [Test]
+    public void Rule_File_Expressions_Should_Be_Parsed_By_Byte_Range()
+    {
+        var expressions = new[] { "a + 1 == 2", "'héllo 😀' + b", "1 +", "[x, y].size() > 0" };
+        var path = Path.GetTempFileName();
+
+        try
+        {
+            var ranges = new List<(int Offset, int Length)>();
+            using (var stream = File.Create(path))
+            {
+                foreach (var expression in expressions)
+                {
+                    var bytes = Encoding.UTF8.GetBytes(expression);
+                    ranges.Add(((int)stream.Position, bytes.Length));
+                    stream.Write(bytes, 0, bytes.Length);
+                    stream.WriteByte((byte)'\n');
+                }
+            }
+
+            var celEnvironment = new CelEnvironment(null, null);
+
+            using var ruleFile = CelRuleFile.Open(path);
+            var results = celEnvironment.ParseBatch(ruleFile.Content, ranges);
+
+            for (var i = 0; i < expressions.Length; i++)
+            {
+                var rangeTree = results[i].IsSuccess ? results[i].StartContext.ToStringTree(CelParser.ruleNames) : results[i].Exception.Message;
+
+                Assert.That(results[i].Expression, Is.EqualTo(expressions[i]));
+                Assert.That(rangeTree, Is.EqualTo(GetParseTreeText(celEnvironment, expressions[i])));
+            }
+        }
+        finally
+        {
+            File.Delete(path);
+        }
+    }
+
+    [Test]
+    public void Rule_File_Parse_Trees_Should_Outlive_The_File()
+    {
+        var expressions = new[] { "a + 1.5 == 'héllo'", "[x, y].size() > 0u" };
+        var path = Path.GetTempFileName();
+
+        try
+        {
+            var ranges = new List<(int Offset, int Length)>();
+            var offset = 0;
+            foreach (var expression in expressions)
+            {
+                var length = Encoding.UTF8.GetByteCount(expression);
+                ranges.Add((offset, length));
+                offset += length;
+            }
+
+            File.WriteAllText(path, string.Concat(expressions), new UTF8Encoding(false));
+
+            var celEnvironment = new CelEnvironment(null, null);
+            CelParseResult[] results;
+            CelParser.StartContext singleTree;
+            ReadOnlyMemory<byte> content;
+
+            using (var ruleFile = CelRuleFile.Open(path))
+            {
+                content = ruleFile.Content;
+                results = celEnvironment.ParseBatch(content, ranges);
+                singleTree = celEnvironment.Parse(content.Slice(ranges[0].Offset, ranges[0].Length));
+            }
+
+            //the tokens copied their text, so the trees do not read the unmapped file.
+            for (var i = 0; i < expressions.Length; i++)
+            {
+                Assert.That(results[i].StartContext.ToStringTree(CelParser.ruleNames), Is.EqualTo(GetParseTreeText(celEnvironment, expressions[i])));
+            }
+
+            Assert.That(singleTree.ToStringTree(CelParser.ruleNames), Is.EqualTo(GetParseTreeText(celEnvironment, expressions[0])));
+
+            Assert.Throws<ObjectDisposedException>(() => _ = content.Span[0]);
+        }
+        finally
+        {
+            File.Delete(path);
+        }
+    }
+
+    [Test]
+    public void Utf8_Parsing_Should_Reject_White_Space()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        Assert.Throws<ArgumentNullException>(() => celEnvironment.Parse(ReadOnlyMemory<byte>.Empty));
+        Assert.Throws<ArgumentNullException>(() => celEnvironment.Parse(Encoding.UTF8.GetBytes(" \t\r\n\u00a0")));
+    }
+
+    [Test]
+    public void Identifier_Tokens_Should_Share_Interned_Text()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        var firstTokens = GetTokens(celEnvironment.Parse("account.balance > 0 && account in accounts"));
+        var secondTokens = GetTokens(celEnvironment.Parse("account.balance == null"));
+
+        var firstAccount = firstTokens.First(t => t.Text == "account");
+        var secondAccount = secondTokens.First(t => t.Text == "account");
+
+        Assert.That(secondAccount.Text, Is.SameAs(firstAccount.Text));
+
+        //keywords are interned as well.
+        var thirdTokens = GetTokens(celEnvironment.Parse("x in y || z == null"));
+        Assert.That(thirdTokens.First(t => t.Text == "in").Text, Is.SameAs(firstTokens.First(t => t.Text == "in").Text));
+        Assert.That(thirdTokens.First(t => t.Text == "null").Text, Is.SameAs(secondTokens.First(t => t.Text == "null").Text));
+    }
+
+    [Test]
+    [TestCase("10 - 4 - 3", 3L)]
+    [TestCase("100 / 10 / 5", 2L)]
+    [TestCase("17 % 5 * 2", 4L)]
+    [TestCase("2 + 3 * 4 - 6 / 2", 11L)]
+    [TestCase("1 < 2 == true", true)]
+    [TestCase("1 + 2 in [3]", true)]
+    public void Binary_Operators_Should_Be_Left_Associative(string expression, object expectedValue)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        Assert.That(celEnvironment.Program(expression, new Dictionary<string, object>()), Is.EqualTo(expectedValue));
+    }
+
+    [Test]
+    [TestCase(false)]
+    [TestCase(true)]
+    public void Deep_Arithmetic_Chains_Should_Produce_A_Shallow_Tree(bool usePrecedenceClimbingParser)
+    {
+        var celEnvironment = new CelEnvironment(null, null) { UsePrecedenceClimbingParser = usePrecedenceClimbingParser };
+        var expression = string.Join(" + ", Enumerable.Repeat("2 * 3", 2000));
+
+        var startContext = celEnvironment.Parse(expression);
+
+        //each precedence level is a flat list of operands, so the depth does not grow with the number of operators.
+        Assert.That(GetDepth(startContext), Is.LessThan(20));
+        Assert.That(celEnvironment.Program(startContext, new Dictionary<string, object>()), Is.EqualTo(12000L));
+    }
+
+    [Test]
+    [TestCase(10, 76)]
+    [TestCase(1000, 7006)]
+    public void Deep_Operator_Chains_Should_Not_Add_Predictions_Per_Operator(int operatorCount, long leftRecursivePredictions)
+    {
+        //leftRecursivePredictions is what the generated parser of the left-recursive relation and calc rules predicted for the same chains:
+        //about three predictions for every operator in those two rules, on top of the four for every operand below.
+        var profile = ProfileChain(operatorCount);
+
+        //each operator is decided by a single token of lookahead, so the operator levels are never predicted.
+        foreach (var ruleName in new[] { "relation", "additive", "multiplicative" })
+        {
+            Assert.That(profile.GetDecisions(ruleName).Sum(d => d.Invocations), Is.EqualTo(0), ruleName);
+        }
+
+        //every operand is still predicted once in unary and member, and the chain starts with one identifier that is not a call.
+        Assert.That(profile.GetDecisions("unary").Sum(d => d.Invocations), Is.EqualTo(operatorCount + 1));
+        Assert.That(profile.GetDecisions("member").Sum(d => d.Invocations), Is.EqualTo(operatorCount + 1));
+        Assert.That(profile.TotalInvocations, Is.EqualTo(4L * operatorCount + 4));
+        Assert.That(profile.TotalInvocations, Is.LessThan(leftRecursivePredictions));
+    }
+
+    [Test]
+    public void Parser_Profiler_Should_Record_Decisions_By_Rule()
+    {
+        var parserProfiler = new CelParserProfiler();
+        var celEnvironment = new CelEnvironment(null, null) { ParserProfiler = parserProfiler };
+
+        celEnvironment.Parse("a.b(1, 2) + c[0] > 3 && d");
+        celEnvironment.Parse("{'a': [1, 2]}.a.size() == 2 ? x : y");
+
+        var profile = parserProfiler.GetSnapshot();
+
+        Assert.That(profile.ParseCount, Is.EqualTo(2));
+        Assert.That(profile.Decisions, Is.Not.Empty);
+        Assert.That(profile.TotalInvocations, Is.GreaterThan(0));
+        Assert.That(profile.Decisions.Select(d => d.RuleName), Is.SubsetOf(CelParser.ruleNames));
+        Assert.That(profile.GetDecisions("member"), Is.Not.Empty);
+        Assert.That(profile.ToString(), Does.Contain("member"));
+
+        parserProfiler.Reset();
+
+        Assert.That(parserProfiler.GetSnapshot().ParseCount, Is.EqualTo(0));
+        Assert.That(parserProfiler.GetSnapshot().Decisions, Is.Empty);
+    }
+
+    [Test]
+    public void Parser_Profiler_Should_Not_Record_When_Removed()
+    {
+        var parserProfiler = new CelParserProfiler();
+        var celEnvironment = new CelEnvironment(null, null) { ParserProfiler = parserProfiler };
+
+        celEnvironment.Parse("1 + 2");
+        celEnvironment.ParserProfiler = null;
+        celEnvironment.Parse("3 + 4");
+
+        Assert.That(parserProfiler.ParseCount, Is.EqualTo(1));
+    }
+
+    [Test]
+    public void Parser_Profiler_Should_Dump_Periodically()
+    {
+        var parserProfiler = new CelParserProfiler();
+        var celEnvironment = new CelEnvironment(null, null) { ParserProfiler = parserProfiler };
+        celEnvironment.Parse("a || b");
+
+        //not disposed, because a timer callback may still be running after the timer is disposed.
+        var dumped = new ManualResetEventSlim();
+
+        using (parserProfiler.StartPeriodicDump(profile =>
+               {
+                   if (profile.ParseCount == 1)
+                   {
+                       dumped.Set();
+                   }
+               }, TimeSpan.FromMilliseconds(10)))
+        {
+            Assert.That(dumped.Wait(TimeSpan.FromSeconds(10)), Is.True);
+        }
+    }
+
+    [Test]
+    [TestCase(false, false)]
+    [TestCase(true, false)]
+    [TestCase(false, true)]
+    public void Nesting_Deeper_Than_The_Maximum_Should_Throw(bool useTwoStageParsing, bool usePrecedenceClimbingParser)
+    {
+        var celEnvironment = new CelEnvironment(null, null)
+        {
+            MaximumNestingDepth = 10,
+            UseTwoStageParsing = useTwoStageParsing,
+            UsePrecedenceClimbingParser = usePrecedenceClimbingParser
+        };
+
+        Assert.That(celEnvironment.Parse(new string('(', 9) + "1" + new string(')', 9)), Is.Not.Null);
+        Assert.That(celEnvironment.Parse("f([[{'a': [1]}]], m[n[o]]) ? 1 : 2 ? 3 : 4"), Is.Not.Null);
+
+        var x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Parse(new string('(', 10) + "1" + new string(')', 10)));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.NestingDepth));
+        Assert.That(x.Message, Does.StartWith("Line 1:10"));
+
+        x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Parse(string.Concat(Enumerable.Repeat("f(", 10)) + "1" + new string(')', 10)));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.NestingDepth));
+    }
+
+    [Test]
+    public void Default_Nesting_Limit_Should_Stop_Hostile_Expressions()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var expression = new string('[', 100000) + new string(']', 100000);
+
+        var x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Parse(expression));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.NestingDepth));
+    }
+
+    [Test]
+    [TestCase(false)]
+    [TestCase(true)]
+    public void Token_Count_Over_The_Maximum_Should_Throw(bool usePrecedenceClimbingParser)
+    {
+        var celEnvironment = new CelEnvironment(null, null)
+        {
+            MaximumTokenCount = 5,
+            UsePrecedenceClimbingParser = usePrecedenceClimbingParser
+        };
+
+        //whitespace and comments are not counted.
+        Assert.That(celEnvironment.Parse("a +  b // sum\n + c"), Is.Not.Null);
+
+        var x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Parse("a + b + c + d"));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.TokenCount));
+        Assert.That(x, Is.InstanceOf<CelExpressionParserException>());
+    }
+
+    [Test]
+    public void Parse_Timeout_Should_Stop_A_Long_Parse()
+    {
+        var celEnvironment = new CelEnvironment(null, null) { ParseTimeout = TimeSpan.FromTicks(1) };
+        var expression = string.Join(" + ", Enumerable.Range(0, 100000).Select(i => $"f(a{i})"));
+
+        var x = Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Parse(expression));
+        Assert.That(x.Limit, Is.EqualTo(CelParserLimit.Time));
+    }
+
+    [Test]
+    public void Parser_Limits_Should_Reject_Invalid_Values()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        Assert.Throws<ArgumentOutOfRangeException>(() => celEnvironment.MaximumNestingDepth = 0);
+        Assert.Throws<ArgumentOutOfRangeException>(() => celEnvironment.MaximumTokenCount = -1);
+        Assert.Throws<ArgumentOutOfRangeException>(() => celEnvironment.ParseTimeout = TimeSpan.Zero);
+        Assert.That(celEnvironment.ParseTimeout, Is.EqualTo(Timeout.InfiniteTimeSpan));
+    }
+
+    [Test]
+    public void Preload_Grammar_Should_Load_Once_In_The_Background()
+    {
+        var preload = CelParserCache.PreloadGrammar();
+
+        Assert.That(CelParserCache.PreloadGrammar(), Is.SameAs(preload));
+        Assert.That(preload.Wait(TimeSpan.FromSeconds(30)), Is.True);
+        Assert.That(new CelEnvironment(null, null).Parse("a + b"), Is.Not.Null);
+    }
+
+    [Test]
+    public void Parser_Cache_Should_Create_Its_Dfa_On_First_Parse()
+    {
+        var parserCache = new CelParserCache();
+        var celEnvironment = new CelEnvironment(null, null) { ParserCache = parserCache };
+
+        Assert.That(parserCache.StateCount, Is.EqualTo(0));
+
+        celEnvironment.Parse("a + b");
+        Assert.That(parserCache.StateCount, Is.GreaterThan(0));
+
+        parserCache.Clear();
+        Assert.That(parserCache.StateCount, Is.EqualTo(0));
+        Assert.That(parserCache.EdgeCount, Is.EqualTo(0));
+
+        celEnvironment.Parse("a + b");
+        Assert.That(parserCache.StateCount, Is.GreaterThan(0));
+    }
+
+    [Test]
+    public void Parser_Cache_Should_Stay_Bounded_When_Parses_Fail()
+    {
+        var parserCache = new CelParserCache(1);
+        var celEnvironment = new CelEnvironment(null, null) { ParserCache = parserCache, MaximumNestingDepth = 5 };
+
+        Assert.Throws<CelExpressionParserException>(() => celEnvironment.Parse("a + (b * "));
+        Assert.That(parserCache.StateCount, Is.EqualTo(0));
+
+        Assert.Throws<CelParserLimitExceededException>(() => celEnvironment.Parse("f(f(f(f(f(f(1))))))"));
+        Assert.That(parserCache.StateCount, Is.EqualTo(0));
+
+        var previous = celEnvironment.ParseEditable("a + b");
+        Assert.Throws<CelExpressionParserException>(() => celEnvironment.Reparse(previous, CelTextEdit.Insert(5, " *")));
+        Assert.That(parserCache.StateCount, Is.EqualTo(0));
+    }
+
+    private static CelParserProfile ProfileChain(int operatorCount)
+    {
+        var parserProfiler = new CelParserProfiler();
+        var celEnvironment = new CelEnvironment(null, null) { UsePrecedenceClimbingParser = false, ParserProfiler = parserProfiler };
+
+        var builder = new StringBuilder("x");
+        for (var i = 0; i < operatorCount; i++)
+        {
+            builder.Append(i % 3 == 0 ? " + " : i % 3 == 1 ? " * " : " < ").Append(i);
+        }
+
+        celEnvironment.Parse(builder.ToString());
+
+        return parserProfiler.GetSnapshot();
+    }
+
+    private static int GetDepth(IParseTree parseTree)
+    {
+        var depth = 0;
+
+        for (var i = 0; i < parseTree.ChildCount; i++)
+        {
+            depth = Math.Max(depth, GetDepth(parseTree.GetChild(i)));
+        }
+
+        return depth + 1;
+    }
+
+    private static List<CelToken> GetTokens(IParseTree parseTree)
+    {
+        var tokens = new List<CelToken>();
+
+        if (parseTree is ITerminalNode terminalNode)
+        {
+            tokens.Add((CelToken)terminalNode.Symbol);
+        }
+
+        for (var i = 0; i < parseTree.ChildCount; i++)
+        {
+            tokens.AddRange(GetTokens(parseTree.GetChild(i)));
+        }
+
+        return tokens;
+    }
+
+    private static string GetParseTreeText(CelEnvironment celEnvironment, string expression)
+    {
+        try
+        {
+            return celEnvironment.Parse(expression).ToStringTree(CelParser.ruleNames);
+        }
+        catch (CelExpressionParserException x)
+        {
+            return x.Message;
+        }
+    }
+
 }
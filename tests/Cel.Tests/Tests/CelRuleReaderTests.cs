@@ -0,0 +1,190 @@
+﻿using Cel.Internal;
+using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelRuleReaderTests
+{
+    private const string RulePack = @"// order rules
+orders.max_total: order.total <= 1000
+
+orders.has_items:
+    size(order.items) > 0 &&
+    order.items.all(i, i.quantity > 0)
+// customer rules
+customers.name: """"""
+name: not a rule id
+"""""".size() > 0
+";
+
+    [Test]
+    public void ReadRules_Should_Return_Each_Rule_In_Order()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        var rules = celEnvironment.ReadRules(new StringReader(RulePack)).ToList();
+
+        Assert.AreEqual(new[] { "orders.max_total", "orders.has_items", "customers.name" }, rules.Select(r => r.Id).ToArray());
+        Assert.AreEqual(new[] { 2, 4, 8 }, rules.Select(r => r.Line).ToArray());
+        Assert.IsTrue(rules.All(r => r.IsSuccess));
+        Assert.AreEqual("order.total <= 1000", rules[0].Expression);
+
+        var variables = new Dictionary<string, object>
+        {
+            { "order", new Dictionary<string, object> { { "total", 500L }, { "items", new List<object> { new Dictionary<string, object> { { "quantity", 2L } } } } } }
+        };
+
+        Assert.AreEqual(true, celEnvironment.Program(rules[0].StartContext, variables));
+        Assert.AreEqual(true, celEnvironment.Program(rules[1].StartContext, variables));
+        Assert.AreEqual(true, celEnvironment.Program(rules[2].StartContext, variables));
+    }
+
+    [Test]
+    public void ReadRules_Should_Produce_The_Same_Tree_As_Parse()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        foreach (var rule in celEnvironment.ReadRules(new StringReader(RulePack)))
+        {
+            Assert.AreEqual(celEnvironment.Parse(rule.Expression).ToStringTree(CelParser.ruleNames), rule.StartContext.ToStringTree(CelParser.ruleNames));
+        }
+    }
+
+    [Test]
+    public void ReadRules_Should_Report_Invalid_Rules_And_Continue()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var rulePack = "a: 1 + 2\nb: 1 +\nc:\nd: 3 # 4\ne: true\n";
+
+        var rules = celEnvironment.ReadRules(new StringReader(rulePack)).ToList();
+
+        Assert.AreEqual(new[] { "a", "b", "c", "d", "e" }, rules.Select(r => r.Id).ToArray());
+        Assert.AreEqual(new[] { true, false, false, false, true }, rules.Select(r => r.IsSuccess).ToArray());
+
+        //errors are reported at their position in the rule pack.
+        StringAssert.StartsWith("Line 2:", rules[1].Exception.Message);
+        StringAssert.StartsWith("Line 4:", rules[3].Exception.Message);
+    }
+
+    [Test]
+    public void ReadRules_Should_Report_An_Expression_Without_A_Rule_Id()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        var rules = celEnvironment.ReadRules(new StringReader("1 + 2\na: true\n")).ToList();
+
+        Assert.AreEqual(2, rules.Count);
+        Assert.AreEqual("", rules[0].Id);
+        Assert.IsFalse(rules[0].IsSuccess);
+        Assert.IsTrue(rules[1].IsSuccess);
+    }
+
+    [Test]
+    public void ReadRules_Should_Reject_Rules_With_Too_Many_Tokens()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var rulePack = "long: " + string.Join(" + ", Enumerable.Range(0, 100)) + "\nshort: 1\n";
+
+        var rules = celEnvironment.ReadRules(new StringReader(rulePack), 50).ToList();
+
+        Assert.AreEqual(new[] { "long", "short" }, rules.Select(r => r.Id).ToArray());
+        Assert.IsFalse(rules[0].IsSuccess);
+        Assert.IsTrue(rules[1].IsSuccess);
+    }
+
+    [Test]
+    public void ReadRules_Should_Read_Lazily()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var reader = new GeneratedRulePackReader(1_000_000);
+
+        var rules = celEnvironment.ReadRules(reader).Take(3).ToList();
+
+        Assert.AreEqual(new[] { "rule0", "rule1", "rule2" }, rules.Select(r => r.Id).ToArray());
+
+        //only a small part of the generated pack has been read.
+        Assert.Less(reader.RuleCount, 100);
+    }
+
+    [Test]
+    public void ReadRules_Should_Read_A_File()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var path = Path.GetTempFileName();
+
+        try
+        {
+            File.WriteAllText(path, RulePack);
+
+            var rules = celEnvironment.ReadRules(path).ToList();
+
+            Assert.AreEqual(3, rules.Count);
+            Assert.IsTrue(rules.All(r => r.IsSuccess));
+        }
+        finally
+        {
+            File.Delete(path);
+        }
+    }
+
+    /// <summary>
+    /// Generates a rule pack as it is read, without holding the whole pack in memory.
+    /// </summary>
+    private class GeneratedRulePackReader : TextReader
+    {
+        private readonly int _maximumRuleCount;
+        private string _current = "";
+        private int _position;
+
+        public GeneratedRulePackReader(int maximumRuleCount)
+        {
+            _maximumRuleCount = maximumRuleCount;
+        }
+
+        public int RuleCount { get; private set; }
+
+        public override int Peek()
+        {
+            return Fill() ? _current[_position] : -1;
+        }
+
+        public override int Read()
+        {
+            return Fill() ? _current[_position++] : -1;
+        }
+
+        public override int Read(char[] buffer, int index, int count)
+        {
+            if (!Fill())
+            {
+                return 0;
+            }
+
+            var length = Math.Min(count, _current.Length - _position);
+            _current.CopyTo(_position, buffer, index, length);
+            _position += length;
+
+            return length;
+        }
+
+        private bool Fill()
+        {
+            if (_position < _current.Length)
+            {
+                return true;
+            }
+
+            if (RuleCount == _maximumRuleCount)
+            {
+                return false;
+            }
+
+            _current = $"rule{RuleCount}: x + {RuleCount} > 10\n";
+            _position = 0;
+            RuleCount++;
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+﻿using Antlr4.Runtime.Tree;
+using Cel.Internal;
+using Google.Api.Expr.Test.V1.Proto3;
+using Google.Protobuf;
+using NUnit.Framework;
+
+namespace Cel.Tests;
+
+[TestFixture]
+public class CelTypeCheckerTests
+{
+    private static readonly Dictionary<string, CelCheckedType> VariableTypes = new()
+    {
+        { "a", CelCheckedType.Int },
+        { "b", CelCheckedType.Int },
+        { "x", CelCheckedType.Double },
+        { "s", CelCheckedType.String },
+        { "d", CelCheckedType.Dyn },
+        { "l", CelCheckedType.ListOf(CelCheckedType.Int) },
+        { "m", CelCheckedType.MapOf(CelCheckedType.String, CelCheckedType.Uint) },
+        { "msg", CelCheckedType.MessageOf(TestAllTypes.Descriptor) }
+    };
+
+    [Test]
+    public void Operators_Should_Resolve_Primitive_Overloads()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        var checkedExpression = celEnvironment.Check("a + b - 1 < 2.0 * x && !(s == 'a')", VariableTypes);
+
+        Assert.That(checkedExpression.Errors, Is.Empty);
+        Assert.That(checkedExpression.ResultType, Is.EqualTo(CelCheckedType.Bool));
+
+        var additive = FindNodes<CelParser.AdditiveContext>(checkedExpression.Context).Single(n => n._ops.Count > 0);
+        Assert.That(checkedExpression.GetNodeType(additive), Is.EqualTo(CelCheckedType.Int));
+        Assert.That(checkedExpression.GetOverloadIds(additive), Is.EqualTo(new[] { "add_int64", "subtract_int64" }));
+
+        var multiplicative = FindNodes<CelParser.MultiplicativeContext>(checkedExpression.Context).Single(n => n._ops.Count > 0);
+        Assert.That(checkedExpression.GetNodeType(multiplicative), Is.EqualTo(CelCheckedType.Double));
+        Assert.That(checkedExpression.GetOverloadIds(multiplicative), Is.EqualTo(new[] { "multiply_double" }));
+
+        var relations = FindNodes<CelParser.RelationContext>(checkedExpression.Context).Where(n => n._ops.Count > 0).ToArray();
+        Assert.That(relations.Select(checkedExpression.GetOverloadIds), Is.EqualTo(new[] { new[] { "less_int64_double" }, new[] { "equals" } }));
+
+        var logicalAnd = FindNodes<CelParser.ConditionalAndContext>(checkedExpression.Context).Single(n => n._ops.Count > 0);
+        Assert.That(checkedExpression.GetOverloadIds(logicalAnd), Is.EqualTo(new[] { "logical_and" }));
+    }
+
+    [Test]
+    [TestCase("d + 1")]
+    [TestCase("d.field * 2")]
+    [TestCase("l[0] + d")]
+    public void Dyn_Operands_Should_Be_Resolved_When_Evaluated(string expression)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        var checkedExpression = celEnvironment.Check(expression, VariableTypes);
+        var node = FindNodes<IParseTree>(checkedExpression.Context).First(n => checkedExpression.GetOverloadIds(n).Count > 0);
+
+        Assert.That(checkedExpression.Errors, Is.Empty);
+        Assert.That(checkedExpression.ResultType.IsDyn, Is.True);
+        Assert.That(checkedExpression.GetOverloadIds(node), Is.EqualTo(new string[] { null }));
+    }
+
+    [Test]
+    [TestCase("msg.single_int64 + 1", "int")]
+    [TestCase("msg.single_int32", "dyn")]
+    [TestCase("msg.single_nested_message", "google.api.expr.test.v1.proto3.TestAllTypes.NestedMessage")]
+    [TestCase("msg.repeated_int64.map(i, i * 2)", "list(int)")]
+    [TestCase("msg.repeated_int64.filter(i, i > a)", "list(int)")]
+    [TestCase("msg.map_string_string['k']", "string")]
+    [TestCase("size(l)", "dyn")]
+    [TestCase("l.exists(i, i == b)", "bool")]
+    [TestCase("m.k + 1u", "uint")]
+    [TestCase("[1, 2][0]", "int")]
+    [TestCase("[1, 'a']", "list(dyn)")]
+    [TestCase("{'k': 1.5}", "map(string, double)")]
+    [TestCase("int(x) + int('1')", "int")]
+    [TestCase("s.startsWith('a') ? 1u : 2u", "uint")]
+    [TestCase("TestAllTypes{single_int64: 1}", "google.api.expr.test.v1.proto3.TestAllTypes")]
+    [TestCase("TestAllTypes.NestedEnum.BAR", "dyn")]
+    [TestCase("type(a) == int", "bool")]
+    public void Nodes_Should_Have_Their_Static_Types(string expression, string expectedType)
+    {
+        var celEnvironment = new CelEnvironment(new[] { TestAllTypesReflection.Descriptor }, "google.api.expr.test.v1.proto3");
+
+        var checkedExpression = celEnvironment.Check(expression, VariableTypes);
+
+        Assert.That(checkedExpression.Errors, Is.Empty);
+        Assert.That(checkedExpression.ResultType.ToString(), Is.EqualTo(expectedType));
+    }
+
+    [Test]
+    [TestCase("1 + 'a'", "found no matching overload for '_+_' applied to '(int, string)'")]
+    [TestCase("a && true", "found no matching overload for '_&&_' applied to '(int)'")]
+    [TestCase("-s", "found no matching overload for '-_' applied to '(string)'")]
+    [TestCase("y + 1", "undeclared reference to 'y'")]
+    [TestCase("undefined(1)", "undeclared reference to function 'undefined'")]
+    [TestCase("msg.no_such_field", "undefined field 'no_such_field'")]
+    public void Type_Errors_Should_Be_Reported(string expression, string expectedError)
+    {
+        var celEnvironment = new CelEnvironment(new[] { TestAllTypesReflection.Descriptor }, "google.api.expr.test.v1.proto3");
+
+        var checkedExpression = celEnvironment.Check(expression, VariableTypes);
+
+        Assert.That(checkedExpression.HasErrors, Is.True);
+        Assert.That(checkedExpression.Errors, Has.Some.Contains(expectedError));
+    }
+
+    [Test]
+    [TestCase("a * b + 1")]
+    [TestCase("x / 2.0")]
+    [TestCase("m.k * 2u")]
+    [TestCase("s + 'b'")]
+    [TestCase("l[1] + msg.single_int64")]
+    [TestCase("msg.single_int64 - 1")]
+    [TestCase("msg.single_string")]
+    [TestCase("msg.single_bytes + b'a'")]
+    [TestCase("l.map(i, double(i) * 3.0 > x)")]
+    [TestCase("a > 1 ? uint(a) : 2u")]
+    public void Static_Types_Should_Describe_The_Evaluated_Values(string expression)
+    {
+        var celEnvironment = new CelEnvironment(new[] { TestAllTypesReflection.Descriptor }, "google.api.expr.test.v1.proto3");
+        var variables = new Dictionary<string, object>
+        {
+            { "a", 3L },
+            { "b", 4L },
+            { "x", 2.5 },
+            { "s", "a" },
+            { "d", 1L },
+            { "l", new object[] { 1L, 2L } },
+            { "m", new Dictionary<string, object> { { "k", 5UL } } },
+            { "msg", new TestAllTypes { SingleInt64 = 7, SingleString = "x", SingleBytes = ByteString.CopyFromUtf8("y") } }
+        };
+
+        var checkedExpression = celEnvironment.Check(expression, VariableTypes);
+        var result = celEnvironment.Program(checkedExpression.Context, variables);
+
+        Assert.That(checkedExpression.Errors, Is.Empty);
+        Assert.That(result, Is.InstanceOf(GetClrType(checkedExpression.ResultType)));
+    }
+
+    [Test]
+    [TestCase("a * b + 1 - a % 2")]
+    [TestCase("-a / 2 == -1")]
+    [TestCase("x * 2.0 - double(a) / 3.0")]
+    [TestCase("m.k * 2u + 1u > 10u")]
+    [TestCase("a < m.k && 2.5 >= x && m.k != 4.0")]
+    [TestCase("!(a > b) == true")]
+    [TestCase("a > 1 ? a + b : b - a")]
+    [TestCase("l[1] * a < msg.single_int64")]
+    [TestCase("l.exists(i, i * 2 > a)")]
+    [TestCase("x / 0.0 > 1.0")]
+    [TestCase("x != x / 0.0 * 0.0")]
+    [TestCase("a * 9223372036854775807")]
+    [TestCase("a - b - 9223372036854775807 - 2")]
+    [TestCase("-(a - b - 9223372036854775807 - 1)")]
+    [TestCase("2u - m.k")]
+    [TestCase("a / (b - 4)")]
+    [TestCase("a % (b - 4)")]
+    [TestCase("d + a")]
+    [TestCase("s == 'a' ? a : b")]
+    public void Checked_Programs_Should_Match_The_Interpreter(string expression)
+    {
+        var celEnvironment = new CelEnvironment(new[] { TestAllTypesReflection.Descriptor }, "google.api.expr.test.v1.proto3");
+        var variables = new Dictionary<string, object>
+        {
+            { "a", 3L },
+            { "b", 4L },
+            { "x", 2.5 },
+            { "s", "a" },
+            { "d", 1L },
+            { "l", new object[] { 1L, 2L } },
+            { "m", new Dictionary<string, object> { { "k", 5UL } } },
+            { "msg", new TestAllTypes { SingleInt64 = 7 } }
+        };
+
+        var checkedExpression = celEnvironment.Check(expression, VariableTypes);
+        Assert.That(checkedExpression.Errors, Is.Empty);
+
+        var expected = Evaluate(() => celEnvironment.Program(checkedExpression.Context, variables));
+        var result = Evaluate(() => celEnvironment.Compile(checkedExpression).Invoke(variables));
+
+        Assert.That(result, Is.EqualTo(expected));
+    }
+
+    [Test]
+    public void Checked_Programs_Should_Report_Variables_Of_The_Wrong_Type()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var program = celEnvironment.Compile(celEnvironment.Check("a + 1", VariableTypes));
+
+        Assert.That(program.Invoke(new Dictionary<string, object> { { "a", 1L } }), Is.EqualTo(2L));
+        Assert.Throws<CelNoSuchOverloadException>(() => program.Invoke(new Dictionary<string, object> { { "a", "1" } }));
+    }
+
+    [Test]
+    public void Checked_Expressions_With_Errors_Should_Not_Compile()
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var checkedExpression = celEnvironment.Check("a + 's'", VariableTypes);
+
+        Assert.Throws<ArgumentException>(() => celEnvironment.Compile(checkedExpression));
+    }
+
+    /// <summary>
+    /// Returns the result of the program, or the type of the exception it threw.
+    /// </summary>
+    private static object Evaluate(Func<object> program)
+    {
+        try
+        {
+            return program();
+        }
+        catch (Exception x)
+        {
+            return x.GetType();
+        }
+    }
+
+    private static Type GetClrType(CelCheckedType type)
+    {
+        return type.Kind switch
+        {
+            CelTypeKind.Int => typeof(long),
+            CelTypeKind.Uint => typeof(ulong),
+            CelTypeKind.Double => typeof(double),
+            CelTypeKind.Bool => typeof(bool),
+            CelTypeKind.String => typeof(string),
+            CelTypeKind.Bytes => typeof(ByteString),
+            CelTypeKind.List => typeof(object[]),
+            _ => typeof(object)
+        };
+    }
+
+    private static IEnumerable<T> FindNodes<T>(IParseTree tree) where T : IParseTree
+    {
+        if (tree is T node)
+        {
+            yield return node;
+        }
+
+        for (var i = 0; i < tree.ChildCount; i++)
+        {
+            foreach (var child in FindNodes<T>(tree.GetChild(i)))
+            {
+                yield return child;
+            }
+        }
+    }
+}
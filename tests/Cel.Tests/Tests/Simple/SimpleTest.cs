@@ -256,6 +256,18 @@ public class SimpleTestTests
     [Test]
     [TestCaseSource(typeof(SimpleTestDataParser), nameof(SimpleTestDataParser.GetTestCases), Category = "Simple Tests")]
     public void SimpleTest(SimpleTestDataLoader testCase)
+    {
+        RunSimpleTest(testCase, CelBackend.Interpreter);
+    }
+
+    [Test]
+    [TestCaseSource(typeof(SimpleTestDataParser), nameof(SimpleTestDataParser.GetTestCases), Category = "Simple Tests")]
+    public void SimpleTestExpressionTree(SimpleTestDataLoader testCase)
+    {
+        RunSimpleTest(testCase, CelBackend.ExpressionTree);
+    }
+
+    private void RunSimpleTest(SimpleTestDataLoader testCase, CelBackend backend)
     {
         var test = testCase.Test;
 
@@ -289,14 +301,14 @@ public class SimpleTestTests
         //check the expression parsed properly
         if (!test.DisableCheck)
         {
-            celEnvironment.Compile(context);
+            celEnvironment.Compile(context, backend);
         }
 
         try
         {
             //now evaluate the expression
 
-            var programResult = celEnvironment.Program(context, variables);
+            var programResult = celEnvironment.Program(context, variables, backend);
 
             var expectedValue = GetValue(test.Value, typeRegistry);
 
@@ -32,4 +32,33 @@ public class StringTests
         //string needs to return the number of unicode code points
         Assert.That(StringHelpers.SizeString(s), Is.EqualTo(expectedLength));
     }
-}
\ No newline at end of file
+
+    [Test]
+    [TestCase("'abc'", "abc")]
+    [TestCase("\"\"", "")]
+    [TestCase("'''a'b\"c'''", "a'b\"c")]
+    [TestCase("r'a\\tb'", "a\\tb")]
+    [TestCase("'a\\tb'", "a\tb")]
+    [TestCase("'''a\r\nb'''", "a\nb")]
+    [TestCase("'\\u00e9'", "é")]
+    public void String_Literals_Should_Be_Decoded(string expression, string expected)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+
+        Assert.That(celEnvironment.Program(expression, new Dictionary<string, object>()), Is.EqualTo(expected));
+    }
+
+    [Test]
+    [TestCase("'a\\tb'")]
+    [TestCase("b'a\\x00b'")]
+    public void Literals_Should_Only_Be_Decoded_Once(string expression)
+    {
+        var celEnvironment = new CelEnvironment(null, null);
+        var program = celEnvironment.Compile(expression);
+
+        var first = program(new Dictionary<string, object>());
+        var second = program(new Dictionary<string, object>());
+
+        Assert.That(second, Is.SameAs(first));
+    }
+}